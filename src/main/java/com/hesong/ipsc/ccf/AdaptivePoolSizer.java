@@ -0,0 +1,195 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按排队时间调整 {@link InstrumentedExecutor} 线程数的控制器
+ * <p>
+ * 客户端执行器使用有界的 {@link java.util.concurrent.ArrayBlockingQueue}，只有队列满时 {@link java.util.concurrent.ThreadPoolExecutor}
+ * 才会新建超过核心线程数的线程，因此在队列满之前，实际工作的只有核心线程，最大线程数基本不起作用。
+ * 控制器每隔 {@code interval} 毫秒计算这段时间内开始执行的任务的平均排队时间，据此调整核心线程数：
+ * <ul>
+ * <li>平均排队时间超过 {@code targetQueueWait}，或者任务在队列中等待而这段时间内没有任务开始执行：核心线程数增加一半，不超过 {@code maxPoolSize}；</li>
+ * <li>平均排队时间不到目标的一半并且队列为空，连续 {@link #setShrinkAfter shrinkAfter} 次后：核心线程数减1，不低于 {@code minPoolSize}。</li>
+ * </ul>
+ * 增加快、减少慢，避免负载波动时线程数来回振荡。最大线程数始终不小于核心线程数。
+ * <p>
+ * 增加线程只对在监听器中阻塞（例如等待数据库、其它 RPC）的负载有效；监听器本身占满 CPU 时，增加线程不会缩短排队时间。
+ */
+public class AdaptivePoolSizer {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+    private final InstrumentedExecutor executor;
+    private final long targetQueueWait;
+    private final int minPoolSize;
+    private final int maxPoolSize;
+    private final long interval;
+    private final int initialMaximumPoolSize;
+    private volatile int shrinkAfter = 5;
+    private volatile long resizeCount;
+    private volatile long lastQueueWait;
+    private long lastStartedCount;
+    private long lastTotalQueueWait;
+    private int calm;
+    private ScheduledFuture<?> future;
+
+    /**
+     * @param executor        要调整的执行器
+     * @param targetQueueWait 目标平均排队时间 MILLISECONDS
+     * @param minPoolSize     核心线程数的下限
+     * @param maxPoolSize     核心线程数的上限
+     * @param interval        调整间隔 MILLISECONDS
+     */
+    public AdaptivePoolSizer(InstrumentedExecutor executor, long targetQueueWait, int minPoolSize, int maxPoolSize, long interval) {
+        if (executor == null)
+            throw new IllegalArgumentException("Argument \"executor\" SHOULD NOT be null.");
+        if (targetQueueWait <= 0)
+            throw new IllegalArgumentException("Argument \"targetQueueWait\" SHOULD be positive.");
+        if (minPoolSize <= 0)
+            throw new IllegalArgumentException("Argument \"minPoolSize\" SHOULD be positive.");
+        if (maxPoolSize < minPoolSize)
+            throw new IllegalArgumentException("Argument \"maxPoolSize\" SHOULD NOT be less than \"minPoolSize\".");
+        if (interval <= 0)
+            throw new IllegalArgumentException("Argument \"interval\" SHOULD be positive.");
+        this.executor = executor;
+        this.targetQueueWait = TimeUnit.MILLISECONDS.toNanos(targetQueueWait);
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.interval = interval;
+        this.initialMaximumPoolSize = executor.getMaximumPoolSize();
+    }
+
+    /**
+     * 每秒调整一次
+     *
+     * @param executor        要调整的执行器
+     * @param targetQueueWait 目标平均排队时间 MILLISECONDS
+     * @param minPoolSize     核心线程数的下限
+     * @param maxPoolSize     核心线程数的上限
+     */
+    public AdaptivePoolSizer(InstrumentedExecutor executor, long targetQueueWait, int minPoolSize, int maxPoolSize) {
+        this(executor, targetQueueWait, minPoolSize, maxPoolSize, 1000);
+    }
+
+    /**
+     * 开始定期调整，使用 {@link Unit} 的计时器
+     */
+    public void start() {
+        start(Unit.getDefaultContext());
+    }
+
+    /**
+     * 开始定期调整
+     *
+     * @param unit 使用该单元的计时器
+     */
+    public synchronized void start(UnitContext unit) {
+        if (unit == null)
+            throw new IllegalArgumentException("Argument \"unit\" SHOULD NOT be null.");
+        if (future != null)
+            return;
+        lastStartedCount = executor.getStartedCount();
+        lastTotalQueueWait = executor.getTotalQueueWait();
+        calm = 0;
+        future = unit.getTimer().scheduleWithFixedDelay(this::adjust, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("{} started", this);
+    }
+
+    /**
+     * 停止调整。执行器保持当前的线程数
+     */
+    public synchronized void stop() {
+        if (future == null)
+            return;
+        future.cancel(false);
+        future = null;
+        logger.info("{} stopped", this);
+    }
+
+    private synchronized void adjust() {
+        long startedCount = executor.getStartedCount();
+        long totalQueueWait = executor.getTotalQueueWait();
+        long started = startedCount - lastStartedCount;
+        long queueWait = started == 0 ? 0 : (totalQueueWait - lastTotalQueueWait) / started;
+        lastStartedCount = startedCount;
+        lastTotalQueueWait = totalQueueWait;
+        lastQueueWait = queueWait;
+        int queued = executor.getQueue().size();
+        int core = executor.getCorePoolSize();
+        // 所有线程都阻塞时，没有任务开始执行，平均排队时间反映不出队列中的等待
+        if (queueWait > targetQueueWait || (started == 0 && queued > 0)) {
+            calm = 0;
+            if (core < maxPoolSize)
+                resize(core, Math.min(maxPoolSize, core + Math.max(1, core / 2)), queueWait, queued);
+        } else if (queueWait < targetQueueWait / 2 && queued == 0) {
+            if (++calm >= shrinkAfter && core > minPoolSize) {
+                calm = 0;
+                resize(core, core - 1, queueWait, queued);
+            }
+        } else {
+            calm = 0;
+        }
+    }
+
+    private void resize(int from, int to, long queueWait, int queued) {
+        try {
+            if (to > from) {
+                if (to > executor.getMaximumPoolSize())
+                    executor.setMaximumPoolSize(to);
+                executor.setCorePoolSize(to);
+            } else {
+                executor.setCorePoolSize(to);
+                executor.setMaximumPoolSize(Math.max(initialMaximumPoolSize, to));
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warn("{} resize {} -> {} error: {}", this, from, to, e.toString());
+            return;
+        }
+        ++resizeCount;
+        logger.info("{} corePoolSize {} -> {} (queueWait={}us, queued={})", this, from, to, queueWait / 1000, queued);
+    }
+
+    /**
+     * @return 连续多少次排队时间不到目标的一半，才减少一个核心线程
+     */
+    public int getShrinkAfter() {
+        return shrinkAfter;
+    }
+
+    public void setShrinkAfter(int shrinkAfter) {
+        if (shrinkAfter <= 0)
+            throw new IllegalArgumentException("Argument \"shrinkAfter\" SHOULD be positive.");
+        this.shrinkAfter = shrinkAfter;
+    }
+
+    /**
+     * @return 累计调整线程数的次数
+     */
+    public long getResizeCount() {
+        return resizeCount;
+    }
+
+    /**
+     * @return 上一个调整间隔内的平均排队时间 MICROSECONDS
+     */
+    public long getLastQueueWait() {
+        return lastQueueWait / 1000;
+    }
+
+    /**
+     * @return 被调整的执行器
+     */
+    public InstrumentedExecutor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s targetQueueWait=%dms, minPoolSize=%d, maxPoolSize=%d, interval=%d>",
+                AdaptivePoolSizer.class, TimeUnit.NANOSECONDS.toMillis(targetQueueWait), minPoolSize, maxPoolSize, interval);
+    }
+}
@@ -0,0 +1,344 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 新建资源的准入控制器
+ * <p>
+ * 把每个 IPSC 节点的空闲呼出通道当作可预留的令牌：
+ * <ul>
+ * <li>容量取自 {@link Monitor} 收到的负载信息： {@code ch.total.num} 与 {@code sip.out.total.num} 中较小的一个，
+ * 乘以 {@link #setMaxUtilization 最大利用率}；</li>
+ * <li>已用数量取自负载信息中的 {@code sip.callout.num}；</li>
+ * <li>{@link Commander#createResource} 发出请求前在本地预留一个令牌，
+ * 在 RPC 成功返回后转为“待确认”，直到下一次收到该节点的负载信息时（此时已用数量已包含这次呼叫）才释放；
+ * RPC 出错或超时则立即释放。</li>
+ * </ul>
+ * 没有空闲令牌时，按 {@link Policy} 直接拒绝，或者排队等待其它令牌被释放。
+ * 被拒绝时抛出 {@link AdmissionRejectedException}。
+ * <p>
+ * 排队只发生在应用程序调用 {@link Commander#createResource} 的线程上。
+ * 由 {@link OutboundBuffer}、{@link OutboundScheduler}、{@link OutboundPipeline} 代为提交时，提交所在的是计时器、写线程等共享线程，
+ * 在这些线程上等待会拖延其它所有的调用和超时处理，因此不排队，直接拒绝。
+ * <p>
+ * 还没有收到负载信息的节点不受限制。
+ * <p>
+ * 使用方法：
+ * <pre>{@code
+ * AdmissionController admission = new AdmissionController();
+ * admission.attach(monitor);
+ * commander.setAdmissionController(admission);
+ * }</pre>
+ */
+public class AdmissionController implements MonitorEventListener {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+    private final Map<BusAddress, Node> nodes = new ConcurrentHashMap<>();
+    private final Set<String> resourceNames = new CopyOnWriteArraySet<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder admittedCount = new LongAdder();
+    private final LongAdder queuedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private volatile Policy policy = Policy.REJECT;
+    private volatile long maxQueueTime = 1000;
+    private volatile double maxUtilization = 1.0;
+
+    public AdmissionController() {
+        resourceNames.add("sys.call");
+    }
+
+    /**
+     * 订阅一个 {@link Monitor} 的负载信息
+     *
+     * @param monitor 监控客户端
+     */
+    public void attach(Monitor monitor) {
+        monitor.addObserver(this);
+    }
+
+    /**
+     * 取消订阅一个 {@link Monitor} 的负载信息
+     *
+     * @param monitor 监控客户端
+     */
+    public void detach(Monitor monitor) {
+        monitor.removeObserver(this);
+    }
+
+    /**
+     * 根据负载信息校准节点的容量和已用数量
+     * <p>
+     * {@link #attach} 之后由 {@link Monitor} 自动调用，也可以由应用程序自行调用。
+     *
+     * @param source     负载信息的发送者，即 IPSC 的 BUS 地址
+     * @param serverInfo CTI服务器信息
+     */
+    @Override
+    public void onServerLoadChanged(BusAddress source, ServerInfo serverInfo) {
+        Map<String, Integer> loads = serverInfo.loads;
+        Integer chTotal = loads.get("ch.total.num");
+        Integer sipOutTotal = loads.get("sip.out.total.num");
+        Integer sipCallout = loads.get("sip.callout.num");
+        int capacity;
+        if (chTotal == null && sipOutTotal == null)
+            capacity = -1;
+        else if (chTotal == null)
+            capacity = sipOutTotal;
+        else if (sipOutTotal == null)
+            capacity = chTotal;
+        else
+            capacity = Math.min(chTotal, sipOutTotal);
+        Node node = nodes.computeIfAbsent(source, k -> new Node());
+        node.capacity = capacity < 0 ? -1 : (int) (capacity * maxUtilization);
+        node.inUse = sipCallout == null ? 0 : sipCallout;
+        // 在此之前已确认的呼叫，都已经计入了 sip.callout.num
+        node.settled.set(0);
+        signalWaiters();
+    }
+
+    /**
+     * 为新建资源的请求预留令牌
+     *
+     * @param target  目标 IPSC 的 BUS 地址
+     * @param name    要新建的资源的名称
+     * @param mayWait 是否可以在当前线程上排队等待。{@code false} 时，即使是 {@link Policy#QUEUE} 策略也立即拒绝
+     * @return 预留的令牌。不受控制的资源返回 {@code null}
+     * @throws AdmissionRejectedException 没有空闲令牌
+     */
+    Ticket acquire(BusAddress target, String name, boolean mayWait) {
+        if (!resourceNames.contains(name))
+            return null;
+        Node node = nodes.computeIfAbsent(target, k -> new Node());
+        if (node.tryReserve()) {
+            admittedCount.increment();
+            return new Ticket(node);
+        }
+        long timeout = maxQueueTime;
+        if (mayWait && policy == Policy.QUEUE && timeout > 0) {
+            queuedCount.increment();
+            if (await(node, timeout)) {
+                admittedCount.increment();
+                return new Ticket(node);
+            }
+        }
+        rejectedCount.increment();
+        logger.warn("acquire(target={}, name={}) rejected: {}", target, name, node);
+        throw new AdmissionRejectedException(target, String.format("No free channel on %s", target));
+    }
+
+    private boolean await(Node node, long timeout) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        waiting.incrementAndGet();
+        lock.lock();
+        try {
+            while (!node.tryReserve()) {
+                if (nanos <= 0)
+                    return false;
+                try {
+                    nanos = changed.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+            waiting.decrementAndGet();
+        }
+    }
+
+    private void signalWaiters() {
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param target IPSC 的 BUS 地址
+     * @return 该节点当前可预留的令牌数量。 {@code -1} 表示还没有该节点的容量信息。
+     */
+    public int getAvailable(BusAddress target) {
+        Node node = nodes.get(target);
+        if (node == null || node.capacity < 0)
+            return -1;
+        return Math.max(0, node.available(node.pending.get()));
+    }
+
+    /**
+     * @param target IPSC 的 BUS 地址
+     * @return 该节点已预留、还未得到负载信息确认的令牌数量
+     */
+    public int getReserved(BusAddress target) {
+        Node node = nodes.get(target);
+        if (node == null)
+            return 0;
+        return node.pending.get() + node.settled.get();
+    }
+
+    /**
+     * @return 受准入控制的资源名称集合，默认只有 {@code "sys.call"}。可以直接修改这个集合。
+     */
+    public Set<String> getResourceNames() {
+        return resourceNames;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param policy 没有空闲令牌时的处理策略。默认是 {@link Policy#REJECT}
+     */
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * @return 排队等待空闲令牌的最长时间 MILLISECONDS
+     */
+    public long getMaxQueueTime() {
+        return maxQueueTime;
+    }
+
+    /**
+     * @param maxQueueTime 排队等待空闲令牌的最长时间 MILLISECONDS，默认是 1000。只在 {@link Policy#QUEUE} 策略下有效。
+     */
+    public void setMaxQueueTime(long maxQueueTime) {
+        this.maxQueueTime = maxQueueTime;
+    }
+
+    public double getMaxUtilization() {
+        return maxUtilization;
+    }
+
+    /**
+     * @param maxUtilization 最大利用率，取值 (0, 1]，默认是 1。容量 = 通道总数 × 最大利用率。
+     *                       在下一次收到负载信息时生效。
+     */
+    public void setMaxUtilization(double maxUtilization) {
+        if (maxUtilization <= 0 || maxUtilization > 1)
+            throw new IllegalArgumentException("Argument \"maxUtilization\" SHOULD be in (0, 1].");
+        this.maxUtilization = maxUtilization;
+    }
+
+    /**
+     * @return 累计准入的请求数
+     */
+    public long getAdmittedCount() {
+        return admittedCount.sum();
+    }
+
+    /**
+     * @return 累计排队等待过的请求数
+     */
+    public long getQueuedCount() {
+        return queuedCount.sum();
+    }
+
+    /**
+     * @return 累计被拒绝的请求数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s policy=%s, nodes=%s>", AdmissionController.class, policy, nodes);
+    }
+
+    /**
+     * 没有空闲令牌时的处理策略
+     */
+    public enum Policy {
+        /**
+         * 立即拒绝
+         */
+        REJECT,
+        /**
+         * 在调用线程上排队等待，超过 {@link #setMaxQueueTime 最长排队时间} 后拒绝。
+         * 由 SDK 内部的共享线程代为提交时不排队，直接拒绝
+         */
+        QUEUE
+    }
+
+    private static class Node {
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicInteger settled = new AtomicInteger();
+        volatile int capacity = -1;
+        volatile int inUse;
+
+        int available(int pending) {
+            return capacity - inUse - pending - settled.get();
+        }
+
+        boolean tryReserve() {
+            for (; ; ) {
+                int p = pending.get();
+                if (capacity >= 0 && available(p) <= 0)
+                    return false;
+                if (pending.compareAndSet(p, p + 1))
+                    return true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("<capacity=%d, inUse=%d, pending=%d, settled=%d>", capacity, inUse, pending.get(), settled.get());
+        }
+    }
+
+    /**
+     * 一次新建资源请求预留的令牌
+     */
+    class Ticket {
+        private static final int PENDING = 0;
+        private static final int SETTLED = 1;
+        private static final int RELEASED = 2;
+        private final Node node;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        Ticket(Node node) {
+            this.node = node;
+        }
+
+        /**
+         * RPC 成功返回，等待负载信息确认
+         */
+        void settle() {
+            if (state.compareAndSet(PENDING, SETTLED)) {
+                node.settled.incrementAndGet();
+                node.pending.decrementAndGet();
+            }
+        }
+
+        /**
+         * RPC 失败或超时，立即释放
+         */
+        void release() {
+            if (state.compareAndSet(PENDING, RELEASED)) {
+                node.pending.decrementAndGet();
+                signalWaiters();
+            }
+        }
+    }
+}
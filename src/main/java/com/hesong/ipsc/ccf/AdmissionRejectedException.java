@@ -0,0 +1,24 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * 新建资源的请求被 {@link AdmissionController} 拒绝
+ * <p>
+ * 目标 IPSC 没有足够的空闲通道，并且在允许的排队时间内也没有等到空闲通道。
+ */
+public class AdmissionRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final BusAddress target;
+
+    AdmissionRejectedException(BusAddress target, String message) {
+        super(message);
+        this.target = target;
+    }
+
+    /**
+     * @return 被拒绝的请求的目标 IPSC 的 BUS 地址
+     */
+    public BusAddress getTarget() {
+        return target;
+    }
+}
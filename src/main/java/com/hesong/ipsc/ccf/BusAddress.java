@@ -6,6 +6,7 @@ package com.hesong.ipsc.ccf;
  * Created by tanbr on 2016/8/9.
  */
 public class BusAddress {
+    private static final BusAddress[] cache = new BusAddress[0x10000];
     private final byte unitId;
     private final byte clientId;
 
@@ -28,6 +29,46 @@ public class BusAddress {
         return clientId;
     }
 
+    /**
+     * @return 把 Unit ID 与 Client ID 合并成的 16 位整数（高8位是 Unit ID，低8位是 Client ID）
+     */
+    int toKey() {
+        return ((unitId & 0xff) << 8) | (clientId & 0xff);
+    }
+
+    /**
+     * 由 {@link #toKey} 的结果得到对应的 {@link BusAddress}。同一个地址总是返回同一个缓存对象，避免重复分配。
+     *
+     * @param key 16 位的地址整数
+     * @return BUS 地址
+     */
+    static BusAddress valueOf(int key) {
+        key &= 0xffff;
+        BusAddress address = cache[key];
+        if (address == null) {
+            address = new BusAddress((byte) (key >> 8), (byte) key);
+            cache[key] = address;
+        }
+        return address;
+    }
+
+    static BusAddress valueOf(byte unitId, byte clientId) {
+        return valueOf(((unitId & 0xff) << 8) | (clientId & 0xff));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BusAddress)) return false;
+        BusAddress that = (BusAddress) o;
+        return unitId == that.unitId && clientId == that.clientId;
+    }
+
+    @Override
+    public int hashCode() {
+        return toKey();
+    }
+
     @Override
     public String toString() {
         return String.format("<%s unitId=%s, clientId=%s>", BusAddress.class, unitId, clientId);
@@ -0,0 +1,35 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * CTI BUS 客户端共享库的函数
+ * <p>
+ * 默认是 {@link JniBusLibrary}，即 JNI 共享库本身；{@link LoadGenerator} 用 {@link SimulatedBus} 代替它，在没有 CTI BUS 的环境中运行。
+ * 每个 {@link UnitContext} 使用一个实例。
+ *
+ * @see UnitContext#library
+ */
+interface BusLibrary {
+    int initiateLibrary(byte localUnitId);
+
+    void setCallbacks(LibCallbackHandler callbacks);
+
+    void releaseLibrary();
+
+    /**
+     * 初始化后，客户端在 RPC 数据头中填写的本地单元ID。IPSC 按它把回复发回本进程
+     *
+     * @param localUnitId 上下文初始化时的单元ID
+     * @return 共享库在 CTI BUS 中实际使用的单元ID。默认就是 {@code localUnitId}
+     */
+    default byte getBusUnitId(byte localUnitId) {
+        return localUnitId;
+    }
+
+    int createConnect(byte localClientId, byte clientType, String ip, short port);
+
+    int launchFlow(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String flowId,
+                   int mode, int timeout, String payload);
+
+    int sendNotification(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String titleId,
+                         int mode, int expires, String payload);
+}
@@ -0,0 +1,162 @@
+package com.hesong.ipsc.ccf;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+
+/**
+ * 呼叫（{@code sys.call}）事件
+ */
+public class CallEvent extends CcfEvent {
+    /**
+     * 呼叫事件名的前缀
+     */
+    public static final String METHOD_PREFIX = "sys.call.";
+
+    /**
+     * 呼叫事件的类型
+     */
+    public enum Type {
+        /**
+         * 呼入：{@code sys.call.on_incoming}
+         */
+        INCOMING,
+        /**
+         * 对端振铃：{@code sys.call.on_ringing}
+         */
+        RINGING,
+        /**
+         * 呼出完成：{@code sys.call.on_dial_completed}
+         */
+        DIAL_COMPLETED,
+        /**
+         * 放音完成：{@code sys.call.on_play_completed}
+         */
+        PLAY_COMPLETED,
+        /**
+         * 收码完成：{@code sys.call.on_receive_dtmf_completed}
+         */
+        RECEIVE_DTMF_COMPLETED,
+        /**
+         * 录音完成：{@code sys.call.on_record_completed}
+         */
+        RECORD_COMPLETED,
+        /**
+         * 呼叫已释放：{@code sys.call.on_released}
+         */
+        RELEASED,
+        /**
+         * 其它呼叫事件
+         */
+        OTHER
+    }
+
+    private final Type type;
+    private String fromUri;
+    private String toUri;
+    private long answerTime;
+    private String keys;
+    private String recordFile;
+
+    CallEvent(BusAddress source, String method) {
+        super(source, method);
+        this.type = typeOf(method);
+    }
+
+    private static Type typeOf(String method) {
+        switch (method.substring(METHOD_PREFIX.length())) {
+            case "on_incoming":
+                return Type.INCOMING;
+            case "on_ringing":
+                return Type.RINGING;
+            case "on_dial_completed":
+                return Type.DIAL_COMPLETED;
+            case "on_play_completed":
+                return Type.PLAY_COMPLETED;
+            case "on_receive_dtmf_completed":
+                return Type.RECEIVE_DTMF_COMPLETED;
+            case "on_record_completed":
+                return Type.RECORD_COMPLETED;
+            case "on_released":
+                return Type.RELEASED;
+            default:
+                return Type.OTHER;
+        }
+    }
+
+    @Override
+    boolean decodeParam(String name, JsonParser parser) throws IOException {
+        switch (name) {
+            case "from_uri":
+                fromUri = readText(parser);
+                return true;
+            case "to_uri":
+                toUri = readText(parser);
+                return true;
+            case "answer_time":
+                answerTime = readLong(parser);
+                return true;
+            case "keys":
+                keys = readText(parser);
+                return true;
+            case "record_file":
+                recordFile = readText(parser);
+                return true;
+            default:
+                return super.decodeParam(name, parser);
+        }
+    }
+
+    @Override
+    void dispatchTo(CcfEventListener listener) {
+        listener.onCallEvent(this);
+    }
+
+    /**
+     * @return 事件类型
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return 主叫号码（参数 {@code from_uri}）
+     */
+    public String getFromUri() {
+        return fromUri;
+    }
+
+    /**
+     * @return 被叫号码（参数 {@code to_uri}）
+     */
+    public String getToUri() {
+        return toUri;
+    }
+
+    /**
+     * @return 应答时间（参数 {@code answer_time}）。0 表示没有应答
+     */
+    public long getAnswerTime() {
+        return answerTime;
+    }
+
+    /**
+     * @return 收到的 DTMF 码（参数 {@code keys}）
+     */
+    public String getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return 录音文件（参数 {@code record_file}）
+     */
+    public String getRecordFile() {
+        return recordFile;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s source=%s, method=%s, resId=%s, error=%s>",
+                CallEvent.class, getSource(), getMethod(), getResId(), getError());
+    }
+}
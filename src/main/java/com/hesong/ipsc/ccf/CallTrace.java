@@ -0,0 +1,153 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 一次 RPC 调用的跟踪记录，调用结束时生成 {@link Tracer} 中描述的各个 Span
+ */
+final class CallTrace {
+    private final Tracer tracer;
+    private final TraceContext parent;
+    private final TraceContext context;
+    private final String operation;
+    private final long startMillis;
+    private final long startNanos;
+    private String rpcId;
+    private String method;
+    private BusAddress target;
+    private long encodedNanos;
+    private volatile long bufferedNanos;
+    private volatile long submitNanos;
+    private volatile long submittedNanos;
+    private boolean ended;
+
+    private CallTrace(Tracer tracer, TraceContext parent, String operation) {
+        this.tracer = tracer;
+        this.parent = parent;
+        this.context = parent.newChild();
+        this.operation = operation;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * 开始跟踪一次调用
+     *
+     * @return 没有设置 {@link Tracer}，或者当前线程没有附加 {@link TraceContext} 时，返回 {@code null}
+     */
+    static CallTrace begin(Tracer tracer, String operation) {
+        if (tracer == null)
+            return null;
+        TraceContext parent = TraceContext.current();
+        if (parent == null)
+            return null;
+        return new CallTrace(tracer, parent, operation);
+    }
+
+    /**
+     * @return 加入了 {@value TraceContext#PARAM_KEY} 参数的参数表副本
+     */
+    Map<String, Object> inject(Map<String, Object> params) {
+        Map<String, Object> result = params == null ? new LinkedHashMap<>() : new LinkedHashMap<>(params);
+        result.put(TraceContext.PARAM_KEY, context.toTraceparent());
+        return result;
+    }
+
+    /**
+     * RPC 数据编码完成
+     */
+    void encoded(String rpcId, String method, BusAddress target) {
+        this.rpcId = rpcId;
+        this.method = method;
+        this.target = target;
+        this.encodedNanos = System.nanoTime();
+    }
+
+    /**
+     * 调用被暂存到 {@link OutboundBuffer}
+     */
+    void buffered(long bufferedAt) {
+        if (bufferedNanos == 0)
+            bufferedNanos = bufferedAt;
+    }
+
+    /**
+     * 提交，记录提交的开始和结束时间
+     */
+    OutboundBuffer.Submission wrap(OutboundBuffer.Submission submission) {
+        return () -> {
+            submitNanos = System.nanoTime();
+            int result = submission.submit();
+            submittedNanos = System.nanoTime();
+            return result;
+        };
+    }
+
+    TraceContext getContext() {
+        return context;
+    }
+
+    /**
+     * 调用结束
+     *
+     * @param receivedNanos 收到回复的时间（{@link System#nanoTime}）。0 表示没有收到回复
+     * @param error         错误信息。{@code null} 表示成功
+     */
+    synchronized void end(long receivedNanos, String error) {
+        if (ended)
+            return;
+        ended = true;
+        if (!context.isSampled())
+            return;
+        long endNanos = System.nanoTime();
+        Map<String, String> tags = new HashMap<>();
+        if (rpcId != null)
+            tags.put("rpc.id", rpcId);
+        if (method != null)
+            tags.put("rpc.method", method);
+        if (target != null)
+            tags.put("ipsc.address", target.getUnitId() + ":" + target.getClientId());
+        if (error != null)
+            tags.put("error", error);
+        String spanId = context.getSpanId();
+        record(context.getSpanId(), parent.getSpanId(), "ccf." + operation, startNanos, endNanos, tags);
+        if (encodedNanos != 0)
+            record(TraceContext.randomHex(16), spanId, "ccf.encode", startNanos, encodedNanos, null);
+        long submit = submitNanos;
+        long submitted = submittedNanos;
+        if (bufferedNanos != 0)
+            record(TraceContext.randomHex(16), spanId, "ccf.buffer", bufferedNanos, submit != 0 ? submit : endNanos, null);
+        if (submit != 0)
+            record(TraceContext.randomHex(16), spanId, "ccf.submit", submit, submitted != 0 ? submitted : endNanos, null);
+        if (submitted != 0 && receivedNanos >= submitted) {
+            record(TraceContext.randomHex(16), spanId, "ccf.wait", submitted, receivedNanos, null);
+            record(TraceContext.randomHex(16), spanId, "ccf.dispatch", receivedNanos, endNanos, null);
+        }
+    }
+
+    private void record(String spanId, String parentId, String name, long fromNanos, long toNanos, Map<String, String> tags) {
+        long timestamp = startMillis * 1000 + (fromNanos - startNanos) / 1000;
+        long duration = Math.max(0, (toNanos - fromNanos) / 1000);
+        tracer.record(new Span(context.getTraceId(), spanId, parentId, name, timestamp, duration, tags));
+    }
+
+    /**
+     * 新建资源的返回值：记住资源所属的跟踪上下文
+     */
+    @SuppressWarnings("unchecked")
+    void resulted(Object result) {
+        if (!(result instanceof Map))
+            return;
+        Map<String, Object> map = (Map<String, Object>) result;
+        Object resId = map.get(ResourceDirectory.RES_ID_KEY);
+        if (resId == null)
+            return;
+        TraceContext remote = null;
+        Object traceparent = map.get(TraceContext.PARAM_KEY);
+        if (traceparent != null)
+            remote = TraceContext.parse(traceparent.toString());
+        tracer.bind(resId.toString(), remote != null ? remote : context);
+    }
+}
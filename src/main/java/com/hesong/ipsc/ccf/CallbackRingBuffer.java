@@ -0,0 +1,316 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * JNI 数据回调的环形缓冲区
+ * <p>
+ * 底层共享库的 IO 线程（生产者）只把收到的数据帧放进预先分配好的槽位，然后立即返回；
+ * 数据的解码、查找客户端、交给客户端执行器等工作，都由消费者线程完成。
+ * <p>
+ * 结构与 Disruptor 的多生产者模式相同：生产者以 CAS 认领序号，写入槽位后在槽位的可用标记中记录圈数；
+ * 多个消费者通过共享的工作序号成批认领连续可用的槽位。重新连接后 IO 线程变了，或者共享库有多个 IO 线程时，
+ * 数据帧仍然按认领序号的顺序交给消费者。生产者只在环形缓冲区满（最慢的消费者落后一整圈）时才等待。整个过程不加锁
+ * （{@link WaitStrategy#BLOCKING} 策略下，空闲的消费者使用锁等待）。
+ * <p>
+ * 数据帧的字节数组是 JNI 为每次回调新建的，槽位只保存它的引用，不再复制。
+ *
+ * @see Unit#startRingBuffer
+ */
+class CallbackRingBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(CallbackRingBuffer.class);
+
+    private final LibCallbackHandler handler;
+    private final Slot[] slots;
+    private final int mask;
+    private final int indexShift;
+    // 每个槽位最近一次发布时的圈数，-1 表示从未发布
+    private final AtomicIntegerArray available;
+    private final int batchSize;
+    private final WaitStrategy waitStrategy;
+    // 生产者已认领的最大序号
+    private final Sequence cursor = new Sequence(-1);
+    // 生产者缓存的最慢消费者序号
+    private final Sequence gatingCache = new Sequence(-1);
+    private final Sequence workSequence = new Sequence(-1);
+    private final Sequence[] consumerSequences;
+    private final Thread[] consumers;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+    private final AtomicInteger blockedConsumers = new AtomicInteger();
+    private final LongAdder producerWaitCount = new LongAdder();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = true;
+
+    /**
+     * @param handler      数据回调的处理者，消费者线程调用它的 {@link LibCallbackHandler#dispatch}
+     * @param bufferSize   槽位数量，必须是2的幂
+     * @param consumers    消费者线程数量
+     * @param batchSize    消费者每次最多认领的槽位数量
+     * @param waitStrategy 消费者没有数据可处理时的等待策略
+     */
+    CallbackRingBuffer(LibCallbackHandler handler, int bufferSize, int consumers, int batchSize, WaitStrategy waitStrategy) {
+        if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1)
+            throw new IllegalArgumentException("Argument \"bufferSize\" SHOULD be a power of 2.");
+        if (consumers <= 0)
+            throw new IllegalArgumentException("Argument \"consumers\" SHOULD be positive.");
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Argument \"batchSize\" SHOULD be positive.");
+        this.handler = handler;
+        this.slots = new Slot[bufferSize];
+        for (int i = 0; i < bufferSize; ++i)
+            slots[i] = new Slot();
+        this.mask = bufferSize - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(bufferSize);
+        this.available = new AtomicIntegerArray(bufferSize);
+        for (int i = 0; i < bufferSize; ++i)
+            available.set(i, -1);
+        this.batchSize = batchSize;
+        this.waitStrategy = waitStrategy;
+        this.consumerSequences = new Sequence[consumers];
+        this.consumers = new Thread[consumers];
+        for (int i = 0; i < consumers; ++i) {
+            Sequence sequence = new Sequence(-1);
+            consumerSequences[i] = sequence;
+            Thread thread = new Thread(() -> consume(sequence), "ccf-ring-consumer-" + i);
+            thread.setDaemon(true);
+            this.consumers[i] = thread;
+        }
+    }
+
+    void start() {
+        for (Thread thread : consumers)
+            thread.start();
+    }
+
+    /**
+     * 停止消费者线程。已放入缓冲区的数据会在停止前处理完。
+     */
+    void stop() {
+        running = false;
+        signalConsumers();
+        try {
+            for (Thread thread : consumers) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            // 消费者线程退出前后才放入的数据帧，在当前线程上处理
+            Sequence sequence = new Sequence(workSequence.get());
+            consume(sequence);
+        } finally {
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * 等待 {@link #stop} 处理完已放入的数据帧。{@link #publish} 返回 {@code false} 后，
+     * 调用者先等待，再自行处理该数据帧，不会排到缓冲区中更早的数据帧前面
+     */
+    void awaitStopped() {
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 生产者：放入一个数据帧。可以在多个线程上同时调用
+     *
+     * @return 是否放入。缓冲区已停止时返回 {@code false}，调用者应在 {@link #awaitStopped} 后自行处理该数据帧
+     */
+    boolean publish(byte cmdType, byte srcUnitId, byte srcClientId, byte dstClientId, byte[] bytes) {
+        long next;
+        int spins = 0;
+        for (; ; ) {
+            if (!running)
+                return false;
+            long current = cursor.get();
+            next = current + 1;
+            long wrapPoint = next - slots.length;
+            long cachedGate = gatingCache.get();
+            if (wrapPoint > cachedGate) {
+                long gate = minimumSequence();
+                if (wrapPoint > gate) {
+                    if (spins++ == 0)
+                        producerWaitCount.increment();
+                    LockSupport.parkNanos(1);
+                    continue;
+                }
+                gatingCache.set(gate);
+            }
+            if (cursor.compareAndSet(current, next))
+                break;
+        }
+        int index = (int) next & mask;
+        Slot slot = slots[index];
+        slot.cmdType = cmdType;
+        slot.srcUnitId = srcUnitId;
+        slot.srcClientId = srcClientId;
+        slot.dstClientId = dstClientId;
+        slot.bytes = bytes;
+        available.set(index, (int) (next >>> indexShift));
+        if (waitStrategy == WaitStrategy.BLOCKING)
+            signalConsumers();
+        return true;
+    }
+
+    /**
+     * @return 从 {@code lowerBound} 开始连续发布的最大序号。{@code lowerBound - 1} 表示 {@code lowerBound} 还没有发布
+     */
+    private long highestPublished(long lowerBound, long claimed) {
+        for (long seq = lowerBound; seq <= claimed; ++seq) {
+            if (available.get((int) seq & mask) != (int) (seq >>> indexShift))
+                return seq - 1;
+        }
+        return claimed;
+    }
+
+    private long minimumSequence() {
+        long min = workSequence.get();
+        for (Sequence sequence : consumerSequences) {
+            long value = sequence.get();
+            if (value < min)
+                min = value;
+        }
+        return min;
+    }
+
+    private void consume(Sequence sequence) {
+        int idle = 0;
+        for (; ; ) {
+            long current = workSequence.get();
+            // 已认领但还没有写完的槽位之前的，才能交给消费者
+            long available = highestPublished(current + 1, cursor.get());
+            if (current >= available) {
+                // 没有可认领的槽位，本消费者不再阻挡生产者
+                sequence.set(current);
+                if (!running)
+                    return;
+                idle = waitFor(current, idle);
+                continue;
+            }
+            long end = Math.min(available, current + batchSize);
+            sequence.set(current);
+            if (!workSequence.compareAndSet(current, end))
+                continue;
+            idle = 0;
+            for (long seq = current + 1; seq <= end; ++seq) {
+                Slot slot = slots[(int) seq & mask];
+                byte[] bytes = slot.bytes;
+                slot.bytes = null;
+                try {
+                    handler.dispatch(slot.cmdType, slot.srcUnitId, slot.srcClientId, slot.dstClientId, bytes);
+                } catch (Exception e) {
+                    logger.error("error occurred in dispatch()", e);
+                }
+            }
+            sequence.set(end);
+        }
+    }
+
+    private int waitFor(long current, int idle) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                return idle;
+            case YIELDING:
+                if (idle < 100)
+                    return idle + 1;
+                Thread.yield();
+                return idle;
+            case SLEEPING:
+                if (idle < 100)
+                    return idle + 1;
+                if (idle < 200) {
+                    Thread.yield();
+                    return idle + 1;
+                }
+                LockSupport.parkNanos(100_000);
+                return idle;
+            default:
+                lock.lock();
+                blockedConsumers.incrementAndGet();
+                try {
+                    if (running && highestPublished(current + 1, cursor.get()) <= current)
+                        published.await(1, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    blockedConsumers.decrementAndGet();
+                    lock.unlock();
+                }
+                return idle;
+        }
+    }
+
+    private void signalConsumers() {
+        if (blockedConsumers.get() > 0) {
+            lock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return 已放入（包括正在写入）、还未被认领的数据帧数量
+     */
+    long getBacklog() {
+        return cursor.get() - workSequence.get();
+    }
+
+    /**
+     * @return 生产者因缓冲区满而等待的次数
+     */
+    long getProducerWaitCount() {
+        return producerWaitCount.sum();
+    }
+
+    int getBufferSize() {
+        return slots.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s bufferSize=%d, consumers=%d, waitStrategy=%s>",
+                CallbackRingBuffer.class, slots.length, consumers.length, waitStrategy);
+    }
+
+    private static final class Slot {
+        byte cmdType;
+        byte srcUnitId;
+        byte srcClientId;
+        byte dstClientId;
+        byte[] bytes;
+    }
+
+    /**
+     * 前后填充的序号，避免不同序号之间的伪共享
+     */
+    @SuppressWarnings("unused")
+    private static final class Sequence extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        long p1, p2, p3, p4, p5, p6, p7;
+
+        Sequence(long initialValue) {
+            super(initialValue);
+        }
+    }
+}
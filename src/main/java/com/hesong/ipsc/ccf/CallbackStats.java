@@ -0,0 +1,69 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * JNI 回调耗时统计
+ * <p>
+ * 记录底层共享库的 IO 线程在 {@code data} 回调中停留的时间。这段时间内，共享库不能处理其它数据。
+ *
+ * @see Unit#getCallbackStats
+ */
+public class CallbackStats {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+            max = maxNanos.get();
+    }
+
+    /**
+     * @return 累计回调次数
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return 累计回调耗时 NANOSECONDS
+     */
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @return 单次回调的最大耗时 NANOSECONDS
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return 平均每次回调的耗时 NANOSECONDS
+     */
+    public double getAverageNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalNanos.sum() / n;
+    }
+
+    /**
+     * 清零统计数据
+     */
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s count=%d, averageNanos=%.0f, maxNanos=%d>",
+                CallbackStats.class, getCount(), getAverageNanos(), getMaxNanos());
+    }
+}
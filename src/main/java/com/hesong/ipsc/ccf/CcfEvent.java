@@ -0,0 +1,168 @@
+package com.hesong.ipsc.ccf;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * 标准 CCF 事件通知
+ * <p>
+ * 由 {@link CcfEventDecoder} 从收到的数据直接解码，不经过 {@link RpcRequest} 和参数 {@link java.util.Map}。
+ * 事件参数中的时间戳保持 IPSC 发送的原始值，缺少的数值参数为 0，缺少的字符串参数为 {@code null}；不认识的参数被跳过。
+ *
+ * @see CallEvent
+ * @see ConferenceEvent
+ * @see Commander#setCcfEventListener
+ */
+public abstract class CcfEvent {
+    private final BusAddress source;
+    private final String method;
+    private String resId;
+    private String userData;
+    private String error;
+    private long beginTime;
+    private long endTime;
+    // 调用链跟踪上下文，供 Tracer 使用
+    String traceparent;
+
+    CcfEvent(BusAddress source, String method) {
+        this.source = source;
+        this.method = method;
+    }
+
+    /**
+     * 解码一个事件参数
+     *
+     * @param name   参数名
+     * @param parser 位于参数值的第一个 token
+     * @return 是否已解码。{@code false} 表示不认识该参数，由调用者跳过
+     */
+    boolean decodeParam(String name, JsonParser parser) throws IOException {
+        switch (name) {
+            case ResourceDirectory.RES_ID_KEY:
+                resId = readText(parser);
+                return true;
+            case "user_data":
+                userData = readText(parser);
+                return true;
+            case "error":
+                error = readError(parser);
+                return true;
+            case "begin_time":
+                beginTime = readLong(parser);
+                return true;
+            case "end_time":
+                endTime = readLong(parser);
+                return true;
+            case TraceContext.PARAM_KEY:
+                traceparent = readText(parser);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 交给监听器中对应类型的回调
+     */
+    abstract void dispatchTo(CcfEventListener listener);
+
+    static String readText(JsonParser parser) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL)
+            return null;
+        if (token.isScalarValue())
+            return parser.getText();
+        parser.skipChildren();
+        return null;
+    }
+
+    static long readLong(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case VALUE_NUMBER_INT:
+                return parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return (long) parser.getDoubleValue();
+            case VALUE_STRING:
+                return parser.getValueAsLong(0);
+            default:
+                parser.skipChildren();
+                return 0;
+        }
+    }
+
+    /**
+     * 错误参数可能是字符串，也可能是带有 {@code message} 的对象
+     */
+    private static String readError(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT)
+            return readText(parser);
+        String message = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if (name.equals("message"))
+                message = readText(parser);
+            else
+                parser.skipChildren();
+        }
+        return message == null ? "" : message;
+    }
+
+    /**
+     * @return 发送该事件的IPSC服务实例
+     */
+    public BusAddress getSource() {
+        return source;
+    }
+
+    /**
+     * @return 事件名，如 {@code "sys.call.on_released"}
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return 资源ID（参数 {@value ResourceDirectory#RES_ID_KEY}）
+     */
+    public String getResId() {
+        return resId;
+    }
+
+    /**
+     * @return 新建资源时指定的用户数据（参数 {@code user_data}）
+     */
+    public String getUserData() {
+        return userData;
+    }
+
+    /**
+     * @return 错误信息（参数 {@code error}）。{@code null} 表示没有错误
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return 开始时间（参数 {@code begin_time}）
+     */
+    public long getBeginTime() {
+        return beginTime;
+    }
+
+    /**
+     * @return 结束时间（参数 {@code end_time}）
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return 是否是资源已被释放的事件
+     */
+    public boolean isReleased() {
+        return method.endsWith(ResourceDirectory.RELEASED_SUFFIX);
+    }
+}
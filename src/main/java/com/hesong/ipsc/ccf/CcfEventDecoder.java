@@ -0,0 +1,104 @@
+package com.hesong.ipsc.ccf;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * 标准 CCF 事件通知的流式解码器
+ * <p>
+ * 用 Jackson 的流式 {@link JsonParser} 逐个 token 读取收到的数据，参数直接写入 {@link CcfEvent} 子类的字段，
+ * 不使用反射绑定，也不生成中间的 {@link java.util.Map}。
+ * <p>
+ * {@code params} 出现在 {@code method} 之前时，先记下它在数据中的位置并跳过，知道事件类型后再回头解码。
+ */
+final class CcfEventDecoder {
+    private static final JsonFactory factory = new JsonFactory();
+
+    private CcfEventDecoder() {
+    }
+
+    /**
+     * 解码收到的数据
+     *
+     * @param source 发送者
+     * @param bytes  收到的数据
+     * @return 解码得到的事件。{@code null} 表示不是标准的 CCF 事件通知，比如 RPC 回复或者其它事件
+     * @throws IOException 数据不是合法的 JSON
+     */
+    static CcfEvent decode(BusAddress source, byte[] bytes) throws IOException {
+        CcfEvent event = null;
+        int paramsOffset = -1;
+        try (JsonParser parser = factory.createParser(bytes)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                return null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (name) {
+                    case "method":
+                        if (token != JsonToken.VALUE_STRING)
+                            return null;
+                        event = newEvent(source, parser.getText());
+                        if (event == null)
+                            return null;
+                        break;
+                    case "params":
+                        if (token != JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                        } else if (event != null) {
+                            decodeParams(parser, event);
+                        } else {
+                            paramsOffset = objectStart(bytes, (int) parser.getTokenLocation().getByteOffset());
+                            parser.skipChildren();
+                        }
+                        break;
+                    case "result":
+                    case "error":
+                        // RPC 回复
+                        return null;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        if (event != null && paramsOffset >= 0) {
+            try (JsonParser parser = factory.createParser(bytes, paramsOffset, bytes.length - paramsOffset)) {
+                parser.nextToken();
+                decodeParams(parser, event);
+            }
+        }
+        return event;
+    }
+
+    /**
+     * 某些 Jackson 版本读取字段值时，{@link JsonParser#getTokenLocation} 给出的仍是字段名的位置，
+     * 从该位置向后找到对象开始的 <code>'{'</code>（字段名 {@code "params"} 与冒号之间不会出现它）
+     */
+    private static int objectStart(byte[] bytes, int offset) {
+        for (int i = Math.max(0, offset); i < bytes.length; ++i) {
+            if (bytes[i] == '{')
+                return i;
+        }
+        return -1;
+    }
+
+    private static CcfEvent newEvent(BusAddress source, String method) {
+        if (method.startsWith(CallEvent.METHOD_PREFIX))
+            return new CallEvent(source, method);
+        if (method.startsWith(ConferenceEvent.METHOD_PREFIX))
+            return new ConferenceEvent(source, method);
+        return null;
+    }
+
+    private static void decodeParams(JsonParser parser, CcfEvent event) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if (!event.decodeParam(name, parser))
+                parser.skipChildren();
+        }
+    }
+}
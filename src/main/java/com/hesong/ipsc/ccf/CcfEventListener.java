@@ -0,0 +1,26 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * 标准 CCF 事件监听器
+ * <p>
+ * 在 {@link Commander} 的执行器中回调。只需要实现关心的事件类型。
+ *
+ * @see Commander#setCcfEventListener
+ */
+public interface CcfEventListener {
+    /**
+     * 回调：收到呼叫（{@code sys.call}）事件
+     *
+     * @param event 呼叫事件
+     */
+    default void onCallEvent(CallEvent event) {
+    }
+
+    /**
+     * 回调：收到会议（{@code sys.conf}）事件
+     *
+     * @param event 会议事件
+     */
+    default void onConferenceEvent(ConferenceEvent event) {
+    }
+}
@@ -0,0 +1,261 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 单个目标 IPSC 的熔断器
+ * <p>
+ * 在时间滑动窗口内统计调用的失败率和慢调用率，任何一个达到 {@link CircuitBreakerConfig} 中的阈值时打开熔断器。
+ * 熔断器打开期间，发往该 IPSC 的调用在提交给 CTI BUS 之前就抛出 {@link CircuitOpenException}；
+ * 经过 {@link CircuitBreakerConfig#getOpenDuration} 后进入半开状态，放行少量试探调用：
+ * 全部成功则关闭熔断器，任何一个失败或慢调用则再次打开。
+ * <p>
+ * 统计只使用原子变量，不加锁。
+ * <p>
+ * 使用 {@link Commander#setCircuitBreakerConfig} 启用熔断器，使用 {@link Commander#getCircuitBreaker} 查看某个 IPSC 的熔断器。
+ */
+public class CircuitBreaker {
+    /**
+     * {@link #tryAcquire} 的返回值：不允许调用
+     */
+    static final int REJECTED = -1;
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final BusAddress target;
+    private final CircuitBreakerConfig config;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final AtomicReference<Phase> phase = new AtomicReference<>(new Phase(State.CLOSED, 0, 0, 0));
+
+    CircuitBreaker(BusAddress target, CircuitBreakerConfig config) {
+        this.target = target;
+        this.config = config;
+        this.buckets = new AtomicReferenceArray<>(config.getWindowBuckets());
+    }
+
+    /**
+     * @return 熔断器对应的目标 IPSC 的 BUS 地址
+     */
+    public BusAddress getTarget() {
+        return target;
+    }
+
+    /**
+     * @return 熔断器当前的状态
+     */
+    public State getState() {
+        return phase.get().state;
+    }
+
+    /**
+     * 手动关闭熔断器，并清空统计数据
+     */
+    public void reset() {
+        clearWindow();
+        transition(phase.get(), State.CLOSED, 0, 0);
+    }
+
+    /**
+     * 手动打开熔断器
+     */
+    public void trip() {
+        Phase current = phase.get();
+        if (current.state != State.OPEN)
+            open(current);
+    }
+
+    /**
+     * 申请一次调用许可
+     * <p>
+     * 许可带有熔断器当时的代数。每次状态转换代数加1，调用结果以许可的代数 {@link #record 记录}，
+     * 在上一个状态中放行、状态转换后才有结果的调用不会计入新状态的统计，例如不会占用半开状态的试探名额。
+     *
+     * @return 许可的代数。{@link #REJECTED} 表示不允许调用
+     */
+    int tryAcquire() {
+        for (; ; ) {
+            Phase current = phase.get();
+            switch (current.state) {
+                case CLOSED:
+                    return current.generation;
+                case OPEN:
+                    if (System.currentTimeMillis() - current.openedAt < config.getOpenDuration())
+                        return REJECTED;
+                    // 本次调用就是第一个试探调用
+                    Phase next = transition(current, State.HALF_OPEN, current.openedAt, config.getHalfOpenCalls() - 1);
+                    if (next != null)
+                        return next.generation;
+                    break;
+                default:
+                    for (; ; ) {
+                        int permits = current.permits.get();
+                        if (permits <= 0)
+                            return REJECTED;
+                        if (current.permits.compareAndSet(permits, permits - 1))
+                            return current.generation;
+                    }
+            }
+        }
+    }
+
+    /**
+     * 记录一次调用的结果
+     *
+     * @param generation {@link #tryAcquire} 返回的许可的代数。不是当前代数的结果被忽略
+     * @param failed     是否失败（RPC 错误、超时、提交失败）
+     * @param duration   调用用时 MILLISECONDS
+     */
+    void record(int generation, boolean failed, long duration) {
+        Phase current = phase.get();
+        if (current.generation != generation)
+            return;
+        boolean slow = duration >= config.getSlowCallDuration();
+        if (current.state == State.HALF_OPEN) {
+            if (failed || slow) {
+                open(current);
+            } else if (current.successes.incrementAndGet() >= config.getHalfOpenCalls()) {
+                clearWindow();
+                transition(current, State.CLOSED, 0, 0);
+            }
+            return;
+        }
+        long epoch = System.currentTimeMillis() / bucketSize();
+        Bucket bucket = currentBucket(epoch);
+        bucket.calls.incrementAndGet();
+        if (failed)
+            bucket.failures.incrementAndGet();
+        if (slow)
+            bucket.slowCalls.incrementAndGet();
+        if (current.state == State.CLOSED && (failed || slow))
+            evaluate(epoch, current);
+    }
+
+    private void evaluate(long epoch, Phase current) {
+        int calls = 0;
+        int failures = 0;
+        int slowCalls = 0;
+        int n = buckets.length();
+        for (int i = 0; i < n; ++i) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && epoch - bucket.epoch < n) {
+                calls += bucket.calls.get();
+                failures += bucket.failures.get();
+                slowCalls += bucket.slowCalls.get();
+            }
+        }
+        if (calls < config.getMinimumCalls())
+            return;
+        if (failures * 100 >= calls * config.getFailureRateThreshold()
+                || slowCalls * 100 >= calls * config.getSlowCallRateThreshold()) {
+            logger.warn("{} calls={}, failures={}, slowCalls={}", this, calls, failures, slowCalls);
+            open(current);
+        }
+    }
+
+    private long bucketSize() {
+        return Math.max(1, config.getWindowSize() / buckets.length());
+    }
+
+    private Bucket currentBucket(long epoch) {
+        int i = (int) (epoch % buckets.length());
+        for (; ; ) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.epoch == epoch)
+                return bucket;
+            Bucket fresh = new Bucket(epoch);
+            if (buckets.compareAndSet(i, bucket, fresh))
+                return fresh;
+        }
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < buckets.length(); ++i)
+            buckets.set(i, null);
+    }
+
+    private void open(Phase from) {
+        transition(from, State.OPEN, System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * @return 转换后的状态。{@code null} 表示已经处于该状态，或者状态已被其它线程改变
+     */
+    private Phase transition(Phase from, State to, long openedAt, int permits) {
+        if (from.state == to)
+            return null;
+        Phase next = new Phase(to, (from.generation + 1) & Integer.MAX_VALUE, openedAt, permits);
+        if (!phase.compareAndSet(from, next))
+            return null;
+        changed(from.state, to);
+        return next;
+    }
+
+    private void changed(State from, State to) {
+        logger.warn("{} state changed: {} -> {}", this, from, to);
+        CircuitBreakerListener listener = config.getListener();
+        if (listener != null) {
+            try {
+                listener.onStateChanged(target, from, to);
+            } catch (Exception e) {
+                logger.error(String.format("%s listener.onStateChanged() error", this), e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s target=%s, state=%s>", CircuitBreaker.class, target, getState());
+    }
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        /**
+         * 关闭：正常放行调用
+         */
+        CLOSED,
+        /**
+         * 打开：拒绝调用
+         */
+        OPEN,
+        /**
+         * 半开：放行少量试探调用
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * 熔断器的一个状态及其代数。半开状态的试探名额和成功次数属于这个状态，状态转换后不再被修改
+     */
+    private static class Phase {
+        final State state;
+        final int generation;
+        final long openedAt;
+        final AtomicInteger permits;
+        final AtomicInteger successes = new AtomicInteger();
+
+        Phase(State state, int generation, long openedAt, int permits) {
+            this.state = state;
+            this.generation = generation;
+            this.openedAt = openedAt;
+            this.permits = new AtomicInteger(permits);
+        }
+    }
+
+    private static class Bucket {
+        final long epoch;
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger slowCalls = new AtomicInteger();
+
+        Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * {@link CircuitBreaker} 的参数
+ * <p>
+ * 同一个 {@link Commander} 的所有目标 IPSC 的熔断器共用一份参数。
+ * 参数在熔断器创建之后修改，对已有的熔断器同样生效。
+ */
+public class CircuitBreakerConfig {
+    private volatile int failureRateThreshold = 50;
+    private volatile int slowCallRateThreshold = 100;
+    private volatile long slowCallDuration = 5000;
+    private volatile int windowSize = 10000;
+    private volatile int windowBuckets = 10;
+    private volatile int minimumCalls = 20;
+    private volatile long openDuration = 30000;
+    private volatile int halfOpenCalls = 5;
+    private volatile CircuitBreakerListener listener;
+
+    /**
+     * @return 失败率阈值（百分比），失败（RPC 错误、超时、提交失败）的调用所占的比例达到该值时打开熔断器。默认是 50
+     */
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * @return 慢调用率阈值（百分比），慢调用所占的比例达到该值时打开熔断器。默认是 100
+     */
+    public int getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * @return 慢调用的时长 MILLISECONDS，RPC 返回用时超过该值的调用是慢调用。默认是 5000
+     */
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    public void setSlowCallDuration(long slowCallDuration) {
+        this.slowCallDuration = slowCallDuration;
+    }
+
+    /**
+     * @return 滑动窗口的长度 MILLISECONDS。默认是 10000
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        if (windowSize <= 0)
+            throw new IllegalArgumentException("Argument \"windowSize\" SHOULD be positive.");
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return 滑动窗口分成的桶数。默认是 10。只对此后新建的熔断器有效。
+     */
+    public int getWindowBuckets() {
+        return windowBuckets;
+    }
+
+    public void setWindowBuckets(int windowBuckets) {
+        if (windowBuckets <= 0)
+            throw new IllegalArgumentException("Argument \"windowBuckets\" SHOULD be positive.");
+        this.windowBuckets = windowBuckets;
+    }
+
+    /**
+     * @return 滑动窗口内至少要有多少次调用，才计算失败率和慢调用率。默认是 20
+     */
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    /**
+     * @return 熔断器打开后，经过多久进入半开状态 MILLISECONDS。默认是 30000
+     */
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    public void setOpenDuration(long openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * @return 半开状态下允许通过的试探调用次数，全部成功后关闭熔断器。默认是 5
+     */
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        if (halfOpenCalls <= 0)
+            throw new IllegalArgumentException("Argument \"halfOpenCalls\" SHOULD be positive.");
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * @return 状态变化监听器。{@code null} 表示不监听
+     */
+    public CircuitBreakerListener getListener() {
+        return listener;
+    }
+
+    public void setListener(CircuitBreakerListener listener) {
+        this.listener = listener;
+    }
+}
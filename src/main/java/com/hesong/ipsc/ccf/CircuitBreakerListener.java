@@ -0,0 +1,17 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * 熔断器状态变化监听器
+ */
+public interface CircuitBreakerListener {
+    /**
+     * 回调：熔断器状态发生变化
+     * <p>
+     * 在引发状态变化的线程（调用线程、RPC 回复处理线程或超时计时器线程）上执行，应尽快返回。
+     *
+     * @param target 熔断器对应的目标 IPSC 的 BUS 地址
+     * @param from   原状态
+     * @param to     新状态
+     */
+    void onStateChanged(BusAddress target, CircuitBreaker.State from, CircuitBreaker.State to);
+}
@@ -0,0 +1,24 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * 目标 IPSC 的熔断器处于打开状态，调用在提交给 CTI BUS 之前就被拒绝了
+ *
+ * @see CircuitBreaker
+ */
+public class CircuitOpenException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final BusAddress target;
+
+    CircuitOpenException(BusAddress target) {
+        super(String.format("Circuit breaker of %s is open", target));
+        this.target = target;
+    }
+
+    /**
+     * @return 被熔断的目标 IPSC 的 BUS 地址
+     */
+    public BusAddress getTarget() {
+        return target;
+    }
+}
@@ -3,12 +3,14 @@ package com.hesong.ipsc.ccf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * CTI BUS 客户端
  * <p>
- * 客户端是从属于 {@link Unit} 的
+ * 客户端是从属于 {@link Unit}（或者一个 {@link UnitContext}）的
  * <p>
- * 使用 {@link Unit#createCommander} 创建客户端，<strong>不要</strong>使用构造函数。
+ * 使用 {@link Unit#createCommander}、{@link UnitContext#createCommander} 创建客户端，<strong>不要</strong>使用构造函数。
  * <p>
  * Commander Client {@code type} 一律是 {@code 10}; Monitor Client {@code type} 一律是 {@code 3}.
  */
@@ -16,31 +18,32 @@ public class Client {
     Logger logger;
     byte connectingUnitId;
     boolean connected;
+    final UnitContext unit;
     private byte unitId;
     private byte id;
     private byte type;
     private String ip;
     private short port;
+    private volatile CompletableFuture<Client> readyFuture = new CompletableFuture<>();
 
     /**
-     * @param unitId 所属的本地Unit节点的ID
-     * @param id     客户端ID
-     * @param type   客户端 type
-     * @param ip     要连接的 CTI BUS 服务器 IP
-     * @param port   要连接的 CTI BUS 服务器端口
+     * @param unit 所属的本地Unit节点
+     * @param id   客户端ID
+     * @param type 客户端 type
+     * @param ip   要连接的 CTI BUS 服务器 IP
+     * @param port 要连接的 CTI BUS 服务器端口
      */
-    Client(byte unitId, byte id, byte type, String ip, short port) {
+    Client(UnitContext unit, byte id, byte type, String ip, short port) {
         this.logger = LoggerFactory.getLogger(Client.class);
-        this.unitId = unitId;
+        this.unit = unit;
+        this.unitId = unit.library.getBusUnitId(unit.getLocalUnitId());
         this.connectingUnitId = -1;
         this.connected = false;
         this.id = id;
         this.type = type;
         this.ip = ip;
         this.port = port;
-        int errCode = com.hesong.ipsc.busnetcli.Client.createConnect(
-                this.id, this.type, this.ip, this.port, "", (short) 0xff, "", "", ""
-        );
+        int errCode = unit.library.createConnect(this.id, this.type, this.ip, this.port);
         if (errCode != 0) {
             throw new RuntimeException(
                     String.format("busnetcli_createConnect() -> %d", errCode)
@@ -49,12 +52,20 @@ public class Client {
     }
 
     /**
-     * @return 该客户端所述的本地 BUS UNIT 的 ID，即 {@link Unit#getLocalUnitId} 属性
+     * @return 该客户端所属的本地 BUS UNIT 的 ID，通常就是 {@link Unit#getLocalUnitId} 属性；
+     * 多个上下文共用 JNI 共享库时，是共享库实际使用的单元ID
      */
     public byte getUnitId() {
         return unitId;
     }
 
+    /**
+     * @return 该客户端所属的本地 BUS UNIT
+     */
+    public UnitContext getUnitContext() {
+        return unit;
+    }
+
     /**
      * @return 是否连接到了 CTI BUS 服务器。
      */
@@ -62,6 +73,50 @@ public class Client {
         return connected;
     }
 
+    /**
+     * 等待客户端连接到 CTI BUS 服务器
+     * <p>
+     * 返回的 {@link CompletableFuture} 在底层共享库的连接成功回调中完成；连接失败时以 {@link ClientConnectException} 异常完成。
+     * 连接失败后底层共享库会继续重试；连接失败、连接丢失或重新连接后，再调用该方法得到的是新的 {@link CompletableFuture}，等待下一次连接的结果。
+     * <p>
+     * <strong>注意</strong>：该 {@link CompletableFuture} 的非异步回调在底层共享库的IO线程中执行，应<strong>尽快</strong>返回！
+     *
+     * @return 客户端连接结果
+     */
+    public CompletableFuture<Client> ready() {
+        return readyFuture;
+    }
+
+    /**
+     * 连接回调：记录连接结果，完成 {@link #ready} 返回的 {@link CompletableFuture}
+     */
+    void connectResulted(byte connectingUnitId, int errorCode) {
+        this.connected = errorCode == 0;
+        this.connectingUnitId = connectingUnitId;
+        CompletableFuture<Client> fut = readyFuture;
+        if (fut.isDone()) {
+            // 上一次的结果已经被取走，这是一次重新连接
+            fut = new CompletableFuture<>();
+            readyFuture = fut;
+        }
+        if (connected) {
+            fut.complete(this);
+        } else {
+            // 底层共享库会继续重试，先换上等待下一次结果的 CompletableFuture，再通知这一次的失败
+            readyFuture = new CompletableFuture<>();
+            fut.completeExceptionally(new ClientConnectException(this, errorCode));
+        }
+    }
+
+    /**
+     * 断开回调：此后 {@link #ready} 返回新的 {@link CompletableFuture}，等待重新连接
+     */
+    void connectLost() {
+        this.connected = false;
+        if (readyFuture.isDone())
+            readyFuture = new CompletableFuture<>();
+    }
+
     /**
      * @return 该客户端所连接的CTI服务器的 BUS UNIT ID
      * <br>
@@ -0,0 +1,33 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * 客户端连接 CTI BUS 服务器失败
+ *
+ * @see Client#ready
+ */
+public class ClientConnectException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final Client client;
+    private final int errorCode;
+
+    ClientConnectException(Client client, int errorCode) {
+        super(String.format("%s connection failed. ErrorCode=%d", client, errorCode));
+        this.client = client;
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * @return 连接失败的客户端
+     */
+    public Client getClient() {
+        return client;
+    }
+
+    /**
+     * @return 连接失败原因（参考该项目 C Library 的头文件吧）
+     */
+    public int getErrorCode() {
+        return errorCode;
+    }
+}
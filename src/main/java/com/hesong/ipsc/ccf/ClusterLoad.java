@@ -0,0 +1,277 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 集群负载汇总
+ * <p>
+ * {@link Monitor} 每收到一个CTI服务器的负载信息（{@code svrres}），就把该服务器各负载项的变化量累加到汇总值上，
+ * 不再需要复制 {@link Monitor#getServerInfoMap()} 和每个 {@link ServerInfo#getLoads()} 再求和。
+ * 读取汇总值是 O(1) 的，不分配内存，也不加锁。
+ * <p>
+ * 对每个汇总的负载项，记录所有节点的和、最大值，以及报告了该负载项的节点数量。
+ * 另外按 {@link AdmissionController} 的算法计算每个节点的空闲呼出通道数：
+ * {@code ch.total.num} 与 {@code sip.out.total.num} 中较小的一个，减去 {@code sip.callout.num}。
+ * 空闲呼出通道最多的节点就是负载最轻的节点。
+ * <p>
+ * 节点在 {@link Membership} 中下线后，它的负载不再计入汇总。
+ * <p>
+ * 各个汇总值分别是原子的，但彼此之间不保证是同一时刻的值；需要判断汇总值是否变化时，使用 {@link #getVersion}。
+ *
+ * @see Monitor#getClusterLoad
+ */
+public class ClusterLoad {
+    /**
+     * 默认汇总的负载项
+     */
+    public static final String[] DEFAULT_KEYS = {
+            "ch.total.num", "sip.in.total.num", "sip.out.total.num",
+            "callin.num", "callout.num", "sip.callin.num", "sip.callout.num",
+            "dsp.used.num"
+    };
+
+    // 节点没有报告该负载项
+    private static final long ABSENT = Long.MIN_VALUE;
+
+    private final String[] keys;
+    private final Map<String, Integer> keyIndexes = new HashMap<>();
+    private final AtomicLongArray sums;
+    private final AtomicLongArray maxima;
+    private final AtomicLongArray counts;
+    private final Map<BusAddress, Node> nodes = new HashMap<>();
+    private volatile long freeChannels;
+    private volatile BusAddress leastLoaded;
+    private volatile long leastLoadedFreeChannels;
+    private volatile int nodeCount;
+    private volatile long version;
+
+    /**
+     * @param keys 要汇总的负载项
+     */
+    public ClusterLoad(String... keys) {
+        if (keys == null)
+            throw new IllegalArgumentException("Argument \"keys\" SHOULD NOT be null.");
+        this.keys = keys.clone();
+        for (int i = 0; i < this.keys.length; ++i)
+            keyIndexes.put(this.keys[i], i);
+        sums = new AtomicLongArray(this.keys.length);
+        maxima = new AtomicLongArray(this.keys.length);
+        counts = new AtomicLongArray(this.keys.length);
+        for (int i = 0; i < this.keys.length; ++i)
+            maxima.set(i, ABSENT);
+    }
+
+    /**
+     * 汇总 {@link #DEFAULT_KEYS}
+     */
+    public ClusterLoad() {
+        this(DEFAULT_KEYS);
+    }
+
+    /**
+     * 收到了一个节点的负载信息，把它的变化量累加到汇总值上
+     *
+     * @param source     节点的 BUS 地址
+     * @param serverInfo 节点的负载信息，只读取其中的负载项
+     */
+    synchronized void update(BusAddress source, ServerInfo serverInfo) {
+        Map<String, Integer> loads = serverInfo.loads;
+        Node node = nodes.get(source);
+        if (node == null) {
+            node = new Node(keys.length);
+            nodes.put(source, node);
+            nodeCount = nodes.size();
+        }
+        for (int i = 0; i < keys.length; ++i) {
+            Integer value = loads.get(keys[i]);
+            set(node, i, value == null ? ABSENT : value);
+        }
+        long free = freeChannelsOf(loads);
+        long previousFree = node.freeChannels;
+        node.freeChannels = free;
+        freeChannels += Math.max(free, 0) - Math.max(previousFree, 0);
+        if (free > leastLoadedFreeChannels || leastLoaded == null && free != ABSENT) {
+            leastLoadedFreeChannels = free;
+            leastLoaded = source;
+        } else if (source.equals(leastLoaded) && free < previousFree) {
+            rescanLeastLoaded();
+        }
+        ++version;
+    }
+
+    /**
+     * 节点已下线，它的负载不再计入汇总
+     *
+     * @param source 节点的 BUS 地址
+     */
+    synchronized void remove(BusAddress source) {
+        Node node = nodes.remove(source);
+        if (node == null)
+            return;
+        nodeCount = nodes.size();
+        for (int i = 0; i < keys.length; ++i)
+            set(node, i, ABSENT);
+        freeChannels -= Math.max(node.freeChannels, 0);
+        if (source.equals(leastLoaded))
+            rescanLeastLoaded();
+        ++version;
+    }
+
+    private void set(Node node, int i, long value) {
+        long previous = node.values[i];
+        if (value == previous)
+            return;
+        node.values[i] = value;
+        long delta = 0;
+        if (previous != ABSENT) {
+            delta -= previous;
+            counts.decrementAndGet(i);
+        }
+        if (value != ABSENT) {
+            delta += value;
+            counts.incrementAndGet(i);
+        }
+        sums.addAndGet(i, delta);
+        long max = maxima.get(i);
+        if (value != ABSENT && value >= max)
+            maxima.set(i, value);
+        else if (previous == max)
+            // 原来的最大值变小了或者没有了，重新找最大值
+            maxima.set(i, rescanMax(i));
+    }
+
+    private long rescanMax(int i) {
+        long max = ABSENT;
+        for (Node node : nodes.values()) {
+            if (node.values[i] > max)
+                max = node.values[i];
+        }
+        return max;
+    }
+
+    private void rescanLeastLoaded() {
+        BusAddress best = null;
+        long bestFree = ABSENT;
+        for (Map.Entry<BusAddress, Node> entry : nodes.entrySet()) {
+            long free = entry.getValue().freeChannels;
+            if (free != ABSENT && free > bestFree) {
+                bestFree = free;
+                best = entry.getKey();
+            }
+        }
+        leastLoadedFreeChannels = bestFree == ABSENT ? 0 : bestFree;
+        leastLoaded = best;
+    }
+
+    /**
+     * @return 节点的空闲呼出通道数。{@link #ABSENT} 表示不知道它的容量
+     */
+    private static long freeChannelsOf(Map<String, Integer> loads) {
+        Integer chTotal = loads.get("ch.total.num");
+        Integer sipOutTotal = loads.get("sip.out.total.num");
+        if (chTotal == null && sipOutTotal == null)
+            return ABSENT;
+        long capacity;
+        if (chTotal == null)
+            capacity = sipOutTotal;
+        else if (sipOutTotal == null)
+            capacity = chTotal;
+        else
+            capacity = Math.min(chTotal, sipOutTotal);
+        Integer callout = loads.get("sip.callout.num");
+        return Math.max(0, capacity - (callout == null ? 0 : callout));
+    }
+
+    private int indexOf(String key) {
+        Integer index = keyIndexes.get(key);
+        if (index == null)
+            throw new IllegalArgumentException(String.format("Load key \"%s\" is not aggregated.", key));
+        return index;
+    }
+
+    /**
+     * @param key 负载项的 Key，必须是构造时指定的负载项之一
+     * @return 所有节点该负载项的和
+     */
+    public long getSum(String key) {
+        return sums.get(indexOf(key));
+    }
+
+    /**
+     * @param key 负载项的 Key，必须是构造时指定的负载项之一
+     * @return 所有节点该负载项的最大值。没有节点报告该负载项时返回0
+     */
+    public long getMax(String key) {
+        long max = maxima.get(indexOf(key));
+        return max == ABSENT ? 0 : max;
+    }
+
+    /**
+     * @param key 负载项的 Key，必须是构造时指定的负载项之一
+     * @return 报告了该负载项的节点数量
+     */
+    public int getCount(String key) {
+        return (int) counts.get(indexOf(key));
+    }
+
+    /**
+     * @return 集群的空闲呼出通道总数
+     */
+    public long getFreeChannels() {
+        return freeChannels;
+    }
+
+    /**
+     * @return 空闲呼出通道最多的节点的 BUS 地址。{@code null} 表示还没有节点报告通道容量
+     */
+    public BusAddress getLeastLoaded() {
+        return leastLoaded;
+    }
+
+    /**
+     * @return {@link #getLeastLoaded() 负载最轻的节点}的空闲呼出通道数
+     */
+    public long getLeastLoadedFreeChannels() {
+        return leastLoadedFreeChannels;
+    }
+
+    /**
+     * @return 计入汇总的节点数量
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return 版本号，汇总值每次变化加1
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return 汇总的负载项
+     */
+    public String[] getKeys() {
+        return keys.clone();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s nodeCount=%d, freeChannels=%d, leastLoaded=%s, keys=%s>",
+                ClusterLoad.class, nodeCount, freeChannels, leastLoaded, Arrays.toString(keys));
+    }
+
+    private static class Node {
+        final long[] values;
+        long freeChannels = ABSENT;
+
+        Node(int n) {
+            values = new long[n];
+            Arrays.fill(values, ABSENT);
+        }
+    }
+}
@@ -3,12 +3,12 @@ package com.hesong.ipsc.ccf;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.LoggerFactory;
 
-import java.io.CharArrayWriter;
 import java.io.IOException;
-import java.io.Writer;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
 import java.util.regex.Pattern;
 
 /**
@@ -17,20 +17,34 @@ import java.util.regex.Pattern;
  * Created by tanbr on 2016/8/15.
  */
 public class Commander extends Client {
+    static final ObjectMapper mapper = new ObjectMapper();
     RpcEventListener eventListener;
     ThreadPoolExecutor executor;
     private Monitor monitor;
+    private volatile ResourceDirectory resourceDirectory;
+    private volatile ResourceJournal journal;
+    private volatile AdmissionController admissionController;
+    private volatile CircuitBreakerConfig circuitBreakerConfig;
+    private volatile AtomicReferenceArray<CircuitBreaker> circuitBreakers;
+    private volatile EventPublisher<RpcEvent> eventPublisher;
+    private volatile OutboundBuffer outboundBuffer;
+    private volatile OutboundScheduler outboundScheduler;
+    private volatile OutboundPipeline outboundPipeline;
+    private volatile Tracer tracer;
+    volatile CcfEventListener ccfEventListener;
+    volatile DispatchLanes dispatchLanes;
+    volatile boolean inlineReplies;
 
     /**
-     * @param unitId        所属的本地Unit节点的ID
+     * @param unit          所属的本地Unit节点
      * @param id            客户端ID
      * @param ip            要连接的 CTI BUS 服务器 IP
      * @param port          要连接的 CTI BUS 服务器端口
      * @param eventListener RPC事件监听器
      * @param executor      RPC事件和回复处理的执行器
      */
-    Commander(byte unitId, byte id, String ip, short port, RpcEventListener eventListener, ThreadPoolExecutor executor) {
-        super(unitId, id, (byte) 10, ip, port);
+    Commander(UnitContext unit, byte id, String ip, short port, RpcEventListener eventListener, ThreadPoolExecutor executor) {
+        super(unit, id, (byte) 10, ip, port);
         monitor = null;
         this.logger = LoggerFactory.getLogger(Commander.class);
         this.eventListener = eventListener;
@@ -52,7 +66,10 @@ public class Commander extends Client {
      * @param params            新建资源的参数
      * @param rpcResultListener 调用返回结果监听器. {@code null} 则无结果回调。
      * @return 此次调用的 RPC ID
-     * @throws IOException JSON解码错误
+     * @throws IOException                JSON解码错误
+     * @throws AdmissionRejectedException 设置了 {@link #setAdmissionController 准入控制器}，并且目标 IPSC 没有空闲通道
+     * @throws CircuitOpenException       目标 IPSC 的熔断器处于打开状态
+     * @throws UnitDrainingException      {@link Unit} 正在排空
      */
     public String createResource(BusAddress target,
                                  String name, Map<String, Object> params,
@@ -64,13 +81,16 @@ public class Commander extends Client {
 
         if (name == null)
             throw new IllegalArgumentException("Argument \"name\" SHOULD NOT be null.");
+        ensureAccepting();
 
-        int dstUnitId = target.getUnitId();
-        int dstIpscIndex = target.getClientId();
         // name = IPSC 项目ID.流程ID
         String[] nameParts = name.split(Pattern.quote("."), 2);
         String projectId = nameParts[0];
         String flowId = nameParts[1];
+        // 调用链跟踪：把跟踪上下文加入参数
+        CallTrace trace = CallTrace.begin(this.tracer, "createResource");
+        if (trace != null)
+            params = trace.inject(params);
         // 调用流程， IPSC 流程中照这个 ID 进行 RPC 返回
         String rpcId = UUID.randomUUID().toString();
         // 构建 JSON 数据结构格式： [[unit_id, client_id], rpc_id, params]
@@ -82,33 +102,114 @@ public class Commander extends Client {
         obj[1] = rpcId;
         obj[2] = params;
         // 序列化！
-        ObjectMapper mapper = new ObjectMapper();
-        Writer w = new CharArrayWriter();
-        mapper.writeValue(w, obj);
-        w.close();
+        String payload = mapper.writeValueAsString(obj);
+        if (trace != null)
+            trace.encoded(rpcId, name, target);
+        launchFlow(target, name, projectId, flowId, rpcId, payload, rpcResultListener, trace);
+        //返回 RPC ID
+        this.logger.debug("<<< createResource() -> {}", rpcId);
+        return rpcId;
+    }
+
+    /**
+     * 提交新建资源的 RPC：经过准入控制、熔断器、资源目录后，调用 JNI 启动 IPSC 流程
+     *
+     * @param target            目标 IPSC 的 BUS 地址
+     * @param name              要新建的资源的名称
+     * @param projectId         IPSC 项目ID
+     * @param flowId            IPSC 流程ID
+     * @param rpcId             RPC ID
+     * @param payload           已序列化的 RPC 数据
+     * @param rpcResultListener 调用返回结果监听器. {@code null} 则无结果回调。
+     */
+    void launchFlow(BusAddress target, String name, String projectId, String flowId,
+                    String rpcId, String payload, RpcResultListener rpcResultListener, CallTrace trace) {
+        if (trace != null)
+            rpcResultListener = new TracingListener(trace, rpcId, rpcResultListener);
+        OutboundScheduler scheduler = this.outboundScheduler;
+        if (scheduler != null)
+            rpcResultListener = scheduler.wrap(rpcId, rpcResultListener);
+        RpcResultListener listener = rpcResultListener;
+        // 只有在调用者自己的线程上提交时，准入控制才可以排队等待
+        Thread caller = Thread.currentThread();
+        OutboundBuffer.Submission submission = () -> submitLaunchFlow(target, name, projectId, flowId, rpcId, payload, listener,
+                Thread.currentThread() == caller);
+        if (scheduler != null)
+            scheduler.submit(projectId, rpcId, listener, () -> submit(submission, rpcId, payload, listener, trace, null, "launchFlow"));
+        else
+            submit(submission, rpcId, payload, listener, trace, null, "launchFlow");
+    }
+
+    /**
+     * 经过准入控制、熔断器、资源目录后，调用 JNI 启动 IPSC 流程
+     *
+     * @param mayWait 是否在调用者的线程上提交，只有这时准入控制才可以排队等待
+     * @return JNI 函数的返回值。失败时，已撤销之前的各项记录
+     */
+    private int submitLaunchFlow(BusAddress target, String name, String projectId, String flowId,
+                                 String rpcId, String payload, RpcResultListener rpcResultListener, boolean mayWait) {
+        int dstUnitId = target.getUnitId();
+        int dstIpscIndex = target.getClientId();
+        // 准入控制：预留目标 IPSC 的空闲通道
+        AdmissionController admission = this.admissionController;
+        AdmissionController.Ticket ticket = admission == null ? null : admission.acquire(target, name, mayWait);
+        // 熔断器：目标 IPSC 被熔断时，不再提交
+        CircuitBreaker breaker = circuitBreakerOf(target);
+        int permit = breaker == null ? CircuitBreaker.REJECTED : breaker.tryAcquire();
+        if (breaker != null && permit == CircuitBreaker.REJECTED) {
+            if (ticket != null)
+                ticket.release();
+            throw new CircuitOpenException(target);
+        }
+        long startTime = System.currentTimeMillis();
+        // 持久化日志：先于 JNI 调用写入，进程在调用过程中崩溃也能找回
+        ResourceJournal journal = this.journal;
+        if (journal != null) {
+            journal.submitted(rpcId, target, name);
+            rpcResultListener = new JournalListener(journal, target, rpcId, rpcResultListener);
+        }
+        if (ticket != null)
+            rpcResultListener = new AdmissionListener(ticket, rpcId, rpcResultListener);
+        if (breaker != null)
+            rpcResultListener = new CircuitBreakerRecordingListener(breaker, permit, startTime, rpcId, rpcResultListener);
+        // 资源目录：先以 RPC ID 记录资源，收到返回值后再替换为资源ID。
+        // 包装在最外层，其它监听器出错也不会遗留以 RPC ID 记录的资源
+        ResourceDirectory directory = this.resourceDirectory;
+        if (directory != null) {
+            directory.created(rpcId, target);
+            rpcResultListener = new ResourceCreationListener(directory, rpcId, rpcResultListener);
+        }
         // 接收器进入等待队列
         if (rpcResultListener != null) {
             rpcResultListener.setId(rpcId);
-            Unit.pushRpcResultListener(rpcResultListener);
+            Jfr.beginRpc(rpcResultListener, name, target, payload.length());
+            unit.pushRpcResultListener(rpcResultListener);
         }
         // 调用 JNI：启动 IPSC 流程
         this.logger.debug(
-                "createResource: >>> launchFlow(id={}, dstUnitId={}, dstIpscIndex={}, projectId={}, flowId={}, params={})",
-                this.getId(), dstUnitId, dstIpscIndex, projectId, flowId, w.toString()
+                "launchFlow: >>> launchFlow(id={}, dstUnitId={}, dstIpscIndex={}, projectId={}, flowId={}, params={})",
+                this.getId(), dstUnitId, dstIpscIndex, projectId, flowId, payload
         );
-        int fiId = com.hesong.ipsc.busnetcli.Client.launchFlow(
-                this.getId(), dstUnitId, dstIpscIndex, projectId, flowId, 1, 0, w.toString()
+        Object jfrEvent = Jfr.beginSubmit();
+        int fiId = unit.library.launchFlow(
+                this.getId(), dstUnitId, dstIpscIndex, projectId, flowId, 1, 0, payload
         );
-        this.logger.debug("createResource: <<< launchFlow() -> {}", fiId);
+        Jfr.submitted(jfrEvent, name, target, rpcId, payload.length(), fiId);
+        this.logger.debug("launchFlow: <<< launchFlow() -> {}", fiId);
         if (fiId < 0) {
             // 出错了，撤销接收器于等待队列
             if (rpcResultListener != null)
-                Unit.popRpcResultListener(rpcResultListener);
-            throw new RuntimeException(String.format("com.lsxy.app.area.cti.busnetcli.Client.launchFlow() returns %d", fiId));
+                unit.popRpcResultListener(rpcResultListener);
+            if (directory != null)
+                directory.createFailed(rpcId);
+            if (journal != null)
+                journal.failed(rpcId);
+            if (ticket != null)
+                ticket.release();
+            if (breaker != null)
+                breaker.record(permit, true, System.currentTimeMillis() - startTime);
         }
-        //返回 RPC ID
-        this.logger.debug("<<< createResource() -> {}", rpcId);
-        return rpcId;
+        return fiId;
     }
 
     /**
@@ -120,11 +221,25 @@ public class Commander extends Client {
      * @param params            操作方法的参数
      * @param rpcResultListener 调用返回结果监听器. {@code null} 则无结果回调。
      * @return 此次调用的 RPC ID
-     * @throws IOException JSON解码错误
+     * @throws IOException          JSON解码错误
+     * @throws CircuitOpenException 目标 IPSC 的熔断器处于打开状态
      */
     public String operateResource(BusAddress target,
                                   String id, String method, Map<String, Object> params,
                                   RpcResultListener rpcResultListener) throws IOException {
+        return operateResource(target, id, method, params, rpcResultListener, null);
+    }
+
+    /**
+     * 操作指定的CTI服务(IPSC)节点上的 CTI 资源
+     *
+     * @param submitHook 包装实际调用 JNI 的提交，在发送调度器、发送缓冲区、发送管道中排队之后才调用。{@code null} 表示不包装
+     * @see #operateResource(BusAddress, String, String, Map, RpcResultListener)
+     */
+    String operateResource(BusAddress target,
+                           String id, String method, Map<String, Object> params,
+                           RpcResultListener rpcResultListener,
+                           UnaryOperator<OutboundBuffer.Submission> submitHook) throws IOException {
         this.logger.debug(
                 ">>> operateResource(target={}, id={}, method={}, params={}, rpcResultListener={})",
                 target, id, method, params, rpcResultListener
@@ -135,11 +250,13 @@ public class Commander extends Client {
         if (method == null)
             throw new IllegalArgumentException("Argument \"method\" SHOULD NOT be null.");
 
-        int dstUnitId = target.getUnitId();
-        int dstIpscIndex = target.getClientId();
         // name = IPSC 项目ID.流程ID.方法名
         String[] nameParts = method.split(Pattern.quote("."), 3);
         String projectId = nameParts[0];
+        // 调用链跟踪：把跟踪上下文加入参数
+        CallTrace trace = CallTrace.begin(this.tracer, "operateResource");
+        if (trace != null)
+            params = trace.inject(params);
         // 调用流程， IPSC 流程中照这个 ID 进行 RPC 返回
         String rpcId = UUID.randomUUID().toString();
         // 构建 JSON 数据结构格式： [[unit_id, client_id], rpc_id, method, params]
@@ -152,40 +269,557 @@ public class Commander extends Client {
         obj[2] = method;
         obj[3] = params;
         // 序列化！
-        ObjectMapper mapper = new ObjectMapper();
-        Writer w = new CharArrayWriter();
-        mapper.writeValue(w, obj);
-        w.close();
+        String payload = mapper.writeValueAsString(obj);
+        if (trace != null)
+            trace.encoded(rpcId, method, target);
+        sendNotification(target, projectId, id, method, rpcId, payload, rpcResultListener, trace, submitHook);
+        //返回 RPC ID
+        this.logger.debug("<<< operateResource() -> {}", rpcId);
+        return rpcId;
+    }
+
+    /**
+     * 提交操作资源的 RPC：经过熔断器后，调用 JNI 向 IPSC 流程发送订阅通知
+     *
+     * @param target            目标 IPSC 的 BUS 地址
+     * @param projectId         IPSC 项目ID
+     * @param id                要操作的资源的ID
+     * @param method            操作方法名
+     * @param rpcId             RPC ID
+     * @param payload           已序列化的 RPC 数据
+     * @param rpcResultListener 调用返回结果监听器. {@code null} 则无结果回调。
+     * @param submitHook        包装实际调用 JNI 的提交。{@code null} 表示不包装
+     */
+    void sendNotification(BusAddress target, String projectId, String id, String method,
+                          String rpcId, String payload, RpcResultListener rpcResultListener, CallTrace trace,
+                          UnaryOperator<OutboundBuffer.Submission> submitHook) {
+        if (trace != null)
+            rpcResultListener = new TracingListener(trace, rpcId, rpcResultListener);
+        OutboundScheduler scheduler = this.outboundScheduler;
+        if (scheduler != null)
+            rpcResultListener = scheduler.wrap(rpcId, rpcResultListener);
+        RpcResultListener listener = rpcResultListener;
+        OutboundBuffer.Submission submission = () -> submitNotification(target, projectId, id, method, rpcId, payload, listener);
+        if (scheduler != null)
+            scheduler.submit(projectId, rpcId, listener, () -> submit(submission, rpcId, payload, listener, trace, submitHook, "sendNotification"));
+        else
+            submit(submission, rpcId, payload, listener, trace, submitHook, "sendNotification");
+    }
+
+    /**
+     * 提交 RPC。启用了发送缓冲区时，连接断开期间暂存到缓冲区。
+     *
+     * @param submitHook 包装实际调用 JNI 的提交。{@code null} 表示不包装
+     * @param function   JNI 函数名，用于错误信息
+     */
+    private void submit(OutboundBuffer.Submission submission, String rpcId, String payload,
+                        RpcResultListener rpcResultListener, CallTrace trace,
+                        UnaryOperator<OutboundBuffer.Submission> submitHook, String function) {
+        // 启用了发送管道时，由写线程提交
+        OutboundPipeline pipeline = this.outboundPipeline;
+        if (pipeline != null && !pipeline.isWriterThread()) {
+            OutboundBuffer.Submission queued = submission;
+            pipeline.offer(rpcId, rpcResultListener, () -> submit(queued, rpcId, payload, rpcResultListener, trace, submitHook, function));
+            return;
+        }
+        if (trace != null)
+            submission = trace.wrap(submission);
+        if (submitHook != null)
+            submission = submitHook.apply(submission);
+        try {
+            OutboundBuffer buffer = this.outboundBuffer;
+            if (buffer != null) {
+                // 连接断开期间，或者缓冲区中还有更早的调用时，暂存到缓冲区
+                long bufferedAt = System.nanoTime();
+                if (buffer.offer(rpcId, payload.length(), rpcResultListener, submission, getConnected())) {
+                    if (trace != null)
+                        trace.buffered(bufferedAt);
+                    return;
+                }
+                int errCode = submission.submit();
+                // 提交失败，并且连接已断开，同样暂存
+                if (errCode < 0 && !getConnected()) {
+                    bufferedAt = System.nanoTime();
+                    if (buffer.offer(rpcId, payload.length(), rpcResultListener, submission, false)) {
+                        if (trace != null)
+                            trace.buffered(bufferedAt);
+                        return;
+                    }
+                }
+                if (errCode < 0)
+                    throw new RuntimeException(String.format("com.lsxy.app.area.cti.busnetcli.Client.%s() returns %d", function, errCode));
+                return;
+            }
+            int errCode = submission.submit();
+            if (errCode < 0)
+                throw new RuntimeException(String.format("com.lsxy.app.area.cti.busnetcli.Client.%s() returns %d", function, errCode));
+        } catch (RuntimeException e) {
+            if (trace != null)
+                trace.end(0, e.toString());
+            throw e;
+        } finally {
+            unit.signalDrain();
+        }
+    }
+
+    /**
+     * 经过熔断器后，调用 JNI 向 IPSC 流程发送订阅通知
+     *
+     * @return JNI 函数的返回值。失败时，已撤销之前的各项记录
+     */
+    private int submitNotification(BusAddress target, String projectId, String id, String method,
+                                   String rpcId, String payload, RpcResultListener rpcResultListener) {
+        int dstUnitId = target.getUnitId();
+        int dstIpscIndex = target.getClientId();
+        long startTime = System.currentTimeMillis();
+        // 熔断器：目标 IPSC 被熔断时，不再提交
+        CircuitBreaker breaker = circuitBreakerOf(target);
+        int permit = breaker == null ? CircuitBreaker.REJECTED : breaker.tryAcquire();
+        if (breaker != null) {
+            if (permit == CircuitBreaker.REJECTED)
+                throw new CircuitOpenException(target);
+            rpcResultListener = new CircuitBreakerRecordingListener(breaker, permit, startTime, rpcId, rpcResultListener);
+        }
         // 接收器进入等待队列
         if (rpcResultListener != null) {
             rpcResultListener.setId(rpcId);
-            Unit.pushRpcResultListener(rpcResultListener);
+            Jfr.beginRpc(rpcResultListener, method, target, payload.length());
+            unit.pushRpcResultListener(rpcResultListener);
         }
         // 调用 JNI：向 IPSC 流程发送订阅通知
         this.logger.debug(
-                "operateResource: >>> sendNotification(id={}, dstUnitId={}, dstIpscIndex={}, projectId={}, titleId={}, params={})",
-                this.getId(), dstUnitId, dstIpscIndex, projectId, id, w.toString()
+                "sendNotification: >>> sendNotification(id={}, dstUnitId={}, dstIpscIndex={}, projectId={}, titleId={}, params={})",
+                this.getId(), dstUnitId, dstIpscIndex, projectId, id, payload
         );
-        int ivkId = com.hesong.ipsc.busnetcli.Client.sendNotification(
-                this.getId(), dstUnitId, dstIpscIndex, projectId, id, 0, 15 * 1000, w.toString()
+        Object jfrEvent = Jfr.beginSubmit();
+        int ivkId = unit.library.sendNotification(
+                this.getId(), dstUnitId, dstIpscIndex, projectId, id, 0, 15 * 1000, payload
         );
-        this.logger.debug("operateResource: <<< sendNotification() -> {}", ivkId);
+        Jfr.submitted(jfrEvent, method, target, rpcId, payload.length(), ivkId);
+        this.logger.debug("sendNotification: <<< sendNotification() -> {}", ivkId);
         if (ivkId < 0) {
             // 出错了，撤销接收器于等待队列
             if (rpcResultListener != null)
-                Unit.popRpcResultListener(rpcResultListener);
-            throw new RuntimeException(String.format("com.lsxy.app.area.cti.busnetcli.Client.sendNotification() returns %d", ivkId));
+                unit.popRpcResultListener(rpcResultListener);
+            if (breaker != null)
+                breaker.record(permit, true, System.currentTimeMillis() - startTime);
         }
-        //返回 RPC ID
-        this.logger.debug("<<< operateResource() -> {}", rpcId);
-        return rpcId;
+        return ivkId;
+    }
+
+    /**
+     * 操作 CTI 资源，资源所在的 IPSC 节点从 {@link #getResourceDirectory 资源目录} 中查得
+     *
+     * @param id                要操作的资源的ID
+     * @param method            操作方法名
+     * @param params            操作方法的参数
+     * @param rpcResultListener 调用返回结果监听器. {@code null} 则无结果回调。
+     * @return 此次调用的 RPC ID
+     * @throws IOException JSON解码错误
+     */
+    public String operateResource(String id, String method, Map<String, Object> params,
+                                  RpcResultListener rpcResultListener) throws IOException {
+        return operateResource(resolveTarget(id), id, method, params, rpcResultListener);
     }
 
+    /**
+     * 从资源目录中查得资源所在的 IPSC 节点
+     */
+    BusAddress resolveTarget(String id) {
+        ResourceDirectory directory = this.resourceDirectory;
+        if (directory == null)
+            throw new IllegalStateException("No ResourceDirectory was set to this Commander.");
+        BusAddress target = directory.getOwner(id);
+        if (target == null)
+            throw new IllegalArgumentException(String.format("Resource \"%s\" cannot be found in ResourceDirectory.", id));
+        return target;
+    }
+
+    /**
+     * 预先准备一个可重复使用的新建资源调用
+     * <p>
+     * 资源名称的拆分和固定参数的序列化只在这里做一次。适合大量发起参数基本相同的呼叫，如外呼任务中的主叫号码、流程选项、编解码设置等。
+     *
+     * @param name         要新建的资源的名称，参见 {@link #createResource}
+     * @param staticParams 每次调用都相同的参数。可以是 {@code null}
+     * @return 可重复使用的调用
+     * @throws IOException JSON编码错误
+     */
+    public PreparedResource prepareResource(String name, Map<String, Object> staticParams) throws IOException {
+        return new PreparedResource(this, name, staticParams);
+    }
+
+    /**
+     * 预先准备一个可重复使用的资源操作调用
+     * <p>
+     * 操作方法名的拆分以及方法名、固定参数的序列化只在这里做一次。
+     *
+     * @param method       操作方法名，参见 {@link #operateResource}
+     * @param staticParams 每次调用都相同的参数。可以是 {@code null}
+     * @return 可重复使用的调用
+     * @throws IOException JSON编码错误
+     */
+    public PreparedOperation prepareOperation(String method, Map<String, Object> staticParams) throws IOException {
+        return new PreparedOperation(this, method, staticParams);
+    }
+
+    void eventReceived(BusAddress source, RpcRequest request) {
+        ResourceDirectory directory = this.resourceDirectory;
+        if (directory != null)
+            directory.eventReceived(source, request);
+        ResourceJournal journal = this.journal;
+        if (journal != null) {
+            Map<String, Object> params = request.getParams();
+            Object resId = params == null ? null : params.get(ResourceDirectory.RES_ID_KEY);
+            if (resId != null)
+                journal.eventReceived(source, resId.toString(), request.getMethod());
+        }
+        Tracer tracer = this.tracer;
+        if (tracer != null)
+            tracer.eventReceived(request);
+    }
+
+    /**
+     * {@link Unit} 正在排空时，拒绝新建资源
+     */
+    void ensureAccepting() {
+        if (unit.draining)
+            throw new UnitDrainingException(String.format("%s rejected createResource: unit is draining", this));
+    }
+
+    /**
+     * 收到了标准 CCF 事件通知，并且没有需要 {@link RpcRequest} 的事件消费者
+     */
+    void eventReceived(CcfEvent event) {
+        ResourceDirectory directory = this.resourceDirectory;
+        if (directory != null)
+            directory.eventReceived(event.getSource(), event.getResId(), event.getMethod());
+        ResourceJournal journal = this.journal;
+        if (journal != null)
+            journal.eventReceived(event.getSource(), event.getResId(), event.getMethod());
+        Tracer tracer = this.tracer;
+        if (tracer != null)
+            tracer.eventReceived(event);
+    }
+
+    /**
+     * 是否需要解析收到的事件通知
+     * <p>
+     * 除了事件监听器和事件发布者，资源目录、持久化日志、调用链跟踪也要从事件通知中更新资源的归属、释放和调用链。
+     */
+    boolean hasEventConsumer() {
+        return hasRequestConsumer() || resourceDirectory != null || journal != null || tracer != null;
+    }
+
+    /**
+     * 是否有需要 {@link RpcRequest} 的事件消费者，即事件监听器或者事件发布者
+     */
+    boolean hasRequestConsumer() {
+        return eventListener != null || eventPublisher != null;
+    }
+
+    /**
+     * 新建该命令处理器的事件发布者，此后收到的 RPC 事件通知会发布给它的订阅者
+     * <p>
+     * 启用了{@link Unit#startRingBuffer 环形缓冲区}时，事件在环形缓冲区的消费者线程上解码并放入订阅者的缓冲区，
+     * 不经过执行器的队列，执行器拒绝任务时也不会丢失；否则为了不占用底层共享库的 IO 线程，在执行器的任务中解码、发布，
+     * 执行器拒绝的任务中的事件不会发布。投递在该命令处理器的执行器上执行。
+     * {@link OverflowStrategy#CONFLATE} 策略下，按事件参数中的 {@value ResourceDirectory#RES_ID_KEY} 合并，即每个资源只保留最新的事件。
+     * <p>
+     * 事件发布者与 {@link RpcEventListener} 可以同时使用。
+     *
+     * @param strategy   缓冲区溢出策略
+     * @param bufferSize 每个订阅者的缓冲区大小
+     * @return 新建的事件发布者
+     */
+    public EventPublisher<RpcEvent> createEventPublisher(OverflowStrategy strategy, int bufferSize) {
+        EventPublisher<RpcEvent> publisher = new EventPublisher<>(executor, strategy, bufferSize, event -> {
+            Map<String, Object> params = event.getRequest().getParams();
+            return params == null ? null : params.get(ResourceDirectory.RES_ID_KEY);
+        });
+        EventPublisher<RpcEvent> old = this.eventPublisher;
+        this.eventPublisher = publisher;
+        if (old != null)
+            old.complete();
+        return publisher;
+    }
+
+    /**
+     * @return 该命令处理器的事件发布者。{@code null} 表示还没有 {@link #createEventPublisher 新建}
+     */
+    public EventPublisher<RpcEvent> getEventPublisher() {
+        return eventPublisher;
+    }
+
+    /**
+     * @return 该命令处理器的标准 CCF 事件监听器。{@code null} 表示没有设置
+     */
+    public CcfEventListener getCcfEventListener() {
+        return ccfEventListener;
+    }
+
+    /**
+     * 设置该命令处理器的标准 CCF 事件监听器
+     * <p>
+     * 设置之后，收到的呼叫、会议事件通知直接解码为 {@link CallEvent}、{@link ConferenceEvent}，交给这个监听器，
+     * 不再经过 {@link RpcRequest} 和参数 {@link Map}。
+     * 同时还设置了 {@link RpcEventListener} 或者 {@link #createEventPublisher 事件发布者} 时，它们仍然收到 {@link RpcRequest}。
+     * 其它事件通知只交给 {@link RpcEventListener} 和事件发布者。
+     *
+     * @param ccfEventListener 标准 CCF 事件监听器。{@code null} 表示不使用
+     */
+    public void setCcfEventListener(CcfEventListener ccfEventListener) {
+        this.ccfEventListener = ccfEventListener;
+    }
+
+    /**
+     * @return 该命令处理器使用的资源目录。{@code null} 表示不记录资源。
+     */
+    public ResourceDirectory getResourceDirectory() {
+        return resourceDirectory;
+    }
+
+    /**
+     * 设置该命令处理器使用的资源目录
+     * <p>
+     * 设置之后，通过 {@link #createResource} 新建的资源，以及收到的事件通知中的资源，都会记录在这个目录中。
+     * 多个 {@link Commander} 可以共用同一个目录。
+     *
+     * @param resourceDirectory 资源目录。{@code null} 表示不记录资源。
+     */
+    public void setResourceDirectory(ResourceDirectory resourceDirectory) {
+        this.resourceDirectory = resourceDirectory;
+    }
+
+    /**
+     * @return 该命令处理器使用的持久化日志。{@code null} 表示不记录。
+     */
+    public ResourceJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * 设置该命令处理器使用的持久化日志
+     * <p>
+     * 设置之后，通过 {@link #createResource} 新建资源的 RPC 及其结果，以及收到的事件通知中资源的归属、释放，都会写入这个日志。
+     * 多个 {@link Commander} 可以共用同一个日志。
+     *
+     * @param journal 持久化日志。{@code null} 表示不记录。
+     */
+    public void setJournal(ResourceJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return 该命令处理器使用的准入控制器。{@code null} 表示不做准入控制。
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * 设置该命令处理器使用的准入控制器
+     * <p>
+     * 设置之后，{@link #createResource} 在发出请求前会向准入控制器预留目标 IPSC 的空闲通道。
+     * 多个 {@link Commander} 可以共用同一个准入控制器。
+     *
+     * @param admissionController 准入控制器。{@code null} 表示不做准入控制。
+     */
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    private CircuitBreaker circuitBreakerOf(BusAddress target) {
+        AtomicReferenceArray<CircuitBreaker> breakers = this.circuitBreakers;
+        CircuitBreakerConfig config = this.circuitBreakerConfig;
+        if (breakers == null || config == null)
+            return null;
+        int key = target.toKey();
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker == null) {
+            breakers.compareAndSet(key, null, new CircuitBreaker(BusAddress.valueOf(key), config));
+            breaker = breakers.get(key);
+        }
+        return breaker;
+    }
+
+    /**
+     * @param target 目标 IPSC 的 BUS 地址
+     * @return 该命令处理器发往目标 IPSC 的调用所使用的熔断器。{@code null} 表示没有启用熔断器。
+     */
+    public CircuitBreaker getCircuitBreaker(BusAddress target) {
+        return circuitBreakerOf(target);
+    }
+
+    /**
+     * @return 熔断器参数。{@code null} 表示没有启用熔断器。
+     */
+    public CircuitBreakerConfig getCircuitBreakerConfig() {
+        return circuitBreakerConfig;
+    }
+
+    /**
+     * 启用或停用按目标 IPSC 区分的熔断器
+     * <p>
+     * 启用后，{@link #createResource} 和 {@link #operateResource} 的结果（返回、错误、超时、提交失败）
+     * 都会记录到目标 IPSC 的 {@link CircuitBreaker} 中；熔断器打开时，这两个方法直接抛出 {@link CircuitOpenException}。
+     * 重新设置参数会丢弃已有的熔断器及其统计数据。
+     *
+     * @param circuitBreakerConfig 熔断器参数。{@code null} 表示停用熔断器。
+     */
+    public void setCircuitBreakerConfig(CircuitBreakerConfig circuitBreakerConfig) {
+        this.circuitBreakerConfig = circuitBreakerConfig;
+        this.circuitBreakers = circuitBreakerConfig == null ? null : new AtomicReferenceArray<>(0x10000);
+    }
+
+    /**
+     * @return 调用链跟踪。{@code null} 表示未启用
+     */
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * 设置调用链跟踪
+     * <p>
+     * 启用后，在附加了 {@link TraceContext} 的线程上发起的调用，会把跟踪上下文写入 RPC 参数，并记录 SDK 内部各阶段的 Span。
+     *
+     * @param tracer 调用链跟踪。{@code null} 表示不跟踪（默认）
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * @return 发送缓冲区。{@code null} 表示未启用
+     */
+    public OutboundBuffer getOutboundBuffer() {
+        return outboundBuffer;
+    }
+
+    /**
+     * 设置发送缓冲区
+     * <p>
+     * 启用后，连接断开期间的调用暂存在缓冲区中，重新连接成功后再提交。
+     *
+     * @param outboundBuffer 发送缓冲区。{@code null} 表示不使用发送缓冲区（默认）
+     */
+    public void setOutboundBuffer(OutboundBuffer outboundBuffer) {
+        if (outboundBuffer != null) {
+            outboundBuffer.attach(this);
+            if (getConnected())
+                outboundBuffer.flush();
+        }
+        this.outboundBuffer = outboundBuffer;
+    }
+
+    /**
+     * @return 按项目公平调度器。{@code null} 表示未启用
+     */
+    public OutboundScheduler getOutboundScheduler() {
+        return outboundScheduler;
+    }
+
+    /**
+     * 设置按项目公平调度器
+     * <p>
+     * 启用后，进行中的 RPC 达到上限时，新的调用按 IPSC 项目排队，再按各项目的权重轮流提交。
+     *
+     * @param outboundScheduler 按项目公平调度器。{@code null} 表示不使用调度器（默认）
+     */
+    public void setOutboundScheduler(OutboundScheduler outboundScheduler) {
+        if (outboundScheduler != null)
+            outboundScheduler.attach(this);
+        this.outboundScheduler = outboundScheduler;
+    }
+
+    /**
+     * @return 单写者发送管道。{@code null} 表示未启用
+     */
+    public OutboundPipeline getOutboundPipeline() {
+        return outboundPipeline;
+    }
+
+    /**
+     * 设置单写者发送管道，并启动它的写线程
+     * <p>
+     * 启用后，调用者只把调用放入发送管道的队列，由发送管道的写线程调用 JNI 函数。
+     * 提交时的错误以 {@link OutboundPipeline#ERROR_SUBMIT_FAILED} 错误回调，不再抛出异常。
+     * <p>
+     * 原有的发送管道被停止，它的写线程退出，队列中还没有提交的调用在当前线程上按新的配置提交。
+     *
+     * @param outboundPipeline 单写者发送管道。{@code null} 表示在调用者的线程上直接调用 JNI 函数（默认）
+     */
+    public void setOutboundPipeline(OutboundPipeline outboundPipeline) {
+        OutboundPipeline old = this.outboundPipeline;
+        if (outboundPipeline == old)
+            return;
+        if (outboundPipeline != null)
+            outboundPipeline.attach(this);
+        this.outboundPipeline = outboundPipeline;
+        if (old != null)
+            old.stop();
+    }
+
+    /**
+     * @return 分发通道。{@code null} 表示回复和事件共用执行器队列
+     */
+    public DispatchLanes getDispatchLanes() {
+        return dispatchLanes;
+    }
+
+    /**
+     * 设置分发通道
+     * <p>
+     * 启用后，收到的 RPC 回复优先于事件通知处理，见 {@link DispatchLanes}。
+     * 接收线程只读取数据顶层的 Key 决定进入哪条通道，回复在通道中的任务里解码。
+     *
+     * @param dispatchLanes 分发通道。{@code null} 表示回复和事件按到达顺序共用执行器队列（默认）
+     */
+    public void setDispatchLanes(DispatchLanes dispatchLanes) {
+        if (dispatchLanes != null)
+            dispatchLanes.attach(this);
+        this.dispatchLanes = dispatchLanes;
+    }
+
+    /**
+     * @return 是否在接收线程上直接完成不会阻塞的 RPC 结果监听器
+     */
+    public boolean getInlineReplies() {
+        return inlineReplies;
+    }
+
+    /**
+     * 设置是否在接收线程上直接完成不会阻塞的 RPC 结果监听器
+     * <p>
+     * 启用后，如果等待回复的 {@link RpcResultListener#isNonBlocking()} 返回 {@code true}，
+     * 回复在接收线程上直接回调，省去排入执行器和线程切换的时间；其它监听器不受影响。
+     *
+     * @param inlineReplies 是否直接完成。默认是 {@code false}
+     */
+    public void setInlineReplies(boolean inlineReplies) {
+        this.inlineReplies = inlineReplies;
+    }
+
+    @Override
+    void connectResulted(byte connectingUnitId, int errorCode) {
+        super.connectResulted(connectingUnitId, errorCode);
+        OutboundBuffer buffer = this.outboundBuffer;
+        if (buffer != null && getConnected())
+            buffer.flush();
+    }
 
     public Monitor getMonitor() {
         return monitor;
     }
 
+    /**
+     * @return 处理收到的数据的执行器。由 {@link Unit} 新建的是 {@link InstrumentedExecutor}，可以读取它的排队时间等统计数据
+     */
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
     void setMonitor(Monitor monitor) {
         this.monitor = monitor;
     }
@@ -195,4 +829,171 @@ public class Commander extends Client {
         return String.format("<%s unitId=%s, clientId=%s>", Commander.class, getUnitId(), getId());
     }
 
+    /**
+     * 新建资源的结果监听器：更新资源目录后，再转给调用者的监听器
+     */
+    private static class ResourceCreationListener extends ForwardingRpcResultListener {
+        private final ResourceDirectory directory;
+
+        ResourceCreationListener(ResourceDirectory directory, String rpcId, RpcResultListener inner) {
+            super(rpcId, inner);
+            this.directory = directory;
+        }
+
+        @Override
+        protected void onResult(Object result) {
+            directory.createResulted(getId(), result);
+            super.onResult(result);
+        }
+
+        @Override
+        protected void onError(RpcError error) {
+            directory.createFailed(getId());
+            super.onError(error);
+        }
+
+        @Override
+        protected void onTimeout() {
+            directory.createFailed(getId());
+            super.onTimeout();
+        }
+    }
+
+    /**
+     * 新建资源的结果监听器：写入持久化日志后，再转给调用者的监听器
+     */
+    private static class JournalListener extends ForwardingRpcResultListener {
+        private final ResourceJournal journal;
+        private final BusAddress target;
+
+        JournalListener(ResourceJournal journal, BusAddress target, String rpcId, RpcResultListener inner) {
+            super(rpcId, inner);
+            this.journal = journal;
+            this.target = target;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void onResult(Object result) {
+            Object resId = result instanceof Map ? ((Map<String, Object>) result).get(ResourceDirectory.RES_ID_KEY) : null;
+            journal.created(getId(), resId == null ? getId() : resId.toString(), target);
+            super.onResult(result);
+        }
+
+        @Override
+        protected void onError(RpcError error) {
+            journal.failed(getId());
+            super.onError(error);
+        }
+
+        @Override
+        protected void onTimeout() {
+            journal.failed(getId());
+            super.onTimeout();
+        }
+    }
+
+    /**
+     * 新建资源的结果监听器：确认或释放准入控制器中预留的令牌后，再转给调用者的监听器
+     */
+    private static class AdmissionListener extends ForwardingRpcResultListener {
+        private final AdmissionController.Ticket ticket;
+
+        AdmissionListener(AdmissionController.Ticket ticket, String rpcId, RpcResultListener inner) {
+            super(rpcId, inner);
+            this.ticket = ticket;
+        }
+
+        @Override
+        protected void onResult(Object result) {
+            ticket.settle();
+            super.onResult(result);
+        }
+
+        @Override
+        protected void onError(RpcError error) {
+            ticket.release();
+            super.onError(error);
+        }
+
+        @Override
+        protected void onTimeout() {
+            ticket.release();
+            super.onTimeout();
+        }
+    }
+
+    /**
+     * 调用的结果监听器：把结果记录到熔断器后，再转给调用者的监听器
+     */
+    private static class CircuitBreakerRecordingListener extends ForwardingRpcResultListener {
+        private final CircuitBreaker breaker;
+        private final int permit;
+        private final long startTime;
+
+        CircuitBreakerRecordingListener(CircuitBreaker breaker, int permit, long startTime, String rpcId, RpcResultListener inner) {
+            super(rpcId, inner);
+            this.breaker = breaker;
+            this.permit = permit;
+            this.startTime = startTime;
+        }
+
+        @Override
+        protected void onResult(Object result) {
+            breaker.record(permit, false, System.currentTimeMillis() - startTime);
+            super.onResult(result);
+        }
+
+        @Override
+        protected void onError(RpcError error) {
+            breaker.record(permit, true, System.currentTimeMillis() - startTime);
+            super.onError(error);
+        }
+
+        @Override
+        protected void onTimeout() {
+            breaker.record(permit, true, System.currentTimeMillis() - startTime);
+            super.onTimeout();
+        }
+    }
+
+    /**
+     * 调用链跟踪的结果监听器：转给调用者的监听器之后，结束调用的跟踪记录
+     */
+    private static class TracingListener extends ForwardingRpcResultListener {
+        private final CallTrace trace;
+
+        TracingListener(CallTrace trace, String rpcId, RpcResultListener inner) {
+            super(rpcId, inner);
+            this.trace = trace;
+        }
+
+        @Override
+        protected void onResult(Object result) {
+            trace.resulted(result);
+            try {
+                super.onResult(result);
+            } finally {
+                trace.end(receivedTime, null);
+            }
+        }
+
+        @Override
+        protected void onError(RpcError error) {
+            try {
+                super.onError(error);
+            } finally {
+                trace.end(receivedTime, String.format("rpc error %d: %s", error.getCode(), error.getMessage()));
+            }
+        }
+
+        @Override
+        protected void onTimeout() {
+            try {
+                super.onTimeout();
+            } finally {
+                trace.end(0, "timeout");
+            }
+        }
+    }
 }
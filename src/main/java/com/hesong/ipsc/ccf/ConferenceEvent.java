@@ -0,0 +1,111 @@
+package com.hesong.ipsc.ccf;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+
+/**
+ * 会议（{@code sys.conf}）事件
+ */
+public class ConferenceEvent extends CcfEvent {
+    /**
+     * 会议事件名的前缀
+     */
+    public static final String METHOD_PREFIX = "sys.conf.";
+
+    /**
+     * 会议事件的类型
+     */
+    public enum Type {
+        /**
+         * 呼叫加入会议：{@code sys.conf.on_chan_added}
+         */
+        CHANNEL_ADDED,
+        /**
+         * 呼叫退出会议：{@code sys.conf.on_chan_removed}
+         */
+        CHANNEL_REMOVED,
+        /**
+         * 会议录音完成：{@code sys.conf.on_record_completed}
+         */
+        RECORD_COMPLETED,
+        /**
+         * 会议已释放：{@code sys.conf.on_released}
+         */
+        RELEASED,
+        /**
+         * 其它会议事件
+         */
+        OTHER
+    }
+
+    private final Type type;
+    private String callResId;
+    private String recordFile;
+
+    ConferenceEvent(BusAddress source, String method) {
+        super(source, method);
+        this.type = typeOf(method);
+    }
+
+    private static Type typeOf(String method) {
+        switch (method.substring(METHOD_PREFIX.length())) {
+            case "on_chan_added":
+                return Type.CHANNEL_ADDED;
+            case "on_chan_removed":
+                return Type.CHANNEL_REMOVED;
+            case "on_record_completed":
+                return Type.RECORD_COMPLETED;
+            case "on_released":
+                return Type.RELEASED;
+            default:
+                return Type.OTHER;
+        }
+    }
+
+    @Override
+    boolean decodeParam(String name, JsonParser parser) throws IOException {
+        switch (name) {
+            case "call_res_id":
+                callResId = readText(parser);
+                return true;
+            case "record_file":
+                recordFile = readText(parser);
+                return true;
+            default:
+                return super.decodeParam(name, parser);
+        }
+    }
+
+    @Override
+    void dispatchTo(CcfEventListener listener) {
+        listener.onConferenceEvent(this);
+    }
+
+    /**
+     * @return 事件类型
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return 加入或退出会议的呼叫的资源ID（参数 {@code call_res_id}）
+     */
+    public String getCallResId() {
+        return callResId;
+    }
+
+    /**
+     * @return 录音文件（参数 {@code record_file}）
+     */
+    public String getRecordFile() {
+        return recordFile;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s source=%s, method=%s, resId=%s, error=%s>",
+                ConferenceEvent.class, getSource(), getMethod(), getResId(), getError());
+    }
+}
@@ -0,0 +1,152 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link Commander} 执行器前的两条分发通道：RPC 回复通道和事件通知通道
+ * <p>
+ * 不使用分发通道时，回复和事件按到达顺序排在同一个执行器队列中，一阵密集的呼叫事件会推迟回复的处理，
+ * 也就推迟了等待回复的新呼叫。
+ * <p>
+ * 使用分发通道后，收到的数据先放入各自的通道，再向执行器提交一个“取下一个”的任务；
+ * 执行器的线程运行这个任务时，才按优先级决定从哪个通道取数据。因此新到的回复不必排在已提交的事件之后。
+ * <ul>
+ * <li>严格优先（{@code replyWeight} 为 0）：回复通道不空时，总是先处理回复；</li>
+ * <li>加权优先（{@code replyWeight} 大于 0）：两个通道都不空时，每处理 {@code replyWeight} 个回复，处理一个事件，事件不会被饿死。</li>
+ * </ul>
+ * 同一通道内保持到达顺序。
+ * <p>
+ * 使用 {@link Commander#setDispatchLanes} 启用。一组分发通道只能用于一个 {@link Commander}。
+ */
+public class DispatchLanes {
+    private static final Logger logger = LoggerFactory.getLogger(DispatchLanes.class);
+
+    private final int replyWeight;
+    private final ConcurrentLinkedQueue<Runnable> replies = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Runnable> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger credit = new AtomicInteger();
+    private final LongAdder replyCount = new LongAdder();
+    private final LongAdder eventCount = new LongAdder();
+    private Commander commander;
+
+    /**
+     * @param replyWeight 两个通道都不空时，每处理一个事件之前最多处理的回复数量。0 表示严格优先
+     */
+    public DispatchLanes(int replyWeight) {
+        if (replyWeight < 0)
+            throw new IllegalArgumentException("Argument \"replyWeight\" SHOULD NOT be negative.");
+        this.replyWeight = replyWeight;
+    }
+
+    /**
+     * 严格优先的分发通道
+     */
+    public DispatchLanes() {
+        this(0);
+    }
+
+    synchronized void attach(Commander commander) {
+        if (this.commander != null && this.commander != commander)
+            throw new IllegalStateException(String.format("%s is already used by %s", this, this.commander));
+        this.commander = commander;
+    }
+
+    /**
+     * 把任务放入通道，并向执行器提交一个“取下一个”的任务
+     *
+     * @param task  处理收到的数据的任务
+     * @param reply 是否是 RPC 回复
+     * @throws RejectedExecutionException 执行器拒绝了任务
+     */
+    void execute(ThreadPoolExecutor executor, Runnable task, boolean reply) {
+        ConcurrentLinkedQueue<Runnable> lane = reply ? replies : events;
+        lane.offer(task);
+        try {
+            executor.execute(this::runNext);
+        } catch (RejectedExecutionException e) {
+            // 通道中的任务必须与执行器中的任务一一对应
+            if (!lane.remove(task)) {
+                Runnable dropped = next();
+                logger.warn("{} dropped {} instead of rejected task", this, dropped);
+            }
+            throw e;
+        }
+    }
+
+    private void runNext() {
+        Runnable task = next();
+        if (task != null)
+            task.run();
+    }
+
+    private Runnable next() {
+        Runnable task;
+        if (replyWeight == 0 || credit.get() < replyWeight) {
+            task = replies.poll();
+            if (task != null) {
+                if (replyWeight > 0)
+                    credit.incrementAndGet();
+                replyCount.increment();
+                return task;
+            }
+        }
+        task = events.poll();
+        if (task != null) {
+            credit.set(0);
+            eventCount.increment();
+            return task;
+        }
+        // 回复用完了额度，但是没有事件等待
+        task = replies.poll();
+        if (task != null)
+            replyCount.increment();
+        return task;
+    }
+
+    /**
+     * @return 两个通道都不空时，每处理一个事件之前最多处理的回复数量。0 表示严格优先
+     */
+    public int getReplyWeight() {
+        return replyWeight;
+    }
+
+    /**
+     * @return 回复通道中等待的数量
+     */
+    public int getReplyBacklog() {
+        return replies.size();
+    }
+
+    /**
+     * @return 事件通道中等待的数量
+     */
+    public int getEventBacklog() {
+        return events.size();
+    }
+
+    /**
+     * @return 累计经回复通道处理的数量
+     */
+    public long getReplyCount() {
+        return replyCount.sum();
+    }
+
+    /**
+     * @return 累计经事件通道处理的数量
+     */
+    public long getEventCount() {
+        return eventCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s replyWeight=%d>", DispatchLanes.class, replyWeight);
+    }
+}
@@ -0,0 +1,74 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link Unit#drain} 的结果
+ */
+public class DrainReport {
+    private final int inFlightRpcCount;
+    private final List<String> abandonedRpcIds;
+    private final List<String> abandonedBufferedRpcIds;
+    private final int droppedTaskCount;
+    private final long elapsed;
+
+    DrainReport(int inFlightRpcCount, List<String> abandonedRpcIds, List<String> abandonedBufferedRpcIds,
+                int droppedTaskCount, long elapsed) {
+        this.inFlightRpcCount = inFlightRpcCount;
+        this.abandonedRpcIds = Collections.unmodifiableList(abandonedRpcIds);
+        this.abandonedBufferedRpcIds = Collections.unmodifiableList(abandonedBufferedRpcIds);
+        this.droppedTaskCount = droppedTaskCount;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * @return 开始排空时，正在等待结果的 RPC 数量
+     */
+    public int getInFlightRpcCount() {
+        return inFlightRpcCount;
+    }
+
+    /**
+     * @return 到期时仍未收到结果、被放弃的 RPC 的 ID。它们的 {@link RpcResultListener#onError} 以 {@link Unit#ERROR_ABANDONED} 错误回调
+     */
+    public List<String> getAbandonedRpcIds() {
+        return abandonedRpcIds;
+    }
+
+    /**
+     * @return 到期时仍在 {@link OutboundBuffer} 中、没有提交的调用的 RPC ID。它们同样以 {@link Unit#ERROR_ABANDONED} 错误回调
+     */
+    public List<String> getAbandonedBufferedRpcIds() {
+        return abandonedBufferedRpcIds;
+    }
+
+    /**
+     * @return 到期时仍在客户端执行器队列中、被丢弃的任务（收到的回复和事件）数量
+     */
+    public int getDroppedTaskCount() {
+        return droppedTaskCount;
+    }
+
+    /**
+     * @return 排空所用的时间 MILLISECONDS
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return 是否没有放弃任何调用，也没有丢弃任何任务
+     */
+    public boolean isClean() {
+        return abandonedRpcIds.isEmpty() && abandonedBufferedRpcIds.isEmpty() && droppedTaskCount == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "<%s inFlightRpcCount=%d, abandonedRpcs=%d, abandonedBufferedRpcs=%d, droppedTaskCount=%d, elapsed=%d>",
+                DrainReport.class, inFlightRpcCount, abandonedRpcIds.size(), abandonedBufferedRpcIds.size(),
+                droppedTaskCount, elapsed);
+    }
+}
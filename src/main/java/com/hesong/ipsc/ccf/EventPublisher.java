@@ -0,0 +1,317 @@
+package com.hesong.ipsc.ccf;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 支持背压的事件发布者（Reactive Streams {@link Publisher}）
+ * <p>
+ * 每个订阅者有自己的缓冲区，只有在订阅者 {@link Subscription#request 请求} 之后，才会向它投递事件。
+ * 订阅者处理不过来时，按 {@link OverflowStrategy} 处理缓冲区溢出，并计入 {@link #getDroppedCount} 和 {@link #getConflatedCount}，
+ * 不会阻塞或拖慢发布事件的线程。
+ * <p>
+ * 投递在构造时指定的 {@link Executor} 上执行。每个订阅者同时最多只占用该执行器的一个任务，
+ * 所以即使执行器的队列满了，事件也只会留在订阅者的缓冲区中，而不会丢失。
+ *
+ * @param <T> 事件类型
+ */
+public class EventPublisher<T> implements Publisher<T> {
+    private static final Logger logger = LoggerFactory.getLogger(EventPublisher.class);
+    private static final int BATCH_SIZE = 256;
+
+    private final Executor executor;
+    private final OverflowStrategy strategy;
+    private final int bufferSize;
+    private final Function<? super T, ?> conflationKey;
+    private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder conflatedCount = new LongAdder();
+    private volatile boolean completed;
+
+    /**
+     * @param executor      投递事件的执行器
+     * @param strategy      缓冲区溢出策略
+     * @param bufferSize    每个订阅者的缓冲区大小
+     * @param conflationKey {@link OverflowStrategy#CONFLATE} 策略下，从事件得到合并键的函数；键为 {@code null} 的事件不合并
+     */
+    public EventPublisher(Executor executor, OverflowStrategy strategy, int bufferSize, Function<? super T, ?> conflationKey) {
+        if (executor == null)
+            throw new IllegalArgumentException("Argument \"executor\" SHOULD NOT be null.");
+        if (strategy == null)
+            throw new IllegalArgumentException("Argument \"strategy\" SHOULD NOT be null.");
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("Argument \"bufferSize\" SHOULD be positive.");
+        this.executor = executor;
+        this.strategy = strategy;
+        this.bufferSize = bufferSize;
+        this.conflationKey = conflationKey;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("Argument \"subscriber\" SHOULD NOT be null.");
+        EventSubscription subscription = new EventSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        if (completed)
+            subscription.complete();
+    }
+
+    /**
+     * 向所有订阅者发布一个事件
+     *
+     * @param item 事件
+     */
+    void publish(T item) {
+        publishedCount.increment();
+        for (EventSubscription subscription : subscriptions)
+            subscription.offer(item);
+    }
+
+    /**
+     * 结束发布。订阅者收完缓冲区中的事件后，收到 {@link Subscriber#onComplete}
+     */
+    void complete() {
+        completed = true;
+        for (EventSubscription subscription : subscriptions)
+            subscription.complete();
+    }
+
+    /**
+     * @return 当前的订阅者数量
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @return 累计发布的事件数
+     */
+    public long getPublishedCount() {
+        return publishedCount.sum();
+    }
+
+    /**
+     * @return 累计因缓冲区溢出而丢弃的事件数（每个订阅者分别计数）
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return 累计被同一资源的更新事件替换掉的事件数（每个订阅者分别计数）
+     */
+    public long getConflatedCount() {
+        return conflatedCount.sum();
+    }
+
+    public OverflowStrategy getStrategy() {
+        return strategy;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s strategy=%s, bufferSize=%d, subscribers=%d>",
+                EventPublisher.class, strategy, bufferSize, subscriptions.size());
+    }
+
+    private final class EventSubscription implements Subscription, Runnable {
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final ArrayDeque<T> queue;
+        private final LinkedHashMap<Object, T> conflated;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+
+        EventSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+            if (strategy == OverflowStrategy.CONFLATE) {
+                queue = null;
+                conflated = new LinkedHashMap<>();
+            } else {
+                queue = new ArrayDeque<>();
+                conflated = null;
+            }
+        }
+
+        void offer(T item) {
+            if (cancelled || done)
+                return;
+            synchronized (this) {
+                if (queue != null) {
+                    if (queue.size() >= bufferSize) {
+                        droppedCount.increment();
+                        if (strategy == OverflowStrategy.BUFFER)
+                            return;
+                        queue.poll();
+                    }
+                    queue.offer(item);
+                } else {
+                    Object key = conflationKey == null ? null : conflationKey.apply(item);
+                    if (key == null)
+                        key = new Object();
+                    if (conflated.containsKey(key)) {
+                        conflatedCount.increment();
+                    } else if (conflated.size() >= bufferSize) {
+                        droppedCount.increment();
+                        Iterator<T> it = conflated.values().iterator();
+                        it.next();
+                        it.remove();
+                    }
+                    conflated.put(key, item);
+                }
+            }
+            schedule();
+        }
+
+        private synchronized T poll() {
+            if (queue != null)
+                return queue.poll();
+            Iterator<Map.Entry<Object, T>> it = conflated.entrySet().iterator();
+            if (!it.hasNext())
+                return null;
+            T item = it.next().getValue();
+            it.remove();
+            return item;
+        }
+
+        private synchronized boolean isEmpty() {
+            return queue != null ? queue.isEmpty() : conflated.isEmpty();
+        }
+
+        private synchronized void clear() {
+            if (queue != null)
+                queue.clear();
+            else
+                conflated.clear();
+        }
+
+        void complete() {
+            done = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            for (; ; ) {
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // 只归还自己持有的计数；其间其它线程的发布、请求由本线程代为重新提交
+                    missed = wip.addAndGet(-missed);
+                    if (missed == 0) {
+                        // 事件仍在缓冲区中，等下一次发布或请求时再投递
+                        logger.warn("{} drain rejected by executor", this);
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Rule 3.9: request amount SHOULD be positive."));
+                return;
+            }
+            for (; ; ) {
+                long r = requested.get();
+                long u = r + n;
+                if (u < 0)
+                    u = Long.MAX_VALUE;
+                if (requested.compareAndSet(r, u))
+                    break;
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            clear();
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            int batch = 0;
+            for (; ; ) {
+                long r = requested.get();
+                long e = 0;
+                while (e != r) {
+                    if (cancelled)
+                        return;
+                    T item = poll();
+                    if (item == null)
+                        break;
+                    try {
+                        subscriber.onNext(item);
+                    } catch (Throwable t) {
+                        logger.error(String.format("%s subscriber.onNext() error", this), t);
+                        cancel();
+                        return;
+                    }
+                    e++;
+                    if (++batch >= BATCH_SIZE)
+                        break;
+                }
+                if (e != 0 && r != Long.MAX_VALUE)
+                    requested.addAndGet(-e);
+                if (cancelled)
+                    return;
+                if (done && isEmpty()) {
+                    cancelled = true;
+                    subscriptions.remove(this);
+                    subscriber.onComplete();
+                    return;
+                }
+                if (batch >= BATCH_SIZE) {
+                    // 让出执行器线程，给其它订阅者和任务机会
+                    try {
+                        executor.execute(this);
+                        return;
+                    } catch (RejectedExecutionException ignore) {
+                        batch = 0;
+                        continue;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0)
+                    break;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("<%s subscriber=%s>", EventSubscription.class, subscriber);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按 {@link FaultInjector} 的设置注入故障和延迟的 {@link BusLibrary}
+ * <p>
+ * 包装真实的（或者模拟的）共享库：提交在调用者的线程上附加延迟或者直接失败；
+ * 收到的回调先交给 {@link Interceptor}，取样延迟后在 {@code ccf-fault-io} 线程上转交给 {@link Unit} 的回调处理器。
+ *
+ * @see Unit#setFaultInjector
+ */
+class FaultInjectingBus implements BusLibrary {
+    private static final Logger logger = LoggerFactory.getLogger(FaultInjectingBus.class);
+
+    private final BusLibrary inner;
+    private final FaultInjector injector;
+    // 被断开的客户端，期间提交失败，收到的数据被丢弃
+    private final Set<Byte> down = ConcurrentHashMap.newKeySet();
+    // 客户端连接的接入点单元ID，重新连接时使用
+    private final Map<Byte, Integer> accessPoints = new ConcurrentHashMap<>();
+    private ScheduledThreadPoolExecutor io;
+    private volatile LibCallbackHandler callbacks;
+
+    FaultInjectingBus(BusLibrary inner, FaultInjector injector) {
+        if (inner == null)
+            throw new IllegalArgumentException("Argument \"inner\" SHOULD NOT be null.");
+        if (injector == null)
+            throw new IllegalArgumentException("Argument \"injector\" SHOULD NOT be null.");
+        this.inner = inner;
+        this.injector = injector;
+        injector.attach(this);
+    }
+
+    /**
+     * @return 被包装的共享库
+     */
+    BusLibrary getInner() {
+        return inner;
+    }
+
+    @Override
+    public synchronized int initiateLibrary(byte localUnitId) {
+        int errCode = inner.initiateLibrary(localUnitId);
+        if (errCode != 0)
+            return errCode;
+        io = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "ccf-fault-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.warn("initiateLibrary(localUnitId={}) {}", localUnitId, this);
+        return 0;
+    }
+
+    @Override
+    public void setCallbacks(LibCallbackHandler callbacks) {
+        this.callbacks = callbacks;
+        inner.setCallbacks(new Interceptor(callbacks));
+    }
+
+    @Override
+    public synchronized void releaseLibrary() {
+        inner.releaseLibrary();
+        if (io != null) {
+            io.shutdownNow();
+            io = null;
+        }
+        down.clear();
+    }
+
+    @Override
+    public byte getBusUnitId(byte localUnitId) {
+        return inner.getBusUnitId(localUnitId);
+    }
+
+    @Override
+    public int createConnect(byte localClientId, byte clientType, String ip, short port) {
+        return inner.createConnect(localClientId, clientType, ip, port);
+    }
+
+    @Override
+    public int launchFlow(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String flowId,
+                          int mode, int timeout, String payload) {
+        if (failSubmit(localClientId))
+            return injector.getSubmitFailureCode();
+        return inner.launchFlow(localClientId, dstUnitId, dstIpscIndex, projectId, flowId, mode, timeout, payload);
+    }
+
+    @Override
+    public int sendNotification(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String titleId,
+                                int mode, int expires, String payload) {
+        if (failSubmit(localClientId))
+            return injector.getSubmitFailureCode();
+        return inner.sendNotification(localClientId, dstUnitId, dstIpscIndex, projectId, titleId, mode, expires, payload);
+    }
+
+    /**
+     * 在调用者的线程上附加提交延迟，然后决定这次提交是否失败
+     *
+     * @return 是否失败
+     */
+    private boolean failSubmit(byte localClientId) {
+        long delay = injector.sample(injector.getSubmitLatency());
+        if (delay > 0)
+            LockSupport.parkNanos(delay);
+        if (down.contains(localClientId) || injector.chance(injector.getSubmitFailureRatio())) {
+            injector.submitFailed();
+            return true;
+        }
+        return false;
+    }
+
+    void disconnect(byte localClientId) {
+        if (!down.add(localClientId))
+            return;
+        logger.warn("inject disconnect(localClientId={})", localClientId);
+        deliver(() -> callbacks.disconnect(localClientId), 0);
+    }
+
+    void reconnect(byte localClientId) {
+        if (!down.remove(localClientId))
+            return;
+        logger.warn("inject reconnect(localClientId={})", localClientId);
+        int accessPointUnitId = accessPoints.getOrDefault(localClientId, 0);
+        deliver(() -> callbacks.connect(localClientId, accessPointUnitId, 0), 0);
+    }
+
+    void reconnectLater(byte localClientId, long delay) {
+        ScheduledThreadPoolExecutor io = executor();
+        io.schedule(() -> reconnect(localClientId), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledThreadPoolExecutor executor() {
+        if (io == null)
+            throw new IllegalStateException(String.format("%s is not initiated", this));
+        return io;
+    }
+
+    /**
+     * 在 {@code ccf-fault-io} 线程上执行回调
+     *
+     * @param delay 延迟 NANOSECONDS
+     */
+    private void deliver(Runnable callback, long delay) {
+        ScheduledThreadPoolExecutor io;
+        synchronized (this) {
+            io = this.io;
+        }
+        if (io == null)
+            return;
+        Runnable task = () -> {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                logger.error("error occurred in callback", e);
+            }
+        };
+        if (delay > 0)
+            io.schedule(task, delay, TimeUnit.NANOSECONDS);
+        else
+            io.execute(task);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s inner=%s, injector=%s>", FaultInjectingBus.class, inner, injector);
+    }
+
+    /**
+     * 截获被包装的共享库的回调，注入故障后转交给 {@link Unit} 的回调处理器
+     */
+    private class Interceptor extends LibCallbackHandler {
+        Interceptor(LibCallbackHandler target) {
+            super(target.unit);
+        }
+
+        @Override
+        public void globalConnect(byte unitId, byte clientId, byte clientType, byte status, String addInfo) {
+            deliver(() -> callbacks.globalConnect(unitId, clientId, clientType, status, addInfo), 0);
+        }
+
+        @Override
+        public void connect(byte localClientId, int accessPointUnitId, int errorCode) {
+            if (errorCode == 0)
+                accessPoints.put(localClientId, accessPointUnitId);
+            deliver(() -> callbacks.connect(localClientId, accessPointUnitId, errorCode), 0);
+        }
+
+        @Override
+        public void disconnect(byte localClientId) {
+            deliver(() -> callbacks.disconnect(localClientId), 0);
+        }
+
+        @Override
+        void data(byte cmdType, byte srcUnitId, byte srcClientId, byte dstClientId, byte[] bytes) {
+            boolean reply = cmdType == (byte) 3 && decodeReply(bytes) != null;
+            if (down.contains(dstClientId)) {
+                if (reply)
+                    injector.replyDropped();
+                return;
+            }
+            Runnable callback = () -> callbacks.data(cmdType, srcUnitId, srcClientId, dstClientId, bytes);
+            long delay = injector.sample(injector.getInboundLatency());
+            if (reply) {
+                if (injector.chance(injector.getReplyDropRatio())) {
+                    injector.replyDropped();
+                    return;
+                }
+                if (injector.chance(injector.getReplyDuplicateRatio())) {
+                    injector.replyDuplicated();
+                    deliver(callback, delay);
+                }
+            } else if (injector.chance(injector.getEventReorderRatio())) {
+                // 推迟这个事件，在此期间到达的事件排到它前面
+                injector.eventReordered();
+                delay += TimeUnit.MILLISECONDS.toNanos(injector.getEventReorderDelay());
+            }
+            deliver(callback, delay);
+        }
+    }
+}
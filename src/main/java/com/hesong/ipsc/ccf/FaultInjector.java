@@ -0,0 +1,294 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CTI BUS 通道的故障与延迟注入
+ * <p>
+ * 用于在测试环境中观察呼叫流程和 SDK 的超时、熔断、缓冲等机制在 CTI BUS 缓慢、丢包、反复断开时的表现，不必对真实的 IPSC 制造故障。
+ * 使用 {@link Unit#setFaultInjector} 在 {@link Unit#initiate} 之前安装，之后：
+ * <ul>
+ * <li>{@code launchFlow} / {@code sendNotification} 等 JNI 提交：附加 {@link #setSubmitLatency 延迟}（在调用者的线程上等待），
+ * 按 {@link #setSubmitFailureRatio 比例} 返回 {@link #setSubmitFailureCode 错误码} 而不提交；</li>
+ * <li>收到的数据：附加 {@link #setInboundLatency 延迟}，按比例 {@link #setReplyDropRatio 丢弃}、{@link #setReplyDuplicateRatio 重复}
+ * RPC 回复，按比例 {@link #setEventReorderRatio 推迟}事件通知，使其排到之后的事件后面；</li>
+ * <li>{@link #disconnect}、{@link #flap}：模拟客户端与 CTI BUS 的连接断开、重新连接。断开期间提交失败，收到的数据被丢弃。</li>
+ * </ul>
+ * 所有收到的回调（包括连接状态）都转到一个专用的线程（{@code ccf-fault-io}）上按顺序执行，以保持与真实共享库一样的单线程回调。
+ * <p>
+ * 所有随机决定都来自同一个以 {@code seed} 初始化的随机数发生器。单线程提交时，同一个种子产生同样的故障序列；
+ * 多线程提交时，序列还取决于线程的交错。
+ * <p>
+ * 各项参数可以在运行中修改。<strong>不要</strong>在生产环境中使用。
+ */
+public class FaultInjector {
+    private final long seed;
+    private final Random random;
+    private final LongAdder submitFailureCount = new LongAdder();
+    private final LongAdder droppedReplyCount = new LongAdder();
+    private final LongAdder duplicatedReplyCount = new LongAdder();
+    private final LongAdder reorderedEventCount = new LongAdder();
+    private final LongAdder disconnectCount = new LongAdder();
+    private volatile ServiceTime submitLatency;
+    private volatile double submitFailureRatio;
+    private volatile int submitFailureCode = -1;
+    private volatile ServiceTime inboundLatency;
+    private volatile double replyDropRatio;
+    private volatile double replyDuplicateRatio;
+    private volatile double eventReorderRatio;
+    private volatile long eventReorderDelay = 50;
+    private volatile FaultInjectingBus bus;
+
+    /**
+     * @param seed 随机数种子
+     */
+    public FaultInjector(long seed) {
+        this.seed = seed;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 使用当前时间作为随机数种子
+     */
+    public FaultInjector() {
+        this(System.nanoTime());
+    }
+
+    void attach(FaultInjectingBus bus) {
+        if (this.bus != null)
+            throw new IllegalStateException(String.format("%s is already installed", this));
+        this.bus = bus;
+    }
+
+    private FaultInjectingBus bus() {
+        FaultInjectingBus bus = this.bus;
+        if (bus == null)
+            throw new IllegalStateException(String.format("%s is not installed, call Unit.setFaultInjector() first", this));
+        return bus;
+    }
+
+    /**
+     * @return 是否发生概率为 {@code ratio} 的事件
+     */
+    boolean chance(double ratio) {
+        return ratio > 0 && random.nextDouble() < ratio;
+    }
+
+    /**
+     * @return 取样的延迟 NANOSECONDS。0 表示不附加延迟
+     */
+    long sample(ServiceTime latency) {
+        return latency == null ? 0 : latency.sampleNanos(random);
+    }
+
+    /**
+     * 断开客户端与 CTI BUS 的连接，直到 {@link #reconnect}
+     *
+     * @param localClientId 本地客户端ID
+     */
+    public void disconnect(byte localClientId) {
+        disconnectCount.increment();
+        bus().disconnect(localClientId);
+    }
+
+    /**
+     * 重新连接由 {@link #disconnect} 断开的客户端
+     *
+     * @param localClientId 本地客户端ID
+     */
+    public void reconnect(byte localClientId) {
+        bus().reconnect(localClientId);
+    }
+
+    /**
+     * 断开客户端的连接，{@code downTime} 毫秒后重新连接
+     *
+     * @param localClientId 本地客户端ID
+     * @param downTime      断开的时间 MILLISECONDS
+     */
+    public void flap(byte localClientId, long downTime) {
+        disconnect(localClientId);
+        bus().reconnectLater(localClientId, downTime);
+    }
+
+    /**
+     * @return 随机数种子
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    ServiceTime getSubmitLatency() {
+        return submitLatency;
+    }
+
+    /**
+     * 设置每次 JNI 提交附加的延迟
+     *
+     * @param spec 延迟分布，格式见 {@link ServiceTime}，例如 {@code "exp:5"}。{@code null} 表示不附加
+     */
+    public void setSubmitLatency(String spec) {
+        this.submitLatency = spec == null ? null : ServiceTime.parse(spec);
+    }
+
+    /**
+     * @return JNI 提交失败的比例
+     */
+    public double getSubmitFailureRatio() {
+        return submitFailureRatio;
+    }
+
+    public void setSubmitFailureRatio(double submitFailureRatio) {
+        checkRatio("submitFailureRatio", submitFailureRatio);
+        this.submitFailureRatio = submitFailureRatio;
+    }
+
+    /**
+     * @return JNI 提交失败时的返回值。默认是 -1
+     */
+    public int getSubmitFailureCode() {
+        return submitFailureCode;
+    }
+
+    public void setSubmitFailureCode(int submitFailureCode) {
+        if (submitFailureCode >= 0)
+            throw new IllegalArgumentException("Argument \"submitFailureCode\" SHOULD be negative.");
+        this.submitFailureCode = submitFailureCode;
+    }
+
+    ServiceTime getInboundLatency() {
+        return inboundLatency;
+    }
+
+    /**
+     * 设置收到的数据附加的延迟
+     *
+     * @param spec 延迟分布，格式同 {@link #setSubmitLatency}。{@code null} 表示不附加
+     */
+    public void setInboundLatency(String spec) {
+        this.inboundLatency = spec == null ? null : ServiceTime.parse(spec);
+    }
+
+    /**
+     * @return 丢弃 RPC 回复的比例
+     */
+    public double getReplyDropRatio() {
+        return replyDropRatio;
+    }
+
+    public void setReplyDropRatio(double replyDropRatio) {
+        checkRatio("replyDropRatio", replyDropRatio);
+        this.replyDropRatio = replyDropRatio;
+    }
+
+    /**
+     * @return 重复 RPC 回复的比例
+     */
+    public double getReplyDuplicateRatio() {
+        return replyDuplicateRatio;
+    }
+
+    public void setReplyDuplicateRatio(double replyDuplicateRatio) {
+        checkRatio("replyDuplicateRatio", replyDuplicateRatio);
+        this.replyDuplicateRatio = replyDuplicateRatio;
+    }
+
+    /**
+     * @return 推迟事件通知的比例
+     */
+    public double getEventReorderRatio() {
+        return eventReorderRatio;
+    }
+
+    /**
+     * @return 被推迟的事件通知额外的延迟 MILLISECONDS
+     */
+    public long getEventReorderDelay() {
+        return eventReorderDelay;
+    }
+
+    /**
+     * 设置事件通知乱序
+     *
+     * @param eventReorderRatio 推迟事件通知的比例
+     * @param eventReorderDelay 被推迟的事件通知额外的延迟 MILLISECONDS，在此期间到达的事件排到它前面
+     */
+    public void setEventReorder(double eventReorderRatio, long eventReorderDelay) {
+        checkRatio("eventReorderRatio", eventReorderRatio);
+        if (eventReorderDelay <= 0)
+            throw new IllegalArgumentException("Argument \"eventReorderDelay\" SHOULD be positive.");
+        this.eventReorderRatio = eventReorderRatio;
+        this.eventReorderDelay = eventReorderDelay;
+    }
+
+    /**
+     * 设置事件通知乱序，被推迟的事件额外延迟 50 毫秒
+     *
+     * @param eventReorderRatio 推迟事件通知的比例
+     */
+    public void setEventReorderRatio(double eventReorderRatio) {
+        setEventReorder(eventReorderRatio, eventReorderDelay);
+    }
+
+    private static void checkRatio(String name, double ratio) {
+        if (ratio < 0 || ratio > 1)
+            throw new IllegalArgumentException(String.format("Argument \"%s\" SHOULD be between 0 and 1.", name));
+    }
+
+    void submitFailed() {
+        submitFailureCount.increment();
+    }
+
+    void replyDropped() {
+        droppedReplyCount.increment();
+    }
+
+    void replyDuplicated() {
+        duplicatedReplyCount.increment();
+    }
+
+    void eventReordered() {
+        reorderedEventCount.increment();
+    }
+
+    /**
+     * @return 累计注入的提交失败次数，包括连接断开期间的
+     */
+    public long getSubmitFailureCount() {
+        return submitFailureCount.sum();
+    }
+
+    /**
+     * @return 累计丢弃的回复数量，包括连接断开期间的
+     */
+    public long getDroppedReplyCount() {
+        return droppedReplyCount.sum();
+    }
+
+    /**
+     * @return 累计重复的回复数量
+     */
+    public long getDuplicatedReplyCount() {
+        return duplicatedReplyCount.sum();
+    }
+
+    /**
+     * @return 累计推迟的事件数量
+     */
+    public long getReorderedEventCount() {
+        return reorderedEventCount.sum();
+    }
+
+    /**
+     * @return 累计断开连接的次数
+     */
+    public long getDisconnectCount() {
+        return disconnectCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s seed=%d>", FaultInjector.class, seed);
+    }
+}
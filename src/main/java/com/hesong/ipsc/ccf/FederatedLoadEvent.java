@@ -0,0 +1,52 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * {@link FederatedMonitor} 收到的CTI服务器负载变化，由 {@link FederatedMonitor#getLoadPublisher} 发布
+ */
+public class FederatedLoadEvent {
+    private final ServerKey key;
+    private final BusAddress source;
+    private final ServerInfo serverInfo;
+    private final long version;
+
+    FederatedLoadEvent(ServerKey key, BusAddress source, ServerInfo serverInfo, long version) {
+        this.key = key;
+        this.source = source;
+        this.serverInfo = serverInfo;
+        this.version = version;
+    }
+
+    /**
+     * @return CTI服务器的标识
+     */
+    public ServerKey getKey() {
+        return key;
+    }
+
+    /**
+     * @return 变化事件发送者在它所属的 CTI BUS 中的地址
+     */
+    public BusAddress getSource() {
+        return source;
+    }
+
+    /**
+     * @return CTI服务器信息
+     */
+    public ServerInfo getServerInfo() {
+        return serverInfo;
+    }
+
+    /**
+     * @return 包含这次变化的 {@link FederatedSnapshot} 的版本号
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s key=%s, source=%s, version=%d, serverInfo=%s>",
+                FederatedLoadEvent.class, key, source, version, serverInfo);
+    }
+}
@@ -0,0 +1,176 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * 多个 CTI BUS 的联合负载视图
+ * <p>
+ * 每个 {@link Monitor} 只连接一个 CTI BUS 服务器，它的 {@link Monitor#getServerInfoMap()} 只以 IPSC ID 为键，
+ * 不同 CTI BUS 下的 IPSC ID 可能相同。联合视图订阅多个 {@link Monitor}，以 {@link ServerKey}（CTI BUS 服务器加 IPSC ID）为键，
+ * 合并它们收到的负载信息：
+ * <ul>
+ * <li>{@link #snapshot()}：所有 CTI BUS 的CTI服务器在同一个版本时的快照。没有变化时返回同一个快照；</li>
+ * <li>{@link #createLoadPublisher}：所有 CTI BUS 的负载变化的统一事件流，每个事件带有包含它的快照的版本号。</li>
+ * </ul>
+ * 每个 CTI BUS 的服务器表是不可修改的，写时复制：每收到一次负载信息，复制该服务器的信息一次（快照和事件共用这个副本），
+ * 再复制它所在的 CTI BUS 的服务器表并整体替换，开销与该 CTI BUS 下的CTI服务器数量成正比。
+ * 建立快照时只复制各 CTI BUS 的服务器表的引用，开销与 CTI BUS 的数量成正比，与CTI服务器的总数无关。
+ */
+public class FederatedMonitor {
+    private static final Logger logger = LoggerFactory.getLogger(FederatedMonitor.class);
+
+    private final Map<Monitor, Observer> observers = new ConcurrentHashMap<>();
+    // 各个 CTI BUS 的不可修改的服务器表，更新时整体替换，由 this 保护
+    private final Map<String, Map<ServerKey, ServerInfo>> buses = new HashMap<>();
+    private volatile long version;
+    private volatile FederatedSnapshot snapshot = FederatedSnapshot.EMPTY;
+    private volatile EventPublisher<FederatedLoadEvent> loadPublisher;
+
+    /**
+     * 订阅一个 {@link Monitor} 的负载信息
+     *
+     * @param monitor 监控客户端
+     */
+    public void add(Monitor monitor) {
+        if (monitor == null)
+            throw new IllegalArgumentException("Argument \"monitor\" SHOULD NOT be null.");
+        Observer observer = new Observer(busOf(monitor));
+        if (observers.putIfAbsent(monitor, observer) != null)
+            return;
+        monitor.addObserver(observer);
+        logger.info("{} add {} (bus={})", this, monitor, observer.bus);
+    }
+
+    /**
+     * 取消订阅一个 {@link Monitor}，并从视图中删除它所连接的 CTI BUS 的CTI服务器
+     *
+     * @param monitor 监控客户端
+     */
+    public void remove(Monitor monitor) {
+        Observer observer = observers.remove(monitor);
+        if (observer == null)
+            return;
+        monitor.removeObserver(observer);
+        synchronized (this) {
+            observer.removed = true;
+            // 同一个 CTI BUS 可能还有其它的监控客户端
+            for (Observer other : observers.values()) {
+                if (other.bus.equals(observer.bus))
+                    return;
+            }
+            if (buses.remove(observer.bus) != null)
+                ++version;
+        }
+        logger.info("{} remove {} (bus={})", this, monitor, observer.bus);
+    }
+
+    private static String busOf(Monitor monitor) {
+        return monitor.getIp() + ":" + monitor.getPort();
+    }
+
+    private void updated(Observer observer, ServerKey key, BusAddress source, ServerInfo serverInfo) {
+        ServerInfo copy = serverInfo.copy();
+        long v;
+        synchronized (this) {
+            if (observer.removed)
+                return;
+            Map<ServerKey, ServerInfo> old = buses.get(key.getBus());
+            Map<ServerKey, ServerInfo> servers = old == null ? new HashMap<>() : new HashMap<>(old);
+            servers.put(key, copy);
+            buses.put(key.getBus(), Collections.unmodifiableMap(servers));
+            v = ++version;
+        }
+        EventPublisher<FederatedLoadEvent> publisher = this.loadPublisher;
+        if (publisher != null)
+            publisher.publish(new FederatedLoadEvent(key, source, copy, v));
+    }
+
+    /**
+     * 联合视图当前的快照
+     * <p>
+     * 视图没有变化时，直接返回上一次的快照；否则以各 CTI BUS 当前的服务器表建立新的快照，不复制服务器表的内容。
+     *
+     * @return 不可修改的快照
+     */
+    public FederatedSnapshot snapshot() {
+        FederatedSnapshot current = this.snapshot;
+        if (current.getVersion() == version)
+            return current;
+        synchronized (this) {
+            current = this.snapshot;
+            if (current.getVersion() != version) {
+                current = new FederatedSnapshot(version, new HashMap<>(buses));
+                this.snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * @return 联合视图的版本号，每次变化加1
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 新建联合视图的负载变化发布者，此后所有 CTI BUS 的负载变化都会发布给它的订阅者
+     * <p>
+     * {@link OverflowStrategy#CONFLATE} 策略下，每个CTI服务器（按 {@link ServerKey}）只保留最新的负载信息。
+     *
+     * @param executor   投递事件的执行器
+     * @param strategy   缓冲区溢出策略
+     * @param bufferSize 每个订阅者的缓冲区大小
+     * @return 新建的负载变化发布者
+     */
+    public EventPublisher<FederatedLoadEvent> createLoadPublisher(Executor executor, OverflowStrategy strategy, int bufferSize) {
+        EventPublisher<FederatedLoadEvent> publisher = new EventPublisher<>(
+                executor, strategy, bufferSize, FederatedLoadEvent::getKey
+        );
+        EventPublisher<FederatedLoadEvent> old = this.loadPublisher;
+        this.loadPublisher = publisher;
+        if (old != null)
+            old.complete();
+        return publisher;
+    }
+
+    /**
+     * @return 联合视图的负载变化发布者。{@code null} 表示还没有 {@link #createLoadPublisher 新建}
+     */
+    public EventPublisher<FederatedLoadEvent> getLoadPublisher() {
+        return loadPublisher;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s monitors=%d>", FederatedMonitor.class, observers.size());
+    }
+
+    /**
+     * 一个 {@link Monitor} 的观察者，把它收到的负载信息以 {@link ServerKey} 合并到联合视图
+     */
+    private class Observer implements MonitorEventListener {
+        final String bus;
+        // 已取消订阅，正在通知中的负载信息不再合并
+        boolean removed;
+        // 复用 ServerKey，避免每次收到负载信息都新建
+        private final Map<String, ServerKey> keys = new ConcurrentHashMap<>();
+
+        Observer(String bus) {
+            this.bus = bus;
+        }
+
+        @Override
+        public void onServerLoadChanged(BusAddress source, ServerInfo serverInfo) {
+            ServerKey key = keys.computeIfAbsent(serverInfo.getId(), id -> new ServerKey(bus, id));
+            updated(this, key, source, serverInfo);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * {@link FederatedMonitor} 在某个版本时的不可修改快照
+ * <p>
+ * 由各个 CTI BUS 的不可修改的服务器表组成，{@link #getServers()} 是它们的合并视图，不复制。
+ *
+ * @see FederatedMonitor#snapshot
+ */
+public class FederatedSnapshot {
+    static final FederatedSnapshot EMPTY = new FederatedSnapshot(0, Collections.emptyMap());
+
+    private final long version;
+    private final Map<String, Map<ServerKey, ServerInfo>> buses;
+    private final Map<ServerKey, ServerInfo> servers;
+
+    /**
+     * @param buses 各个 CTI BUS 的服务器表，服务器表不会再被修改
+     */
+    FederatedSnapshot(long version, Map<String, Map<ServerKey, ServerInfo>> buses) {
+        this.version = version;
+        this.buses = buses;
+        this.servers = new ComposedMap(buses);
+    }
+
+    /**
+     * @return 快照的版本号
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return 所有CTI服务器的信息
+     */
+    public Map<ServerKey, ServerInfo> getServers() {
+        return servers;
+    }
+
+    /**
+     * @param key CTI服务器的标识
+     * @return CTI服务器的信息。{@code null} 表示没有该服务器
+     */
+    public ServerInfo getServerInfo(ServerKey key) {
+        Map<ServerKey, ServerInfo> bus = buses.get(key.getBus());
+        return bus == null ? null : bus.get(key);
+    }
+
+    /**
+     * @param bus CTI BUS 服务器，格式是 {@code ip:port}
+     * @return 该 CTI BUS 下所有CTI服务器的信息
+     */
+    public List<ServerInfo> getServers(String bus) {
+        Map<ServerKey, ServerInfo> servers = buses.get(bus);
+        return servers == null ? new ArrayList<>() : new ArrayList<>(servers.values());
+    }
+
+    /**
+     * @return CTI服务器的数量
+     */
+    public int size() {
+        return servers.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s version=%d, servers=%d>", FederatedSnapshot.class, version, servers.size());
+    }
+
+    /**
+     * 各个 CTI BUS 的服务器表的不可修改的合并视图
+     */
+    private static final class ComposedMap extends AbstractMap<ServerKey, ServerInfo> {
+        private final Map<String, Map<ServerKey, ServerInfo>> buses;
+        private final int size;
+
+        ComposedMap(Map<String, Map<ServerKey, ServerInfo>> buses) {
+            this.buses = buses;
+            int size = 0;
+            for (Map<ServerKey, ServerInfo> servers : buses.values())
+                size += servers.size();
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public ServerInfo get(Object key) {
+            if (!(key instanceof ServerKey))
+                return null;
+            Map<ServerKey, ServerInfo> servers = buses.get(((ServerKey) key).getBus());
+            return servers == null ? null : servers.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<ServerKey, ServerInfo>> entrySet() {
+            return new AbstractSet<Entry<ServerKey, ServerInfo>>() {
+                @Override
+                public Iterator<Entry<ServerKey, ServerInfo>> iterator() {
+                    Iterator<Map<ServerKey, ServerInfo>> outer = buses.values().iterator();
+                    return new Iterator<Entry<ServerKey, ServerInfo>>() {
+                        private Iterator<Entry<ServerKey, ServerInfo>> inner = Collections.emptyIterator();
+
+                        @Override
+                        public boolean hasNext() {
+                            while (!inner.hasNext() && outer.hasNext())
+                                inner = outer.next().entrySet().iterator();
+                            return inner.hasNext();
+                        }
+
+                        @Override
+                        public Entry<ServerKey, ServerInfo> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            return inner.next();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * 把 RPC 结果转给另一个监听器的监听器
+ * <p>
+ * SDK 内部需要在调用者的监听器之前处理 RPC 结果时（例如更新资源目录），用它包装调用者的监听器。
+ * 被包装的监听器可以是 {@code null}，此时只执行内部处理。
+ */
+abstract class ForwardingRpcResultListener extends RpcResultListener {
+    final RpcResultListener inner;
+
+    /**
+     * @param rpcId 被包装的 RPC 的 ID
+     * @param inner 被包装的监听器，可以是 {@code null}
+     */
+    ForwardingRpcResultListener(String rpcId, RpcResultListener inner) {
+        this.inner = inner;
+        setId(rpcId);
+        if (inner != null) {
+            this.timeout = inner.getTimeout();
+            inner.setId(rpcId);
+        }
+    }
+
+    @Override
+    protected void onResult(Object result) {
+        if (inner != null) {
+            inner.receivedTime = receivedTime;
+            inner.onResult(result);
+        }
+    }
+
+    @Override
+    protected void onError(RpcError error) {
+        if (inner != null) {
+            inner.receivedTime = receivedTime;
+            inner.onError(error);
+        }
+    }
+
+    /**
+     * 内部处理都不会阻塞，取决于被包装的监听器
+     */
+    @Override
+    protected boolean isNonBlocking() {
+        return inner == null || inner.isNonBlocking();
+    }
+
+    @Override
+    protected void onTimeout() {
+        if (inner != null)
+            inner.onTimeout();
+    }
+}
@@ -0,0 +1,321 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 记录排队时间和执行时间的 {@link ThreadPoolExecutor}
+ * <p>
+ * 收到的回复、事件交给客户端执行器后，先在队列中等待空闲的线程，再由监听器处理。
+ * 普通的 {@link ThreadPoolExecutor} 只能看到队列长度，看不到一个任务实际等待了多久、是否被拒绝。
+ * 该执行器为每个任务记录：
+ * <ul>
+ * <li>排队时间：从 {@link #execute} 到开始执行；</li>
+ * <li>执行时间：任务本身的耗时；</li>
+ * <li>被拒绝的次数，无论使用哪种 {@link RejectedExecutionHandler}；</li>
+ * <li>同时执行任务的线程数的峰值。</li>
+ * </ul>
+ * {@link Unit#createCommander}、{@link Unit#createMonitor} 不指定执行器时，新建的就是该执行器。
+ * 应用程序也可以自己新建它，传给这两个方法。使用 {@link #getStats()} 读取统计数据，
+ * 使用 {@link AdaptivePoolSizer} 按排队时间自动调整线程数。
+ */
+public class InstrumentedExecutor extends ThreadPoolExecutor {
+    private final LatencyHistogram queueWaits = new LatencyHistogram();
+    private final LatencyHistogram serviceTimes = new LatencyHistogram();
+    private final LongAdder startedCount = new LongAdder();
+    private final LongAdder totalQueueWait = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger peakRunning = new AtomicInteger();
+
+    /**
+     * @param corePoolSize    核心线程数
+     * @param maximumPoolSize 最大线程数
+     * @param keepAliveTime   超过核心线程数的空闲线程的存活时间
+     * @param unit            {@code keepAliveTime} 的时间单位
+     * @param workQueue       任务队列
+     * @param handler         拒绝任务的处理器
+     */
+    public InstrumentedExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                BlockingQueue<Runnable> workQueue, RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, handler);
+        setRejectedExecutionHandler(handler);
+    }
+
+    /**
+     * 队列满时抛出 {@link java.util.concurrent.RejectedExecutionException}
+     *
+     * @param corePoolSize    核心线程数
+     * @param maximumPoolSize 最大线程数
+     * @param keepAliveTime   超过核心线程数的空闲线程的存活时间
+     * @param unit            {@code keepAliveTime} 的时间单位
+     * @param workQueue       任务队列
+     */
+    public InstrumentedExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                BlockingQueue<Runnable> workQueue) {
+        this(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, new AbortPolicy());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null)
+            throw new NullPointerException();
+        super.execute(new Timed(command, System.nanoTime()));
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        if (handler == null)
+            throw new NullPointerException();
+        super.setRejectedExecutionHandler(handler instanceof CountingHandler ? handler : new CountingHandler(handler));
+    }
+
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        RejectedExecutionHandler handler = super.getRejectedExecutionHandler();
+        return handler instanceof CountingHandler ? ((CountingHandler) handler).inner : handler;
+    }
+
+    /**
+     * @return 累计开始执行的任务数量
+     */
+    long getStartedCount() {
+        return startedCount.sum();
+    }
+
+    /**
+     * @return 累计排队时间 NANOSECONDS
+     */
+    long getTotalQueueWait() {
+        return totalQueueWait.sum();
+    }
+
+    /**
+     * @return 累计被拒绝的任务数量
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * @return 同时执行任务的线程数的峰值
+     */
+    public int getPeakRunningCount() {
+        return peakRunning.get();
+    }
+
+    /**
+     * @return 当前的统计数据
+     */
+    public ExecutorStats getStats() {
+        return new ExecutorStats(this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s corePoolSize=%d, maximumPoolSize=%d, poolSize=%d, queueSize=%d, rejectedCount=%d>",
+                InstrumentedExecutor.class, getCorePoolSize(), getMaximumPoolSize(), getPoolSize(), getQueue().size(),
+                getRejectedCount());
+    }
+
+    /**
+     * 执行器统计数据的快照
+     */
+    public static class ExecutorStats {
+        private final int corePoolSize;
+        private final int maximumPoolSize;
+        private final int poolSize;
+        private final int activeCount;
+        private final int peakRunningCount;
+        private final int queueSize;
+        private final long startedCount;
+        private final long rejectedCount;
+        private final long queueWait50;
+        private final long queueWait99;
+        private final long maxQueueWait;
+        private final long serviceTime50;
+        private final long serviceTime99;
+        private final long maxServiceTime;
+
+        private ExecutorStats(InstrumentedExecutor executor) {
+            corePoolSize = executor.getCorePoolSize();
+            maximumPoolSize = executor.getMaximumPoolSize();
+            poolSize = executor.getPoolSize();
+            activeCount = executor.getActiveCount();
+            peakRunningCount = executor.getPeakRunningCount();
+            queueSize = executor.getQueue().size();
+            startedCount = executor.getStartedCount();
+            rejectedCount = executor.getRejectedCount();
+            queueWait50 = executor.queueWaits.getValueAtPercentile(50);
+            queueWait99 = executor.queueWaits.getValueAtPercentile(99);
+            maxQueueWait = executor.queueWaits.getMaxValue();
+            serviceTime50 = executor.serviceTimes.getValueAtPercentile(50);
+            serviceTime99 = executor.serviceTimes.getValueAtPercentile(99);
+            maxServiceTime = executor.serviceTimes.getMaxValue();
+        }
+
+        /**
+         * @return 核心线程数
+         */
+        public int getCorePoolSize() {
+            return corePoolSize;
+        }
+
+        /**
+         * @return 最大线程数
+         */
+        public int getMaximumPoolSize() {
+            return maximumPoolSize;
+        }
+
+        /**
+         * @return 当前的线程数
+         */
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        /**
+         * @return 正在执行任务的线程数（近似值）
+         */
+        public int getActiveCount() {
+            return activeCount;
+        }
+
+        /**
+         * @return 同时执行任务的线程数的峰值
+         */
+        public int getPeakRunningCount() {
+            return peakRunningCount;
+        }
+
+        /**
+         * @return 队列中等待的任务数量
+         */
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        /**
+         * @return 累计开始执行的任务数量
+         */
+        public long getStartedCount() {
+            return startedCount;
+        }
+
+        /**
+         * @return 累计被拒绝的任务数量
+         */
+        public long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        /**
+         * @return 排队时间的 50 百分位 MICROSECONDS
+         */
+        public long getQueueWait50() {
+            return queueWait50;
+        }
+
+        /**
+         * @return 排队时间的 99 百分位 MICROSECONDS
+         */
+        public long getQueueWait99() {
+            return queueWait99;
+        }
+
+        /**
+         * @return 最长的排队时间 MICROSECONDS
+         */
+        public long getMaxQueueWait() {
+            return maxQueueWait;
+        }
+
+        /**
+         * @return 执行时间的 50 百分位 MICROSECONDS
+         */
+        public long getServiceTime50() {
+            return serviceTime50;
+        }
+
+        /**
+         * @return 执行时间的 99 百分位 MICROSECONDS
+         */
+        public long getServiceTime99() {
+            return serviceTime99;
+        }
+
+        /**
+         * @return 最长的执行时间 MICROSECONDS
+         */
+        public long getMaxServiceTime() {
+            return maxServiceTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "<%s corePoolSize=%d, maximumPoolSize=%d, poolSize=%d, activeCount=%d, peakRunningCount=%d, queueSize=%d, startedCount=%d, rejectedCount=%d, queueWait50=%d, queueWait99=%d, maxQueueWait=%d, serviceTime50=%d, serviceTime99=%d, maxServiceTime=%d>",
+                    ExecutorStats.class, corePoolSize, maximumPoolSize, poolSize, activeCount, peakRunningCount, queueSize,
+                    startedCount, rejectedCount, queueWait50, queueWait99, maxQueueWait, serviceTime50, serviceTime99, maxServiceTime);
+        }
+    }
+
+    /**
+     * 记录放入执行器的时间，执行时记录排队时间和执行时间
+     */
+    private class Timed implements Runnable {
+        private final Runnable task;
+        private final long enqueuedAt;
+
+        Timed(Runnable task, long enqueuedAt) {
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = System.nanoTime();
+            long wait = startedAt - enqueuedAt;
+            queueWaits.record(wait / 1000);
+            totalQueueWait.add(wait);
+            startedCount.increment();
+            int n = running.incrementAndGet();
+            int peak = peakRunning.get();
+            while (n > peak && !peakRunning.compareAndSet(peak, n))
+                peak = peakRunning.get();
+            try {
+                task.run();
+            } finally {
+                running.decrementAndGet();
+                serviceTimes.record((System.nanoTime() - startedAt) / 1000);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+    /**
+     * 计数后交给原来的拒绝处理器
+     */
+    private class CountingHandler implements RejectedExecutionHandler {
+        final RejectedExecutionHandler inner;
+
+        CountingHandler(RejectedExecutionHandler inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            rejectedCount.increment();
+            inner.rejectedExecution(r instanceof Timed ? ((Timed) r).task : r, executor);
+        }
+    }
+}
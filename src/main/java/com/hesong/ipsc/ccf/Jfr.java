@@ -0,0 +1,102 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * Java Flight Recorder 事件的入口
+ * <p>
+ * JFR 事件类在单独的源代码目录 {@code src/main/java11} 中以 Java 11 编译，其余代码以 Java 8 编译、不引用 {@code jdk.jfr}。
+ * 这里在运行时通过反射加载事件类（{@link JfrRecorder} 的实现）：运行环境是 Java 11 以上并且支持 JFR 时才加载成功；
+ * 否则（Java 8，或者不支持 JFR 的 JDK）这里所有方法都什么也不做。
+ * <p>
+ * 没有进行中的 JFR 记录时，{@code begin*} 方法直接返回 {@code null}，不新建事件对象，
+ * 对应的结束方法收到 {@code null} 也直接返回，所以不记录时几乎没有开销。
+ * 正在记录时，由 JFR 的设置（{@code enabled}、{@code threshold}）决定事件是否提交，字段只在提交时才计算。
+ */
+final class Jfr {
+    private static final String RECORDER_CLASS = "com.hesong.ipsc.ccf.JfrEvents";
+    private static final JfrRecorder recorder = load();
+    static final boolean AVAILABLE = recorder != null;
+    /**
+     * 是否有进行中的 JFR 记录，由 {@link JfrRecorder#register 事件类的监听器}更新
+     */
+    static volatile boolean recording;
+
+    static {
+        if (AVAILABLE)
+            recorder.register();
+    }
+
+    private Jfr() {
+    }
+
+    private static JfrRecorder load() {
+        try {
+            Class<?> flightRecorder = Class.forName("jdk.jfr.FlightRecorder");
+            if (!(Boolean) flightRecorder.getMethod("isAvailable").invoke(null))
+                return null;
+            return (JfrRecorder) Class.forName(RECORDER_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // 没有 jdk.jfr，或者运行环境低于 Java 11，不能加载以 Java 11 编译的事件类
+            return null;
+        }
+    }
+
+    static Object beginSubmit() {
+        return recording ? recorder.beginSubmit() : null;
+    }
+
+    static void submitted(Object event, String method, BusAddress target, String rpcId, int payloadSize, int result) {
+        if (event != null)
+            recorder.submitted(event, method, target, rpcId, payloadSize, result);
+    }
+
+    /**
+     * 提交 RPC 时开始它的回复、超时事件，记在监听器中，收到回复或超时时结束，事件的持续时间就是往返时间
+     */
+    static void beginRpc(RpcResultListener rpcResultListener, String method, BusAddress target, int payloadSize) {
+        if (recording && rpcResultListener != null)
+            rpcResultListener.jfrEvent = recorder.beginRpc(method, target, rpcResultListener.getId(), payloadSize);
+    }
+
+    static void replied(RpcResultListener rpcResultListener, RpcError error) {
+        Object event = rpcResultListener.jfrEvent;
+        if (event != null) {
+            rpcResultListener.jfrEvent = null;
+            recorder.replied(event, error);
+        }
+    }
+
+    static void timedOut(RpcResultListener rpcResultListener) {
+        Object event = rpcResultListener.jfrEvent;
+        if (event != null) {
+            rpcResultListener.jfrEvent = null;
+            recorder.timedOut(event, rpcResultListener.getTimeout());
+        }
+    }
+
+    static Object beginCallback() {
+        return recording ? recorder.beginCallback() : null;
+    }
+
+    static void callbackReturned(Object event, byte cmdType, byte srcUnitId, byte srcClientId, byte dstClientId, int payloadSize) {
+        if (event != null)
+            recorder.callbackReturned(event, cmdType, srcUnitId, srcClientId, dstClientId, payloadSize);
+    }
+
+    static Object beginQueueWait() {
+        return recording ? recorder.beginQueueWait() : null;
+    }
+
+    static void dequeued(Object event, Client client, BusAddress source, int payloadSize) {
+        if (event != null)
+            recorder.dequeued(event, client, source, payloadSize);
+    }
+
+    static Object beginMonitorProcess() {
+        return recording ? recorder.beginMonitorProcess() : null;
+    }
+
+    static void monitorProcessed(Object event, BusAddress source, int payloadSize) {
+        if (event != null)
+            recorder.monitorProcessed(event, source, payloadSize);
+    }
+}
@@ -0,0 +1,36 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * 记录 JFR 事件
+ * <p>
+ * 实现类 {@code JfrEvents} 引用 {@code jdk.jfr}，以 Java 11 单独编译，由 {@link Jfr} 通过反射加载。
+ * 各方法的含义参见 {@link Jfr} 中的同名方法。
+ */
+interface JfrRecorder {
+    /**
+     * 监听 JFR 记录的开始、结束，更新 {@link Jfr#recording}
+     */
+    void register();
+
+    Object beginSubmit();
+
+    void submitted(Object event, String method, BusAddress target, String rpcId, int payloadSize, int result);
+
+    Object beginRpc(String method, BusAddress target, String rpcId, int payloadSize);
+
+    void replied(Object event, RpcError error);
+
+    void timedOut(Object event, int timeout);
+
+    Object beginCallback();
+
+    void callbackReturned(Object event, byte cmdType, byte srcUnitId, byte srcClientId, byte dstClientId, int payloadSize);
+
+    Object beginQueueWait();
+
+    void dequeued(Object event, Client client, BusAddress source, int payloadSize);
+
+    Object beginMonitorProcess();
+
+    void monitorProcessed(Object event, BusAddress source, int payloadSize);
+}
@@ -0,0 +1,88 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * 通过 JNI 调用 CTI BUS 客户端共享库
+ * <p>
+ * 共享库是进程级的，由 {@link JniDispatcher} 以第一个上下文的单元ID初始化一次，最后一个上下文释放时才释放。
+ * 之后初始化的上下文不会成为 CTI BUS 中新的单元，而是同一个 BUS 单元的逻辑分区：
+ * 它们的客户端在 RPC 数据头中填写的是共享库实际使用的单元ID（{@link #getBusUnitId}），回复才能经过 CTI BUS 回到本进程。
+ */
+final class JniBusLibrary implements BusLibrary {
+    private final JniDispatcher dispatcher;
+    private Byte localUnitId;
+    private volatile LibCallbackHandler callbacks;
+
+    JniBusLibrary() {
+        this(JniDispatcher.INSTANCE);
+    }
+
+    JniBusLibrary(JniDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public synchronized int initiateLibrary(byte localUnitId) {
+        if (this.localUnitId != null)
+            throw new IllegalStateException(String.format("%s is already initiated", this));
+        int errCode = dispatcher.initiate(localUnitId);
+        if (errCode != 0)
+            return errCode;
+        this.localUnitId = localUnitId;
+        LibCallbackHandler callbacks = this.callbacks;
+        if (callbacks != null)
+            dispatcher.register(localUnitId, callbacks);
+        return 0;
+    }
+
+    @Override
+    public synchronized void setCallbacks(LibCallbackHandler callbacks) {
+        this.callbacks = callbacks;
+        if (localUnitId != null)
+            dispatcher.register(localUnitId, callbacks);
+    }
+
+    @Override
+    public synchronized void releaseLibrary() {
+        if (localUnitId == null)
+            return;
+        dispatcher.release(localUnitId);
+        localUnitId = null;
+    }
+
+    @Override
+    public byte getBusUnitId(byte localUnitId) {
+        return dispatcher.getBusUnitId();
+    }
+
+    @Override
+    public int createConnect(byte localClientId, byte clientType, String ip, short port) {
+        LibCallbackHandler callbacks = this.callbacks;
+        if (callbacks != null && !dispatcher.claimClient(localClientId, callbacks))
+            throw new IllegalStateException(String.format("local client %d is already used by another UnitContext", localClientId));
+        int errCode = dispatcher.getNativeBus().createConnect(localClientId, clientType, ip, port);
+        if (errCode != 0 && callbacks != null)
+            dispatcher.releaseClient(localClientId, callbacks);
+        return errCode;
+    }
+
+    @Override
+    public int launchFlow(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String flowId,
+                          int mode, int timeout, String payload) {
+        return dispatcher.getNativeBus().launchFlow(
+                localClientId, dstUnitId, dstIpscIndex, projectId, flowId, mode, timeout, payload
+        );
+    }
+
+    @Override
+    public int sendNotification(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String titleId,
+                                int mode, int expires, String payload) {
+        return dispatcher.getNativeBus().sendNotification(
+                localClientId, dstUnitId, dstIpscIndex, projectId, titleId, mode, expires, payload
+        );
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s localUnitId=%s>", JniBusLibrary.class, localUnitId);
+    }
+}
@@ -0,0 +1,189 @@
+package com.hesong.ipsc.ccf;
+
+import com.hesong.ipsc.busnetcli.Callbacks;
+import com.hesong.ipsc.busnetcli.Head;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程级的 JNI 回调处理器
+ * <p>
+ * JNI 共享库是进程级的，只有一个单元ID，也只能设置一个回调对象。第一个使用 JNI 共享库的 {@link UnitContext} 初始化时，
+ * 以它的单元ID初始化共享库；之后的上下文只在这里登记，是同一个 BUS 单元的逻辑分区，不是 CTI BUS 中新的单元。
+ * 它们的客户端以共享库的单元ID（{@link #getBusUnitId}）发出 RPC，收到的回调由它分发给各个上下文的 {@link LibCallbackHandler}：
+ * <ul>
+ * <li>{@code data}：交给新建目标客户端的上下文；没有登记该客户端时，交给数据头中目标单元ID的上下文；</li>
+ * <li>{@code connect}、{@code disconnect}：交给新建该客户端的上下文；</li>
+ * <li>{@code globalConnect}：集群中单元、客户端的状态变化，交给所有上下文。</li>
+ * </ul>
+ * 本地客户端ID同样是共享库的，同一进程中的上下文不能使用相同的客户端ID。
+ * 各个上下文有自己的客户端表、RPC 表和计时器，但是共用共享库的 IO 线程和连接。
+ *
+ * @see JniBusLibrary
+ */
+final class JniDispatcher implements Callbacks {
+    static final JniDispatcher INSTANCE = new JniDispatcher(NativeBus.JNI);
+
+    private final Logger logger = LoggerFactory.getLogger(JniDispatcher.class);
+    private final Logger jniLogger = LoggerFactory.getLogger("bus_net_cli");
+    private final Map<Byte, LibCallbackHandler> units = new ConcurrentHashMap<>();
+    private final Map<Byte, LibCallbackHandler> clients = new ConcurrentHashMap<>();
+    private final NativeBus nativeBus;
+    // 已初始化的上下文的单元ID，由 this 保护
+    private final Set<Byte> unitIds = new HashSet<>();
+    private byte busUnitId;
+
+    /**
+     * @param nativeBus 共享库的函数
+     */
+    JniDispatcher(NativeBus nativeBus) {
+        this.nativeBus = nativeBus;
+    }
+
+    /**
+     * 初始化一个上下文。第一个上下文以它的单元ID初始化共享库
+     *
+     * @return 共享库初始化的错误码，0 表示成功
+     * @throws IllegalStateException 该单元ID已被其它上下文使用
+     */
+    synchronized int initiate(byte unitId) {
+        if (unitIds.contains(unitId))
+            throw new IllegalStateException(String.format("JNI library unit %d is already initiated by another UnitContext", unitId));
+        if (unitIds.isEmpty()) {
+            int errCode = nativeBus.initiateLibrary(unitId);
+            if (errCode != 0)
+                return errCode;
+            nativeBus.setCallbacks(this);
+            busUnitId = unitId;
+        } else {
+            logger.warn("unit {} shares the JNI library initiated as unit {}", unitId, busUnitId);
+        }
+        unitIds.add(unitId);
+        return 0;
+    }
+
+    /**
+     * 释放一个上下文。最后一个上下文释放时才释放共享库
+     */
+    synchronized void release(byte unitId) {
+        if (!unitIds.remove(unitId))
+            return;
+        unregister(unitId);
+        if (unitIds.isEmpty())
+            nativeBus.releaseLibrary();
+    }
+
+    /**
+     * @return 共享库在 CTI BUS 中的单元ID，即第一个上下文的单元ID
+     */
+    synchronized byte getBusUnitId() {
+        if (unitIds.isEmpty())
+            throw new IllegalStateException("JNI library is not initiated");
+        return busUnitId;
+    }
+
+    NativeBus getNativeBus() {
+        return nativeBus;
+    }
+
+    /**
+     * 此后目标为该单元的回调交给 {@code handler}
+     */
+    void register(byte unitId, LibCallbackHandler handler) {
+        units.put(unitId, handler);
+    }
+
+    /**
+     * 删除该单元，以及它的上下文新建的客户端
+     */
+    void unregister(byte unitId) {
+        LibCallbackHandler handler = units.remove(unitId);
+        if (handler != null)
+            clients.values().removeIf(h -> h.unit == handler.unit);
+    }
+
+    /**
+     * 在新建客户端之前记录它属于哪个上下文，连接回调可能早于新建返回
+     *
+     * @return {@code false} 表示该客户端ID已被其它上下文使用
+     */
+    boolean claimClient(byte clientId, LibCallbackHandler handler) {
+        LibCallbackHandler old = clients.putIfAbsent(clientId, handler);
+        return old == null || old.unit == handler.unit;
+    }
+
+    void releaseClient(byte clientId, LibCallbackHandler handler) {
+        clients.remove(clientId, handler);
+    }
+
+    /**
+     * @return 已注册的单元数量
+     */
+    int size() {
+        return units.size();
+    }
+
+    @Override
+    public void globalConnect(byte unitId, byte clientId, byte clientType, byte status, String addInfo) {
+        for (LibCallbackHandler handler : units.values()) {
+            try {
+                handler.globalConnect(unitId, clientId, clientType, status, addInfo);
+            } catch (Exception e) {
+                logger.error(String.format("unit %s globalConnect() error", handler.unit.getLocalUnitId()), e);
+            }
+        }
+    }
+
+    @Override
+    public void connect(byte localClientId, int accessPointUnitId, int errorCode) {
+        LibCallbackHandler handler = clients.get(localClientId);
+        if (handler == null) {
+            logger.warn("connect({}, {}, {}) dropped: no UnitContext owns the client", localClientId, accessPointUnitId, errorCode);
+            return;
+        }
+        handler.connect(localClientId, accessPointUnitId, errorCode);
+    }
+
+    @Override
+    public void disconnect(byte localClientId) {
+        LibCallbackHandler handler = clients.get(localClientId);
+        if (handler == null) {
+            logger.warn("disconnect({}) dropped: no UnitContext owns the client", localClientId);
+            return;
+        }
+        handler.disconnect(localClientId);
+    }
+
+    @Override
+    public void data(Head head, byte[] bytes) {
+        // 所有上下文共用共享库的单元ID，按目标客户端区分
+        LibCallbackHandler handler = clients.get(head.getDstClientId());
+        if (handler == null)
+            handler = units.get(head.getDstUnitId());
+        if (handler == null) {
+            logger.warn("data(cmdType={}, dst={}:{}) dropped: no UnitContext for the destination",
+                    head.getCmdType(), head.getDstUnitId(), head.getDstClientId());
+            return;
+        }
+        handler.data(head, bytes);
+    }
+
+    @Override
+    public void log(String msg, Boolean isErr) {
+        if (isErr) {
+            jniLogger.error(msg.trim());
+        } else {
+            jniLogger.info(msg.trim());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s units=%s>", JniDispatcher.class, units.keySet());
+    }
+}
@@ -0,0 +1,110 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图
+ * <p>
+ * 以 MICROSECONDS 记录，使用对数-线性分桶：小于 2048 的值精确记录，更大的值每个2的幂区间分为 1024 个桶，相对误差小于千分之一。
+ * 记录不加锁，可以由多个线程同时调用。
+ * <p>
+ * {@link #record(long, long)} 按 HdrHistogram 的方法补偿协调遗漏（coordinated omission）：
+ * 闭环压测中，一个慢请求会推迟同一个发送者之后的请求，这些没能按时发出的请求的延迟要补记进来。
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 10;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // 最大可记录约 2^36 微秒（约19小时），更大的值记在最后一个桶
+    private static final int MAX_SHIFT = 36 - SUB_BUCKET_BITS;
+    private static final long MAX_VALUE = (1L << 36) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * SUB_BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * 记录一个值
+     *
+     * @param micros 延迟 MICROSECONDS
+     */
+    void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+        counts.incrementAndGet(indexOf(Math.min(micros, MAX_VALUE)));
+        totalCount.incrementAndGet();
+        long max = maxValue.get();
+        while (micros > max && !maxValue.compareAndSet(max, micros))
+            max = maxValue.get();
+    }
+
+    /**
+     * 记录一个值，并补记因它而没能按时发出的请求的延迟
+     *
+     * @param micros           延迟 MICROSECONDS
+     * @param expectedInterval 同一个发送者两次请求之间的预期间隔 MICROSECONDS。不大于0时不补偿
+     */
+    void record(long micros, long expectedInterval) {
+        record(micros);
+        if (expectedInterval <= 0)
+            return;
+        for (long missing = micros - expectedInterval; missing >= expectedInterval; missing -= expectedInterval)
+            record(missing);
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * @return 与该桶中所有值等价的最大值
+     */
+    private static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT)
+            return index;
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = (long) (index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * @param percentile 百分位数，0 到 100
+     * @return 该百分位的延迟 MICROSECONDS。没有记录时返回0
+     */
+    long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long count = 0;
+        for (int i = 0; i < counts.length(); ++i) {
+            count += counts.get(i);
+            if (count >= rank)
+                return Math.min(highestValueOf(i), maxValue.get());
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * @return 记录的值的数量（包括补记的）
+     */
+    long getTotalCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return 最大延迟 MICROSECONDS
+     */
+    long getMaxValue() {
+        return maxValue.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s totalCount=%d, p50=%d, p99=%d, max=%d>",
+                LatencyHistogram.class, getTotalCount(), getValueAtPercentile(50), getValueAtPercentile(99), getMaxValue());
+    }
+}
@@ -0,0 +1,469 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IPSC 节点的往返延迟探测器
+ * <p>
+ * 连接状态和 {@link Monitor} 的负载信息都不反映到每个 IPSC 的往返延迟。
+ * 探测器每隔 {@code interval} 毫秒，通过 {@link Commander#operateResource} 向每个目标节点发送一个探测 RPC，
+ * 以从调用 JNI 提交到收到回复（结果或者错误）的时间作为一次往返延迟，对每个节点记录：
+ * <ul>
+ * <li>指数加权移动平均（EWMA）；</li>
+ * <li>最近 {@code window} 次探测的百分位数；</li>
+ * <li>超时的次数，以及连续超时的次数。</li>
+ * </ul>
+ * 目标节点是 {@link Unit#getMembership() 成员表}中在线的 IPSC，以及用 {@link #addTarget} 添加的节点。
+ * 同一个节点的上一个探测还没有结果时，跳过这一次探测。
+ * <p>
+ * 探测 RPC 的方法名由构造参数指定，IPSC 流程不需要真正处理它：不存在的资源或者方法的错误回复同样可以测出往返延迟。
+ * 探测 RPC 的回复在收到它的线程上直接处理，不经过客户端执行器的队列（参见 {@link Commander#setInlineReplies}）。
+ */
+public class LatencyProber {
+    private static final Logger logger = LoggerFactory.getLogger(LatencyProber.class);
+    private static final Map<String, Object> EMPTY_PARAMS = Collections.emptyMap();
+    // SDK 在探测 RPC 发出之前（或者没有发出）就给出的错误码，不是 IPSC 的回复
+    private static final Set<Integer> LOCAL_ERRORS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            OutboundBuffer.ERROR_EXPIRED,
+            OutboundBuffer.ERROR_FLUSH_FAILED,
+            Unit.ERROR_ABANDONED,
+            OutboundScheduler.ERROR_DISPATCH_FAILED,
+            OutboundPipeline.ERROR_SUBMIT_FAILED
+    )));
+
+    private final Commander commander;
+    private final String method;
+    private final long interval;
+    private final int window;
+    private final Set<BusAddress> targets = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Map<BusAddress, Node> nodes = new ConcurrentHashMap<>();
+    private volatile double alpha = 0.2;
+    private volatile int timeout = 3000;
+    private ScheduledFuture<?> future;
+
+    /**
+     * @param commander 发送探测 RPC 的命令处理器
+     * @param method    探测 RPC 的方法名，格式与 {@link Commander#operateResource} 的方法名相同
+     * @param interval  探测间隔 MILLISECONDS
+     * @param window    计算百分位数时使用的最近探测次数
+     */
+    public LatencyProber(Commander commander, String method, long interval, int window) {
+        if (commander == null)
+            throw new IllegalArgumentException("Argument \"commander\" SHOULD NOT be null.");
+        if (method == null)
+            throw new IllegalArgumentException("Argument \"method\" SHOULD NOT be null.");
+        if (interval <= 0)
+            throw new IllegalArgumentException("Argument \"interval\" SHOULD be positive.");
+        if (window <= 0)
+            throw new IllegalArgumentException("Argument \"window\" SHOULD be positive.");
+        this.commander = commander;
+        this.method = method;
+        this.interval = interval;
+        this.window = window;
+    }
+
+    /**
+     * 使用最近 64 次探测计算百分位数
+     *
+     * @param commander 发送探测 RPC 的命令处理器
+     * @param method    探测 RPC 的方法名
+     * @param interval  探测间隔 MILLISECONDS
+     */
+    public LatencyProber(Commander commander, String method, long interval) {
+        this(commander, method, interval, 64);
+    }
+
+    /**
+     * 开始定期探测
+     */
+    public synchronized void start() {
+        if (future != null)
+            return;
+        future = commander.unit.getTimer().scheduleWithFixedDelay(this::probeAll, 0, interval, TimeUnit.MILLISECONDS);
+        logger.info("{} started", this);
+    }
+
+    /**
+     * 停止探测。已发出的探测 RPC 仍然会记录结果
+     */
+    public synchronized void stop() {
+        if (future == null)
+            return;
+        future.cancel(false);
+        future = null;
+        logger.info("{} stopped", this);
+    }
+
+    /**
+     * 添加一个目标节点，不论它是否在成员表中
+     *
+     * @param target IPSC 的 BUS 地址
+     */
+    public void addTarget(BusAddress target) {
+        if (target == null)
+            throw new IllegalArgumentException("Argument \"target\" SHOULD NOT be null.");
+        targets.add(target);
+    }
+
+    /**
+     * 删除用 {@link #addTarget} 添加的目标节点
+     *
+     * @param target IPSC 的 BUS 地址
+     */
+    public void removeTarget(BusAddress target) {
+        targets.remove(target);
+    }
+
+    private void probeAll() {
+        Set<BusAddress> all = new LinkedHashSet<>(targets);
+        all.addAll(Arrays.asList(commander.unit.membership.snapshot().getIpscAddresses()));
+        for (BusAddress target : all) {
+            try {
+                probe(target);
+            } catch (Exception e) {
+                logger.warn("{} probe {} error: {}", this, target, e.toString());
+            }
+        }
+    }
+
+    private void probe(BusAddress target) throws Exception {
+        Node node = nodes.computeIfAbsent(target, k -> new Node(window));
+        synchronized (node) {
+            if (node.probing)
+                return;
+            node.probing = true;
+        }
+        ProbeListener listener = new ProbeListener(node, timeout);
+        try {
+            // 在发送调度器、发送缓冲区、发送管道中排队的时间不计入往返延迟
+            commander.operateResource(target, "probe", method, EMPTY_PARAMS, listener, listener::timed);
+        } catch (Exception e) {
+            synchronized (node) {
+                node.probing = false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param target IPSC 的 BUS 地址
+     * @return 该节点的延迟统计。{@code null} 表示还没有探测过该节点
+     */
+    public NodeLatency getNodeLatency(BusAddress target) {
+        Node node = nodes.get(target);
+        if (node == null)
+            return null;
+        synchronized (node) {
+            return new NodeLatency(target, node);
+        }
+    }
+
+    /**
+     * @return 所有探测过的节点的延迟统计
+     */
+    public Map<BusAddress, NodeLatency> getNodeLatencies() {
+        Map<BusAddress, NodeLatency> result = new HashMap<>();
+        for (Map.Entry<BusAddress, Node> entry : nodes.entrySet()) {
+            synchronized (entry.getValue()) {
+                result.put(entry.getKey(), new NodeLatency(entry.getKey(), entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 在线、最近一次探测没有超时的节点中，延迟移动平均最小的一个。{@code null} 表示没有这样的节点
+     */
+    public BusAddress getFastest() {
+        BusAddress best = null;
+        double bestEwma = Double.MAX_VALUE;
+        for (Map.Entry<BusAddress, Node> entry : nodes.entrySet()) {
+            BusAddress target = entry.getKey();
+            Node node = entry.getValue();
+            if (!targets.contains(target) && !commander.unit.membership.isUp(target))
+                continue;
+            synchronized (node) {
+                if (node.count == 0 || node.consecutiveTimeouts > 0)
+                    continue;
+                if (node.ewma < bestEwma) {
+                    bestEwma = node.ewma;
+                    best = target;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return 指数加权移动平均的平滑系数，即最新一次探测的权重。默认是 0.2
+     */
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public void setAlpha(double alpha) {
+        if (alpha <= 0 || alpha > 1)
+            throw new IllegalArgumentException("Argument \"alpha\" SHOULD be in (0, 1].");
+        this.alpha = alpha;
+    }
+
+    /**
+     * @return 探测 RPC 的超时 MILLISECONDS。默认是 3000
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(int timeout) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("Argument \"timeout\" SHOULD be positive.");
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return 探测间隔 MILLISECONDS
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return 计算百分位数时使用的最近探测次数
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s method=%s, interval=%d, window=%d>", LatencyProber.class, method, interval, window);
+    }
+
+    /**
+     * 一个节点在某一时刻的延迟统计。延迟的单位都是 MICROSECONDS
+     */
+    public static class NodeLatency {
+        private final BusAddress target;
+        private final long ewma;
+        private final long last;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long max;
+        private final long count;
+        private final long timeoutCount;
+        private final int consecutiveTimeouts;
+        private final long lastProbeTime;
+
+        NodeLatency(BusAddress target, Node node) {
+            this.target = target;
+            ewma = (long) node.ewma;
+            last = node.last;
+            int n = (int) Math.min(node.count, node.samples.length);
+            long[] sorted = Arrays.copyOf(node.samples, n);
+            Arrays.sort(sorted);
+            p50 = percentile(sorted, 50);
+            p90 = percentile(sorted, 90);
+            p99 = percentile(sorted, 99);
+            max = n == 0 ? 0 : sorted[n - 1];
+            count = node.count;
+            timeoutCount = node.timeoutCount;
+            consecutiveTimeouts = node.consecutiveTimeouts;
+            lastProbeTime = node.lastProbeTime;
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0)
+                return 0;
+            int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+
+        /**
+         * @return IPSC 的 BUS 地址
+         */
+        public BusAddress getTarget() {
+            return target;
+        }
+
+        /**
+         * @return 往返延迟的指数加权移动平均
+         */
+        public long getEwma() {
+            return ewma;
+        }
+
+        /**
+         * @return 最近一次的往返延迟
+         */
+        public long getLast() {
+            return last;
+        }
+
+        /**
+         * @return 最近 {@code window} 次往返延迟的中位数
+         */
+        public long getP50() {
+            return p50;
+        }
+
+        /**
+         * @return 最近 {@code window} 次往返延迟的 90 百分位
+         */
+        public long getP90() {
+            return p90;
+        }
+
+        /**
+         * @return 最近 {@code window} 次往返延迟的 99 百分位
+         */
+        public long getP99() {
+            return p99;
+        }
+
+        /**
+         * @return 最近 {@code window} 次往返延迟的最大值
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return 累计收到回复的探测次数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return 累计超时的探测次数
+         */
+        public long getTimeoutCount() {
+            return timeoutCount;
+        }
+
+        /**
+         * @return 连续超时的探测次数。收到回复后归零
+         */
+        public int getConsecutiveTimeouts() {
+            return consecutiveTimeouts;
+        }
+
+        /**
+         * @return 最近一次探测有结果的时间 MILLISECONDS
+         */
+        public long getLastProbeTime() {
+            return lastProbeTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "<%s target=%s, ewma=%d, p50=%d, p99=%d, max=%d, count=%d, timeoutCount=%d, consecutiveTimeouts=%d>",
+                    NodeLatency.class, target, ewma, p50, p99, max, count, timeoutCount, consecutiveTimeouts);
+        }
+    }
+
+    private class Node {
+        final long[] samples;
+        boolean probing;
+        double ewma;
+        long last;
+        long count;
+        long timeoutCount;
+        int consecutiveTimeouts;
+        long lastProbeTime;
+
+        Node(int window) {
+            samples = new long[window];
+        }
+
+        synchronized void responded(long micros) {
+            probing = false;
+            ewma = count == 0 ? micros : ewma + alpha * (micros - ewma);
+            last = micros;
+            samples[(int) (count % samples.length)] = micros;
+            ++count;
+            consecutiveTimeouts = 0;
+            lastProbeTime = System.currentTimeMillis();
+        }
+
+        synchronized void aborted() {
+            probing = false;
+        }
+
+        synchronized void timedOut() {
+            probing = false;
+            ++timeoutCount;
+            ++consecutiveTimeouts;
+            lastProbeTime = System.currentTimeMillis();
+        }
+    }
+
+    private static class ProbeListener extends RpcResultListener {
+        private final Node node;
+        // 调用 JNI 提交的时间，0 表示还没有提交
+        private volatile long sentAt;
+
+        ProbeListener(Node node, int timeout) {
+            this.node = node;
+            this.timeout = timeout;
+        }
+
+        /**
+         * 包装实际调用 JNI 的提交，记录提交的时间
+         */
+        OutboundBuffer.Submission timed(OutboundBuffer.Submission submission) {
+            return () -> {
+                sentAt = System.nanoTime();
+                return submission.submit();
+            };
+        }
+
+        private void responded() {
+            long sentAt = this.sentAt;
+            if (sentAt == 0)
+                node.aborted();
+            else
+                node.responded(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAt));
+        }
+
+        @Override
+        protected void onResult(Object result) {
+            responded();
+        }
+
+        /**
+         * 错误回复同样是一次往返；但是在发出之前就失败的（如熔断器打开、发送管道提交失败）不计入
+         */
+        @Override
+        protected void onError(RpcError error) {
+            if (LOCAL_ERRORS.contains(error.getCode()))
+                node.aborted();
+            else
+                responded();
+        }
+
+        @Override
+        protected void onTimeout() {
+            node.timedOut();
+        }
+
+        @Override
+        protected boolean isNonBlocking() {
+            return true;
+        }
+    }
+}
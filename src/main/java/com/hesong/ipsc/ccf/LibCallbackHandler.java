@@ -1,23 +1,39 @@
 package com.hesong.ipsc.ccf;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonToken;
 import com.hesong.ipsc.busnetcli.Callbacks;
 import com.hesong.ipsc.busnetcli.Head;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.RejectedExecutionException;
 
 class LibCallbackHandler implements Callbacks {
 
+    private static final JsonFactory jsonFactory = new JsonFactory();
     private final Logger logger = LoggerFactory.getLogger(LibCallbackHandler.class);
     private final Logger jniLogger = LoggerFactory.getLogger("bus_net_cli");
+    final CallbackStats callbackStats = new CallbackStats();
+    volatile CallbackRingBuffer ringBuffer;
+    final UnitContext unit;
+
+    /**
+     * @param unit 收到的回调交给该单元的客户端
+     */
+    LibCallbackHandler(UnitContext unit) {
+        this.unit = unit;
+    }
 
     public void globalConnect(byte unitId, byte clientId, byte clientType, byte status, String addInfo) {
         logger.debug(">>> globalConnect(localUnitId={}, clientId={}, clientType={}, addInfo={}, status={})", unitId, clientId, clientType, addInfo, status);
-        if (Unit.callbacks != null) {
-            Unit.callbacks.globalConnectStateChanged(unitId, clientId, clientType, status, addInfo);
+        unit.membership.update(unitId, clientId, clientType, status, addInfo);
+        if (unit.callbacks != null) {
+            unit.callbacks.globalConnectStateChanged(unitId, clientId, clientType, status, addInfo);
         }
         logger.debug("<<< globalConnect(localUnitId={}, clientId={}, clientType={}, addInfo={}, status={})", unitId, clientId, clientType, addInfo, status);
     }
@@ -26,53 +42,59 @@ class LibCallbackHandler implements Callbacks {
         logger.debug(">>> connect({}, {}, {})", localClientId, accessPointUnitId, errorCode);
         if (errorCode == 0)
             // 客户端连接成功
-            logger.info("[{}:{}] connection succeed. ConnectingUnitId={}", Unit.getLocalUnitId(), localClientId, accessPointUnitId);
+            logger.info("[{}:{}] connection succeed. ConnectingUnitId={}", unit.getLocalUnitId(), localClientId, accessPointUnitId);
         else
             // 客户端连接失败
-            logger.error("[{}:{}] connection failed. ErrorCode={}", Unit.getLocalUnitId(), localClientId, errorCode);
+            logger.error("[{}:{}] connection failed. ErrorCode={}", unit.getLocalUnitId(), localClientId, errorCode);
         byte connectingUnitId = (byte) accessPointUnitId;
         if (connectingUnitId < 0)
             throw new RuntimeException(String.format(
                     "argument accessPointUnitId less than zero in callback function connect(%d, %d, %d)",
                     localClientId, accessPointUnitId, errorCode));
-        Client client = Unit.clients.get(localClientId);
-        if (client == null)
-            throw new RuntimeException(String.format(
-                    "Can not find client<%d> in callback function connect(%d, %d, %d)",
-                    localClientId, localClientId, accessPointUnitId, errorCode));
-        client.connected = errorCode == 0;
-        client.connectingUnitId = connectingUnitId;
+        Client client = unit.connectResulted(localClientId, connectingUnitId, errorCode);
+        if (client == null) {
+            // 连接回调早于 Unit.createXxx() 返回，等客户端注册时再记录
+            logger.debug("<<< connect({}, {}, {}) client not registered yet", localClientId, accessPointUnitId, errorCode);
+            return;
+        }
+        connectResulted(client, errorCode);
+        logger.debug("<<< connect({}, {}, {})", localClientId, accessPointUnitId, errorCode);
+    }
+
+    /**
+     * 客户端连接结果已记录，通知 {@link Unit#callbacks}
+     */
+    void connectResulted(Client client, int errorCode) {
         if (client.connected) {
-            if (Unit.callbacks == null) {
+            if (unit.callbacks == null) {
                 logger.debug("Unit.callbacks is null");
             } else {
                 logger.debug(">>> Unit.callbacks.connectSucceed(client={})", client);
-                Unit.callbacks.connectSucceed(client);
+                unit.callbacks.connectSucceed(client);
                 logger.debug("<<< Unit.callbacks.connectSucceed(client={})", client);
             }
         } else {
-            if (Unit.callbacks == null) {
+            if (unit.callbacks == null) {
                 logger.debug("Unit.callbacks is null");
             } else {
                 logger.debug(">>> Unit.callbacks.connectFailed(client={})", client);
-                Unit.callbacks.connectFailed(client, errorCode);
+                unit.callbacks.connectFailed(client, errorCode);
                 logger.debug("<<< Unit.callbacks.connectFailed(client={})", client);
             }
         }
-        logger.debug("<<< connect({}, {}, {})", localClientId, accessPointUnitId, errorCode);
     }
 
     public void disconnect(byte localClientId) {
         logger.debug(">>> disconnect({}, {})", localClientId);
-        logger.error("[{}:{}] connection lost", Unit.getLocalUnitId(), localClientId);
-        Client client = Unit.clients.get(localClientId);
+        logger.error("[{}:{}] connection lost", unit.getLocalUnitId(), localClientId);
+        Client client = unit.clients.get(localClientId);
         if (client != null) {
-            client.connected = false;
-            if (Unit.callbacks == null) {
+            client.connectLost();
+            if (unit.callbacks == null) {
                 logger.debug("Unit.callbacks is null");
             } else {
                 logger.debug(">>> Unit.callbacks.connectLost(client={})", client);
-                Unit.callbacks.connectLost(client);
+                unit.callbacks.connectLost(client);
                 logger.debug("<<< Unit.callbacks.connectLost(client={})", client);
             }
         }
@@ -80,77 +102,283 @@ class LibCallbackHandler implements Callbacks {
     }
 
     public void data(Head head, byte[] bytes) {
-        logger.debug(">>> data(head={}, dataLength={})", head, bytes.length);
-        String data = null;
-        try {
-            data = new String(bytes, "ASCII");
-        } catch (UnsupportedEncodingException error) {
-            logger.warn("Unsupported Encoding data:", error);
+        data(head.getCmdType(), head.getSrcUnitId(), head.getSrcClientId(), head.getDstClientId(), bytes);
+    }
+
+    void data(byte cmdType, byte srcUnitId, byte srcClientId, byte dstClientId, byte[] bytes) {
+        long beginTime = System.nanoTime();
+        Object jfrEvent = Jfr.beginCallback();
+        CallbackRingBuffer ring = this.ringBuffer;
+        if (ring == null) {
+            dispatch(cmdType, srcUnitId, srcClientId, dstClientId, bytes);
+        } else if (!ring.publish(cmdType, srcUnitId, srcClientId, dstClientId, bytes)) {
+            // 缓冲区正在停止：等它处理完更早的数据帧，再在当前线程上处理
+            ring.awaitStopped();
+            dispatch(cmdType, srcUnitId, srcClientId, dstClientId, bytes);
         }
-        if (data != null) {
-            byte cmdType = head.getCmdType();
-            if (cmdType == (byte) 3) {
-                Commander commander = (Commander) Unit.clients.get(head.getDstClientId());
-                if (commander == null) {
-                    logger.error("cannot find Commander client<id={}>", head.getDstClientId());
-                    return;
+        Jfr.callbackReturned(jfrEvent, cmdType, srcUnitId, srcClientId, dstClientId, bytes.length);
+        callbackStats.record(System.nanoTime() - beginTime);
+    }
+
+    /**
+     * 处理收到的数据：解码，找到目标客户端，交给客户端的执行器
+     * <p>
+     * 未启用环形缓冲区时，在底层共享库的 IO 线程上执行；否则在环形缓冲区的消费者线程上执行。
+     */
+    void dispatch(byte cmdType, byte srcUnitId, byte srcClientId, byte dstClientId, byte[] bytes) {
+        logger.debug(">>> dispatch(cmdType={}, src={}:{}, dstClientId={}, dataLength={})", cmdType, srcUnitId, srcClientId, dstClientId, bytes.length);
+        String data = new String(bytes, StandardCharsets.US_ASCII);
+        if (cmdType == (byte) 3) {
+            Commander commander = (Commander) unit.clients.get(dstClientId);
+            if (commander == null) {
+                logger.error("cannot find Commander client<id={}>", dstClientId);
+                return;
+            }
+            String rpcTxt = data;
+            BusAddress source = BusAddress.valueOf(srcUnitId, srcClientId);
+            long receivedTime = System.nanoTime();
+            DispatchLanes lanes = commander.dispatchLanes;
+            boolean inlineReplies = commander.inlineReplies;
+            EventPublisher<RpcEvent> publisher = commander.getEventPublisher();
+            // 只在环形缓冲区的消费者线程上解码、发布事件；在 IO 线程上时，留给执行器任务，不占用 IO 线程
+            boolean publishHere = publisher != null && ringBuffer != null;
+            RpcResponse response = null;
+            boolean reply = false;
+            if (inlineReplies || publishHere) {
+                response = decodeReply(bytes);
+                reply = response != null;
+                // 监听器不会阻塞时，在当前线程上直接完成，不经过执行器
+                if (response != null && inlineReplies) {
+                    RpcResultListener receiver = unit.getRpcResultListener(response.getId());
+                    if (receiver != null && receiver.isNonBlocking()) {
+                        unit.rpcResponded(response, receivedTime);
+                        logger.debug("<<< dispatch() reply completed inline");
+                        return;
+                    }
                 }
-                String rpcTxt = data;
-                commander.executor.execute(() -> {
-                    commander.logger.debug(">>> commander<{}> executor.execute data: {}", commander, rpcTxt);
+            } else if (lanes != null) {
+                // 只读顶层的 Key 决定进入哪条通道，解码留给通道中的任务
+                reply = isReply(bytes);
+            }
+            // 事件发布者：在消费者线程上就放入订阅者的有界缓冲区，之后执行器拒绝任务也不会丢失事件
+            RpcRequest published = null;
+            if (!reply && publishHere) {
+                published = decodeRequest(rpcTxt);
+                if (published != null)
+                    publisher.publish(new RpcEvent(source, published));
+            }
+            RpcRequest decoded = published;
+            Object queueEvent = Jfr.beginQueueWait();
+            if (reply) {
+                RpcResponse decodedReply = response;
+                Runnable task = () -> {
+                    Jfr.dequeued(queueEvent, commander, source, bytes.length);
                     try {
-                        RpcRequest req = null;
-                        RpcResponse res = null;
-                        // 收到了RPC事件通知？
-                        if (commander.eventListener != null) {
-                            try {
-                                ObjectMapper mapper = new ObjectMapper();
-                                req = mapper.readValue(rpcTxt, RpcRequest.class);
-                            } catch (JsonProcessingException ignore) {
-                            }
-                            if (req != null) {
+                        RpcResponse res = decodedReply != null ? decodedReply : decodeReply(bytes);
+                        if (res == null) {
+                            commander.logger.warn("unsupported RPC content received: {}", rpcTxt);
+                            return;
+                        }
+                        unit.rpcResponded(res, receivedTime);
+                    } catch (Exception e) {
+                        commander.logger.error("error occurred in executor.execute()", e);
+                    }
+                };
+                execute(commander, lanes, task, true);
+                logger.debug("<<< dispatch()");
+                return;
+            }
+            Runnable task = () -> {
+                Jfr.dequeued(queueEvent, commander, source, bytes.length);
+                commander.logger.debug(">>> commander<{}> executor.execute data: {}", commander, rpcTxt);
+                try {
+                    RpcRequest req = decoded;
+                    RpcResponse res = null;
+                    if (publisher != null && !publishHere) {
+                        res = decodeReply(bytes);
+                        if (res != null) {
+                            unit.rpcResponded(res, receivedTime);
+                            return;
+                        }
+                        req = decodeRequest(rpcTxt);
+                        if (req != null)
+                            publisher.publish(new RpcEvent(source, req));
+                    }
+                    // 收到了标准 CCF 事件通知？直接解码为事件对象
+                    CcfEventListener ccfEventListener = commander.ccfEventListener;
+                    CcfEvent ccfEvent = null;
+                    if (ccfEventListener != null) {
+                        try {
+                            ccfEvent = CcfEventDecoder.decode(source, bytes);
+                        } catch (IOException ignore) {
+                        }
+                        if (ccfEvent != null && !commander.hasRequestConsumer()) {
+                            commander.eventReceived(ccfEvent);
+                            ccfEvent.dispatchTo(ccfEventListener);
+                            return;
+                        }
+                    }
+                    // 收到了RPC事件通知？
+                    if (commander.hasEventConsumer()) {
+                        if (req == null)
+                            req = decodeRequest(rpcTxt);
+                        if (req != null) {
+                            commander.eventReceived(source, req);
+                            if (commander.eventListener != null) {
                                 commander.logger.debug(">>> commander.eventListener.onEvent({})", req);
-                                BusAddress source = new BusAddress(head.getSrcUnitId(), head.getSrcClientId());
                                 commander.eventListener.onEvent(source, req);
                                 commander.logger.debug("<<< commander.eventListener.onEvent()");
-                                return;
                             }
-                        } else {
-                            commander.logger.debug("commander<{}> executor.execute NO eventListener", commander);
-                        }
-                        // 收到了RPC调用回复？
-                        try {
-                            ObjectMapper mapper = new ObjectMapper();
-                            res = mapper.readValue(rpcTxt, RpcResponse.class);
-                        } catch (JsonProcessingException ignore) {
-                        }
-                        if (res != null) {
-                            Unit.rpcResponded(res);
+                            if (ccfEvent != null)
+                                ccfEvent.dispatchTo(ccfEventListener);
                             return;
                         }
-                        // 既不是RPC事件通知，也不是RPC请求回复，只能忽略了。
-                        commander.logger.warn("unsupported RPC content received: {}", rpcTxt);
-                    } catch (Exception e) {
-                        commander.logger.error("error occurred in executor.execute()", e);
-                    } finally {
-                        commander.logger.debug("<<< commander<{}> executor.execute()", commander);
+                    } else {
+                        commander.logger.debug("commander<{}> executor.execute NO event consumer", commander);
                     }
+                    // 收到了RPC调用回复？
+                    try {
+                        res = Commander.mapper.readValue(rpcTxt, RpcResponse.class);
+                    } catch (JsonProcessingException ignore) {
+                    }
+                    if (res != null) {
+                        unit.rpcResponded(res, receivedTime);
+                        return;
+                    }
+                    // 既不是RPC事件通知，也不是RPC请求回复，只能忽略了。
+                    commander.logger.warn("unsupported RPC content received: {}", rpcTxt);
+                } catch (Exception e) {
+                    commander.logger.error("error occurred in executor.execute()", e);
+                } finally {
+                    commander.logger.debug("<<< commander<{}> executor.execute()", commander);
+                }
 
+            };
+            execute(commander, lanes, task, false);
+        } else if (cmdType == (byte) 6) {
+            Monitor monitor = (Monitor) unit.clients.get(dstClientId);
+            if (monitor == null) {
+                logger.error("cannot find Monitor client<id={}>", dstClientId);
+                return;
+            }
+            String finalData = data;
+            if (monitor.executor != null) {
+                BusAddress source = BusAddress.valueOf(srcUnitId, srcClientId);
+                Object queueEvent = Jfr.beginQueueWait();
+                Runnable task = unit.trackCallback(() -> {
+                    Jfr.dequeued(queueEvent, monitor, source, bytes.length);
+                    Object processEvent = Jfr.beginMonitorProcess();
+                    monitor.process(source, finalData);
+                    Jfr.monitorProcessed(processEvent, source, bytes.length);
                 });
-            } else if (cmdType == (byte) 6) {
-                Monitor monitor = (Monitor) Unit.clients.get(head.getDstClientId());
-                if (monitor == null) {
-                    logger.error("cannot find Monitor client<id={}>", head.getDstClientId());
-                    return;
+                try {
+                    monitor.executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    unit.callbackDone();
+                    throw e;
+                }
+            }
+        }
+        logger.debug("<<< dispatch()");
+    }
+
+    /**
+     * 把回调任务交给命令处理器的执行器，设置了分发通道时经过通道
+     *
+     * @throws RejectedExecutionException 执行器拒绝了任务
+     */
+    private void execute(Commander commander, DispatchLanes lanes, Runnable task, boolean reply) {
+        Runnable tracked = unit.trackCallback(task);
+        try {
+            if (lanes == null)
+                commander.executor.execute(tracked);
+            else
+                lanes.execute(commander.executor, tracked, reply);
+        } catch (RejectedExecutionException e) {
+            unit.callbackDone();
+            throw e;
+        }
+    }
+
+    /**
+     * 解码 RPC 事件通知
+     *
+     * @return RPC 事件通知。{@code null} 表示不是 RPC 事件通知（或者无法解码）
+     */
+    static RpcRequest decodeRequest(String data) {
+        try {
+            return Commander.mapper.readValue(data, RpcRequest.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 收到的数据是 RPC 回复时，解码它
+     * <p>
+     * 逐个读取顶层的 Key，遇到 {@code method} 就确定不是回复，不再往下解码。
+     *
+     * @return RPC 回复。{@code null} 表示不是 RPC 回复（或者无法解码）
+     */
+    static RpcResponse decodeReply(byte[] bytes) {
+        try (JsonParser parser = jsonFactory.createParser(bytes)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                return null;
+            RpcResponse response = new RpcResponse();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                switch (name) {
+                    case "method":
+                        return null;
+                    case "id":
+                        response.setId(parser.getValueAsString());
+                        break;
+                    case "result":
+                        response.setResult(Commander.mapper.readValue(parser, Object.class));
+                        break;
+                    case "error":
+                        response.setError(Commander.mapper.readValue(parser, RpcError.class));
+                        break;
+                    default:
+                        parser.skipChildren();
                 }
-                String finalData = data;
-                if (monitor.executor != null) {
-                    BusAddress source = new BusAddress(head.getSrcUnitId(), head.getSrcClientId());
-                    monitor.executor.execute(() -> monitor.process(source, finalData));
+            }
+            return response.getId() == null ? null : response;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 判断收到的数据是不是 RPC 回复，但不解码
+     * <p>
+     * 与 {@link #decodeReply} 的判断相同，只是跳过所有的值，不创建对象。
+     *
+     * @return 是否是 RPC 回复
+     */
+    static boolean isReply(byte[] bytes) {
+        try (JsonParser parser = jsonFactory.createParser(bytes)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                return false;
+            boolean hasId = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (name) {
+                    case "method":
+                        return false;
+                    case "id":
+                        hasId = value != JsonToken.VALUE_NULL;
+                        break;
+                    default:
+                        parser.skipChildren();
                 }
             }
+            return hasId;
+        } catch (IOException e) {
+            return false;
         }
-        logger.debug("<<< data()");
     }
 
     public void log(String msg, Boolean isErr) {
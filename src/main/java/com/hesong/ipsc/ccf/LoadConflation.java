@@ -0,0 +1,100 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Monitor} 合并负载变化通知的参数
+ * <p>
+ * 启用后，每个CTI服务器只保留最新的负载信息，在 {@link #getInterval} 时间内最多通知一次；
+ * 并且只有至少一个负载项的变化幅度达到阈值时才通知，通知中带有变化的负载项（{@link ServerLoadDelta}）。
+ * <p>
+ * 变化幅度是相对于上一次通知时的值计算的，所以多次小幅变化累计达到阈值时，同样会通知。
+ *
+ * @see Monitor#setLoadConflation
+ */
+public class LoadConflation {
+    private final Map<String, Integer> thresholds = new ConcurrentHashMap<>();
+    private volatile long interval = 1000;
+    private volatile int defaultThreshold = 1;
+
+    /**
+     * @return 同一个CTI服务器两次通知的最小间隔 MILLISECONDS。默认是 1000
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    public void setInterval(long interval) {
+        if (interval < 0)
+            throw new IllegalArgumentException("Argument \"interval\" SHOULD NOT be negative.");
+        this.interval = interval;
+    }
+
+    /**
+     * @return 没有单独设置阈值的负载项的变化阈值。默认是 1，即任何变化都通知
+     */
+    public int getDefaultThreshold() {
+        return defaultThreshold;
+    }
+
+    public void setDefaultThreshold(int defaultThreshold) {
+        this.defaultThreshold = defaultThreshold;
+    }
+
+    /**
+     * @param key 负载项的 Key，参见 {@link ServerInfo#getLoads}
+     * @return 该负载项的变化阈值
+     */
+    public int getThreshold(String key) {
+        Integer threshold = thresholds.get(key);
+        return threshold == null ? defaultThreshold : threshold;
+    }
+
+    /**
+     * 单独设置某个负载项的变化阈值
+     *
+     * @param key       负载项的 Key，参见 {@link ServerInfo#getLoads}
+     * @param threshold 变化阈值。变化的绝对值达到该值时才通知；{@link Integer#MAX_VALUE} 表示忽略该负载项
+     */
+    public void setThreshold(String key, int threshold) {
+        thresholds.put(key, threshold);
+    }
+
+    /**
+     * 比较负载信息与上一次通知时的值，并把变化的负载项记为已通知
+     *
+     * @param baseline 各负载项上一次通知时的值，会被修改
+     * @param loads    当前的负载信息
+     * @return 变化的负载项
+     */
+    ServerLoadDelta diff(Map<String, Integer> baseline, Map<String, Integer> loads) {
+        Map<String, Integer> previous = new HashMap<>();
+        Map<String, Integer> current = new HashMap<>();
+        loads.forEach((k, v) -> {
+            Integer prev = baseline.get(k);
+            if (moved(k, prev, v)) {
+                previous.put(k, prev);
+                current.put(k, v);
+            }
+        });
+        baseline.putAll(current);
+        return new ServerLoadDelta(previous, current);
+    }
+
+    private boolean moved(String key, Integer prev, Integer cur) {
+        if (Objects.equals(prev, cur))
+            return false;
+        if (prev == null || cur == null)
+            return true;
+        return Math.abs((long) cur - prev) >= getThreshold(key);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s interval=%d, defaultThreshold=%d, thresholds=%s>",
+                LoadConflation.class, interval, defaultThreshold, thresholds);
+    }
+}
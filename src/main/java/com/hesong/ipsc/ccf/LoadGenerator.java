@@ -0,0 +1,392 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 压测工具
+ * <p>
+ * 用 {@link SimulatedBus} 代替 CTI BUS 共享库，以固定速率（开环）或固定并发数（闭环）调用 {@link Commander#createResource} 或
+ * {@link Commander#operateResource}，报告吞吐量、延迟分位数、超时数量，以及执行器和 IO 线程的饱和情况。
+ * <p>
+ * 开环模式的延迟从每个请求<strong>计划</strong>发出的时间算起，发送线程落后时，落后的时间也计入延迟，不存在协调遗漏；
+ * 闭环模式指定 {@code expected-interval} 后，按 {@link LatencyHistogram#record(long, long)} 补偿协调遗漏。
+ * 两种模式都同时报告从实际发出时算起的原始延迟，以便对比。
+ * <p>
+ * 用法：
+ * <pre>
+ * java -cp ... com.hesong.ipsc.ccf.LoadGenerator --mode=open --rate=5000 --duration=30 --service=lognormal:2:0.5
+ * </pre>
+ * 参数（括号中是默认值）：
+ * <ul>
+ * <li>{@code mode} - {@code open} 或 {@code closed} ({@code open})</li>
+ * <li>{@code rate} - 开环模式每秒请求数 (1000)</li>
+ * <li>{@code concurrency} - 闭环模式的并发请求数 (64)</li>
+ * <li>{@code expected-interval} - 闭环模式补偿协调遗漏时，每个并发两次请求之间的预期间隔 MILLISECONDS。0 不补偿 (0)</li>
+ * <li>{@code senders} - 发送线程数 (1)</li>
+ * <li>{@code duration} - 计入结果的压测时间 SECONDS (10)</li>
+ * <li>{@code warmup} - 不计入结果的预热时间 SECONDS (2)</li>
+ * <li>{@code op} - {@code create} 或 {@code operate} ({@code create})</li>
+ * <li>{@code service} - IPSC 服务时间分布，见 {@link ServiceTime} ({@code exp:2})</li>
+ * <li>{@code drop} - IPSC 不回复的请求比例 (0)</li>
+ * <li>{@code error} - IPSC 以错误回复的请求比例 (0)</li>
+ * <li>{@code timeout} - RPC 结果等待超时 MILLISECONDS (1000)</li>
+ * <li>{@code executor-threads} - {@link Commander} 执行器的线程数 (处理器核心数)</li>
+ * <li>{@code executor-queue} - {@link Commander} 执行器的队列容量 (处理器核心数乘以1000)</li>
+ * <li>{@code ring} - 环形缓冲区的槽位数量，见 {@link UnitContext#startRingBuffer(int)}。0 不启用 (0)</li>
+ * </ul>
+ * 以下参数在模拟的 CTI BUS 之上{@link FaultInjector 注入故障}，给出任何一个即启用：
+ * <ul>
+ * <li>{@code fault-seed} - 随机数种子 (当前时间)</li>
+ * <li>{@code fault-submit-latency} - 每次提交附加的延迟分布，格式同 {@code service} (不附加)</li>
+ * <li>{@code fault-submit-fail} - 提交失败的比例 (0)</li>
+ * <li>{@code fault-inbound-latency} - 收到的数据附加的延迟分布，格式同 {@code service} (不附加)</li>
+ * <li>{@code fault-drop-reply} - 丢弃回复的比例 (0)</li>
+ * <li>{@code fault-dup-reply} - 重复回复的比例 (0)</li>
+ * </ul>
+ */
+public class LoadGenerator {
+    private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final long SAMPLE_INTERVAL = 10;
+    private static final BusAddress IPSC = BusAddress.valueOf((byte) 0, (byte) 0);
+
+    private final boolean openLoop;
+    private final double rate;
+    private final int concurrency;
+    private final long expectedInterval;
+    private final int senders;
+    private final long duration;
+    private final long warmup;
+    private final boolean operate;
+    private final ServiceTime serviceTime;
+    private final double dropRatio;
+    private final double errorRatio;
+    private final int timeout;
+    private final int executorThreads;
+    private final int executorQueue;
+    private final int ringBufferSize;
+    private final FaultInjector faultInjector;
+
+    private final LatencyHistogram correctedHistogram = new LatencyHistogram();
+    private final LatencyHistogram rawHistogram = new LatencyHistogram();
+    private final LongAdder issuedCount = new LongAdder();
+    private final LongAdder resultCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder submitErrorCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final AtomicLong outstanding = new AtomicLong();
+    private final AtomicLong maxSendLag = new AtomicLong();
+    private final AtomicLong maxQueueSize = new AtomicLong();
+    private final AtomicLong maxActiveCount = new AtomicLong();
+    private final AtomicLong maxRingBacklog = new AtomicLong();
+    private final AtomicLong maxSimulatedPending = new AtomicLong();
+    private final Map<String, Object> params = Collections.singletonMap("load", (Object) true);
+    private Commander commander;
+    private InstrumentedExecutor executor;
+    private SimulatedBus bus;
+    private UnitContext unit;
+    private Semaphore permits;
+    private long warmupEnd;
+    private long measureEnd;
+
+    /**
+     * @param options 压测参数，见 {@link LoadGenerator}
+     */
+    public LoadGenerator(Map<String, String> options) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        String mode = options.getOrDefault("mode", "open");
+        if (!mode.equals("open") && !mode.equals("closed"))
+            throw new IllegalArgumentException(String.format("Unknown mode \"%s\"", mode));
+        String op = options.getOrDefault("op", "create");
+        if (!op.equals("create") && !op.equals("operate"))
+            throw new IllegalArgumentException(String.format("Unknown op \"%s\"", op));
+        this.openLoop = mode.equals("open");
+        this.operate = op.equals("operate");
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "64"));
+        this.expectedInterval = (long) (Double.parseDouble(options.getOrDefault("expected-interval", "0")) * 1000);
+        this.senders = Integer.parseInt(options.getOrDefault("senders", "1"));
+        this.duration = (long) (Double.parseDouble(options.getOrDefault("duration", "10")) * 1e9);
+        this.warmup = (long) (Double.parseDouble(options.getOrDefault("warmup", "2")) * 1e9);
+        this.serviceTime = ServiceTime.parse(options.getOrDefault("service", "exp:2"));
+        this.dropRatio = Double.parseDouble(options.getOrDefault("drop", "0"));
+        this.errorRatio = Double.parseDouble(options.getOrDefault("error", "0"));
+        this.timeout = Integer.parseInt(options.getOrDefault("timeout", "1000"));
+        this.executorThreads = Integer.parseInt(options.getOrDefault("executor-threads", String.valueOf(processors)));
+        this.executorQueue = Integer.parseInt(options.getOrDefault("executor-queue", String.valueOf(processors * 1000)));
+        this.ringBufferSize = Integer.parseInt(options.getOrDefault("ring", "0"));
+        this.faultInjector = faultInjectorOf(options);
+        if (rate <= 0)
+            throw new IllegalArgumentException("Argument \"rate\" SHOULD be positive.");
+        if (concurrency <= 0)
+            throw new IllegalArgumentException("Argument \"concurrency\" SHOULD be positive.");
+        if (senders <= 0)
+            throw new IllegalArgumentException("Argument \"senders\" SHOULD be positive.");
+        if (duration <= 0)
+            throw new IllegalArgumentException("Argument \"duration\" SHOULD be positive.");
+        if (warmup < 0)
+            throw new IllegalArgumentException("Argument \"warmup\" SHOULD NOT be negative.");
+    }
+
+    /**
+     * @return 按 {@code fault-*} 参数设置的故障注入。{@code null} 表示没有给出这些参数
+     */
+    private static FaultInjector faultInjectorOf(Map<String, String> options) {
+        if (options.keySet().stream().noneMatch(key -> key.startsWith("fault-")))
+            return null;
+        String seed = options.get("fault-seed");
+        FaultInjector injector = seed == null ? new FaultInjector() : new FaultInjector(Long.parseLong(seed));
+        injector.setSubmitLatency(options.get("fault-submit-latency"));
+        injector.setSubmitFailureRatio(Double.parseDouble(options.getOrDefault("fault-submit-fail", "0")));
+        injector.setInboundLatency(options.get("fault-inbound-latency"));
+        injector.setReplyDropRatio(Double.parseDouble(options.getOrDefault("fault-drop-reply", "0")));
+        injector.setReplyDuplicateRatio(Double.parseDouble(options.getOrDefault("fault-dup-reply", "0")));
+        return injector;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException(String.format("Invalid argument \"%s\", expected --key=value", arg));
+            int i = arg.indexOf('=');
+            options.put(arg.substring(2, i), arg.substring(i + 1));
+        }
+        new LoadGenerator(options).run(System.out);
+        // UnitContext 的计时器等线程不是守护线程
+        System.exit(0);
+    }
+
+    /**
+     * 执行压测，并输出报告
+     * <p>
+     * 使用自己的 {@link UnitContext}，不影响 {@link Unit} 的默认上下文。
+     *
+     * @param out 报告的输出
+     */
+    public void run(PrintStream out) throws Exception {
+        bus = new SimulatedBus(IPSC, serviceTime, dropRatio, errorRatio);
+        unit = new UnitContext(bus);
+        if (faultInjector != null)
+            unit.setFaultInjector(faultInjector);
+        unit.initiate((byte) 1);
+        if (ringBufferSize > 0)
+            unit.startRingBuffer(ringBufferSize);
+        executor = new InstrumentedExecutor(
+                executorThreads, executorThreads, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(executorQueue),
+                // 与默认的 AbortPolicy 一样丢弃回复（调用方随后超时），只是不再逐条记录错误日志
+                (r, e) -> rejectedCount.increment()
+        );
+        commander = unit.createCommander((byte) 1, "127.0.0.1", (short) 8088, null, executor);
+        commander.ready().get(10, TimeUnit.SECONDS);
+        if (!openLoop)
+            permits = new Semaphore(concurrency);
+        logger.info("{} started", this);
+
+        long start = System.nanoTime();
+        warmupEnd = start + warmup;
+        measureEnd = warmupEnd + duration;
+        ScheduledFuture<?> sampler = unit.getTimer().scheduleAtFixedRate(
+                this::sample, warmup / 1_000_000, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+        unit.getTimer().schedule(() -> {
+            unit.getCallbackStats().reset();
+            rejectedCount.reset();
+        }, warmup, TimeUnit.NANOSECONDS);
+        Thread[] threads = new Thread[senders];
+        for (int i = 0; i < senders; ++i) {
+            int index = i;
+            threads[i] = new Thread(
+                    () -> {
+                        if (openLoop)
+                            sendOpenLoop(start, index);
+                        else
+                            sendClosedLoop();
+                    },
+                    "ccf-load-sender-" + i
+            );
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        // 等待已发出的请求都有结果
+        long drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout * 2L);
+        while (outstanding.get() > 0 && System.nanoTime() < drainDeadline)
+            Thread.sleep(10);
+        sampler.cancel(false);
+        report(out);
+        unit.release();
+        executor.shutdown();
+    }
+
+    private void sendOpenLoop(long start, int index) {
+        double interval = 1e9 / rate;
+        for (long i = index; ; i += senders) {
+            long intended = start + (long) (i * interval);
+            if (intended - measureEnd >= 0)
+                return;
+            long now;
+            while ((now = System.nanoTime()) - intended < 0)
+                LockSupport.parkNanos(intended - now);
+            if (intended - warmupEnd >= 0) {
+                long lag = now - intended;
+                long max = maxSendLag.get();
+                while (lag > max && !maxSendLag.compareAndSet(max, lag))
+                    max = maxSendLag.get();
+            }
+            send(intended, now);
+        }
+    }
+
+    private void sendClosedLoop() {
+        for (; ; ) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long now = System.nanoTime();
+            if (now - measureEnd >= 0) {
+                permits.release();
+                return;
+            }
+            send(now, now);
+        }
+    }
+
+    private void send(long intended, long sent) {
+        boolean measured = intended - warmupEnd >= 0;
+        if (measured)
+            issuedCount.increment();
+        outstanding.incrementAndGet();
+        RpcResultListener listener = new RpcResultListener() {
+            {
+                timeout = LoadGenerator.this.timeout;
+            }
+
+            @Override
+            protected void onResult(Object result) {
+                replied(intended, sent, measured, false);
+            }
+
+            @Override
+            protected void onError(RpcError error) {
+                replied(intended, sent, measured, true);
+            }
+
+            @Override
+            protected void onTimeout() {
+                if (measured)
+                    timeoutCount.increment();
+                finished();
+            }
+        };
+        try {
+            if (operate)
+                commander.operateResource(IPSC, "sim-res", "sim.flow.method", params, listener);
+            else
+                commander.createResource(IPSC, "sim.flow", params, listener);
+        } catch (Exception e) {
+            if (measured)
+                submitErrorCount.increment();
+            logger.debug("send() error", e);
+            finished();
+        }
+    }
+
+    private void replied(long intended, long sent, boolean measured, boolean error) {
+        if (measured) {
+            long now = System.nanoTime();
+            if (error)
+                errorCount.increment();
+            else
+                resultCount.increment();
+            long raw = (now - sent) / 1000;
+            rawHistogram.record(raw);
+            if (openLoop)
+                correctedHistogram.record((now - intended) / 1000);
+            else
+                correctedHistogram.record(raw, expectedInterval);
+        }
+        finished();
+    }
+
+    private void finished() {
+        outstanding.decrementAndGet();
+        if (permits != null)
+            permits.release();
+    }
+
+    private void sample() {
+        updateMax(maxQueueSize, executor.getQueue().size());
+        updateMax(maxActiveCount, executor.getActiveCount());
+        updateMax(maxRingBacklog, unit.getRingBufferBacklog());
+        updateMax(maxSimulatedPending, bus.getPendingCount());
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        if (value > max.get())
+            max.set(value);
+    }
+
+    private void report(PrintStream out) {
+        double seconds = duration / 1e9;
+        CallbackStats callbackStats = unit.getCallbackStats();
+        out.println(this);
+        out.printf("requests:    issued=%d, results=%d, errors=%d, timeouts=%d, submitErrors=%d, outstanding=%d%n",
+                issuedCount.sum(), resultCount.sum(), errorCount.sum(), timeoutCount.sum(), submitErrorCount.sum(),
+                outstanding.get());
+        out.printf("throughput:  %.1f req/s offered, %.1f replies/s%n",
+                issuedCount.sum() / seconds, (resultCount.sum() + errorCount.sum()) / seconds);
+        printLatency(out, openLoop || expectedInterval > 0 ? "latency:    " : "latency(*): ", correctedHistogram);
+        printLatency(out, "raw latency:", rawHistogram);
+        if (!openLoop && expectedInterval <= 0)
+            out.println("(*) closed loop without --expected-interval: NOT corrected for coordinated omission");
+        if (openLoop)
+            out.printf("sender:      maxLag=%.3fms%n", maxSendLag.get() / 1e6);
+        out.printf("executor:    threads=%d, queueCapacity=%d, maxQueued=%d, maxActive=%d, rejected=%d%n",
+                executorThreads, executorQueue, maxQueueSize.get(), maxActiveCount.get(), rejectedCount.sum());
+        InstrumentedExecutor.ExecutorStats executorStats = executor.getStats();
+        out.printf("executor:    queueWait p50=%.3fms, p99=%.3fms, max=%.3fms; serviceTime p50=%.3fms, p99=%.3fms, max=%.3fms%n",
+                executorStats.getQueueWait50() / 1e3, executorStats.getQueueWait99() / 1e3, executorStats.getMaxQueueWait() / 1e3,
+                executorStats.getServiceTime50() / 1e3, executorStats.getServiceTime99() / 1e3, executorStats.getMaxServiceTime() / 1e3);
+        out.printf("io thread:   callbacks=%d, avg=%.1fus, max=%.1fus, maxRingBacklog=%d, maxSimulatedPending=%d%n",
+                callbackStats.getCount(), callbackStats.getAverageNanos() / 1e3, callbackStats.getMaxNanos() / 1e3,
+                maxRingBacklog.get(), maxSimulatedPending.get());
+        if (faultInjector != null)
+            out.printf("faults:      seed=%d, submitFailures=%d, droppedReplies=%d, duplicatedReplies=%d%n",
+                    faultInjector.getSeed(), faultInjector.getSubmitFailureCount(),
+                    faultInjector.getDroppedReplyCount(), faultInjector.getDuplicatedReplyCount());
+    }
+
+    private static void printLatency(PrintStream out, String title, LatencyHistogram histogram) {
+        out.printf("%s p50=%.3fms, p90=%.3fms, p99=%.3fms, p99.9=%.3fms, p99.99=%.3fms, max=%.3fms (count=%d)%n",
+                title,
+                histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(90) / 1e3,
+                histogram.getValueAtPercentile(99) / 1e3, histogram.getValueAtPercentile(99.9) / 1e3,
+                histogram.getValueAtPercentile(99.99) / 1e3, histogram.getMaxValue() / 1e3,
+                histogram.getTotalCount());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "<%s mode=%s, rate=%s, concurrency=%d, senders=%d, op=%s, service=%s, drop=%s, error=%s, timeout=%d, ring=%d>",
+                LoadGenerator.class, openLoop ? "open" : "closed", rate, concurrency, senders,
+                operate ? "operate" : "create", serviceTime, dropRatio, errorRatio, timeout, ringBufferSize);
+    }
+}
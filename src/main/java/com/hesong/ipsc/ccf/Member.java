@@ -0,0 +1,72 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * CTI BUS 上的一个在线节点
+ * <p>
+ * 由 {@link Membership} 根据全局连接状态变化事件记录，不可修改。
+ */
+public class Member {
+    private final BusAddress address;
+    private final byte clientType;
+    private final byte status;
+    private final String addInfo;
+    private final long version;
+    private final long since;
+
+    Member(BusAddress address, byte clientType, byte status, String addInfo, long version, long since) {
+        this.address = address;
+        this.clientType = clientType;
+        this.status = status;
+        this.addInfo = addInfo;
+        this.version = version;
+        this.since = since;
+    }
+
+    /**
+     * @return 节点的 BUS 地址
+     */
+    public BusAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return 节点的 Client Type，参见 {@link UnitCallbacks#globalConnectStateChanged}
+     */
+    public byte getClientType() {
+        return clientType;
+    }
+
+    /**
+     * @return 节点的连接状态：1 新建连接；2 已有的连接
+     */
+    public byte getStatus() {
+        return status;
+    }
+
+    /**
+     * @return 节点的附加信息
+     */
+    public String getAddInfo() {
+        return addInfo;
+    }
+
+    /**
+     * @return 记录该节点时 {@link Membership} 的版本号
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return 记录该节点的时间 (Unix timestamp MILLISECONDS)
+     */
+    public long getSince() {
+        return since;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s address=%s, clientType=%d, status=%d, version=%d>",
+                Member.class, address, clientType, status, version);
+    }
+}
@@ -0,0 +1,187 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * CTI BUS 集群成员表
+ * <p>
+ * 根据底层共享库的全局连接状态变化事件（参见 {@link UnitCallbacks#globalConnectStateChanged}），记录整个 CTI BUS 上在线的节点。
+ * <p>
+ * 成员表是一个以 BUS 地址（Unit ID × Client ID）为下标的 256×256 平铺数组，查询某个节点是否在线只需读一次数组，不加锁。
+ * 每次变化都使版本号加1；{@link #snapshot} 返回不可修改的快照，成员表没有变化时重复返回同一个快照。
+ * <p>
+ * 使用 {@link Unit#getMembership} 获取。
+ */
+public class Membership {
+    /**
+     * Client Type: BUS 服务
+     */
+    public static final byte TYPE_BUS = 1;
+    /**
+     * Client Type: IPSC（CTI服务进程）服务
+     */
+    public static final byte TYPE_IPSC = 2;
+    /**
+     * Client Type: IPSC 监控服务
+     */
+    public static final byte TYPE_MONITOR = 3;
+
+    private static final Logger logger = LoggerFactory.getLogger(Membership.class);
+
+    private final AtomicReferenceArray<Member> table = new AtomicReferenceArray<>(0x10000);
+    private final AtomicLong version = new AtomicLong();
+    private final List<MembershipListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile MembershipSnapshot snapshot = MembershipSnapshot.EMPTY;
+
+    Membership() {
+    }
+
+    /**
+     * 全局连接状态变化回调：更新成员表
+     * <p>
+     * {@code clientId} 为 {@code -1} 表示 BUS 节点本身，它离线时，该单元的所有节点都随之离线，整行移出成员表。
+     */
+    void update(byte unitId, byte clientId, byte clientType, byte status, String addInfo) {
+        if (clientId == -1 && status == 0) {
+            evictUnit(unitId);
+            return;
+        }
+        BusAddress address = BusAddress.valueOf(unitId, clientId);
+        Member previous;
+        Member current;
+        long v;
+        // 写入只发生在底层共享库的IO线程，加锁只是为了保证“先写数组，后发布版本号”的顺序；读取不加锁
+        synchronized (this) {
+            v = version.get() + 1;
+            current = status == 0 ? null : new Member(address, clientType, status, addInfo, v, System.currentTimeMillis());
+            previous = table.getAndSet(address.toKey(), current);
+            version.set(v);
+        }
+        logger.debug("update: {} -> {} (version={})", previous, current, v);
+        notifyListeners(previous, current, v);
+    }
+
+    /**
+     * BUS 节点离线：移出该单元的所有节点，版本号只加1
+     */
+    private void evictUnit(byte unitId) {
+        List<Member> evicted = new ArrayList<>();
+        long v;
+        synchronized (this) {
+            v = version.get() + 1;
+            int base = (unitId & 0xff) << 8;
+            for (int i = 0; i < 0x100; ++i) {
+                Member previous = table.getAndSet(base | i, null);
+                if (previous != null)
+                    evicted.add(previous);
+            }
+            version.set(v);
+        }
+        logger.info("BUS unit {} down: {} member(s) evicted (version={})", unitId, evicted.size(), v);
+        for (Member previous : evicted)
+            notifyListeners(previous, null, v);
+    }
+
+    private void notifyListeners(Member previous, Member current, long v) {
+        for (MembershipListener listener : listeners) {
+            try {
+                listener.onMembershipChanged(previous, current, v);
+            } catch (Exception e) {
+                logger.error(String.format("%s listener.onMembershipChanged() error", this), e);
+            }
+        }
+    }
+
+    /**
+     * @param address 节点的 BUS 地址
+     * @return 在线的节点。{@code null} 表示该节点不在线
+     */
+    public Member getMember(BusAddress address) {
+        return table.get(address.toKey());
+    }
+
+    /**
+     * @param unitId   节点的 Unit ID
+     * @param clientId 节点的 Client ID
+     * @return 在线的节点。{@code null} 表示该节点不在线
+     */
+    public Member getMember(byte unitId, byte clientId) {
+        return table.get(((unitId & 0xff) << 8) | (clientId & 0xff));
+    }
+
+    /**
+     * @param address 节点的 BUS 地址
+     * @return 该节点是否在线
+     */
+    public boolean isUp(BusAddress address) {
+        return table.get(address.toKey()) != null;
+    }
+
+    /**
+     * @return 成员表的版本号，每次变化加1
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * 成员表当前的快照
+     * <p>
+     * 成员表没有变化时，直接返回上一次的快照；否则扫描整个成员表，建立新的快照。
+     *
+     * @return 不可修改的快照
+     */
+    public MembershipSnapshot snapshot() {
+        for (; ; ) {
+            MembershipSnapshot current = this.snapshot;
+            long v = version.get();
+            if (current.getVersion() == v)
+                return current;
+            List<Member> members = new ArrayList<>();
+            for (int i = 0; i < 0x10000; ++i) {
+                Member member = table.get(i);
+                if (member != null)
+                    members.add(member);
+            }
+            // 扫描期间成员表又变化了，重新扫描
+            if (version.get() != v)
+                continue;
+            MembershipSnapshot fresh = new MembershipSnapshot(v, members);
+            if (fresh.getVersion() > this.snapshot.getVersion())
+                this.snapshot = fresh;
+            return fresh;
+        }
+    }
+
+    /**
+     * 添加变化监听器
+     *
+     * @param listener 监听器
+     */
+    public void addListener(MembershipListener listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("Argument \"listener\" SHOULD NOT be null.");
+        listeners.add(listener);
+    }
+
+    /**
+     * 移除变化监听器
+     *
+     * @param listener 监听器
+     */
+    public void removeListener(MembershipListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s version=%d>", Membership.class, version.get());
+    }
+}
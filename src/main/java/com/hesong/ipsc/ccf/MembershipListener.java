@@ -0,0 +1,17 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * {@link Membership} 变化监听器
+ * <p>
+ * 回调方法在底层共享库的IO线程中执行，应<strong>尽快</strong>返回！
+ */
+public interface MembershipListener {
+    /**
+     * 节点上线、下线或者状态变化
+     *
+     * @param previous 变化前的节点。{@code null} 表示该节点新上线
+     * @param current  变化后的节点。{@code null} 表示该节点已下线
+     * @param version  变化后 {@link Membership} 的版本号
+     */
+    void onMembershipChanged(Member previous, Member current, long version);
+}
@@ -0,0 +1,79 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link Membership} 在某个版本时的不可修改快照
+ *
+ * @see Membership#snapshot
+ */
+public class MembershipSnapshot {
+    static final MembershipSnapshot EMPTY = new MembershipSnapshot(0, Collections.emptyList());
+
+    private final long version;
+    private final List<Member> members;
+    private final BusAddress[][] addressesByType = new BusAddress[0x100][];
+
+    MembershipSnapshot(long version, List<Member> members) {
+        this.version = version;
+        this.members = Collections.unmodifiableList(members);
+        List<List<BusAddress>> lists = new ArrayList<>(Collections.nCopies(0x100, null));
+        for (Member member : members) {
+            int type = member.getClientType() & 0xff;
+            List<BusAddress> list = lists.get(type);
+            if (list == null) {
+                list = new ArrayList<>();
+                lists.set(type, list);
+            }
+            list.add(member.getAddress());
+        }
+        BusAddress[] empty = new BusAddress[0];
+        for (int i = 0; i < 0x100; ++i) {
+            List<BusAddress> list = lists.get(i);
+            addressesByType[i] = list == null ? empty : list.toArray(empty);
+        }
+    }
+
+    /**
+     * @return 快照的版本号
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return 所有在线的节点，按 BUS 地址排序
+     */
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * @param clientType 节点的 Client Type，参见 {@link UnitCallbacks#globalConnectStateChanged}
+     * @return 指定类型的在线节点的 BUS 地址，按 BUS 地址排序。<strong>不要</strong>修改返回的数组
+     */
+    public BusAddress[] getAddresses(byte clientType) {
+        return addressesByType[clientType & 0xff];
+    }
+
+    /**
+     * @return 在线的 IPSC（CTI服务进程）节点的 BUS 地址。<strong>不要</strong>修改返回的数组
+     */
+    public BusAddress[] getIpscAddresses() {
+        return getAddresses(Membership.TYPE_IPSC);
+    }
+
+    /**
+     * @return 在线的 IPSC 监控服务节点的 BUS 地址。<strong>不要</strong>修改返回的数组
+     */
+    public BusAddress[] getMonitorAddresses() {
+        return getAddresses(Membership.TYPE_MONITOR);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s version=%d, members=%d>", MembershipSnapshot.class, version, members.size());
+    }
+}
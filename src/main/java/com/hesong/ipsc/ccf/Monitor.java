@@ -5,9 +5,13 @@ import org.slf4j.LoggerFactory;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * CTI BUS 负载数据监听器
@@ -22,21 +26,30 @@ public class Monitor extends Client {
     MonitorEventListener eventListener;
     ThreadPoolExecutor executor;
     private ConcurrentHashMap<String, ServerInfo> serverInfoMap;
+    private final List<MonitorEventListener> observers = new CopyOnWriteArrayList<>();
+    private volatile EventPublisher<ServerLoadEvent> loadPublisher;
+    private volatile LoadConflation loadConflation;
+    private final Map<String, ConflationState> conflationStates = new ConcurrentHashMap<>();
+    private final ClusterLoad clusterLoad = new ClusterLoad();
 
     /**
-     * @param unitId 所属的本地Unit节点的ID
+     * @param unit   所属的本地Unit节点
      * @param id     客户端ID
      * @param ip     要连接的 CTI BUS 服务器 IP
      * @param port   要连接的 CTI BUS 服务器端口
      */
-    Monitor(byte unitId, byte id, String ip, short port, MonitorEventListener eventListener, ThreadPoolExecutor executor) {
-        super(unitId, id, (byte) 3, ip, port);
+    Monitor(UnitContext unit, byte id, String ip, short port, MonitorEventListener eventListener, ThreadPoolExecutor executor) {
+        super(unit, id, (byte) 3, ip, port);
         this.logger = LoggerFactory.getLogger(Monitor.class);
         this.eventListener = eventListener;
         this.executor = executor;
         this.executor.prestartAllCoreThreads();
 
         serverInfoMap = new ConcurrentHashMap<>();
+        unit.membership.addListener((previous, current, version) -> {
+            if (current == null && previous != null)
+                clusterLoad.remove(previous.getAddress());
+        });
     }
 
     private Map<String, String> parseKeyValStr(String s) {
@@ -104,10 +117,151 @@ public class Monitor extends Client {
                     _v = Integer.parseInt(v);
                 si.loads.put(k, _v);
             });
+            clusterLoad.update(source, si);
+            for (MonitorEventListener observer : observers) {
+                try {
+                    observer.onServerLoadChanged(source, si);
+                } catch (Exception e) {
+                    logger.error(String.format("observer %s onServerLoadChanged() error", observer), e);
+                }
+            }
+            EventPublisher<ServerLoadEvent> publisher = this.loadPublisher;
+            if (publisher != null) {
+                publisher.publish(new ServerLoadEvent(source, si.copy()));
+            }
             if (this.eventListener != null) {
-                this.eventListener.onServerLoadChanged(source, si.copy());
+                LoadConflation conflation = this.loadConflation;
+                if (conflation == null)
+                    this.eventListener.onServerLoadChanged(source, si.copy());
+                else
+                    conflate(conflation, source, si);
+            }
+        }
+    }
+
+    /**
+     * 合并通知：距上一次通知不足间隔时，只安排一次延迟的通知，届时使用最新的负载信息
+     */
+    private void conflate(LoadConflation conflation, BusAddress source, ServerInfo si) {
+        ConflationState state = conflationStates.computeIfAbsent(si.getId(), k -> new ConflationState());
+        long delay;
+        synchronized (state) {
+            state.source = source;
+            if (state.scheduled)
+                return;
+            delay = state.deliveredAt + conflation.getInterval() - System.currentTimeMillis();
+            if (delay > 0)
+                state.scheduled = true;
+        }
+        if (delay <= 0) {
+            deliver(conflation, si, state);
+            return;
+        }
+        unit.getTimer().schedule(() -> {
+            try {
+                executor.execute(() -> deliver(conflation, si, state));
+            } catch (RejectedExecutionException e) {
+                logger.warn("{} conflated delivery of {} rejected by executor", this, si.getId());
+                synchronized (state) {
+                    state.scheduled = false;
+                }
             }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void deliver(LoadConflation conflation, ServerInfo si, ConflationState state) {
+        BusAddress source;
+        ServerInfo copy;
+        ServerLoadDelta delta;
+        synchronized (state) {
+            state.scheduled = false;
+            copy = si.copy();
+            delta = conflation.diff(state.baseline, copy.loads);
+            if (delta.isEmpty())
+                return;
+            state.deliveredAt = System.currentTimeMillis();
+            source = state.source;
         }
+        MonitorEventListener listener = this.eventListener;
+        if (listener != null)
+            listener.onServerLoadChanged(source, copy, delta);
+    }
+
+    /**
+     * @return 处理收到的数据的执行器。由 {@link Unit} 新建的是 {@link InstrumentedExecutor}，可以读取它的排队时间等统计数据
+     */
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return 合并负载变化通知的参数。{@code null} 表示未启用
+     */
+    public LoadConflation getLoadConflation() {
+        return loadConflation;
+    }
+
+    /**
+     * 启用或停用合并负载变化通知
+     * <p>
+     * 启用后，{@link #eventListener} 不再在每一次收到负载信息时被调用，而是按 {@link LoadConflation} 的参数合并后，
+     * 通过 {@link MonitorEventListener#onServerLoadChanged(BusAddress, ServerInfo, ServerLoadDelta)} 通知。
+     * SDK 内部的观察者和 {@link #getLoadPublisher 负载变化发布者} 不受影响。
+     *
+     * @param loadConflation 合并通知的参数。{@code null} 表示停用（默认）
+     */
+    public void setLoadConflation(LoadConflation loadConflation) {
+        this.loadConflation = loadConflation;
+        conflationStates.clear();
+    }
+
+    /**
+     * 添加SDK内部的负载变化观察者
+     * <p>
+     * 观察者在 {@link #eventListener} 之前被调用，收到的 {@link ServerInfo} 不是副本，<strong>不可</strong>修改或保存它。
+     */
+    void addObserver(MonitorEventListener observer) {
+        observers.add(observer);
+    }
+
+    void removeObserver(MonitorEventListener observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * 新建该监控客户端的负载变化发布者，此后收到的负载变化会发布给它的订阅者
+     * <p>
+     * 事件在该监控客户端的执行器上投递。{@link OverflowStrategy#CONFLATE} 策略下，每个CTI服务器只保留最新的负载信息。
+     * <p>
+     * 负载变化发布者与 {@link MonitorEventListener} 可以同时使用。
+     *
+     * @param strategy   缓冲区溢出策略
+     * @param bufferSize 每个订阅者的缓冲区大小
+     * @return 新建的负载变化发布者
+     */
+    public EventPublisher<ServerLoadEvent> createLoadPublisher(OverflowStrategy strategy, int bufferSize) {
+        EventPublisher<ServerLoadEvent> publisher = new EventPublisher<>(
+                executor, strategy, bufferSize, event -> event.getServerInfo().getId()
+        );
+        EventPublisher<ServerLoadEvent> old = this.loadPublisher;
+        this.loadPublisher = publisher;
+        if (old != null)
+            old.complete();
+        return publisher;
+    }
+
+    /**
+     * @return 该监控客户端的负载变化发布者。{@code null} 表示还没有 {@link #createLoadPublisher 新建}
+     */
+    public EventPublisher<ServerLoadEvent> getLoadPublisher() {
+        return loadPublisher;
+    }
+
+    /**
+     * @return 该监控客户端收到的所有CTI服务器负载信息的汇总
+     */
+    public ClusterLoad getClusterLoad() {
+        return clusterLoad;
     }
 
     public Map<String, ServerInfo> getServerInfoMap() {
@@ -119,4 +273,14 @@ public class Monitor extends Client {
         return String.format("<%s unitId=%s, clientId=%s>", Monitor.class, getUnitId(), getId());
     }
 
+    /**
+     * 合并通知时，每个CTI服务器的状态
+     */
+    private static class ConflationState {
+        final Map<String, Integer> baseline = new HashMap<>();
+        BusAddress source;
+        long deliveredAt;
+        boolean scheduled;
+    }
+
 }
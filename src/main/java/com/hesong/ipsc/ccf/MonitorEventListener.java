@@ -13,4 +13,18 @@ public interface MonitorEventListener {
      * @param serverInfo CTI服务器信息
      */
     void onServerLoadChanged(BusAddress source, ServerInfo serverInfo);
+
+    /**
+     * CTI服务器负载变化回调（合并通知）
+     * <p>
+     * 只在 {@link Monitor} 启用了 {@link Monitor#setLoadConflation 合并通知} 时调用，代替 {@link #onServerLoadChanged(BusAddress, ServerInfo)}。
+     * 默认实现忽略变化量，直接调用 {@link #onServerLoadChanged(BusAddress, ServerInfo)}。
+     *
+     * @param source     变化事件发送者
+     * @param serverInfo CTI服务器最新的信息
+     * @param delta      自上一次通知以来，变化幅度达到阈值的负载项
+     */
+    default void onServerLoadChanged(BusAddress source, ServerInfo serverInfo, ServerLoadDelta delta) {
+        onServerLoadChanged(source, serverInfo);
+    }
 }
@@ -0,0 +1,70 @@
+package com.hesong.ipsc.ccf;
+
+import com.hesong.ipsc.busnetcli.Callbacks;
+
+/**
+ * JNI 共享库的进程级函数
+ * <p>
+ * {@link JniDispatcher} 通过它初始化、释放共享库，{@link JniBusLibrary} 通过它提交数据。
+ * 默认是 {@link #JNI}，即 {@link com.hesong.ipsc.busnetcli.Client} 的静态函数。
+ */
+interface NativeBus {
+    NativeBus JNI = new NativeBus() {
+        @Override
+        public int initiateLibrary(byte localUnitId) {
+            return com.hesong.ipsc.busnetcli.Client.initiateLibrary(localUnitId);
+        }
+
+        @Override
+        public void setCallbacks(Callbacks callbacks) {
+            com.hesong.ipsc.busnetcli.Client.setCallbacks(callbacks);
+        }
+
+        @Override
+        public void releaseLibrary() {
+            com.hesong.ipsc.busnetcli.Client.releaseLibrary();
+        }
+
+        @Override
+        public int createConnect(byte localClientId, byte clientType, String ip, short port) {
+            return com.hesong.ipsc.busnetcli.Client.createConnect(
+                    localClientId, clientType, ip, port, "", (short) 0xff, "", "", ""
+            );
+        }
+
+        @Override
+        public int launchFlow(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String flowId,
+                              int mode, int timeout, String payload) {
+            return com.hesong.ipsc.busnetcli.Client.launchFlow(
+                    localClientId, dstUnitId, dstIpscIndex, projectId, flowId, mode, timeout, payload
+            );
+        }
+
+        @Override
+        public int sendNotification(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String titleId,
+                                    int mode, int expires, String payload) {
+            return com.hesong.ipsc.busnetcli.Client.sendNotification(
+                    localClientId, dstUnitId, dstIpscIndex, projectId, titleId, mode, expires, payload
+            );
+        }
+
+        @Override
+        public String toString() {
+            return String.format("<%s JNI>", NativeBus.class);
+        }
+    };
+
+    int initiateLibrary(byte localUnitId);
+
+    void setCallbacks(Callbacks callbacks);
+
+    void releaseLibrary();
+
+    int createConnect(byte localClientId, byte clientType, String ip, short port);
+
+    int launchFlow(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String flowId,
+                   int mode, int timeout, String payload);
+
+    int sendNotification(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String titleId,
+                         int mode, int expires, String payload);
+}
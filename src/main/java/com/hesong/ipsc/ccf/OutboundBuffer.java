@@ -0,0 +1,375 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link Commander} 的发送缓冲区
+ * <p>
+ * 客户端与 CTI BUS 服务器的连接断开期间，{@link Commander#createResource} 和 {@link Commander#operateResource} 的调用不再抛出异常，
+ * 而是暂存在这个缓冲区中，照常返回 RPC ID。重新连接成功后，按调用的顺序、以 {@link #setFlushBatchSize} / {@link #setFlushInterval} 限定的速率重新提交。
+ * <p>
+ * 缓冲区有数量、字节数两个上限，缓冲区满时，调用仍然抛出异常。
+ * 每个调用最多暂存 {@code maxAge} 毫秒，过期的调用不再提交，而是以 {@link #ERROR_EXPIRED} 错误回调它的 {@link RpcResultListener#onError}；
+ * 重新提交时被熔断器、准入控制等拒绝的调用，以 {@link #ERROR_FLUSH_FAILED} 错误回调。
+ * <p>
+ * 缓冲区中的调用，它的 {@link RpcResultListener} 的超时从重新提交时开始计算。
+ * <p>
+ * 使用 {@link Commander#setOutboundBuffer} 启用。一个缓冲区只能用于一个 {@link Commander}。
+ */
+public class OutboundBuffer {
+    /**
+     * RPC 错误码：调用在缓冲区中过期
+     */
+    public static final int ERROR_EXPIRED = -32001;
+    /**
+     * RPC 错误码：重新提交缓冲区中的调用时出错
+     */
+    public static final int ERROR_FLUSH_FAILED = -32002;
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundBuffer.class);
+
+    private final int maxCount;
+    private final long maxBytes;
+    private final long maxAge;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final LongAdder bufferedCount = new LongAdder();
+    private final LongAdder flushedCount = new LongAdder();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private volatile int flushBatchSize = 50;
+    private volatile long flushInterval = 10;
+    private Commander commander;
+    private long bytes;
+    private boolean flushing;
+    private ScheduledFuture<?> expiryFuture;
+
+    /**
+     * @param maxCount 最多暂存的调用数量
+     * @param maxBytes 暂存的调用的 RPC 数据最多占用的字节数
+     * @param maxAge   每个调用最多暂存的时间 MILLISECONDS
+     */
+    public OutboundBuffer(int maxCount, long maxBytes, long maxAge) {
+        if (maxCount <= 0)
+            throw new IllegalArgumentException("Argument \"maxCount\" SHOULD be positive.");
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Argument \"maxBytes\" SHOULD be positive.");
+        if (maxAge <= 0)
+            throw new IllegalArgumentException("Argument \"maxAge\" SHOULD be positive.");
+        this.maxCount = maxCount;
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+    }
+
+    synchronized void attach(Commander commander) {
+        if (this.commander != null && this.commander != commander)
+            throw new IllegalStateException(String.format("%s is already used by %s", this, this.commander));
+        this.commander = commander;
+    }
+
+    /**
+     * 暂存一个调用
+     *
+     * @param rpcId             RPC ID
+     * @param size              RPC 数据的字节数
+     * @param rpcResultListener 调用返回结果监听器，可以是 {@code null}
+     * @param submit            重新提交这个调用，返回 JNI 函数的返回值
+     * @param connected         客户端当前是否已连接。已连接并且缓冲区中没有更早的调用时，不暂存，应直接提交
+     * @return 是否已暂存
+     * @throws RuntimeException 缓冲区已满
+     */
+    boolean offer(String rpcId, int size, RpcResultListener rpcResultListener, Submission submit, boolean connected) {
+        synchronized (this) {
+            if (connected && !flushing && queue.isEmpty())
+                return false;
+            if (queue.size() >= maxCount || bytes + size > maxBytes) {
+                rejectedCount.increment();
+                throw new RuntimeException(String.format(
+                        "%s is full: count=%d, bytes=%d", this, queue.size(), bytes));
+            }
+            queue.offer(new Entry(rpcId, size, rpcResultListener, submit, System.currentTimeMillis() + maxAge));
+            bytes += size;
+            bufferedCount.increment();
+            if (expiryFuture == null)
+                scheduleExpiry(maxAge);
+        }
+        logger.debug("{} offer(rpcId={})", this, rpcId);
+        // 连接可能在暂存的同时恢复，不能等到下一次连接成功
+        if (commander.getConnected())
+            flush();
+        return true;
+    }
+
+    /**
+     * 客户端已重新连接，开始重新提交暂存的调用
+     */
+    synchronized void flush() {
+        if (flushing || queue.isEmpty())
+            return;
+        logger.info("{} flush", this);
+        flushing = true;
+        commander.unit.getTimer().execute(this::flushBatch);
+    }
+
+    private void flushBatch() {
+        int n = flushBatchSize;
+        for (int i = 0; i < n; ++i) {
+            Entry entry;
+            synchronized (this) {
+                if (!commander.getConnected()) {
+                    logger.warn("{} flush paused: connection lost", this);
+                    flushing = false;
+                    return;
+                }
+                entry = queue.poll();
+                if (entry == null) {
+                    logger.info("{} flush completed", this);
+                    flushing = false;
+                    return;
+                }
+                bytes -= entry.size;
+            }
+            if (entry.deadline <= System.currentTimeMillis()) {
+                expiredCount.increment();
+                fail(entry, ERROR_EXPIRED, "outbound buffer entry expired");
+                continue;
+            }
+            int errCode;
+            String errMessage;
+            try {
+                errCode = entry.submit.submit();
+                errMessage = String.format("JNI function returns %d", errCode);
+            } catch (RuntimeException e) {
+                errCode = -1;
+                errMessage = e.toString();
+            }
+            if (errCode >= 0) {
+                flushedCount.increment();
+                commander.unit.signalDrain();
+                continue;
+            }
+            synchronized (this) {
+                if (!commander.getConnected()) {
+                    // 又断开了，放回队首，等下次连接成功再提交
+                    queue.offerFirst(entry);
+                    bytes += entry.size;
+                    flushing = false;
+                    logger.warn("{} flush paused: connection lost", this);
+                    return;
+                }
+            }
+            failedCount.increment();
+            fail(entry, ERROR_FLUSH_FAILED, errMessage);
+        }
+        try {
+            commander.unit.getTimer().schedule(this::flushBatch, flushInterval, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            logger.error(String.format("%s flush schedule error", this), e);
+            synchronized (this) {
+                flushing = false;
+            }
+        }
+    }
+
+    private void scheduleExpiry(long delay) {
+        expiryFuture = commander.unit.getTimer().schedule(this::expire, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private void expire() {
+        List<Entry> expired = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Entry entry;
+            while ((entry = queue.peek()) != null && entry.deadline <= now) {
+                queue.poll();
+                bytes -= entry.size;
+                expired.add(entry);
+            }
+            if (entry == null)
+                expiryFuture = null;
+            else
+                scheduleExpiry(entry.deadline - now);
+        }
+        for (Entry entry : expired) {
+            expiredCount.increment();
+            fail(entry, ERROR_EXPIRED, "outbound buffer entry expired");
+        }
+    }
+
+    private void fail(Entry entry, int code, String message) {
+        logger.warn("{} rpc {} failed: {}", this, entry.rpcId, message);
+        commander.unit.signalDrain();
+        if (entry.rpcResultListener == null)
+            return;
+        RpcError error = new RpcError();
+        error.setCode(code);
+        error.setMessage(message);
+        entry.rpcResultListener.setId(entry.rpcId);
+        try {
+            entry.rpcResultListener.onError(error);
+        } catch (Exception e) {
+            logger.error(String.format("%s rpcResultListener.onError() error", this), e);
+        }
+    }
+
+    /**
+     * 放弃所有暂存的调用，以指定的错误回调它们
+     *
+     * @param code    RPC 错误码
+     * @param message 错误信息
+     * @return 被放弃的调用的 RPC ID
+     */
+    List<String> abandon(int code, String message) {
+        List<Entry> abandoned;
+        synchronized (this) {
+            abandoned = new ArrayList<>(queue);
+            queue.clear();
+            bytes = 0;
+            if (expiryFuture != null) {
+                expiryFuture.cancel(false);
+                expiryFuture = null;
+            }
+        }
+        List<String> rpcIds = new ArrayList<>(abandoned.size());
+        for (Entry entry : abandoned) {
+            rpcIds.add(entry.rpcId);
+            fail(entry, code, message);
+        }
+        return rpcIds;
+    }
+
+    /**
+     * @return 当前暂存的调用数量
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return 当前暂存的调用的 RPC 数据的字节数
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return 最多暂存的调用数量
+     */
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * @return 暂存的调用的 RPC 数据最多占用的字节数
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return 每个调用最多暂存的时间 MILLISECONDS
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @return 每批重新提交的调用数量。默认是 50
+     */
+    public int getFlushBatchSize() {
+        return flushBatchSize;
+    }
+
+    public void setFlushBatchSize(int flushBatchSize) {
+        if (flushBatchSize <= 0)
+            throw new IllegalArgumentException("Argument \"flushBatchSize\" SHOULD be positive.");
+        this.flushBatchSize = flushBatchSize;
+    }
+
+    /**
+     * @return 两批重新提交之间的间隔 MILLISECONDS。默认是 10
+     */
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        if (flushInterval < 0)
+            throw new IllegalArgumentException("Argument \"flushInterval\" SHOULD NOT be negative.");
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * @return 累计暂存的调用数量
+     */
+    public long getBufferedCount() {
+        return bufferedCount.sum();
+    }
+
+    /**
+     * @return 累计重新提交成功的调用数量
+     */
+    public long getFlushedCount() {
+        return flushedCount.sum();
+    }
+
+    /**
+     * @return 累计过期的调用数量
+     */
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    /**
+     * @return 累计重新提交失败的调用数量
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * @return 累计因缓冲区满而被拒绝的调用数量
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s maxCount=%d, maxBytes=%d, maxAge=%d>", OutboundBuffer.class, maxCount, maxBytes, maxAge);
+    }
+
+    /**
+     * 重新提交一个暂存的调用
+     */
+    interface Submission {
+        /**
+         * @return JNI 函数的返回值，负数表示失败
+         */
+        int submit();
+    }
+
+    private static class Entry {
+        final String rpcId;
+        final int size;
+        final RpcResultListener rpcResultListener;
+        final Submission submit;
+        final long deadline;
+
+        Entry(String rpcId, int size, RpcResultListener rpcResultListener, Submission submit, long deadline) {
+            this.rpcId = rpcId;
+            this.size = size;
+            this.rpcResultListener = rpcResultListener;
+            this.submit = submit;
+            this.deadline = deadline;
+        }
+    }
+}
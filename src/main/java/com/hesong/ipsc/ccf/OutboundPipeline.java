@@ -0,0 +1,367 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link Commander} 的单写者发送管道
+ * <p>
+ * 不使用发送管道时，调用 {@link Commander#createResource}、{@link Commander#operateResource} 的各个应用程序线程
+ * 直接调用 JNI 函数，它们在底层共享库内部互相竞争，调用者的延迟也受 JNI 和套接字阻塞的影响。
+ * <p>
+ * 启用发送管道后，调用者只把调用放入一个无锁的多生产者单消费者队列就返回 RPC ID；
+ * 每个 {@link Commander} 一个专用的写线程从队列中取出调用，依次经过熔断器、准入控制等之后调用 JNI 函数。
+ * 写线程每批最多取出 {@code batchSize} 个调用，但共享库没有批量提交的函数，每个调用仍然是一次 JNI 调用；
+ * 成批只是减少了写线程等待、唤醒的次数。队列空时按 {@link WaitStrategy} 等待，
+ * {@link WaitStrategy#BLOCKING} 策略下写线程一直阻塞到生产者唤醒它。
+ * <p>
+ * 由于提交在写线程上进行，熔断器打开、准入控制拒绝、JNI 函数返回错误等，不再以异常抛给调用者，
+ * 而是以 {@link #ERROR_SUBMIT_FAILED} 错误回调调用的 {@link RpcResultListener#onError}。
+ * 队列满时，调用仍然抛出异常。
+ * <p>
+ * 使用 {@link Commander#setOutboundPipeline} 启用。一个发送管道只能用于一个 {@link Commander}，
+ * 被替换或者取消后停止写线程，不能再次使用。
+ */
+public class OutboundPipeline {
+    /**
+     * RPC 错误码：写线程提交调用时出错
+     */
+    public static final int ERROR_SUBMIT_FAILED = -32005;
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundPipeline.class);
+
+    private final int capacity;
+    private final int batchSize;
+    private final WaitStrategy waitStrategy;
+    // Vyukov 无锁队列：生产者交换 tail，唯一的消费者从 head 读取
+    private final AtomicReference<Entry> tail;
+    private Entry head;
+    private final AtomicInteger size = new AtomicInteger();
+    // 正在 offer() 中的生产者数量，close() 关闭入口后等待它们离开
+    private final AtomicInteger producers = new AtomicInteger();
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private volatile long batchCount;
+    private volatile int maxBatch;
+    private volatile boolean running = true;
+    private volatile boolean parked;
+    private volatile Thread writer;
+
+    /**
+     * @param capacity     队列中最多等待的调用数量
+     * @param batchSize    写线程每批最多提交的调用数量
+     * @param waitStrategy 队列空时写线程的等待策略
+     */
+    public OutboundPipeline(int capacity, int batchSize, WaitStrategy waitStrategy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Argument \"capacity\" SHOULD be positive.");
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Argument \"batchSize\" SHOULD be positive.");
+        if (waitStrategy == null)
+            throw new IllegalArgumentException("Argument \"waitStrategy\" SHOULD NOT be null.");
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.waitStrategy = waitStrategy;
+        head = new Entry(null, null, null);
+        tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * 每批最多提交 64 个调用，队列空时写线程 {@link WaitStrategy#BLOCKING 阻塞等待}
+     *
+     * @param capacity 队列中最多等待的调用数量
+     */
+    public OutboundPipeline(int capacity) {
+        this(capacity, 64, WaitStrategy.BLOCKING);
+    }
+
+    /**
+     * 启动写线程
+     */
+    synchronized void attach(Commander commander) {
+        if (writer != null)
+            throw new IllegalStateException(String.format("%s is already used by another Commander", this));
+        if (!running)
+            throw new IllegalStateException(String.format("%s is stopped", this));
+        writer = new Thread(this::write, "ccf-writer-" + commander.getId());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return 当前线程是否是写线程
+     */
+    boolean isWriterThread() {
+        return Thread.currentThread() == writer;
+    }
+
+    /**
+     * 放入一个调用
+     *
+     * @param rpcId             RPC ID
+     * @param rpcResultListener 调用返回结果监听器，可以是 {@code null}
+     * @param submit            提交这个调用。失败时抛出异常
+     * @throws RuntimeException 队列已满，或者发送管道已停止
+     */
+    void offer(String rpcId, RpcResultListener rpcResultListener, Runnable submit) {
+        // 先登记再检查 running：close() 先清除 running 再等待登记的生产者离开，两者至少有一方看到对方的写入
+        producers.incrementAndGet();
+        try {
+            if (!running)
+                throw new RuntimeException(String.format("%s is stopped", this));
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                rejectedCount.increment();
+                throw new RuntimeException(String.format("%s is full: size=%d", this, capacity));
+            }
+            Entry entry = new Entry(rpcId, rpcResultListener, submit);
+            tail.getAndSet(entry).next = entry;
+        } finally {
+            producers.decrementAndGet();
+        }
+        if (parked)
+            LockSupport.unpark(writer);
+    }
+
+    /**
+     * 消费者：取出下一个调用
+     *
+     * @return {@code null} 表示队列空，或者生产者还没有链接上刚交换的节点
+     */
+    private Entry poll() {
+        Entry next = head.next;
+        if (next == null)
+            return null;
+        head = next;
+        size.decrementAndGet();
+        return next;
+    }
+
+    private void write() {
+        int idle = 0;
+        while (running) {
+            int n = 0;
+            Entry entry;
+            while (n < batchSize && (entry = poll()) != null) {
+                ++n;
+                submit(entry);
+            }
+            if (n > 0) {
+                idle = 0;
+                ++batchCount;
+                if (n > maxBatch)
+                    maxBatch = n;
+                continue;
+            }
+            idle = waitFor(idle);
+        }
+    }
+
+    private void submit(Entry entry) {
+        try {
+            entry.submit.run();
+            submittedCount.increment();
+        } catch (RuntimeException e) {
+            failedCount.increment();
+            fail(entry, ERROR_SUBMIT_FAILED, e.toString());
+        }
+        // 释放引用，队首的哨兵节点会留在内存中直到下一个节点被取出
+        entry.submit = null;
+        entry.rpcResultListener = null;
+    }
+
+    private int waitFor(int idle) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                return idle;
+            case YIELDING:
+                if (idle < 100)
+                    return idle + 1;
+                Thread.yield();
+                return idle;
+            case SLEEPING:
+                if (idle < 100)
+                    return idle + 1;
+                if (idle < 200) {
+                    Thread.yield();
+                    return idle + 1;
+                }
+                LockSupport.parkNanos(100_000);
+                return idle;
+            default:
+                parked = true;
+                // 设置标志后再检查一次，生产者在这之前放入的调用不会错过唤醒；close() 清除 running 后同样唤醒写线程
+                if (head.next == null && running)
+                    LockSupport.park(this);
+                parked = false;
+                return idle;
+        }
+    }
+
+    private void fail(Entry entry, int code, String message) {
+        logger.warn("{} rpc {} failed: {}", this, entry.rpcId, message);
+        if (entry.rpcResultListener == null)
+            return;
+        RpcError error = new RpcError();
+        error.setCode(code);
+        error.setMessage(message);
+        entry.rpcResultListener.setId(entry.rpcId);
+        try {
+            entry.rpcResultListener.onError(error);
+        } catch (Exception e) {
+            logger.error(String.format("%s rpcResultListener.onError() error", this), e);
+        }
+    }
+
+    /**
+     * 停止写线程，在当前线程上依次提交队列中还没有提交的调用
+     * <p>
+     * 用于 {@link Commander#setOutboundPipeline} 替换或者取消发送管道：这时 {@link Commander} 已经不再使用本发送管道，
+     * 剩下的调用按新的配置提交（交给新的发送管道，或者直接调用 JNI 函数）。
+     */
+    void stop() {
+        close();
+        while (head != tail.get()) {
+            Entry entry = poll();
+            if (entry == null) {
+                Thread.yield();
+                continue;
+            }
+            submit(entry);
+        }
+    }
+
+    /**
+     * 停止写线程，以指定的错误回调队列中还没有提交的调用
+     *
+     * @param code    RPC 错误码
+     * @param message 错误信息
+     * @return 被放弃的调用的 RPC ID
+     */
+    List<String> abandon(int code, String message) {
+        close();
+        List<String> rpcIds = new ArrayList<>();
+        while (head != tail.get()) {
+            Entry entry = poll();
+            if (entry == null) {
+                Thread.yield();
+                continue;
+            }
+            rpcIds.add(entry.rpcId);
+            fail(entry, code, message);
+        }
+        return rpcIds;
+    }
+
+    /**
+     * 关闭入口，等待正在放入调用的生产者离开，此后不会再有调用入队；再等待写线程退出。
+     * 之后调用者取出队列中的所有调用，直到队首追上队尾（生产者交换了 tail 但还没有链接上时，等待它链接）。
+     */
+    private void close() {
+        running = false;
+        while (producers.get() > 0)
+            Thread.yield();
+        Thread thread;
+        synchronized (this) {
+            thread = writer;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return 队列中等待的调用数量
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return 队列中最多等待的调用数量
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return 写线程每批最多提交的调用数量
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return 队列空时写线程的等待策略
+     */
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * @return 累计提交成功的调用数量
+     */
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    /**
+     * @return 累计提交失败的调用数量
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * @return 累计因队列满而被拒绝的调用数量
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * @return 写线程累计处理的批数
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * @return 最大的一批调用数量
+     */
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s capacity=%d, batchSize=%d, waitStrategy=%s>",
+                OutboundPipeline.class, capacity, batchSize, waitStrategy);
+    }
+
+    private static class Entry {
+        final String rpcId;
+        RpcResultListener rpcResultListener;
+        Runnable submit;
+        volatile Entry next;
+
+        Entry(String rpcId, RpcResultListener rpcResultListener, Runnable submit) {
+            this.rpcId = rpcId;
+            this.rpcResultListener = rpcResultListener;
+            this.submit = submit;
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link Commander} 的按项目公平调度器
+ * <p>
+ * 多个 IPSC 项目共用一个 {@link Commander} 时，一个项目的外呼任务可能占满所有进行中的 RPC，
+ * 使其它项目的呼入处理等待。启用调度器后：
+ * <ul>
+ * <li>进行中的 RPC 数量不超过 {@code maxInFlight} 时，调用照常在调用者的线程上直接提交；</li>
+ * <li>否则，按项目ID（{@link Commander#createResource} 资源名称的第一段，{@link Commander#operateResource} 方法名的第一段）
+ * 排入该项目的队列，照常返回 RPC ID；</li>
+ * <li>每当一个 RPC 收到结果、出错或者超时，按赤字轮转（Deficit Round Robin）从各项目的队列中取出下一个调用提交：
+ * 每一轮，权重为 W 的项目最多提交 W 个调用。</li>
+ * </ul>
+ * 因此，有积压时各项目按权重分享进行中的 RPC；没有积压时，一个项目可以使用全部的容量。
+ * <p>
+ * 项目的队列满时，调用抛出 {@link RuntimeException}。排队后再提交时被熔断器、准入控制等拒绝的调用，
+ * 以 {@link #ERROR_DISPATCH_FAILED} 错误回调它的 {@link RpcResultListener#onError}。
+ * 调用的 {@link RpcResultListener} 的超时从提交时开始计算。
+ * <p>
+ * 使用 {@link Commander#setOutboundScheduler} 启用。一个调度器只能用于一个 {@link Commander}。
+ */
+public class OutboundScheduler {
+    /**
+     * RPC 错误码：提交排队的调用时出错
+     */
+    public static final int ERROR_DISPATCH_FAILED = -32004;
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundScheduler.class);
+
+    private final int maxInFlight;
+    private final int defaultMaxQueueDepth;
+    private final Map<String, Project> projects = new HashMap<>();
+    // 有排队调用的项目，按轮转顺序
+    private final ArrayDeque<Project> active = new ArrayDeque<>();
+    private Commander commander;
+    private int inFlight;
+    private int queued;
+    private boolean dispatching;
+
+    /**
+     * @param maxInFlight          经过调度器的、进行中的 RPC 的最大数量
+     * @param defaultMaxQueueDepth 未单独设置的项目，队列中最多排队的调用数量
+     */
+    public OutboundScheduler(int maxInFlight, int defaultMaxQueueDepth) {
+        if (maxInFlight <= 0)
+            throw new IllegalArgumentException("Argument \"maxInFlight\" SHOULD be positive.");
+        if (defaultMaxQueueDepth < 0)
+            throw new IllegalArgumentException("Argument \"defaultMaxQueueDepth\" SHOULD NOT be negative.");
+        this.maxInFlight = maxInFlight;
+        this.defaultMaxQueueDepth = defaultMaxQueueDepth;
+    }
+
+    synchronized void attach(Commander commander) {
+        if (this.commander != null && this.commander != commander)
+            throw new IllegalStateException(String.format("%s is already used by %s", this, this.commander));
+        this.commander = commander;
+    }
+
+    /**
+     * 设置项目的权重。未设置的项目权重是1
+     *
+     * @param projectId IPSC 项目ID
+     * @param weight    权重，即每一轮最多提交的调用数量
+     */
+    public synchronized void setWeight(String projectId, int weight) {
+        if (projectId == null)
+            throw new IllegalArgumentException("Argument \"projectId\" SHOULD NOT be null.");
+        if (weight <= 0)
+            throw new IllegalArgumentException("Argument \"weight\" SHOULD be positive.");
+        projectOf(projectId).weight = weight;
+    }
+
+    /**
+     * 设置项目的队列中最多排队的调用数量
+     *
+     * @param projectId     IPSC 项目ID
+     * @param maxQueueDepth 最多排队的调用数量。0 表示不排队，超过 {@code maxInFlight} 时直接拒绝
+     */
+    public synchronized void setMaxQueueDepth(String projectId, int maxQueueDepth) {
+        if (projectId == null)
+            throw new IllegalArgumentException("Argument \"projectId\" SHOULD NOT be null.");
+        if (maxQueueDepth < 0)
+            throw new IllegalArgumentException("Argument \"maxQueueDepth\" SHOULD NOT be negative.");
+        projectOf(projectId).maxQueueDepth = maxQueueDepth;
+    }
+
+    private Project projectOf(String projectId) {
+        Project project = projects.get(projectId);
+        if (project == null) {
+            project = new Project(projectId, defaultMaxQueueDepth);
+            projects.put(projectId, project);
+        }
+        return project;
+    }
+
+    /**
+     * 提交或者排队一个调用
+     * <p>
+     * 调用者的监听器须已用 {@link #wrap} 包装，RPC 结束时才能释放进行中的名额。
+     *
+     * @param projectId         IPSC 项目ID
+     * @param rpcId             RPC ID
+     * @param rpcResultListener 包装后的监听器
+     * @param dispatch          提交这个调用。失败时抛出异常
+     * @throws RuntimeException 项目的队列已满，或者直接提交时出错
+     */
+    void submit(String projectId, String rpcId, RpcResultListener rpcResultListener, Runnable dispatch) {
+        synchronized (this) {
+            Project project = projectOf(projectId);
+            if (inFlight >= maxInFlight || queued > 0) {
+                if (project.queue.size() >= project.maxQueueDepth) {
+                    project.rejectedCount++;
+                    throw new RuntimeException(String.format(
+                            "%s queue of project \"%s\" is full: depth=%d", this, projectId, project.queue.size()));
+                }
+                if (project.queue.isEmpty())
+                    active.offer(project);
+                project.queue.offer(new Entry(rpcId, rpcResultListener, dispatch, System.nanoTime()));
+                ++queued;
+                logger.debug("{} queued(projectId={}, rpcId={})", this, projectId, rpcId);
+                return;
+            }
+            ++inFlight;
+            project.dispatchedCount++;
+        }
+        try {
+            dispatch.run();
+        } catch (RuntimeException e) {
+            ((SchedulingListener) rpcResultListener).release();
+            throw e;
+        }
+    }
+
+    /**
+     * 包装调用者的监听器，RPC 结束时释放进行中的名额
+     */
+    RpcResultListener wrap(String rpcId, RpcResultListener rpcResultListener) {
+        return new SchedulingListener(this, rpcId, rpcResultListener);
+    }
+
+    /**
+     * 一个 RPC 结束了，释放名额，在计时器线程上提交排队的调用
+     */
+    private void completed() {
+        synchronized (this) {
+            --inFlight;
+            if (dispatching || queued == 0)
+                return;
+            dispatching = true;
+        }
+        try {
+            commander.unit.getTimer().execute(this::dispatchQueued);
+        } catch (RuntimeException e) {
+            logger.error(String.format("%s dispatch schedule error", this), e);
+            synchronized (this) {
+                dispatching = false;
+            }
+        }
+    }
+
+    private void dispatchQueued() {
+        for (; ; ) {
+            Entry entry;
+            synchronized (this) {
+                entry = next();
+                if (entry == null) {
+                    dispatching = false;
+                    return;
+                }
+                ++inFlight;
+            }
+            try {
+                entry.dispatch.run();
+            } catch (RuntimeException e) {
+                // 监听器回调时释放名额
+                fail(entry, ERROR_DISPATCH_FAILED, e.toString());
+            }
+        }
+    }
+
+    /**
+     * 赤字轮转：取出下一个要提交的调用
+     *
+     * @return {@code null} 表示没有排队的调用，或者进行中的 RPC 已达上限
+     */
+    private Entry next() {
+        Project project = active.peek();
+        if (project == null || inFlight >= maxInFlight)
+            return null;
+        if (project.deficit == 0)
+            project.deficit = project.weight;
+        Entry entry = project.queue.poll();
+        --project.deficit;
+        --queued;
+        project.dispatchedCount++;
+        long queueTime = System.nanoTime() - entry.queuedAt;
+        project.totalQueueTime += queueTime;
+        if (queueTime > project.maxQueueTime)
+            project.maxQueueTime = queueTime;
+        project.queueTimes.record(TimeUnit.NANOSECONDS.toMicros(queueTime));
+        if (project.queue.isEmpty()) {
+            project.deficit = 0;
+            active.poll();
+        } else if (project.deficit == 0) {
+            // 用完了这一轮的额度，排到最后
+            active.offer(active.poll());
+        }
+        return entry;
+    }
+
+    private void fail(Entry entry, int code, String message) {
+        logger.warn("{} rpc {} failed: {}", this, entry.rpcId, message);
+        commander.unit.signalDrain();
+        RpcError error = new RpcError();
+        error.setCode(code);
+        error.setMessage(message);
+        try {
+            entry.rpcResultListener.onError(error);
+        } catch (Exception e) {
+            logger.error(String.format("%s rpcResultListener.onError() error", this), e);
+        }
+    }
+
+    /**
+     * 放弃所有排队的调用，以指定的错误回调它们
+     *
+     * @param code    RPC 错误码
+     * @param message 错误信息
+     * @return 被放弃的调用的 RPC ID
+     */
+    List<String> abandon(int code, String message) {
+        List<Entry> abandoned = new ArrayList<>();
+        synchronized (this) {
+            for (Project project : active) {
+                abandoned.addAll(project.queue);
+                project.queue.clear();
+                project.deficit = 0;
+            }
+            active.clear();
+            queued = 0;
+        }
+        List<String> rpcIds = new ArrayList<>(abandoned.size());
+        for (Entry entry : abandoned) {
+            rpcIds.add(entry.rpcId);
+            // 排队的调用没有占用名额，它的监听器回调时不能释放名额
+            ((SchedulingListener) entry.rpcResultListener).released.set(true);
+            fail(entry, code, message);
+        }
+        return rpcIds;
+    }
+
+    /**
+     * @return 当前所有项目排队的调用数量
+     */
+    public synchronized int size() {
+        return queued;
+    }
+
+    /**
+     * @return 当前经过调度器的、进行中的 RPC 数量
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return 经过调度器的、进行中的 RPC 的最大数量
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return 未单独设置的项目，队列中最多排队的调用数量
+     */
+    public int getDefaultMaxQueueDepth() {
+        return defaultMaxQueueDepth;
+    }
+
+    /**
+     * @param projectId IPSC 项目ID
+     * @return 该项目的统计。{@code null} 表示还没有该项目的调用或者设置
+     */
+    public synchronized ProjectStats getProjectStats(String projectId) {
+        Project project = projects.get(projectId);
+        return project == null ? null : new ProjectStats(project);
+    }
+
+    /**
+     * @return 所有项目的统计。Key 是项目ID
+     */
+    public synchronized Map<String, ProjectStats> getProjectStats() {
+        Map<String, ProjectStats> stats = new HashMap<>();
+        for (Project project : projects.values())
+            stats.put(project.id, new ProjectStats(project));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s maxInFlight=%d, defaultMaxQueueDepth=%d>",
+                OutboundScheduler.class, maxInFlight, defaultMaxQueueDepth);
+    }
+
+    /**
+     * 一个项目在某一时刻的统计
+     */
+    public static class ProjectStats {
+        private final String projectId;
+        private final int weight;
+        private final int maxQueueDepth;
+        private final int queueDepth;
+        private final long dispatchedCount;
+        private final long rejectedCount;
+        private final long totalQueueTime;
+        private final long maxQueueTime;
+        private final long queueTime99;
+
+        ProjectStats(Project project) {
+            projectId = project.id;
+            weight = project.weight;
+            maxQueueDepth = project.maxQueueDepth;
+            queueDepth = project.queue.size();
+            dispatchedCount = project.dispatchedCount;
+            rejectedCount = project.rejectedCount;
+            totalQueueTime = project.totalQueueTime;
+            maxQueueTime = project.maxQueueTime;
+            queueTime99 = project.queueTimes.getValueAtPercentile(99);
+        }
+
+        /**
+         * @return IPSC 项目ID
+         */
+        public String getProjectId() {
+            return projectId;
+        }
+
+        /**
+         * @return 权重
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return 队列中最多排队的调用数量
+         */
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        /**
+         * @return 当前排队的调用数量
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * @return 累计提交的调用数量，包括直接提交的
+         */
+        public long getDispatchedCount() {
+            return dispatchedCount;
+        }
+
+        /**
+         * @return 累计因队列满而被拒绝的调用数量
+         */
+        public long getRejectedCount() {
+            return rejectedCount;
+        }
+
+        /**
+         * @return 排队后提交的调用累计的排队时间 NANOSECONDS
+         */
+        public long getTotalQueueTime() {
+            return totalQueueTime;
+        }
+
+        /**
+         * @return 最长的排队时间 NANOSECONDS
+         */
+        public long getMaxQueueTime() {
+            return maxQueueTime;
+        }
+
+        /**
+         * @return 排队后提交的调用，排队时间的 99 百分位 MICROSECONDS
+         */
+        public long getQueueTime99() {
+            return queueTime99;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "<%s projectId=%s, weight=%d, queueDepth=%d, dispatchedCount=%d, rejectedCount=%d, maxQueueTime=%d, queueTime99=%d>",
+                    ProjectStats.class, projectId, weight, queueDepth, dispatchedCount, rejectedCount, maxQueueTime, queueTime99);
+        }
+    }
+
+    private static class Project {
+        final String id;
+        final ArrayDeque<Entry> queue = new ArrayDeque<>();
+        final LatencyHistogram queueTimes = new LatencyHistogram();
+        int weight = 1;
+        int maxQueueDepth;
+        int deficit;
+        long dispatchedCount;
+        long rejectedCount;
+        long totalQueueTime;
+        long maxQueueTime;
+
+        Project(String id, int maxQueueDepth) {
+            this.id = id;
+            this.maxQueueDepth = maxQueueDepth;
+        }
+    }
+
+    private static class Entry {
+        final String rpcId;
+        final RpcResultListener rpcResultListener;
+        final Runnable dispatch;
+        final long queuedAt;
+
+        Entry(String rpcId, RpcResultListener rpcResultListener, Runnable dispatch, long queuedAt) {
+            this.rpcId = rpcId;
+            this.rpcResultListener = rpcResultListener;
+            this.dispatch = dispatch;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    /**
+     * RPC 结束时释放进行中的名额，再转给调用者的监听器
+     */
+    private static class SchedulingListener extends ForwardingRpcResultListener {
+        private final OutboundScheduler scheduler;
+        final AtomicBoolean released = new AtomicBoolean();
+
+        SchedulingListener(OutboundScheduler scheduler, String rpcId, RpcResultListener inner) {
+            super(rpcId, inner);
+            this.scheduler = scheduler;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true))
+                scheduler.completed();
+        }
+
+        @Override
+        protected void onResult(Object result) {
+            release();
+            super.onResult(result);
+        }
+
+        @Override
+        protected void onError(RpcError error) {
+            release();
+            super.onError(error);
+        }
+
+        @Override
+        protected void onTimeout() {
+            release();
+            super.onTimeout();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * {@link EventPublisher} 的订阅者处理不过来时，缓冲区满了之后的处理策略
+ */
+public enum OverflowStrategy {
+    /**
+     * 缓冲最多 N 个事件，满了之后丢弃新到的事件
+     */
+    BUFFER,
+    /**
+     * 缓冲最多 N 个事件，满了之后丢弃最早的事件
+     */
+    DROP_OLDEST,
+    /**
+     * 每个资源（或服务器）只保留最新的一个事件；不同资源的数量超过 N 个之后，丢弃最早的资源的事件
+     */
+    CONFLATE
+}
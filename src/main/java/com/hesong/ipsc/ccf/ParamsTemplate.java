@@ -0,0 +1,71 @@
+package com.hesong.ipsc.ccf;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 预先序列化的 RPC 参数模板
+ * <p>
+ * 固定不变的参数在新建模板时序列化一次，每次调用只序列化可变的参数，拼接在固定参数之后。
+ */
+final class ParamsTemplate {
+    private final String prefix;
+    private final boolean empty;
+    private final Set<String> staticKeys;
+
+    /**
+     * @param staticParams 固定不变的参数，可以是 {@code null}
+     * @throws JsonProcessingException JSON编码错误
+     */
+    ParamsTemplate(Map<String, Object> staticParams) throws JsonProcessingException {
+        if (staticParams == null || staticParams.isEmpty()) {
+            prefix = "{";
+            empty = true;
+            staticKeys = Collections.emptySet();
+        } else {
+            String json = Commander.mapper.writeValueAsString(staticParams);
+            // 去掉结尾的 '}'，以便拼接可变参数
+            prefix = json.substring(0, json.length() - 1);
+            empty = false;
+            staticKeys = new HashSet<>(staticParams.keySet());
+        }
+    }
+
+    /**
+     * @return 固定参数部分的长度，用于估计缓冲区大小
+     */
+    int length() {
+        return prefix.length();
+    }
+
+    /**
+     * 把固定参数与可变参数拼接成一个 JSON 对象，写入缓冲区
+     *
+     * @param sb     缓冲区
+     * @param params 可变的参数，可以是 {@code null}。不能包含固定参数中已有的 Key
+     * @throws JsonProcessingException JSON编码错误
+     */
+    void appendTo(StringBuilder sb, Map<String, Object> params) throws JsonProcessingException {
+        sb.append(prefix);
+        boolean first = empty;
+        if (params != null) {
+            JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+            for (Map.Entry<String, Object> entry : params.entrySet()) {
+                String key = entry.getKey();
+                if (staticKeys.contains(key))
+                    throw new IllegalArgumentException(String.format("Param \"%s\" is already a static param.", key));
+                if (!first)
+                    sb.append(',');
+                first = false;
+                sb.append('"').append(encoder.quoteAsString(key)).append("\":");
+                sb.append(Commander.mapper.writeValueAsString(entry.getValue()));
+            }
+        }
+        sb.append('}');
+    }
+}
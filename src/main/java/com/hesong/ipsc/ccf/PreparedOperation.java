@@ -0,0 +1,90 @@
+package com.hesong.ipsc.ccf;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * 预先准备好的资源操作调用
+ * <p>
+ * 由 {@link Commander#prepareOperation} 建立，可以重复使用，也可以在多个线程中同时使用。
+ * 操作方法名已拆分出项目ID，方法名和固定不变的参数已序列化；每次调用只需要拼接 RPC ID 和可变的参数。
+ */
+public class PreparedOperation {
+    private final Commander commander;
+    private final String method;
+    private final String projectId;
+    private final String head;
+    private final String methodJson;
+    private final ParamsTemplate template;
+
+    PreparedOperation(Commander commander, String method, Map<String, Object> staticParams) throws JsonProcessingException {
+        if (method == null)
+            throw new IllegalArgumentException("Argument \"method\" SHOULD NOT be null.");
+        this.commander = commander;
+        this.method = method;
+        // method = IPSC 项目ID.流程ID.方法名
+        String[] nameParts = method.split(Pattern.quote("."), 3);
+        this.projectId = nameParts[0];
+        // JSON 数据结构格式： [[unit_id, client_id], rpc_id, method, params]
+        this.head = String.format("[[%d,%d],\"", commander.getUnitId(), commander.getId());
+        this.methodJson = "\"," + Commander.mapper.writeValueAsString(method) + ",";
+        this.template = new ParamsTemplate(staticParams);
+    }
+
+    /**
+     * 操作指定的CTI服务(IPSC)节点上的 CTI 资源
+     *
+     * @param target            目标 IPSC 的 BUS 地址
+     * @param id                要操作的资源的ID
+     * @param params            可变的参数，与固定参数合并后作为操作方法的参数。可以是 {@code null}，不能包含固定参数中已有的 Key
+     * @param rpcResultListener 调用返回结果监听器. {@code null} 则无结果回调。
+     * @return 此次调用的 RPC ID
+     * @throws IOException JSON编码错误
+     * @see Commander#operateResource
+     */
+    public String operate(BusAddress target, String id, Map<String, Object> params, RpcResultListener rpcResultListener) throws IOException {
+        if (id == null)
+            throw new IllegalArgumentException("Argument \"id\" SHOULD NOT be null.");
+        CallTrace trace = CallTrace.begin(commander.getTracer(), "operateResource");
+        if (trace != null)
+            params = trace.inject(params);
+        String rpcId = UUID.randomUUID().toString();
+        StringBuilder sb = new StringBuilder(head.length() + rpcId.length() + methodJson.length() + template.length() + 64);
+        sb.append(head).append(rpcId).append(methodJson);
+        template.appendTo(sb, params);
+        sb.append(']');
+        if (trace != null)
+            trace.encoded(rpcId, method, target);
+        commander.sendNotification(target, projectId, id, method, rpcId, sb.toString(), rpcResultListener, trace, null);
+        return rpcId;
+    }
+
+    /**
+     * 操作 CTI 资源，资源所在的 IPSC 节点从 {@link Commander#getResourceDirectory 资源目录} 中查得
+     *
+     * @param id                要操作的资源的ID
+     * @param params            可变的参数。可以是 {@code null}，不能包含固定参数中已有的 Key
+     * @param rpcResultListener 调用返回结果监听器. {@code null} 则无结果回调。
+     * @return 此次调用的 RPC ID
+     * @throws IOException JSON编码错误
+     */
+    public String operate(String id, Map<String, Object> params, RpcResultListener rpcResultListener) throws IOException {
+        return operate(commander.resolveTarget(id), id, params, rpcResultListener);
+    }
+
+    /**
+     * @return 操作方法名
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s commander=%s, method=%s>", PreparedOperation.class, commander, method);
+    }
+}
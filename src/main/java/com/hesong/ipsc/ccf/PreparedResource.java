@@ -0,0 +1,76 @@
+package com.hesong.ipsc.ccf;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * 预先准备好的新建资源调用
+ * <p>
+ * 由 {@link Commander#prepareResource} 建立，可以重复使用，也可以在多个线程中同时使用。
+ * 资源名称已拆分成项目ID和流程ID，固定不变的参数已序列化；每次调用只需要拼接 RPC ID 和可变的参数。
+ */
+public class PreparedResource {
+    private final Commander commander;
+    private final String name;
+    private final String projectId;
+    private final String flowId;
+    private final String head;
+    private final ParamsTemplate template;
+
+    PreparedResource(Commander commander, String name, Map<String, Object> staticParams) throws JsonProcessingException {
+        if (name == null)
+            throw new IllegalArgumentException("Argument \"name\" SHOULD NOT be null.");
+        this.commander = commander;
+        this.name = name;
+        // name = IPSC 项目ID.流程ID
+        String[] nameParts = name.split(Pattern.quote("."), 2);
+        this.projectId = nameParts[0];
+        this.flowId = nameParts[1];
+        // JSON 数据结构格式： [[unit_id, client_id], rpc_id, params]
+        this.head = String.format("[[%d,%d],\"", commander.getUnitId(), commander.getId());
+        this.template = new ParamsTemplate(staticParams);
+    }
+
+    /**
+     * 在指定的CTI服务(IPSC)节点上新建一个 CTI 资源
+     *
+     * @param target            目标 IPSC 的 BUS 地址
+     * @param params            可变的参数，与固定参数合并后作为新建资源的参数。可以是 {@code null}，不能包含固定参数中已有的 Key
+     * @param rpcResultListener 调用返回结果监听器. {@code null} 则无结果回调。
+     * @return 此次调用的 RPC ID
+     * @throws IOException           JSON编码错误
+     * @throws UnitDrainingException {@link Unit} 正在排空
+     * @see Commander#createResource
+     */
+    public String create(BusAddress target, Map<String, Object> params, RpcResultListener rpcResultListener) throws IOException {
+        commander.ensureAccepting();
+        CallTrace trace = CallTrace.begin(commander.getTracer(), "createResource");
+        if (trace != null)
+            params = trace.inject(params);
+        String rpcId = UUID.randomUUID().toString();
+        StringBuilder sb = new StringBuilder(head.length() + rpcId.length() + template.length() + 64);
+        sb.append(head).append(rpcId).append("\",");
+        template.appendTo(sb, params);
+        sb.append(']');
+        if (trace != null)
+            trace.encoded(rpcId, name, target);
+        commander.launchFlow(target, name, projectId, flowId, rpcId, sb.toString(), rpcResultListener, trace);
+        return rpcId;
+    }
+
+    /**
+     * @return 要新建的资源的名称
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s commander=%s, name=%s>", PreparedResource.class, commander, name);
+    }
+}
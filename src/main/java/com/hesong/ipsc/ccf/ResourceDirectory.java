@@ -0,0 +1,437 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * CTI 资源目录
+ * <p>
+ * 记录通过 {@link Commander#createResource} 新建的 CTI 资源（如 {@code sys.call}、{@code sys.conf}）属于哪一个 IPSC 的 BUS 地址，
+ * 并根据收到的事件通知更新或删除记录。
+ * <p>
+ * 资源记录的来源：
+ * <ul>
+ * <li>{@link Commander#createResource} 调用时，以 RPC ID 为资源ID记录；</li>
+ * <li>收到新建资源的 RPC 返回值后，如果返回值中有 {@value #RES_ID_KEY}，用它替换之前的 RPC ID；没有则删除以 RPC ID 记录的资源；</li>
+ * <li>收到的事件通知参数中有 {@value #RES_ID_KEY} 时，记录（或更新）该资源属于事件的发送者；</li>
+ * <li>事件方法名以 {@value #RELEASED_SUFFIX} 结尾，或者新建资源失败、超时，删除该资源的记录。</li>
+ * </ul>
+ * <p>
+ * 内部使用开放寻址的散列表存储，每个资源只占用一个字符串引用、一个 {@code short} 和两个 {@code int}，可以容纳上百万条记录。
+ * 同一个 IPSC 的资源用链表串起来，按 IPSC 枚举资源的开销只与该 IPSC 的资源数量有关。
+ * <p>
+ * 使用 {@link Commander#setResourceDirectory} 让 {@link Commander} 使用资源目录。
+ */
+public class ResourceDirectory {
+    /**
+     * RPC 返回值、事件参数中表示资源ID的 Key
+     */
+    public static final String RES_ID_KEY = "res_id";
+    /**
+     * 表示资源已被释放的事件方法名后缀
+     */
+    public static final String RELEASED_SUFFIX = ".on_released";
+
+    private static final String TOMBSTONE = new String("");
+    private static final int NIL = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private final StampedLock lock = new StampedLock();
+    private final int[] heads = new int[0x10000];
+    private final int[] counts = new int[0x10000];
+    private volatile Table table;
+    private int size;
+    private int used;
+
+    /**
+     * @param initialCapacity 预计的资源数量
+     */
+    public ResourceDirectory(int initialCapacity) {
+        Arrays.fill(heads, NIL);
+        table = new Table(tableSizeFor(initialCapacity));
+    }
+
+    public ResourceDirectory() {
+        this(MIN_CAPACITY);
+    }
+
+    private static int tableSizeFor(int expected) {
+        int n = MIN_CAPACITY;
+        while (n < (1 << 30) && n * 3 / 4 < expected)
+            n <<= 1;
+        return n;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static int find(Table t, String id) {
+        String[] keys = t.keys;
+        int mask = keys.length - 1;
+        int h = id.hashCode();
+        for (int i = spread(h) & mask; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null)
+                return NIL;
+            if (k != TOMBSTONE && k.hashCode() == h && k.equals(id))
+                return i;
+        }
+    }
+
+    /**
+     * 查询资源所属的 IPSC
+     *
+     * @param id 资源ID
+     * @return 资源所属 IPSC 的 BUS 地址。{@code null} 表示没有该资源的记录。
+     */
+    public BusAddress getOwner(String id) {
+        if (id == null)
+            return null;
+        long stamp = lock.tryOptimisticRead();
+        int owner = NIL;
+        try {
+            Table t = table;
+            int i = find(t, id);
+            if (i != NIL)
+                owner = t.owners[i] & 0xffff;
+        } catch (RuntimeException ignore) {
+            // 乐观读期间表被并发修改，下面会以读锁重试
+            stamp = 0;
+        }
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                Table t = table;
+                int i = find(t, id);
+                owner = i == NIL ? NIL : t.owners[i] & 0xffff;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return owner == NIL ? null : BusAddress.valueOf(owner);
+    }
+
+    /**
+     * 记录（或更新）资源所属的 IPSC
+     *
+     * @param id    资源ID
+     * @param owner 资源所属 IPSC 的 BUS 地址
+     */
+    public void put(String id, BusAddress owner) {
+        if (id == null)
+            throw new IllegalArgumentException("Argument \"id\" SHOULD NOT be null.");
+        if (owner == null)
+            throw new IllegalArgumentException("Argument \"owner\" SHOULD NOT be null.");
+        int key = owner.toKey();
+        long stamp = lock.writeLock();
+        try {
+            insert(id, key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 删除资源的记录
+     *
+     * @param id 资源ID
+     * @return 被删除的资源所属 IPSC 的 BUS 地址。{@code null} 表示没有该资源的记录。
+     */
+    public BusAddress remove(String id) {
+        if (id == null)
+            return null;
+        long stamp = lock.writeLock();
+        try {
+            int owner = delete(id);
+            return owner == NIL ? null : BusAddress.valueOf(owner);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 修改资源的ID，所属 IPSC 不变
+     *
+     * @param oldId 原资源ID
+     * @param newId 新资源ID
+     * @return 是否找到了原资源ID的记录
+     */
+    public boolean rename(String oldId, String newId) {
+        if (oldId == null || newId == null)
+            return false;
+        long stamp = lock.writeLock();
+        try {
+            int owner = delete(oldId);
+            if (owner == NIL)
+                return false;
+            insert(newId, owner);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param owner IPSC 的 BUS 地址
+     * @return 属于该 IPSC 的全部资源的ID
+     */
+    public List<String> getResources(BusAddress owner) {
+        int key = owner.toKey();
+        long stamp = lock.readLock();
+        try {
+            Table t = table;
+            List<String> result = new ArrayList<>(counts[key]);
+            for (int i = heads[key]; i != NIL; i = t.next[i])
+                result.add(t.keys[i]);
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 删除属于某个 IPSC 的全部资源的记录。通常在该 IPSC 断开连接后调用。
+     *
+     * @param owner IPSC 的 BUS 地址
+     * @return 被删除的资源的ID
+     */
+    public List<String> removeAll(BusAddress owner) {
+        int key = owner.toKey();
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            List<String> result = new ArrayList<>(counts[key]);
+            int i = heads[key];
+            while (i != NIL) {
+                int next = t.next[i];
+                result.add(t.keys[i]);
+                t.keys[i] = TOMBSTONE;
+                t.next[i] = NIL;
+                t.prev[i] = NIL;
+                i = next;
+            }
+            heads[key] = NIL;
+            size -= counts[key];
+            counts[key] = 0;
+            return result;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param owner IPSC 的 BUS 地址
+     * @return 属于该 IPSC 的资源数量
+     */
+    public int count(BusAddress owner) {
+        int key = owner.toKey();
+        long stamp = lock.readLock();
+        try {
+            return counts[key];
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return 资源记录总数
+     */
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 清空全部记录
+     */
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            Arrays.fill(heads, NIL);
+            Arrays.fill(counts, 0);
+            table = new Table(MIN_CAPACITY);
+            size = 0;
+            used = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * 新建资源的 RPC 已发出
+     */
+    void created(String rpcId, BusAddress owner) {
+        put(rpcId, owner);
+    }
+
+    /**
+     * 新建资源的 RPC 有了结果
+     * <p>
+     * 返回值中没有资源ID时，无法再从事件通知中认出这个资源，以 RPC ID 记录的资源被删除。
+     */
+    @SuppressWarnings("unchecked")
+    void createResulted(String rpcId, Object result) {
+        Object resId = result instanceof Map ? ((Map<String, Object>) result).get(RES_ID_KEY) : null;
+        if (resId == null)
+            remove(rpcId);
+        else if (!rpcId.equals(resId))
+            rename(rpcId, resId.toString());
+    }
+
+    /**
+     * 新建资源的 RPC 出错或者超时
+     */
+    void createFailed(String rpcId) {
+        remove(rpcId);
+    }
+
+    /**
+     * 收到了事件通知
+     */
+    void eventReceived(BusAddress source, RpcRequest request) {
+        Map<String, Object> params = request.getParams();
+        if (params == null)
+            return;
+        Object resId = params.get(RES_ID_KEY);
+        if (resId != null)
+            eventReceived(source, resId.toString(), request.getMethod());
+    }
+
+    /**
+     * 收到了事件通知
+     *
+     * @param source 事件的发送者
+     * @param id     事件参数中的资源ID
+     * @param method 事件名
+     */
+    void eventReceived(BusAddress source, String id, String method) {
+        if (id == null)
+            return;
+        if (method != null && method.endsWith(RELEASED_SUFFIX)) {
+            remove(id);
+        } else if (!source.equals(getOwner(id))) {
+            put(id, source);
+        }
+    }
+
+    private void insert(String id, int owner) {
+        Table t = table;
+        String[] keys = t.keys;
+        int mask = keys.length - 1;
+        int h = id.hashCode();
+        int slot = NIL;
+        int i = spread(h) & mask;
+        for (; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null)
+                break;
+            if (k == TOMBSTONE) {
+                if (slot == NIL)
+                    slot = i;
+            } else if (k.hashCode() == h && k.equals(id)) {
+                int old = t.owners[i] & 0xffff;
+                if (old != owner) {
+                    unlink(t, i, old);
+                    link(t, i, owner);
+                }
+                return;
+            }
+        }
+        if (slot == NIL) {
+            if (used + 1 > keys.length * 3 / 4) {
+                rehash(size + 1);
+                insert(id, owner);
+                return;
+            }
+            slot = i;
+            used++;
+        }
+        t.keys[slot] = id;
+        link(t, slot, owner);
+        size++;
+    }
+
+    private int delete(String id) {
+        Table t = table;
+        int i = find(t, id);
+        if (i == NIL)
+            return NIL;
+        int owner = t.owners[i] & 0xffff;
+        unlink(t, i, owner);
+        t.keys[i] = TOMBSTONE;
+        size--;
+        return owner;
+    }
+
+    private void link(Table t, int i, int owner) {
+        t.owners[i] = (short) owner;
+        int head = heads[owner];
+        t.prev[i] = NIL;
+        t.next[i] = head;
+        if (head != NIL)
+            t.prev[head] = i;
+        heads[owner] = i;
+        counts[owner]++;
+    }
+
+    private void unlink(Table t, int i, int owner) {
+        int prev = t.prev[i];
+        int next = t.next[i];
+        if (prev == NIL)
+            heads[owner] = next;
+        else
+            t.next[prev] = next;
+        if (next != NIL)
+            t.prev[next] = prev;
+        t.prev[i] = NIL;
+        t.next[i] = NIL;
+        counts[owner]--;
+    }
+
+    private void rehash(int expected) {
+        Table old = table;
+        Table t = new Table(tableSizeFor(expected * 2));
+        Arrays.fill(heads, NIL);
+        Arrays.fill(counts, 0);
+        int mask = t.keys.length - 1;
+        for (int j = 0; j < old.keys.length; ++j) {
+            String k = old.keys[j];
+            if (k == null || k == TOMBSTONE)
+                continue;
+            int i = spread(k.hashCode()) & mask;
+            while (t.keys[i] != null)
+                i = (i + 1) & mask;
+            t.keys[i] = k;
+            link(t, i, old.owners[j] & 0xffff);
+        }
+        used = size;
+        table = t;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s size=%d>", ResourceDirectory.class, size());
+    }
+
+    private static final class Table {
+        final String[] keys;
+        final short[] owners;
+        final int[] next;
+        final int[] prev;
+
+        Table(int capacity) {
+            keys = new String[capacity];
+            owners = new short[capacity];
+            next = new int[capacity];
+            prev = new int[capacity];
+        }
+    }
+}
@@ -0,0 +1,576 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 新建资源的持久化日志
+ * <p>
+ * 以追加方式把新建资源的 RPC、它们的结果，以及资源的归属、释放事件写入内存映射文件。
+ * 进程崩溃或者重启后，打开同一个文件即可重建：
+ * <ul>
+ * <li>{@link #getRecoveredPendingRpcs() 进行中的 RPC}：已提交、还没有结果的新建资源调用，它们新建的资源可能已经存在；</li>
+ * <li>{@link #getRecoveredLiveResources() 存活的资源}：已新建、还没有释放的资源，及其所属 IPSC 的 BUS 地址。</li>
+ * </ul>
+ * 应用程序据此核对或者释放遗留的资源，不必等待 IPSC 流程超时；也可以用 {@link #restore} 把存活的资源写回资源目录，
+ * 继续用 {@link Commander#operateResource(String, String, Map, RpcResultListener)} 操作它们。
+ * <p>
+ * 使用 {@link Commander#setJournal} 启用。只记录 {@link Commander#createResource} 新建的资源，以及事件通知中的资源。
+ * <p>
+ * 写入只是在加锁后把一条记录复制到映射内存中，不调用 {@code fsync}；
+ * 进程崩溃不会丢失已写入的记录，操作系统崩溃则可能丢失最近 {@link #setForceInterval 刷盘间隔} 内的记录。
+ * 每条记录先写内容、后写长度，崩溃时写了一半的记录在读取时被忽略。
+ * <p>
+ * 已使用的空间超过容量的一半时，后台线程定期压缩：把当前的状态写入新文件，再原子地替换原文件。
+ * 文件写满时，在写入线程上立即压缩；压缩后仍然不够用时，容量加倍。
+ */
+public class ResourceJournal {
+    private static final Logger logger = LoggerFactory.getLogger(ResourceJournal.class);
+    private static final int MAGIC = 0x43434a31; // "CCJ1"
+    private static final int HEADER_SIZE = 8;
+    private static final byte SUBMITTED = 1;
+    private static final byte CREATED = 2;
+    private static final byte FAILED = 3;
+    private static final byte OWNED = 4;
+    private static final byte RELEASED = 5;
+
+    private final Path path;
+    private final Map<String, PendingRpc> pendingRpcs = new HashMap<>();
+    private final Map<String, LiveResource> liveResources = new HashMap<>();
+    private final Map<String, PendingRpc> recoveredPendingRpcs;
+    private final Map<String, LiveResource> recoveredLiveResources;
+    private final ScheduledExecutorService scheduler;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private long compactionCount;
+    private volatile long forceInterval = 1000;
+    private volatile boolean closed;
+
+    /**
+     * 打开日志文件。文件已存在时，读取其中的记录，重建进行中的 RPC 和存活的资源。
+     *
+     * @param path     日志文件
+     * @param capacity 初始容量 BYTES
+     * @throws IOException 打开或读取文件出错
+     */
+    public ResourceJournal(Path path, int capacity) throws IOException {
+        if (path == null)
+            throw new IllegalArgumentException("Argument \"path\" SHOULD NOT be null.");
+        if (capacity < 4096)
+            throw new IllegalArgumentException("Argument \"capacity\" SHOULD NOT be less than 4096.");
+        this.path = path;
+        this.capacity = capacity;
+        if (Files.exists(path))
+            recover();
+        recoveredPendingRpcs = Collections.unmodifiableMap(new HashMap<>(pendingRpcs));
+        recoveredLiveResources = Collections.unmodifiableMap(new HashMap<>(liveResources));
+        logger.info("{} recovered {} pending RPC(s) and {} live resource(s)",
+                this, recoveredPendingRpcs.size(), recoveredLiveResources.size());
+        // 以重建的状态开始一个新文件
+        compact();
+        scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "ccf-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.schedule(this::maintain, forceInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 初始容量 64MB
+     *
+     * @param path 日志文件
+     * @throws IOException 打开或读取文件出错
+     */
+    public ResourceJournal(Path path) throws IOException {
+        this(path, 64 << 20);
+    }
+
+    private void recover() throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC) {
+                logger.warn("{} is not a journal file, ignored", path);
+                return;
+            }
+            in.getInt();
+            int count = 0;
+            while (in.remaining() >= 4) {
+                int position = in.position();
+                int length = in.getInt();
+                if (length <= 0 || length > in.remaining())
+                    break;
+                try {
+                    replay(in);
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    logger.warn("{} corrupted record at {}, recovery stopped", path, position);
+                    break;
+                }
+                in.position(position + 4 + length);
+                ++count;
+            }
+            logger.info("{} replayed {} record(s) from {}", this, count, path);
+        }
+    }
+
+    private void replay(MappedByteBuffer in) {
+        byte type = in.get();
+        long time = in.getLong();
+        switch (type) {
+            case SUBMITTED: {
+                String rpcId = readString(in);
+                BusAddress target = BusAddress.valueOf(in.getShort() & 0xffff);
+                String name = readString(in);
+                pendingRpcs.put(rpcId, new PendingRpc(rpcId, target, name, time));
+                break;
+            }
+            case CREATED: {
+                String rpcId = readString(in);
+                String resId = readString(in);
+                BusAddress owner = BusAddress.valueOf(in.getShort() & 0xffff);
+                pendingRpcs.remove(rpcId);
+                liveResources.put(resId, new LiveResource(resId, owner, time));
+                break;
+            }
+            case FAILED:
+                pendingRpcs.remove(readString(in));
+                break;
+            case OWNED: {
+                String resId = readString(in);
+                BusAddress owner = BusAddress.valueOf(in.getShort() & 0xffff);
+                liveResources.put(resId, new LiveResource(resId, owner, time));
+                break;
+            }
+            case RELEASED:
+                liveResources.remove(readString(in));
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("unknown record type %d", type));
+        }
+    }
+
+    private static String readString(MappedByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 已提交新建资源的 RPC
+     */
+    void submitted(String rpcId, BusAddress target, String name) {
+        long time = System.currentTimeMillis();
+        byte[] id = rpcId.getBytes(StandardCharsets.UTF_8);
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            if (closed)
+                return;
+            pendingRpcs.put(rpcId, new PendingRpc(rpcId, target, name, time));
+            int position = reserve(1 + 8 + 2 + id.length + 2 + 2 + n.length);
+            buffer.put(SUBMITTED).putLong(time);
+            putString(id);
+            buffer.putShort((short) target.toKey());
+            putString(n);
+            commit(position);
+        }
+    }
+
+    /**
+     * 新建资源成功
+     *
+     * @param rpcId 新建资源的 RPC ID
+     * @param resId 新建的资源的ID，返回值中没有时使用 RPC ID
+     * @param owner 资源所属的 IPSC
+     */
+    void created(String rpcId, String resId, BusAddress owner) {
+        long time = System.currentTimeMillis();
+        byte[] id = rpcId.getBytes(StandardCharsets.UTF_8);
+        byte[] res = resId.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            if (closed)
+                return;
+            pendingRpcs.remove(rpcId);
+            liveResources.put(resId, new LiveResource(resId, owner, time));
+            int position = reserve(1 + 8 + 2 + id.length + 2 + res.length + 2);
+            buffer.put(CREATED).putLong(time);
+            putString(id);
+            putString(res);
+            buffer.putShort((short) owner.toKey());
+            commit(position);
+        }
+    }
+
+    /**
+     * 新建资源的 RPC 出错、超时或者提交失败
+     */
+    void failed(String rpcId) {
+        long time = System.currentTimeMillis();
+        byte[] id = rpcId.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            if (closed || pendingRpcs.remove(rpcId) == null)
+                return;
+            int position = reserve(1 + 8 + 2 + id.length);
+            buffer.put(FAILED).putLong(time);
+            putString(id);
+            commit(position);
+        }
+    }
+
+    /**
+     * 收到了事件通知：资源被释放时删除它，否则在归属变化时记录
+     */
+    void eventReceived(BusAddress source, String resId, String method) {
+        if (resId == null)
+            return;
+        long time = System.currentTimeMillis();
+        boolean released = method != null && method.endsWith(ResourceDirectory.RELEASED_SUFFIX);
+        synchronized (this) {
+            if (closed)
+                return;
+            LiveResource live = liveResources.get(resId);
+            if (released) {
+                if (live == null)
+                    return;
+                liveResources.remove(resId);
+            } else {
+                if (live != null && live.owner.equals(source))
+                    return;
+                liveResources.put(resId, new LiveResource(resId, source, time));
+            }
+            byte[] res = resId.getBytes(StandardCharsets.UTF_8);
+            int position = reserve(1 + 8 + 2 + res.length + (released ? 0 : 2));
+            buffer.put(released ? RELEASED : OWNED).putLong(time);
+            putString(res);
+            if (!released)
+                buffer.putShort((short) source.toKey());
+            commit(position);
+        }
+    }
+
+    /**
+     * 预留一条记录的空间，空间不够时先压缩
+     *
+     * @return 记录的起始位置。记录内容从它之后的4个字节开始写
+     */
+    private int reserve(int length) {
+        if (buffer.remaining() < 4 + length + 4) {
+            try {
+                compact();
+                while (buffer.remaining() < 4 + length + 4) {
+                    capacity *= 2;
+                    compact();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("%s compaction error", this), e);
+            }
+        }
+        int position = buffer.position();
+        buffer.position(position + 4);
+        return position;
+    }
+
+    private void putString(byte[] bytes) {
+        putString(buffer, bytes);
+    }
+
+    private static void putString(MappedByteBuffer out, byte[] bytes) {
+        out.putShort((short) bytes.length).put(bytes);
+    }
+
+    private void commit(int position) {
+        commit(buffer, position);
+    }
+
+    /**
+     * 记录内容写完后，最后写入长度，读取时才认为该记录有效
+     */
+    private static void commit(MappedByteBuffer out, int position) {
+        out.putInt(position, out.position() - position - 4);
+    }
+
+    /**
+     * 把当前的状态写入新文件，再原子地替换原文件。当前容量不够写入快照时，容量加倍
+     */
+    private synchronized void compact() throws IOException {
+        while (!compactTo(capacity))
+            capacity *= 2;
+        ++compactionCount;
+        logger.debug("{} compacted: pendingRpcs={}, liveResources={}, used={}, capacity={}",
+                this, pendingRpcs.size(), liveResources.size(), buffer.position(), capacity);
+    }
+
+    /**
+     * @return 是否成功。{@code false} 表示容量不够写入快照，原文件没有变化
+     */
+    private boolean compactTo(int capacity) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean done = false;
+        try {
+            MappedByteBuffer out = ch.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            out.putInt(MAGIC).putInt(0);
+            for (PendingRpc rpc : pendingRpcs.values()) {
+                byte[] id = rpc.rpcId.getBytes(StandardCharsets.UTF_8);
+                byte[] n = rpc.name.getBytes(StandardCharsets.UTF_8);
+                // 至少留下一半空间给之后的记录
+                if (out.position() + 4 + 1 + 8 + 2 + id.length + 2 + 2 + n.length > capacity / 2)
+                    return false;
+                int position = out.position();
+                out.position(position + 4);
+                out.put(SUBMITTED).putLong(rpc.submitTime);
+                putString(out, id);
+                out.putShort((short) rpc.target.toKey());
+                putString(out, n);
+                commit(out, position);
+            }
+            for (LiveResource live : liveResources.values()) {
+                byte[] res = live.resId.getBytes(StandardCharsets.UTF_8);
+                if (out.position() + 4 + 1 + 8 + 2 + res.length + 2 > capacity / 2)
+                    return false;
+                int position = out.position();
+                out.position(position + 4);
+                out.put(OWNED).putLong(live.since);
+                putString(out, res);
+                out.putShort((short) live.owner.toKey());
+                commit(out, position);
+            }
+            out.force();
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            FileChannel previous = this.channel;
+            this.channel = ch;
+            this.buffer = out;
+            done = true;
+            if (previous != null)
+                previous.close();
+            return true;
+        } finally {
+            if (!done)
+                ch.close();
+        }
+    }
+
+    /**
+     * 后台任务：定期刷盘，使用超过一半时压缩
+     */
+    private void maintain() {
+        try {
+            synchronized (this) {
+                if (closed)
+                    return;
+                if (buffer.position() > capacity / 2)
+                    compact();
+                else
+                    buffer.force();
+            }
+        } catch (Exception e) {
+            logger.error(String.format("%s maintain error", this), e);
+        }
+        if (!closed)
+            scheduler.schedule(this::maintain, forceInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 把打开日志文件时重建的存活资源写入资源目录
+     *
+     * @param directory 资源目录
+     * @return 写入的资源数量
+     */
+    public int restore(ResourceDirectory directory) {
+        if (directory == null)
+            throw new IllegalArgumentException("Argument \"directory\" SHOULD NOT be null.");
+        for (LiveResource live : recoveredLiveResources.values())
+            directory.put(live.resId, live.owner);
+        return recoveredLiveResources.size();
+    }
+
+    /**
+     * 刷盘并关闭日志文件。关闭后不再记录。
+     */
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * @return 打开日志文件时重建的、进行中的新建资源 RPC。Key 是 RPC ID
+     */
+    public Map<String, PendingRpc> getRecoveredPendingRpcs() {
+        return recoveredPendingRpcs;
+    }
+
+    /**
+     * @return 打开日志文件时重建的存活资源。Key 是资源ID
+     */
+    public Map<String, LiveResource> getRecoveredLiveResources() {
+        return recoveredLiveResources;
+    }
+
+    /**
+     * @return 当前进行中的新建资源 RPC 的副本。Key 是 RPC ID
+     */
+    public synchronized Map<String, PendingRpc> getPendingRpcs() {
+        return new HashMap<>(pendingRpcs);
+    }
+
+    /**
+     * @return 当前存活资源的副本。Key 是资源ID
+     */
+    public synchronized Map<String, LiveResource> getLiveResources() {
+        return new HashMap<>(liveResources);
+    }
+
+    /**
+     * @return 已使用的字节数
+     */
+    public synchronized int getUsedBytes() {
+        return buffer.position();
+    }
+
+    /**
+     * @return 当前容量 BYTES
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return 累计压缩次数（包括打开时的一次）
+     */
+    public synchronized long getCompactionCount() {
+        return compactionCount;
+    }
+
+    /**
+     * @return 后台刷盘、检查是否需要压缩的间隔 MILLISECONDS。默认是 1000
+     */
+    public long getForceInterval() {
+        return forceInterval;
+    }
+
+    public void setForceInterval(long forceInterval) {
+        if (forceInterval <= 0)
+            throw new IllegalArgumentException("Argument \"forceInterval\" SHOULD be positive.");
+        this.forceInterval = forceInterval;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s path=%s>", ResourceJournal.class, path);
+    }
+
+    /**
+     * 进行中的新建资源 RPC
+     */
+    public static class PendingRpc {
+        private final String rpcId;
+        private final BusAddress target;
+        private final String name;
+        private final long submitTime;
+
+        PendingRpc(String rpcId, BusAddress target, String name, long submitTime) {
+            this.rpcId = rpcId;
+            this.target = target;
+            this.name = name;
+            this.submitTime = submitTime;
+        }
+
+        /**
+         * @return RPC ID
+         */
+        public String getRpcId() {
+            return rpcId;
+        }
+
+        /**
+         * @return 目标 IPSC 的 BUS 地址
+         */
+        public BusAddress getTarget() {
+            return target;
+        }
+
+        /**
+         * @return 要新建的资源的名称
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return 提交时间 MILLISECONDS
+         */
+        public long getSubmitTime() {
+            return submitTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("<%s rpcId=%s, target=%s, name=%s, submitTime=%d>",
+                    PendingRpc.class, rpcId, target, name, submitTime);
+        }
+    }
+
+    /**
+     * 存活的资源
+     */
+    public static class LiveResource {
+        private final String resId;
+        private final BusAddress owner;
+        private final long since;
+
+        LiveResource(String resId, BusAddress owner, long since) {
+            this.resId = resId;
+            this.owner = owner;
+            this.since = since;
+        }
+
+        /**
+         * @return 资源ID
+         */
+        public String getResId() {
+            return resId;
+        }
+
+        /**
+         * @return 资源所属 IPSC 的 BUS 地址
+         */
+        public BusAddress getOwner() {
+            return owner;
+        }
+
+        /**
+         * @return 新建或者最近一次归属变化的时间 MILLISECONDS
+         */
+        public long getSince() {
+            return since;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("<%s resId=%s, owner=%s, since=%d>", LiveResource.class, resId, owner, since);
+        }
+    }
+}
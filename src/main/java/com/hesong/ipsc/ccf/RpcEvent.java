@@ -0,0 +1,33 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * {@link Commander} 收到的 RPC 事件通知，由 {@link Commander#getEventPublisher} 发布
+ */
+public class RpcEvent {
+    private final BusAddress source;
+    private final RpcRequest request;
+
+    RpcEvent(BusAddress source, RpcRequest request) {
+        this.source = source;
+        this.request = request;
+    }
+
+    /**
+     * @return 发送该事件的IPSC服务实例
+     */
+    public BusAddress getSource() {
+        return source;
+    }
+
+    /**
+     * @return 该事件所对应的RPC请求
+     */
+    public RpcRequest getRequest() {
+        return request;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s source=%s, request=%s>", RpcEvent.class, source, request);
+    }
+}
@@ -18,6 +18,10 @@ public abstract class RpcResultListener {
     protected int timeout = 15000;
     private String id;
     private ScheduledFuture future;
+    // 进行中的 JFR 事件，只在正在记录时设置：提交时开始，收到回复或超时时结束
+    Object jfrEvent;
+    // 收到回复的时间（System.nanoTime），供调用链跟踪使用
+    long receivedTime;
 
     /**
      * 回调： RPC 返回值
@@ -38,6 +42,21 @@ public abstract class RpcResultListener {
      */
     protected abstract void onTimeout();
 
+    /**
+     * 回调方法是否不会阻塞
+     * <p>
+     * 返回 {@code true}，并且 {@link Commander#setInlineReplies 启用了直接完成} 时，
+     * RPC 回复在接收线程（底层共享库的IO线程，或者环形缓冲区的消费者线程）上直接回调 {@link #onResult} / {@link #onError}，
+     * 不再排入 {@link Commander} 的执行器。这时回调方法必须<strong>尽快</strong>返回，不可等待锁、IO 或者其它 RPC 的结果。
+     * <p>
+     * 默认返回 {@code false}。
+     *
+     * @return 回调方法是否不会阻塞
+     */
+    protected boolean isNonBlocking() {
+        return false;
+    }
+
     ScheduledFuture getFuture() {
         return future;
     }
@@ -0,0 +1,56 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * {@link FederatedMonitor} 中CTI服务器的标识：CTI BUS 服务器与 IPSC ID 的组合
+ * <p>
+ * 不同的 CTI BUS 服务器下，IPSC ID 可能相同。
+ */
+public class ServerKey {
+    private final String bus;
+    private final String serverId;
+
+    /**
+     * @param bus      CTI BUS 服务器，格式是 {@code ip:port}
+     * @param serverId IPSC ID，即 {@link ServerInfo#getId()}
+     */
+    public ServerKey(String bus, String serverId) {
+        if (bus == null)
+            throw new IllegalArgumentException("Argument \"bus\" SHOULD NOT be null.");
+        if (serverId == null)
+            throw new IllegalArgumentException("Argument \"serverId\" SHOULD NOT be null.");
+        this.bus = bus;
+        this.serverId = serverId;
+    }
+
+    /**
+     * @return CTI BUS 服务器，格式是 {@code ip:port}
+     */
+    public String getBus() {
+        return bus;
+    }
+
+    /**
+     * @return IPSC ID
+     */
+    public String getServerId() {
+        return serverId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ServerKey)) return false;
+        ServerKey that = (ServerKey) o;
+        return bus.equals(that.bus) && serverId.equals(that.serverId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * bus.hashCode() + serverId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s bus=%s, serverId=%s>", ServerKey.class, bus, serverId);
+    }
+}
@@ -0,0 +1,69 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CTI服务器负载的变化量
+ * <p>
+ * 只包含自上一次通知以来，变化幅度达到 {@link LoadConflation#getThreshold 阈值} 的负载项。
+ *
+ * @see MonitorEventListener#onServerLoadChanged(BusAddress, ServerInfo, ServerLoadDelta)
+ */
+public class ServerLoadDelta {
+    private final Map<String, Integer> previous;
+    private final Map<String, Integer> current;
+
+    /**
+     * @param previous 变化的负载项上一次通知时的值
+     * @param current  变化的负载项当前的值
+     */
+    ServerLoadDelta(Map<String, Integer> previous, Map<String, Integer> current) {
+        this.previous = previous;
+        this.current = current;
+    }
+
+    /**
+     * @return 变化的负载项的 Key
+     */
+    public Set<String> getChangedKeys() {
+        return Collections.unmodifiableSet(current.keySet());
+    }
+
+    /**
+     * @param key 负载项的 Key
+     * @return 该负载项是否变化
+     */
+    public boolean isChanged(String key) {
+        return current.containsKey(key);
+    }
+
+    /**
+     * @param key 负载项的 Key
+     * @return 该负载项上一次通知时的值。{@code null} 表示之前没有这个负载项，或者该负载项没有变化
+     */
+    public Integer getPrevious(String key) {
+        return previous.get(key);
+    }
+
+    /**
+     * @param key 负载项的 Key
+     * @return 该负载项当前的值。{@code null} 表示该负载项没有变化
+     */
+    public Integer getCurrent(String key) {
+        return current.get(key);
+    }
+
+    /**
+     * @return 是否没有任何负载项变化
+     */
+    public boolean isEmpty() {
+        return current.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s previous=%s, current=%s>", ServerLoadDelta.class, previous, current);
+    }
+}
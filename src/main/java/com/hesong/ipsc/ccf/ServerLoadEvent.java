@@ -0,0 +1,33 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * {@link Monitor} 收到的CTI服务器负载变化，由 {@link Monitor#getLoadPublisher} 发布
+ */
+public class ServerLoadEvent {
+    private final BusAddress source;
+    private final ServerInfo serverInfo;
+
+    ServerLoadEvent(BusAddress source, ServerInfo serverInfo) {
+        this.source = source;
+        this.serverInfo = serverInfo;
+    }
+
+    /**
+     * @return 变化事件发送者
+     */
+    public BusAddress getSource() {
+        return source;
+    }
+
+    /**
+     * @return CTI服务器信息
+     */
+    public ServerInfo getServerInfo() {
+        return serverInfo;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s source=%s, serverInfo=%s>", ServerLoadEvent.class, source, serverInfo);
+    }
+}
@@ -0,0 +1,102 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link SimulatedBus} 模拟的 IPSC 的服务时间分布，也用作 {@link FaultInjector} 附加的延迟分布
+ * <p>
+ * 用 {@link #parse} 从形如 {@code "exp:2"} 的字符串构造，时间单位都是 MILLISECONDS：
+ * <ul>
+ * <li>{@code const:<t>} - 固定为 t</li>
+ * <li>{@code uniform:<min>:<max>} - min 与 max 之间的均匀分布</li>
+ * <li>{@code exp:<mean>} - 均值为 mean 的指数分布</li>
+ * <li>{@code lognormal:<median>:<sigma>} - 中位数为 median、对数标准差为 sigma 的对数正态分布</li>
+ * </ul>
+ */
+abstract class ServiceTime {
+    private final String spec;
+
+    private ServiceTime(String spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * @return 取样一个服务时间 NANOSECONDS
+     */
+    long sampleNanos() {
+        return sampleNanos(ThreadLocalRandom.current());
+    }
+
+    /**
+     * @param random 随机数发生器。使用固定种子的发生器时，取样的序列可以重现
+     * @return 取样一个服务时间 NANOSECONDS
+     */
+    abstract long sampleNanos(Random random);
+
+    static ServiceTime parse(String spec) {
+        if (spec == null)
+            throw new IllegalArgumentException("Argument \"spec\" SHOULD NOT be null.");
+        String[] parts = spec.split(":");
+        try {
+            switch (parts[0]) {
+                case "const": {
+                    long t = toNanos(parts[1]);
+                    return new ServiceTime(spec) {
+                        @Override
+                        long sampleNanos(Random random) {
+                            return t;
+                        }
+                    };
+                }
+                case "uniform": {
+                    long min = toNanos(parts[1]);
+                    long max = toNanos(parts[2]);
+                    if (max < min)
+                        throw new IllegalArgumentException(String.format("Invalid service time \"%s\": max < min", spec));
+                    return new ServiceTime(spec) {
+                        @Override
+                        long sampleNanos(Random random) {
+                            return min == max ? min : min + (long) (random.nextDouble() * (max - min + 1));
+                        }
+                    };
+                }
+                case "exp": {
+                    double mean = toNanos(parts[1]);
+                    return new ServiceTime(spec) {
+                        @Override
+                        long sampleNanos(Random random) {
+                            return (long) (-mean * Math.log(1 - random.nextDouble()));
+                        }
+                    };
+                }
+                case "lognormal": {
+                    double mu = Math.log(toNanos(parts[1]));
+                    double sigma = Double.parseDouble(parts[2]);
+                    return new ServiceTime(spec) {
+                        @Override
+                        long sampleNanos(Random random) {
+                            return (long) Math.exp(mu + sigma * random.nextGaussian());
+                        }
+                    };
+                }
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown service time distribution \"%s\"", spec));
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid service time \"%s\"", spec), e);
+        }
+    }
+
+    private static long toNanos(String millis) {
+        double value = Double.parseDouble(millis);
+        if (value < 0)
+            throw new NumberFormatException(String.format("negative time %s", millis));
+        return (long) (value * 1_000_000);
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
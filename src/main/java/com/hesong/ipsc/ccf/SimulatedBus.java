@@ -0,0 +1,179 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 模拟的 CTI BUS 及其上的一个 IPSC
+ * <p>
+ * 代替 JNI 共享库，供 {@link LoadGenerator} 在没有 CTI BUS 的环境中使用：
+ * 客户端连接总是成功；每个 {@code launchFlow} / {@code sendNotification} 经过按 {@link ServiceTime} 取样的服务时间后，
+ * 以 {@code {"id": <rpcId>, "result": {...}}} 回复。
+ * <p>
+ * 与真实的共享库一样，所有回调都在同一个 IO 线程（{@code ccf-sim-io}）上执行，
+ * 因此 IO 线程在回调中停留的时间（例如等待 {@link CallbackRingBuffer} 腾出空间）也会推迟之后的回复。
+ */
+class SimulatedBus implements BusLibrary {
+    /**
+     * 模拟的 IPSC 的 BUS 客户端类型
+     */
+    static final byte IPSC_CLIENT_TYPE = 2;
+
+    private static final Logger logger = LoggerFactory.getLogger(SimulatedBus.class);
+
+    private final BusAddress ipsc;
+    private final ServiceTime serviceTime;
+    private final double dropRatio;
+    private final double errorRatio;
+    private final AtomicInteger invokeId = new AtomicInteger();
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder dropCount = new LongAdder();
+    private ScheduledThreadPoolExecutor io;
+    private volatile LibCallbackHandler callbacks;
+
+    /**
+     * @param ipsc        模拟的 IPSC 的 BUS 地址
+     * @param serviceTime IPSC 的服务时间分布
+     * @param dropRatio   不回复（从而在调用方超时）的请求比例
+     * @param errorRatio  以错误回复的请求比例
+     */
+    SimulatedBus(BusAddress ipsc, ServiceTime serviceTime, double dropRatio, double errorRatio) {
+        if (ipsc == null)
+            throw new IllegalArgumentException("Argument \"ipsc\" SHOULD NOT be null.");
+        if (serviceTime == null)
+            throw new IllegalArgumentException("Argument \"serviceTime\" SHOULD NOT be null.");
+        if (dropRatio < 0 || errorRatio < 0 || dropRatio + errorRatio > 1)
+            throw new IllegalArgumentException("Arguments \"dropRatio\" and \"errorRatio\" SHOULD be between 0 and 1.");
+        this.ipsc = ipsc;
+        this.serviceTime = serviceTime;
+        this.dropRatio = dropRatio;
+        this.errorRatio = errorRatio;
+    }
+
+    @Override
+    public synchronized int initiateLibrary(byte localUnitId) {
+        if (io != null)
+            return -1;
+        io = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "ccf-sim-io");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("initiateLibrary(localUnitId={}) {}", localUnitId, this);
+        return 0;
+    }
+
+    @Override
+    public void setCallbacks(LibCallbackHandler callbacks) {
+        this.callbacks = callbacks;
+    }
+
+    @Override
+    public synchronized void releaseLibrary() {
+        if (io != null) {
+            io.shutdownNow();
+            io = null;
+        }
+    }
+
+    @Override
+    public int createConnect(byte localClientId, byte clientType, String ip, short port) {
+        io.execute(() -> {
+            callbacks.connect(localClientId, 0, 0);
+            callbacks.globalConnect(ipsc.getUnitId(), ipsc.getClientId(), IPSC_CLIENT_TYPE, (byte) 1, "");
+        });
+        return 0;
+    }
+
+    @Override
+    public int launchFlow(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String flowId,
+                          int mode, int timeout, String payload) {
+        return respond(localClientId, payload);
+    }
+
+    @Override
+    public int sendNotification(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String titleId,
+                                int mode, int expires, String payload) {
+        return respond(localClientId, payload);
+    }
+
+    private int respond(byte localClientId, String payload) {
+        requestCount.increment();
+        String rpcId = rpcIdOf(payload);
+        if (rpcId == null)
+            return -1;
+        int id = invokeId.getAndIncrement() & Integer.MAX_VALUE;
+        double r = ThreadLocalRandom.current().nextDouble();
+        if (r < dropRatio) {
+            dropCount.increment();
+            return id;
+        }
+        String reply = r < dropRatio + errorRatio
+                ? String.format("{\"id\":\"%s\",\"error\":{\"code\":-1,\"message\":\"simulated error\"}}", rpcId)
+                : String.format("{\"id\":\"%s\",\"result\":{\"res_id\":\"sim-%d\"}}", rpcId, id);
+        byte[] bytes = reply.getBytes(StandardCharsets.US_ASCII);
+        io.schedule(
+                () -> callbacks.data((byte) 3, ipsc.getUnitId(), ipsc.getClientId(), localClientId, bytes),
+                serviceTime.sampleNanos(), TimeUnit.NANOSECONDS
+        );
+        return id;
+    }
+
+    /**
+     * 模拟的 IPSC 主动向客户端发送数据，例如事件通知。在 IO 线程上回调
+     *
+     * @param localClientId 接收数据的本地客户端ID
+     * @param data          数据，如 {@code {"method": "sys.call.on_released", "params": {...}}}
+     */
+    void send(byte localClientId, String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+        io.execute(() -> callbacks.data((byte) 3, ipsc.getUnitId(), ipsc.getClientId(), localClientId, bytes));
+    }
+
+    /**
+     * 从 {@code [[unit_id, client_id], rpc_id, ...]} 格式的 RPC 数据中取出 RPC ID
+     */
+    private static String rpcIdOf(String payload) {
+        int begin = payload.indexOf("],\"");
+        if (begin < 0)
+            return null;
+        begin += 3;
+        int end = payload.indexOf('"', begin);
+        return end < 0 ? null : payload.substring(begin, end);
+    }
+
+    /**
+     * @return 累计收到的请求数量
+     */
+    long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    /**
+     * @return 累计故意不回复的请求数量
+     */
+    long getDropCount() {
+        return dropCount.sum();
+    }
+
+    /**
+     * @return 已取样服务时间、还未回复的请求数量
+     */
+    int getPendingCount() {
+        ScheduledThreadPoolExecutor io = this.io;
+        return io == null ? 0 : io.getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s ipsc=%s, serviceTime=%s, dropRatio=%s, errorRatio=%s>",
+                SimulatedBus.class, ipsc, serviceTime, dropRatio, errorRatio);
+    }
+}
@@ -0,0 +1,78 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * SDK 记录的一个已结束的 Span
+ *
+ * @see Tracer
+ */
+public class Span {
+    private final String traceId;
+    private final String spanId;
+    private final String parentId;
+    private final String name;
+    private final long timestamp;
+    private final long duration;
+    private final Map<String, String> tags;
+
+    Span(String traceId, String spanId, String parentId, String name, long timestamp, long duration, Map<String, String> tags) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.name = name;
+        this.timestamp = timestamp;
+        this.duration = duration;
+        this.tags = tags == null ? Collections.emptyMap() : Collections.unmodifiableMap(tags);
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return 父 Span 的 ID。{@code null} 表示根 Span
+     */
+    public String getParentId() {
+        return parentId;
+    }
+
+    /**
+     * @return Span 名称，如 {@code ccf.createResource}、{@code ccf.encode}、{@code ccf.submit}、{@code ccf.wait}、{@code ccf.dispatch}
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 开始时间 (Unix timestamp MICROSECONDS)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return 持续时间 MICROSECONDS
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return 标签，如 RPC ID、方法名、目标 IPSC、错误信息
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s traceId=%s, spanId=%s, parentId=%s, name=%s, timestamp=%d, duration=%d, tags=%s>",
+                Span.class, traceId, spanId, parentId, name, timestamp, duration, tags);
+    }
+}
@@ -0,0 +1,21 @@
+package com.hesong.ipsc.ccf;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 把 {@link Tracer} 记录的 Span 导出到跟踪数据收集器
+ *
+ * @see ZipkinSpanExporter
+ */
+public interface SpanExporter {
+    /**
+     * 导出一批 Span
+     * <p>
+     * 在 {@link Tracer} 的导出线程中调用，可以阻塞。
+     *
+     * @param spans 要导出的 Span
+     * @throws IOException 导出失败
+     */
+    void export(List<Span> spans) throws IOException;
+}
@@ -0,0 +1,156 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 调用链跟踪上下文（Trace ID 与 Span ID）
+ * <p>
+ * 格式与 W3C Trace Context 的 {@code traceparent} 相同：{@code 00-<32位16进制 trace id>-<16位16进制 span id>-<flags>}。
+ * <p>
+ * 调用者用 {@link #makeCurrent} 把上下文附加到当前线程，此后该线程上的 {@link Commander#createResource}、{@link Commander#operateResource}
+ * 调用会作为它的子 Span 被记录，并把子 Span 的上下文以 {@value #PARAM_KEY} 参数写入 RPC 数据，传给 IPSC 流程：
+ * <pre>{@code
+ * try (TraceScope scope = TraceContext.parse(traceparent).makeCurrent()) {
+ *     commander.createResource(target, "sys.call", params, listener);
+ * }
+ * }</pre>
+ *
+ * @see Commander#setTracer
+ */
+public class TraceContext {
+    /**
+     * RPC 参数中，用于传递跟踪上下文的参数名
+     */
+    public static final String PARAM_KEY = "traceparent";
+
+    private static final ThreadLocal<TraceContext> current = new ThreadLocal<>();
+
+    private final String traceId;
+    private final String spanId;
+    private final boolean sampled;
+
+    /**
+     * @param traceId 32 位 16 进制的 Trace ID
+     * @param spanId  16 位 16 进制的 Span ID
+     * @param sampled 是否采样（记录 Span）
+     */
+    public TraceContext(String traceId, String spanId, boolean sampled) {
+        if (!isHex(traceId, 32))
+            throw new IllegalArgumentException("Argument \"traceId\" SHOULD be 32 hex digits.");
+        if (!isHex(spanId, 16))
+            throw new IllegalArgumentException("Argument \"spanId\" SHOULD be 16 hex digits.");
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sampled = sampled;
+    }
+
+    /**
+     * 新建一个根上下文（新的 Trace ID）
+     *
+     * @return 采样的根上下文
+     */
+    public static TraceContext newRoot() {
+        return new TraceContext(randomHex(32), randomHex(16), true);
+    }
+
+    /**
+     * 解析 {@code traceparent} 格式的字符串
+     *
+     * @param traceparent {@code traceparent} 格式的字符串
+     * @return 跟踪上下文。格式错误、版本为 {@code ff}、Trace ID 或 Span ID 全为 0 时返回 {@code null}
+     */
+    public static TraceContext parse(String traceparent) {
+        if (traceparent == null || traceparent.length() != 55)
+            return null;
+        String[] parts = traceparent.split("-");
+        if (parts.length != 4 || !isHex(parts[0], 2) || !isHex(parts[3], 2)
+                || !isHex(parts[1], 32) || !isHex(parts[2], 16))
+            return null;
+        if (parts[0].equals("ff") || isZero(parts[1]) || isZero(parts[2]))
+            return null;
+        return new TraceContext(parts[1], parts[2], (Integer.parseInt(parts[3], 16) & 1) != 0);
+    }
+
+    /**
+     * @return 附加到当前线程的上下文。{@code null} 表示没有
+     */
+    public static TraceContext current() {
+        return current.get();
+    }
+
+    /**
+     * 把该上下文附加到当前线程，直到返回的 {@link TraceScope} 关闭
+     *
+     * @return 关闭时恢复当前线程原有的上下文
+     */
+    public TraceScope makeCurrent() {
+        TraceContext previous = current.get();
+        current.set(this);
+        return () -> {
+            if (previous == null)
+                current.remove();
+            else
+                current.set(previous);
+        };
+    }
+
+    /**
+     * @return 同一个 Trace 中，以该上下文为父 Span 的新上下文
+     */
+    public TraceContext newChild() {
+        return new TraceContext(traceId, randomHex(16), sampled);
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return {@code traceparent} 格式的字符串
+     */
+    public String toTraceparent() {
+        return "00-" + traceId + "-" + spanId + (sampled ? "-01" : "-00");
+    }
+
+    @Override
+    public String toString() {
+        return toTraceparent();
+    }
+
+    private static boolean isHex(String s, int length) {
+        if (s == null || s.length() != length)
+            return false;
+        for (int i = 0; i < length; ++i) {
+            char c = s.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isZero(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) != '0')
+                return false;
+        }
+        return true;
+    }
+
+    static String randomHex(int length) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i += 16) {
+            String hex = Long.toHexString(random.nextLong() | Long.MIN_VALUE);
+            sb.append(hex, 0, Math.min(16, length - i));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,9 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * {@link TraceContext#makeCurrent} 的作用范围，关闭时恢复线程原有的跟踪上下文
+ */
+public interface TraceScope extends AutoCloseable {
+    @Override
+    void close();
+}
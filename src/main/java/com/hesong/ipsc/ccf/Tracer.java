@@ -0,0 +1,231 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RPC 调用链跟踪
+ * <p>
+ * 设置到 {@link Commander} 后（{@link Commander#setTracer}），在附加了 {@link TraceContext} 的线程上发起的每个 RPC 调用，都记录为以下 Span：
+ * <ul>
+ * <li>{@code ccf.createResource} / {@code ccf.operateResource}：整个调用，从编码到结果监听器返回。它的上下文写入 RPC 参数 {@value TraceContext#PARAM_KEY}，传给 IPSC 流程</li>
+ * <li>{@code ccf.encode}：RPC 数据编码</li>
+ * <li>{@code ccf.buffer}：在 {@link OutboundBuffer} 中等待重新连接（只有暂存过的调用才有）</li>
+ * <li>{@code ccf.submit}：准入控制、熔断器检查与 JNI 提交</li>
+ * <li>{@code ccf.wait}：等待 CTI BUS 与 IPSC 流程返回</li>
+ * <li>{@code ccf.dispatch}：回复在客户端执行器中排队、解码与结果监听器的执行</li>
+ * </ul>
+ * 记录的 Span 放入有界队列，由后台线程定时分批交给 {@link SpanExporter}；队列满时丢弃，不会阻塞调用者。
+ * <p>
+ * 新建资源的返回值中有 {@value ResourceDirectory#RES_ID_KEY} 时，记住该资源所属调用的上下文（如果返回值中带有 {@value TraceContext#PARAM_KEY}，使用它），
+ * 此后该资源的事件通知可以用 {@link #getTraceContext(RpcRequest)} 找回上下文，直到资源被释放。
+ */
+public class Tracer {
+    private static final Logger logger = LoggerFactory.getLogger(Tracer.class);
+
+    private final SpanExporter exporter;
+    private final BlockingQueue<Span> queue;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, TraceContext> resources = new ConcurrentHashMap<>();
+    private final LongAdder recordedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder exportedCount = new LongAdder();
+    private final LongAdder exportFailedCount = new LongAdder();
+    private volatile int maxResources = 100000;
+
+    /**
+     * @param exporter      Span 导出器
+     * @param queueSize     等待导出的 Span 的最大数量
+     * @param batchSize     每批导出的 Span 的最大数量
+     * @param flushInterval 导出间隔 MILLISECONDS
+     */
+    public Tracer(SpanExporter exporter, int queueSize, int batchSize, long flushInterval) {
+        if (exporter == null)
+            throw new IllegalArgumentException("Argument \"exporter\" SHOULD NOT be null.");
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Argument \"batchSize\" SHOULD be positive.");
+        this.exporter = exporter;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.batchSize = batchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ccf-tracer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 等待导出的 Span 最多 2048 个，每秒导出一次，每批最多 512 个
+     *
+     * @param exporter Span 导出器
+     */
+    public Tracer(SpanExporter exporter) {
+        this(exporter, 2048, 512, 1000);
+    }
+
+    void record(Span span) {
+        if (queue.offer(span))
+            recordedCount.increment();
+        else
+            droppedCount.increment();
+    }
+
+    private void flush() {
+        List<Span> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            try {
+                exporter.export(batch);
+                exportedCount.add(batch.size());
+            } catch (Exception e) {
+                exportFailedCount.add(batch.size());
+                logger.warn(String.format("%s export %d span(s) error", this, batch.size()), e);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 停止后台导出线程，并导出队列中剩余的 Span
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * 新建资源成功：记住资源所属的跟踪上下文
+     */
+    void bind(String resId, TraceContext context) {
+        if (resources.size() < maxResources)
+            resources.put(resId, context);
+    }
+
+    /**
+     * 收到事件通知：资源被释放时，忘记它的跟踪上下文
+     */
+    void eventReceived(RpcRequest request) {
+        String method = request.getMethod();
+        Map<String, Object> params = request.getParams();
+        if (method != null && params != null && method.endsWith(ResourceDirectory.RELEASED_SUFFIX)) {
+            Object resId = params.get(ResourceDirectory.RES_ID_KEY);
+            if (resId != null)
+                resources.remove(resId.toString());
+        }
+    }
+
+    /**
+     * 收到标准 CCF 事件：资源被释放时，忘记它的跟踪上下文
+     */
+    void eventReceived(CcfEvent event) {
+        if (event.getResId() != null && event.isReleased())
+            resources.remove(event.getResId());
+    }
+
+    /**
+     * 事件通知所属的跟踪上下文
+     * <p>
+     * 事件参数中带有 {@value TraceContext#PARAM_KEY} 时使用它，否则按 {@value ResourceDirectory#RES_ID_KEY} 查找新建该资源的调用的上下文。
+     *
+     * @param request 事件通知
+     * @return 跟踪上下文。{@code null} 表示找不到
+     */
+    public TraceContext getTraceContext(RpcRequest request) {
+        Map<String, Object> params = request.getParams();
+        if (params == null)
+            return null;
+        Object traceparent = params.get(TraceContext.PARAM_KEY);
+        if (traceparent != null) {
+            TraceContext context = TraceContext.parse(traceparent.toString());
+            if (context != null)
+                return context;
+        }
+        Object resId = params.get(ResourceDirectory.RES_ID_KEY);
+        return resId == null ? null : resources.get(resId.toString());
+    }
+
+    /**
+     * 标准 CCF 事件所属的跟踪上下文
+     *
+     * @param event 事件
+     * @return 跟踪上下文。{@code null} 表示找不到
+     * @see #getTraceContext(RpcRequest)
+     */
+    public TraceContext getTraceContext(CcfEvent event) {
+        if (event.traceparent != null) {
+            TraceContext context = TraceContext.parse(event.traceparent);
+            if (context != null)
+                return context;
+        }
+        return event.getResId() == null ? null : resources.get(event.getResId());
+    }
+
+    /**
+     * @param resId 资源ID
+     * @return 新建该资源的调用的跟踪上下文。{@code null} 表示找不到
+     */
+    public TraceContext getTraceContext(String resId) {
+        return resources.get(resId);
+    }
+
+    /**
+     * @return 最多记住多少个资源的跟踪上下文。默认是 100000
+     */
+    public int getMaxResources() {
+        return maxResources;
+    }
+
+    public void setMaxResources(int maxResources) {
+        this.maxResources = maxResources;
+    }
+
+    /**
+     * @return 累计记录的 Span 数量
+     */
+    public long getRecordedCount() {
+        return recordedCount.sum();
+    }
+
+    /**
+     * @return 累计因队列满而丢弃的 Span 数量
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * @return 累计导出成功的 Span 数量
+     */
+    public long getExportedCount() {
+        return exportedCount.sum();
+    }
+
+    /**
+     * @return 累计导出失败的 Span 数量
+     */
+    public long getExportFailedCount() {
+        return exportFailedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s exporter=%s>", Tracer.class, exporter);
+    }
+}
@@ -3,23 +3,38 @@ package com.hesong.ipsc.ccf;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * CTI BUS 单元
  * <p>
  * 它实际上是对 CTI BUS JNI 客户端共享库的一次再封装，以适应云呼你项目中关于CTI服务调用的规定。
  * <p>
- * 一个进程只用使用一个 {@link Unit}
+ * {@link Unit} 的静态方法都作用于进程中的{@link #getDefaultContext() 默认上下文}，它使用 JNI 共享库。
+ * 需要在同一个进程中使用多个 BUS 单元时，另外新建 {@link UnitContext}。
  */
 public class Unit {
-    static final Map<Byte, Client> clients = new ConcurrentHashMap<>();
+    /**
+     * RPC 错误码：{@link #drain} 到期时仍未收到结果，调用被放弃
+     */
+    public static final int ERROR_ABANDONED = -32003;
+
     private static final Logger logger = LoggerFactory.getLogger(Unit.class);
-    private static final Map<String, RpcResultListener> rpcResultMap = new ConcurrentHashMap<>();
-    static UnitCallbacks callbacks;
-    private static Byte localUnitId;
-    private static ScheduledThreadPoolExecutor rpcResultTimer;
+    private static final UnitContext context = new UnitContext();
+
+    /**
+     * @return 默认上下文，{@link Unit} 的静态方法都作用于它
+     */
+    public static UnitContext getDefaultContext() {
+        return context;
+    }
 
     /**
      * 初始化 JNI 库
@@ -32,26 +47,7 @@ public class Unit {
      * @param rpcResultTimer RPC返回超时计时器
      */
     public static void initiate(byte localUnitId, UnitCallbacks callbacks, ScheduledThreadPoolExecutor rpcResultTimer) {
-        logger.info(">>> initiate(localUnitId={}, callbacks={})", localUnitId, callbacks);
-        Unit.localUnitId = localUnitId;
-        int errCode = com.hesong.ipsc.busnetcli.Client.initiateLibrary(Unit.localUnitId);
-        if (errCode != 0) {
-            throw new RuntimeException(
-                    String.format(
-                            "com.lsxy.app.area.cti.busnetcli.Client.initiateLibrary(localUnitId=%d) returns %d",
-                            localUnitId, errCode
-                    )
-            );
-        }
-        Unit.callbacks = callbacks;
-        com.hesong.ipsc.busnetcli.Client.setCallbacks(new LibCallbackHandler());
-        if (rpcResultTimer == null) {
-            Unit.rpcResultTimer = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors());
-            Unit.rpcResultTimer.setRemoveOnCancelPolicy(true);
-        } else {
-            Unit.rpcResultTimer = rpcResultTimer;
-        }
-        logger.info("<<< initiate()");
+        context.initiate(localUnitId, callbacks, rpcResultTimer);
     }
 
     /**
@@ -64,7 +60,7 @@ public class Unit {
      * @param callbacks   单元级别的事件回调函数
      */
     public static void initiate(byte localUnitId, UnitCallbacks callbacks) {
-        initiate(localUnitId, callbacks, null);
+        context.initiate(localUnitId, callbacks);
     }
 
     /**
@@ -76,66 +72,240 @@ public class Unit {
      * @param localUnitId 该单元在 CTI BUS 中的单元ID(Unit Id)
      */
     public static void initiate(byte localUnitId) {
-        initiate(localUnitId, null, null);
+        context.initiate(localUnitId);
+    }
+
+    /**
+     * 安装故障注入
+     * <p>
+     * 用于测试环境，必须在 {@link #initiate} 之前调用。此后与 CTI BUS 之间的提交和回调都经过 {@code injector}。
+     *
+     * @param injector 故障注入。{@code null} 表示卸载已安装的故障注入
+     * @see FaultInjector
+     */
+    public static void setFaultInjector(FaultInjector injector) {
+        context.setFaultInjector(injector);
     }
 
     /**
      * 释放JNI库
+     * <p>
+     * 立即释放，等待结果的 RPC 和执行器中未处理的回复、事件都被丢弃；需要等待它们时，使用 {@link #drain}。
+     * 由 {@link Unit} 新建的计时器和客户端执行器也一并关闭。
      */
     public static void release() {
-        logger.warn(">>> release()");
-        com.hesong.ipsc.busnetcli.Client.releaseLibrary();
-        logger.warn("<<< release()");
+        context.release();
+    }
+
+    /**
+     * 排空后释放JNI库
+     * <p>
+     * 用于滚动重启：
+     * <ol>
+     * <li>不再接受新建资源的请求，{@link Commander#createResource} 抛出 {@link UnitDrainingException}；
+     * 操作已有资源的 {@link Commander#operateResource} 不受影响；</li>
+     * <li>等待所有进行中的 RPC 收到结果（或者超时），以及 {@link OutboundBuffer}、{@link OutboundScheduler}、{@link OutboundPipeline} 中的调用提交；</li>
+     * <li>释放底层共享库，此后不再收到数据。已收到的数据帧仍然交给客户端执行器；</li>
+     * <li>等待客户端执行器处理完已收到的回复和事件，然后关闭由 {@link Unit} 新建的执行器和计时器；</li>
+     * <li>到期时仍未完成的调用被放弃，以 {@link #ERROR_ABANDONED} 错误回调它们的 {@link RpcResultListener#onError}。</li>
+     * </ol>
+     * 应用程序传入的执行器和计时器不会被关闭，只等待它们空闲。
+     *
+     * @param timeout 最多等待的时间 MILLISECONDS
+     * @return 排空的结果，包括被放弃的调用
+     * @throws InterruptedException 等待期间线程被中断
+     */
+    public static DrainReport drain(long timeout) throws InterruptedException {
+        return context.drain(timeout);
+    }
+
+    /**
+     * @return 是否正在 {@link #drain 排空}，或者已经排空
+     */
+    public static boolean isDraining() {
+        return context.isDraining();
+    }
+
+    /**
+     * 启用环形缓冲区交接模式
+     * <p>
+     * 启用后，底层共享库的 IO 线程在数据回调中只把数据帧放入预先分配的环形缓冲区就返回，
+     * 数据的解码、查找客户端、交给客户端执行器等工作，都转移到环形缓冲区的消费者线程上执行。
+     * 环形缓冲区满时，IO 线程会等待消费者腾出空间。
+     * <p>
+     * 已启用时，先停止原有的环形缓冲区。
+     *
+     * @param bufferSize   槽位数量，必须是2的幂
+     * @param consumers    消费者线程数量
+     * @param batchSize    消费者每次最多认领的数据帧数量
+     * @param waitStrategy 消费者没有数据可处理时的等待策略
+     */
+    public static void startRingBuffer(int bufferSize, int consumers, int batchSize, WaitStrategy waitStrategy) {
+        context.startRingBuffer(bufferSize, consumers, batchSize, waitStrategy);
+    }
+
+    /**
+     * 启用环形缓冲区交接模式，使用一个消费者线程，每次最多认领 64 个数据帧，{@link WaitStrategy#SLEEPING} 等待策略
+     *
+     * @param bufferSize 槽位数量，必须是2的幂
+     */
+    public static void startRingBuffer(int bufferSize) {
+        context.startRingBuffer(bufferSize);
+    }
+
+    /**
+     * 停用环形缓冲区交接模式。已放入缓冲区的数据帧会在停止前处理完。
+     */
+    public static void stopRingBuffer() {
+        context.stopRingBuffer();
+    }
+
+    /**
+     * @return 环形缓冲区中已放入、还未被消费者认领的数据帧数量。未启用环形缓冲区时返回 0
+     */
+    public static long getRingBufferBacklog() {
+        return context.getRingBufferBacklog();
+    }
+
+    /**
+     * @return 环形缓冲区满时，IO 线程等待的累计次数。未启用环形缓冲区时返回 0
+     */
+    public static long getRingBufferProducerWaitCount() {
+        return context.getRingBufferProducerWaitCount();
+    }
+
+    /**
+     * @return 底层共享库的 IO 线程在数据回调中停留时间的统计
+     */
+    public static CallbackStats getCallbackStats() {
+        return context.getCallbackStats();
+    }
+
+    /**
+     * @return CTI BUS 集群成员表
+     */
+    public static Membership getMembership() {
+        return context.getMembership();
     }
 
     /**
      * @return 该命令处理器的 CTI BUS 单元ID (Unit Id)
      */
     public static Byte getLocalUnitId() {
-        return localUnitId;
+        return context.getLocalUnitId();
     }
 
-    static void pushRpcResultListener(final RpcResultListener rpcResultListener) {
-        logger.debug(">>> pushRpcResultListener(id={})", rpcResultListener.getId());
-        ScheduledFuture fut = rpcResultTimer.schedule(() -> {
-            logger.debug("OutgoingRpcReceiver(id={}) Timeout", rpcResultListener.getId());
-            try {
-                rpcResultMap.remove(rpcResultListener.getId());
-                rpcResultListener.onTimeout();
-            } catch (Exception e) {
-                logger.error(String.format("rpcResultTimer schedule error(id=%s)", rpcResultListener.getId()), e);
-                throw e;
-            }
-        }, rpcResultListener.getTimeout(), TimeUnit.MILLISECONDS);
-        rpcResultListener.setFuture(fut);
-        rpcResultMap.put(rpcResultListener.getId(), rpcResultListener);
-        logger.debug("<<< pushRpcResultListener()");
+    /**
+     * @return RPC返回超时计时器，SDK 内部的其它定时任务也使用它
+     */
+    static ScheduledThreadPoolExecutor getTimer() {
+        return context.getTimer();
     }
 
-    static RpcResultListener popRpcResultListener(String rpcId) {
-        RpcResultListener receiver = rpcResultMap.remove(rpcId);
-        if (receiver == null) return null;
-        receiver.getFuture().cancel(false);
-        return receiver;
+    /**
+     * 等待一组客户端中的多数连接到 CTI BUS 服务器
+     * <p>
+     * 各个客户端的连接是同时进行的，只要其中 {@code quorum} 个连接成功就返回，不必等待其余的客户端。
+     * 连接失败不是最终结果：底层共享库会继续重试，因此某次连接失败的客户端在超时前仍然可能连接成功，计入 {@code quorum}。
+     *
+     * @param clients 要等待的客户端
+     * @param quorum  至少要有多少个客户端连接成功
+     * @param timeout 等待超时 MILLISECONDS
+     * @param <T>     客户端类型
+     * @return 满足条件时已经连接成功的客户端
+     * @throws InterruptedException 等待期间线程被中断
+     * @throws TimeoutException     超时前连接成功的客户端不足 {@code quorum} 个
+     * @see Client#ready
+     */
+    public static <T extends Client> List<T> awaitQuorum(Collection<T> clients, int quorum, long timeout)
+            throws InterruptedException, TimeoutException {
+        logger.info(">>> awaitQuorum(clients={}, quorum={}, timeout={})", clients.size(), quorum, timeout);
+        if (quorum <= 0 || quorum > clients.size())
+            throw new IllegalArgumentException("Argument \"quorum\" SHOULD be between 1 and the number of clients.");
+        List<T> succeeded = new ArrayList<>();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicReference<Throwable> lastError = new AtomicReference<>();
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        for (T client : clients) {
+            awaitReady(client, result, () -> {
+                synchronized (succeeded) {
+                    succeeded.add(client);
+                    if (succeeded.size() == quorum)
+                        result.complete(new ArrayList<>(succeeded));
+                }
+            }, e -> {
+                failures.incrementAndGet();
+                lastError.set(e);
+            });
+        }
+        try {
+            List<T> ready = result.get(timeout, TimeUnit.MILLISECONDS);
+            logger.info("<<< awaitQuorum() -> {}", ready.size());
+            return ready;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            // 让之后才到达的连接结果不再重新登记
+            result.cancel(false);
+            int connected;
+            synchronized (succeeded) {
+                connected = succeeded.size();
+            }
+            TimeoutException timeoutException = new TimeoutException(String.format(
+                    "quorum %d of %d cannot be reached in %dms, %d client(s) connected, %d connection attempt(s) failed",
+                    quorum, clients.size(), timeout, connected, failures.get()));
+            timeoutException.initCause(lastError.get());
+            throw timeoutException;
+        }
     }
 
-    static RpcResultListener popRpcResultListener(RpcResultListener rpcResultListener) {
-        return popRpcResultListener(rpcResultListener.getId());
+    /**
+     * 等待客户端连接成功。连接失败时，继续等待底层共享库重试的结果，直到 {@code result} 完成
+     */
+    private static void awaitReady(Client client, CompletableFuture<?> result, Runnable connected, Consumer<Throwable> failed) {
+        CompletableFuture<Client> fut = client.ready();
+        fut.whenComplete((c, e) -> {
+            if (e == null) {
+                connected.run();
+            } else {
+                failed.accept(e);
+                if (!result.isDone() && client.ready() != fut)
+                    awaitReady(client, result, connected, failed);
+            }
+        });
     }
 
-    static void rpcResponded(RpcResponse response) {
-        logger.debug(">>> rpcResponded(response={})", response);
-        RpcResultListener receiver = popRpcResultListener(response.getId());
-        if (receiver == null) {
-            logger.warn("rpcResponded(response={}) cannot be found in rpcResultMap.", response);
-            return;
-        }
-        if (response.getError() != null) {
-            receiver.onError(response.getError());
-        } else {
-            receiver.onResult(response.getResult());
+    /**
+     * 新建一组客户端，并等待其中的多数连接到 CTI BUS 服务器
+     * <p>
+     * 客户端按顺序新建（新建只是在底层共享库中登记，不等待连接），连接则同时进行。
+     * 某个客户端新建时抛出的异常计为一次连接失败，不影响其它客户端。
+     *
+     * @param factories 新建客户端的函数，如 {@code () -> Unit.createCommander(...)}
+     * @param quorum    至少要有多少个客户端连接成功
+     * @param timeout   等待超时 MILLISECONDS
+     * @return 满足条件时已经连接成功的客户端
+     * @throws InterruptedException 等待期间线程被中断
+     * @throws TimeoutException     超时前连接成功的客户端不足 {@code quorum} 个
+     * @see #awaitQuorum
+     */
+    public static List<Client> openClients(Collection<? extends Supplier<? extends Client>> factories, int quorum, long timeout)
+            throws InterruptedException, TimeoutException {
+        if (quorum <= 0 || quorum > factories.size())
+            throw new IllegalArgumentException("Argument \"quorum\" SHOULD be between 1 and the number of factories.");
+        List<Client> created = new ArrayList<>();
+        for (Supplier<? extends Client> factory : factories) {
+            try {
+                created.add(factory.get());
+            } catch (RuntimeException e) {
+                logger.error("openClients() create client error", e);
+            }
         }
-        logger.debug("<<< rpcResponded()");
+        int failed = factories.size() - created.size();
+        if (created.size() < quorum)
+            throw new RuntimeException(String.format(
+                    "quorum %d of %d cannot be reached, %d client(s) failed to create", quorum, factories.size(), failed));
+        return awaitQuorum(created, quorum, timeout);
     }
 
     /**
@@ -145,26 +315,13 @@ public class Unit {
      * @param ip            BUS服务器IP地址
      * @param port          BUS服务器端口
      * @param eventListener 该客户端的事件监听器
-     * @param executor      该客户端内部的ThreadPoolExecutor，用于处理异步的消息返回。如果为 {@code null} 就收不到事件。
+     * @param executor      该客户端内部的ThreadPoolExecutor，用于处理异步的消息返回。
+     *                      如果为 {@code null}，新建一个 {@link InstrumentedExecutor}，核心线程数是处理器核心数。
      * @return 新建的客户端对象
      */
     public static Commander createCommander(byte localClientId, String ip, short port,
                                             RpcEventListener eventListener, ThreadPoolExecutor executor) {
-        logger.info(
-                ">>> createCommander(localClientId={}, ip={}, port={}, eventListener={}, executor={})",
-                localClientId, ip, port, eventListener, executor
-        );
-        if (executor == null) {
-            int processors = Runtime.getRuntime().availableProcessors();
-            executor = new ThreadPoolExecutor(
-                    processors, processors * 5, 1, TimeUnit.MINUTES,
-                    new ArrayBlockingQueue<>(processors * 1000, true)
-            );
-        }
-        Commander commander = new Commander(localUnitId, localClientId, ip, port, eventListener, executor);
-        clients.put(localClientId, commander);
-        logger.info("<<< createCommander() -> {}", commander);
-        return commander;
+        return context.createCommander(localClientId, ip, port, eventListener, executor);
     }
 
     /**
@@ -177,14 +334,13 @@ public class Unit {
      * @return 新建的客户端对象
      */
     public static Commander createCommander(byte localClientId, String ip, short port, RpcEventListener eventListener) {
-        return createCommander(localClientId, ip, port, eventListener, null);
+        return context.createCommander(localClientId, ip, port, eventListener);
     }
 
     /**
      * 建立一个bus命令客户端
      * <p>
-     * 新建的 {@link Client} 对象的线程池执行器的
-     * 新建的 {@link Client} 对象的线程池执行器的 corePoolSize是处理器核心数，
+     * 新建的 {@link Client} 对象的线程池执行器是 {@link InstrumentedExecutor}，它的 corePoolSize是处理器核心数，
      * maximumPoolSize是处理器核心数乘以5，
      * keepAliveTime是1分钟，
      * capacity是处理器核心数乘以1000.
@@ -196,7 +352,7 @@ public class Unit {
      * @return 新建的客户端对象
      */
     public static Commander createCommander(byte localClientId, String ip, RpcEventListener eventListener) {
-        return createCommander(localClientId, ip, (short) 8088, eventListener);
+        return context.createCommander(localClientId, ip, eventListener);
     }
 
     /**
@@ -214,10 +370,7 @@ public class Unit {
      * @return 新建的 {@link Commander} 客户端对象
      */
     public static Commander createCommander(byte localClientId, String ip, RpcEventListener commandEventListener, MonitorEventListener monitorEventListener) {
-        Commander command = createCommander(localClientId, ip, commandEventListener);
-        Monitor monitor = createMonitor((byte) (localClientId + 1), ip, monitorEventListener);
-        command.setMonitor(monitor);
-        return command;
+        return context.createCommander(localClientId, ip, commandEventListener, monitorEventListener);
     }
 
     /**
@@ -227,25 +380,12 @@ public class Unit {
      * @param ip            BUS服务器IP地址
      * @param port          BUS服务器端口
      * @param eventListener 事件监听器。如果为 {@code null} 就收不到事件。
-     * @param executor      该客户端内部的ThreadPoolExecutor，用于处理异步的消息返回。如果为 {@code null} 就收不到事件。
+     * @param executor      该客户端内部的ThreadPoolExecutor，用于处理异步的消息返回。
+     *                      如果为 {@code null}，新建一个 {@link InstrumentedExecutor}，核心线程数是1。
      * @return 新建的客户端对象
      */
     public static Monitor createMonitor(byte localClientId, String ip, short port, MonitorEventListener eventListener, ThreadPoolExecutor executor) {
-        logger.info(
-                ">>> createMonitor(localClientId={}, ip={}, port={})",
-                localClientId, ip, port
-        );
-        if (executor == null) {
-            int processors = Runtime.getRuntime().availableProcessors();
-            executor = new ThreadPoolExecutor(
-                    1, processors, 1, TimeUnit.MINUTES,
-                    new ArrayBlockingQueue<>(processors * 100, true)
-            );
-        }
-        Monitor monitor = new Monitor(localUnitId, localClientId, ip, port, eventListener, executor);
-        clients.put(localClientId, monitor);
-        logger.info("<<< createMonitor() -> {}", monitor);
-        return monitor;
+        return context.createMonitor(localClientId, ip, port, eventListener, executor);
     }
 
     /**
@@ -257,6 +397,6 @@ public class Unit {
      * @return 新建的客户端对象
      */
     public static Monitor createMonitor(byte localClientId, String ip, MonitorEventListener eventListener) {
-        return createMonitor(localClientId, ip, (short) 8088, eventListener, null);
+        return context.createMonitor(localClientId, ip, eventListener);
     }
 }
@@ -0,0 +1,643 @@
+package com.hesong.ipsc.ccf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * CTI BUS 单元的上下文
+ * <p>
+ * 一个上下文有自己的单元ID、底层共享库、客户端表、等待结果的 RPC 表、超时计时器和集群成员表，
+ * 共享库的回调只交给该上下文的客户端。使用 {@link SimulatedBus} 等独立的共享库时，每个上下文就是一个 CTI BUS 单元。
+ * <p>
+ * {@link Unit} 的静态方法使用的是{@link Unit#getDefaultContext() 默认上下文}。
+ * <p>
+ * <strong>注意</strong>：JNI 共享库本身是进程级的，只以第一个初始化的上下文的单元ID初始化一次。之后使用 JNI 共享库的上下文
+ * 是同一个 BUS 单元的逻辑分区：客户端以共享库的单元ID发出 RPC，由 {@link JniDispatcher} 按目标客户端把回调分发给各个上下文；
+ * 它们共用共享库的连接和 IO 线程，不会分担 CTI BUS 一侧的负载。
+ * 同一进程中的上下文（包括默认上下文）不能使用相同的单元ID或者本地客户端ID。
+ */
+public class UnitContext {
+    private static final Logger logger = LoggerFactory.getLogger(UnitContext.class);
+
+    final Map<Byte, Client> clients = new ConcurrentHashMap<>();
+    private final Map<String, RpcResultListener> rpcResultMap = new ConcurrentHashMap<>();
+    UnitCallbacks callbacks;
+    private Byte localUnitId;
+    private ScheduledThreadPoolExecutor rpcResultTimer;
+    private final LibCallbackHandler callbackHandler = new LibCallbackHandler(this);
+    private final Map<Byte, int[]> pendingConnects = new HashMap<>();
+    final Membership membership = new Membership();
+    /**
+     * CTI BUS 客户端共享库。必须在 {@link #initiate} 之前设置
+     */
+    BusLibrary library;
+    volatile boolean draining;
+    // drain() 在它上面等待进行中的 RPC、暂存的调用和回调任务完成
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private final Condition drainProgressed = drainLock.newCondition();
+    // 已交给客户端执行器、还没有执行完的回调任务数量
+    private final AtomicInteger pendingCallbacks = new AtomicInteger();
+    private boolean ownsTimer;
+    private final Set<ThreadPoolExecutor> ownedExecutors = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 新建使用 JNI 共享库的上下文
+     */
+    public UnitContext() {
+        this(new JniBusLibrary());
+    }
+
+    /**
+     * @param library CTI BUS 客户端共享库
+     */
+    UnitContext(BusLibrary library) {
+        if (library == null)
+            throw new IllegalArgumentException("Argument \"library\" SHOULD NOT be null.");
+        this.library = library;
+    }
+
+    /**
+     * 初始化 JNI 库
+     * <p>
+     * 在使用该上下文的其它功能之前，必须先进行初始化。
+     * 该方法只能执行一次。
+     *
+     * @param localUnitId    该单元在 CTI BUS 中的单元ID(Unit Id)
+     * @param callbacks      单元级别的事件回调函数
+     * @param rpcResultTimer RPC返回超时计时器
+     */
+    public void initiate(byte localUnitId, UnitCallbacks callbacks, ScheduledThreadPoolExecutor rpcResultTimer) {
+        logger.info(">>> initiate(localUnitId={}, callbacks={})", localUnitId, callbacks);
+        this.localUnitId = localUnitId;
+        this.draining = false;
+        int errCode = library.initiateLibrary(this.localUnitId);
+        if (errCode != 0) {
+            throw new RuntimeException(
+                    String.format(
+                            "com.lsxy.app.area.cti.busnetcli.Client.initiateLibrary(localUnitId=%d) returns %d",
+                            localUnitId, errCode
+                    )
+            );
+        }
+        this.callbacks = callbacks;
+        library.setCallbacks(callbackHandler);
+        if (rpcResultTimer == null) {
+            this.rpcResultTimer = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors());
+            this.rpcResultTimer.setRemoveOnCancelPolicy(true);
+            this.ownsTimer = true;
+        } else {
+            this.rpcResultTimer = rpcResultTimer;
+            this.ownsTimer = false;
+        }
+        logger.info("<<< initiate()");
+    }
+
+    /**
+     * 初始化 JNI 库
+     * <p>
+     * 在使用该上下文的其它功能之前，必须先进行初始化。
+     * 该方法只能执行一次。
+     *
+     * @param localUnitId 该单元在 CTI BUS 中的单元ID(Unit Id)
+     * @param callbacks   单元级别的事件回调函数
+     */
+    public void initiate(byte localUnitId, UnitCallbacks callbacks) {
+        initiate(localUnitId, callbacks, null);
+    }
+
+    /**
+     * 初始化 JNI 库
+     * <p>
+     * 在使用该上下文的其它功能之前，必须先进行初始化。
+     * 该方法只能执行一次。
+     *
+     * @param localUnitId 该单元在 CTI BUS 中的单元ID(Unit Id)
+     */
+    public void initiate(byte localUnitId) {
+        initiate(localUnitId, null, null);
+    }
+
+    /**
+     * 安装故障注入
+     * <p>
+     * 用于测试环境，必须在 {@link #initiate} 之前调用。此后与 CTI BUS 之间的提交和回调都经过 {@code injector}。
+     *
+     * @param injector 故障注入。{@code null} 表示卸载已安装的故障注入
+     * @see FaultInjector
+     */
+    public void setFaultInjector(FaultInjector injector) {
+        BusLibrary inner = library instanceof FaultInjectingBus ? ((FaultInjectingBus) library).getInner() : library;
+        library = injector == null ? inner : new FaultInjectingBus(inner, injector);
+        logger.warn("setFaultInjector({})", injector);
+    }
+
+    /**
+     * 释放JNI库
+     * <p>
+     * 立即释放，等待结果的 RPC 和执行器中未处理的回复、事件都被丢弃；需要等待它们时，使用 {@link #drain}。
+     * 由该上下文新建的计时器和客户端执行器也一并关闭。
+     */
+    public void release() {
+        logger.warn(">>> release()");
+        library.releaseLibrary();
+        stopRingBuffer();
+        for (ThreadPoolExecutor executor : ownedExecutors)
+            executor.shutdown();
+        ownedExecutors.clear();
+        if (ownsTimer)
+            rpcResultTimer.shutdown();
+        logger.warn("<<< release()");
+    }
+
+    /**
+     * 排空后释放JNI库
+     * <p>
+     * 用于滚动重启：
+     * <ol>
+     * <li>不再接受新建资源的请求，{@link Commander#createResource} 抛出 {@link UnitDrainingException}；
+     * 操作已有资源的 {@link Commander#operateResource} 不受影响；</li>
+     * <li>等待所有进行中的 RPC 收到结果（或者超时），以及 {@link OutboundBuffer}、{@link OutboundScheduler}、{@link OutboundPipeline} 中的调用提交；</li>
+     * <li>释放底层共享库，此后不再收到数据。已收到的数据帧仍然交给客户端执行器；</li>
+     * <li>等待客户端执行器处理完已收到的回复和事件，然后关闭由该上下文新建的执行器和计时器；</li>
+     * <li>到期时仍未完成的调用被放弃，以 {@link Unit#ERROR_ABANDONED} 错误回调它们的 {@link RpcResultListener#onError}。</li>
+     * </ol>
+     * 应用程序传入的执行器和计时器不会被关闭，只等待其中该上下文的回调任务执行完。
+     *
+     * @param timeout 最多等待的时间 MILLISECONDS
+     * @return 排空的结果，包括被放弃的调用
+     * @throws InterruptedException 等待期间线程被中断
+     */
+    public DrainReport drain(long timeout) throws InterruptedException {
+        logger.warn(">>> drain(timeout={})", timeout);
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(timeout);
+        draining = true;
+        int inFlight = rpcResultMap.size();
+        // 等待进行中的 RPC 收到结果，以及缓冲区中的调用重新提交
+        awaitDrain(() -> rpcResultMap.isEmpty() && bufferedCount() == 0, deadline);
+        List<String> abandonedBuffered = new ArrayList<>();
+        for (Client client : clients.values()) {
+            if (client instanceof Commander) {
+                OutboundScheduler scheduler = ((Commander) client).getOutboundScheduler();
+                if (scheduler != null)
+                    abandonedBuffered.addAll(scheduler.abandon(Unit.ERROR_ABANDONED, "unit drained"));
+                OutboundPipeline pipeline = ((Commander) client).getOutboundPipeline();
+                if (pipeline != null)
+                    abandonedBuffered.addAll(pipeline.abandon(Unit.ERROR_ABANDONED, "unit drained"));
+                OutboundBuffer buffer = ((Commander) client).getOutboundBuffer();
+                if (buffer != null)
+                    abandonedBuffered.addAll(buffer.abandon(Unit.ERROR_ABANDONED, "unit drained"));
+            }
+        }
+        // 不再收到新的数据，已放入环形缓冲区的数据帧在停止前交给执行器
+        library.releaseLibrary();
+        stopRingBuffer();
+        // 等待执行器处理完已收到的回复和事件
+        int droppedTasks = 0;
+        for (ThreadPoolExecutor executor : clientExecutors()) {
+            if (ownedExecutors.contains(executor)) {
+                executor.shutdown();
+                long remaining = deadline - System.nanoTime();
+                if (!executor.awaitTermination(Math.max(remaining, 0), TimeUnit.NANOSECONDS))
+                    droppedTasks += executor.shutdownNow().size();
+            }
+        }
+        // 应用程序传入的执行器：等待该上下文交给它们的回调任务执行完
+        awaitDrain(() -> pendingCallbacks.get() == 0, deadline);
+        ownedExecutors.clear();
+        // 放弃仍未收到结果的 RPC
+        List<String> abandoned = new ArrayList<>();
+        for (String rpcId : new ArrayList<>(rpcResultMap.keySet())) {
+            RpcResultListener receiver = popRpcResultListener(rpcId);
+            if (receiver == null)
+                continue;
+            abandoned.add(rpcId);
+            RpcError error = new RpcError();
+            error.setCode(Unit.ERROR_ABANDONED);
+            error.setMessage("unit drained");
+            try {
+                receiver.onError(error);
+            } catch (Exception e) {
+                logger.error(String.format("drain() rpcResultListener(id=%s).onError() error", rpcId), e);
+            }
+        }
+        if (ownsTimer)
+            rpcResultTimer.shutdownNow();
+        DrainReport report = new DrainReport(inFlight, abandoned, abandonedBuffered, droppedTasks,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        if (report.isClean())
+            logger.warn("<<< drain() -> {}", report);
+        else
+            logger.error("<<< drain() -> {} abandoned: {} {}", report, abandoned, abandonedBuffered);
+        return report;
+    }
+
+    /**
+     * 等待 {@code done} 成立，或者到期
+     *
+     * @param deadline 到期时间，{@link System#nanoTime} 的值
+     */
+    private void awaitDrain(BooleanSupplier done, long deadline) throws InterruptedException {
+        drainLock.lock();
+        try {
+            long remaining;
+            while (!done.getAsBoolean() && (remaining = deadline - System.nanoTime()) > 0)
+                drainProgressed.awaitNanos(remaining);
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /**
+     * RPC 收到结果（或者超时）、调用已提交或者失败、回调任务执行完之后调用，唤醒等待的 {@link #drain}
+     */
+    void signalDrain() {
+        if (!draining)
+            return;
+        drainLock.lock();
+        try {
+            drainProgressed.signalAll();
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /**
+     * 登记一个将交给客户端执行器的回调任务。执行器拒绝了返回的任务时，调用者应调用 {@link #callbackDone}
+     *
+     * @return 执行完时注销登记的任务
+     */
+    Runnable trackCallback(Runnable task) {
+        pendingCallbacks.incrementAndGet();
+        return () -> {
+            try {
+                task.run();
+            } finally {
+                callbackDone();
+            }
+        };
+    }
+
+    void callbackDone() {
+        if (pendingCallbacks.decrementAndGet() == 0)
+            signalDrain();
+    }
+
+    /**
+     * @return 是否正在 {@link #drain 排空}，或者已经排空
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    private int bufferedCount() {
+        int n = 0;
+        for (Client client : clients.values()) {
+            if (client instanceof Commander) {
+                OutboundBuffer buffer = ((Commander) client).getOutboundBuffer();
+                if (buffer != null)
+                    n += buffer.size();
+                OutboundScheduler scheduler = ((Commander) client).getOutboundScheduler();
+                if (scheduler != null)
+                    n += scheduler.size();
+                OutboundPipeline pipeline = ((Commander) client).getOutboundPipeline();
+                if (pipeline != null)
+                    n += pipeline.size();
+            }
+        }
+        return n;
+    }
+
+    private Set<ThreadPoolExecutor> clientExecutors() {
+        Set<ThreadPoolExecutor> executors = new LinkedHashSet<>();
+        for (Client client : clients.values()) {
+            if (client instanceof Commander)
+                executors.add(((Commander) client).executor);
+            else if (client instanceof Monitor)
+                executors.add(((Monitor) client).executor);
+        }
+        return executors;
+    }
+
+    /**
+     * 启用环形缓冲区交接模式
+     * <p>
+     * 启用后，底层共享库的 IO 线程在数据回调中只把数据帧放入预先分配的环形缓冲区就返回，
+     * 数据的解码、查找客户端、交给客户端执行器等工作，都转移到环形缓冲区的消费者线程上执行。
+     * 环形缓冲区满时，IO 线程会等待消费者腾出空间。
+     * <p>
+     * 已启用时，先停止原有的环形缓冲区，处理完其中的数据帧后再启用新的，数据帧的顺序不变。
+     *
+     * @param bufferSize   槽位数量，必须是2的幂
+     * @param consumers    消费者线程数量
+     * @param batchSize    消费者每次最多认领的数据帧数量
+     * @param waitStrategy 消费者没有数据可处理时的等待策略
+     */
+    public synchronized void startRingBuffer(int bufferSize, int consumers, int batchSize, WaitStrategy waitStrategy) {
+        logger.info(">>> startRingBuffer(bufferSize={}, consumers={}, batchSize={}, waitStrategy={})", bufferSize, consumers, batchSize, waitStrategy);
+        CallbackRingBuffer ring = new CallbackRingBuffer(callbackHandler, bufferSize, consumers, batchSize, waitStrategy);
+        ring.start();
+        // 停止期间收到的数据帧等待原有的缓冲区处理完，再在 IO 线程上处理
+        CallbackRingBuffer old = callbackHandler.ringBuffer;
+        if (old != null)
+            old.stop();
+        callbackHandler.ringBuffer = ring;
+        logger.info("<<< startRingBuffer() -> {}", ring);
+    }
+
+    /**
+     * 启用环形缓冲区交接模式，使用一个消费者线程，每次最多认领 64 个数据帧，{@link WaitStrategy#SLEEPING} 等待策略
+     *
+     * @param bufferSize 槽位数量，必须是2的幂
+     */
+    public void startRingBuffer(int bufferSize) {
+        startRingBuffer(bufferSize, 1, 64, WaitStrategy.SLEEPING);
+    }
+
+    /**
+     * 停用环形缓冲区交接模式。已放入缓冲区的数据帧会在停止前处理完。
+     */
+    public synchronized void stopRingBuffer() {
+        CallbackRingBuffer ring = callbackHandler.ringBuffer;
+        if (ring != null) {
+            logger.info(">>> stopRingBuffer() {}", ring);
+            ring.stop();
+            callbackHandler.ringBuffer = null;
+            logger.info("<<< stopRingBuffer()");
+        }
+    }
+
+    /**
+     * @return 环形缓冲区中已放入、还未被消费者认领的数据帧数量。未启用环形缓冲区时返回 0
+     */
+    public long getRingBufferBacklog() {
+        CallbackRingBuffer ring = callbackHandler.ringBuffer;
+        return ring == null ? 0 : ring.getBacklog();
+    }
+
+    /**
+     * @return 环形缓冲区满时，IO 线程等待的累计次数。未启用环形缓冲区时返回 0
+     */
+    public long getRingBufferProducerWaitCount() {
+        CallbackRingBuffer ring = callbackHandler.ringBuffer;
+        return ring == null ? 0 : ring.getProducerWaitCount();
+    }
+
+    /**
+     * @return 底层共享库的 IO 线程在数据回调中停留时间的统计
+     */
+    public CallbackStats getCallbackStats() {
+        return callbackHandler.callbackStats;
+    }
+
+    /**
+     * @return CTI BUS 集群成员表
+     */
+    public Membership getMembership() {
+        return membership;
+    }
+
+    /**
+     * @return 该命令处理器的 CTI BUS 单元ID (Unit Id)
+     */
+    public Byte getLocalUnitId() {
+        return localUnitId;
+    }
+
+    /**
+     * @return RPC返回超时计时器，SDK 内部的其它定时任务也使用它
+     */
+    ScheduledThreadPoolExecutor getTimer() {
+        return rpcResultTimer;
+    }
+
+    void pushRpcResultListener(final RpcResultListener rpcResultListener) {
+        logger.debug(">>> pushRpcResultListener(id={})", rpcResultListener.getId());
+        ScheduledFuture<?> fut = rpcResultTimer.schedule(() -> {
+            logger.debug("OutgoingRpcReceiver(id={}) Timeout", rpcResultListener.getId());
+            try {
+                // 回复可能与超时同时到达，已被 rpcResponded() 取走的不再回调超时
+                if (rpcResultMap.remove(rpcResultListener.getId()) == null)
+                    return;
+                signalDrain();
+                Jfr.timedOut(rpcResultListener);
+                rpcResultListener.onTimeout();
+            } catch (Exception e) {
+                logger.error(String.format("rpcResultTimer schedule error(id=%s)", rpcResultListener.getId()), e);
+                throw e;
+            }
+        }, rpcResultListener.getTimeout(), TimeUnit.MILLISECONDS);
+        rpcResultListener.setFuture(fut);
+        rpcResultMap.put(rpcResultListener.getId(), rpcResultListener);
+        logger.debug("<<< pushRpcResultListener()");
+    }
+
+    /**
+     * @return 等待该 RPC 结果的监听器，不移除。{@code null} 表示没有
+     */
+    RpcResultListener getRpcResultListener(String rpcId) {
+        return rpcId == null ? null : rpcResultMap.get(rpcId);
+    }
+
+    RpcResultListener popRpcResultListener(String rpcId) {
+        RpcResultListener receiver = rpcResultMap.remove(rpcId);
+        if (receiver == null) return null;
+        receiver.getFuture().cancel(false);
+        signalDrain();
+        return receiver;
+    }
+
+    RpcResultListener popRpcResultListener(RpcResultListener rpcResultListener) {
+        return popRpcResultListener(rpcResultListener.getId());
+    }
+
+    void rpcResponded(RpcResponse response, long receivedTime) {
+        logger.debug(">>> rpcResponded(response={})", response);
+        RpcResultListener receiver = popRpcResultListener(response.getId());
+        if (receiver == null) {
+            logger.warn("rpcResponded(response={}) cannot be found in rpcResultMap.", response);
+            return;
+        }
+        Jfr.replied(receiver, response.getError());
+        receiver.receivedTime = receivedTime;
+        if (response.getError() != null) {
+            receiver.onError(response.getError());
+        } else {
+            receiver.onResult(response.getResult());
+        }
+        logger.debug("<<< rpcResponded()");
+    }
+
+    /**
+     * 登记新建的客户端
+     * <p>
+     * 底层共享库可能在客户端的构造函数返回之前就回调连接结果，这时的连接结果暂存在 {@link #pendingConnects} 中，在这里补记。
+     */
+    private void registerClient(Client client) {
+        int[] pending;
+        synchronized (pendingConnects) {
+            clients.put(client.getId(), client);
+            pending = pendingConnects.remove(client.getId());
+        }
+        if (pending != null) {
+            logger.debug("registerClient({}) connection resulted before registered: errorCode={}", client, pending[1]);
+            client.connectResulted((byte) pending[0], pending[1]);
+            callbackHandler.connectResulted(client, pending[1]);
+        }
+    }
+
+    /**
+     * 连接回调：记录客户端的连接结果
+     *
+     * @return 客户端。如果客户端还没有登记，返回 {@code null}，连接结果暂存到客户端登记时再记录
+     */
+    Client connectResulted(byte localClientId, byte connectingUnitId, int errorCode) {
+        Client client;
+        synchronized (pendingConnects) {
+            client = clients.get(localClientId);
+            if (client == null) {
+                pendingConnects.put(localClientId, new int[]{connectingUnitId, errorCode});
+                return null;
+            }
+        }
+        client.connectResulted(connectingUnitId, errorCode);
+        return client;
+    }
+
+    /**
+     * 建立一个bus命令客户端
+     *
+     * @param localClientId 本地clientid
+     * @param ip            BUS服务器IP地址
+     * @param port          BUS服务器端口
+     * @param eventListener 该客户端的事件监听器
+     * @param executor      该客户端内部的ThreadPoolExecutor，用于处理异步的消息返回。
+     *                      如果为 {@code null}，新建一个 {@link InstrumentedExecutor}，核心线程数是处理器核心数。
+     * @return 新建的客户端对象
+     */
+    public Commander createCommander(byte localClientId, String ip, short port,
+                                     RpcEventListener eventListener, ThreadPoolExecutor executor) {
+        logger.info(
+                ">>> createCommander(localClientId={}, ip={}, port={}, eventListener={}, executor={})",
+                localClientId, ip, port, eventListener, executor
+        );
+        if (executor == null) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            executor = new InstrumentedExecutor(
+                    processors, processors * 5, 1, TimeUnit.MINUTES,
+                    new ArrayBlockingQueue<>(processors * 1000, true)
+            );
+            ownedExecutors.add(executor);
+        }
+        Commander commander = new Commander(this, localClientId, ip, port, eventListener, executor);
+        registerClient(commander);
+        logger.info("<<< createCommander() -> {}", commander);
+        return commander;
+    }
+
+    /**
+     * 建立一个bus命令客户端
+     *
+     * @param localClientId 本地 Client Id
+     * @param ip            BUS服务器IP地址
+     * @param port          BUS服务器端口
+     * @param eventListener 该客户端的事件监听器。如果为 {@code null} 就收不到事件。
+     * @return 新建的客户端对象
+     */
+    public Commander createCommander(byte localClientId, String ip, short port, RpcEventListener eventListener) {
+        return createCommander(localClientId, ip, port, eventListener, null);
+    }
+
+    /**
+     * 建立一个bus命令客户端
+     * <p>
+     * 新建的 {@link Client} 对象的线程池执行器是 {@link InstrumentedExecutor}，它的 corePoolSize是处理器核心数，
+     * maximumPoolSize是处理器核心数乘以5，
+     * keepAliveTime是1分钟，
+     * capacity是处理器核心数乘以1000.
+     * 其客户端BUS类型是10。连接的端口是 8088。
+     *
+     * @param localClientId 本地clientid
+     * @param ip            BUS服务器IP地址
+     * @param eventListener 该客户端的事件监听器。如果为 {@code null} 就收不到事件。
+     * @return 新建的客户端对象
+     */
+    public Commander createCommander(byte localClientId, String ip, RpcEventListener eventListener) {
+        return createCommander(localClientId, ip, (short) 8088, eventListener);
+    }
+
+    /**
+     * 建立一个bus命令客户端，同时一个监控客户端 {@link Monitor}，连接到同一个 CTI 服务器
+     * <p>
+     * 可以通过 {@link Commander#getMonitor} 获取与这个命令器客户端一同建立的 {@link Monitor}
+     * <p>
+     * <strong>注意</strong>：新建的 {@link Monitor} 的 localClientId 是该构造函数中同名参数的值加上1，
+     * 一旦这个ID被占用，记得下一个 {@link Commander} 要间隔一个ID哦 (￣▽￣)" ！
+     *
+     * @param localClientId        本地clientid
+     * @param ip                   BUS服务器IP地址
+     * @param commandEventListener {@link Commander}客户端的事件监听器
+     * @param monitorEventListener {@link Monitor}客户端的事件监听器
+     * @return 新建的 {@link Commander} 客户端对象
+     */
+    public Commander createCommander(byte localClientId, String ip, RpcEventListener commandEventListener, MonitorEventListener monitorEventListener) {
+        Commander command = createCommander(localClientId, ip, commandEventListener);
+        Monitor monitor = createMonitor((byte) (localClientId + 1), ip, monitorEventListener);
+        command.setMonitor(monitor);
+        return command;
+    }
+
+    /**
+     * 建立一个bus监控客户端
+     *
+     * @param localClientId 本地 Client Id
+     * @param ip            BUS服务器IP地址
+     * @param port          BUS服务器端口
+     * @param eventListener 事件监听器。如果为 {@code null} 就收不到事件。
+     * @param executor      该客户端内部的ThreadPoolExecutor，用于处理异步的消息返回。
+     *                      如果为 {@code null}，新建一个 {@link InstrumentedExecutor}，核心线程数是1。
+     * @return 新建的客户端对象
+     */
+    public Monitor createMonitor(byte localClientId, String ip, short port, MonitorEventListener eventListener, ThreadPoolExecutor executor) {
+        logger.info(
+                ">>> createMonitor(localClientId={}, ip={}, port={})",
+                localClientId, ip, port
+        );
+        if (executor == null) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            executor = new InstrumentedExecutor(
+                    1, processors, 1, TimeUnit.MINUTES,
+                    new ArrayBlockingQueue<>(processors * 100, true)
+            );
+            ownedExecutors.add(executor);
+        }
+        Monitor monitor = new Monitor(this, localClientId, ip, port, eventListener, executor);
+        registerClient(monitor);
+        logger.info("<<< createMonitor() -> {}", monitor);
+        return monitor;
+    }
+
+    /**
+     * 建立一个bus监控客户端
+     *
+     * @param localClientId 本地 Client Id
+     * @param ip            BUS服务器IP地址
+     * @param eventListener 事件监听器。如果为 {@code null} 就收不到事件。
+     * @return 新建的客户端对象
+     */
+    public Monitor createMonitor(byte localClientId, String ip, MonitorEventListener eventListener) {
+        return createMonitor(localClientId, ip, (short) 8088, eventListener, null);
+    }
+}
@@ -0,0 +1,12 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * {@link Unit} 正在 {@link Unit#drain 排空}，不再接受新建资源的请求
+ */
+public class UnitDrainingException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    UnitDrainingException(String message) {
+        super(message);
+    }
+}
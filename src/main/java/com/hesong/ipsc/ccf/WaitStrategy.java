@@ -0,0 +1,23 @@
+package com.hesong.ipsc.ccf;
+
+/**
+ * {@link Unit#startRingBuffer 环形缓冲区}的消费者没有数据可处理时的等待策略
+ */
+public enum WaitStrategy {
+    /**
+     * 忙等。延迟最低，每个消费者占满一个CPU核心
+     */
+    BUSY_SPIN,
+    /**
+     * 短暂忙等后 {@link Thread#yield}
+     */
+    YIELDING,
+    /**
+     * 短暂忙等、让出后，休眠 100 微秒
+     */
+    SLEEPING,
+    /**
+     * 使用锁和条件变量等待。CPU 占用最低，延迟最高
+     */
+    BLOCKING
+}
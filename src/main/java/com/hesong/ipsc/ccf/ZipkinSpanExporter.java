@@ -0,0 +1,108 @@
+package com.hesong.ipsc.ccf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 以 Zipkin V2 JSON 格式，通过 HTTP 把 Span 导出到本地的收集器
+ * <p>
+ * Zipkin 服务器、OpenTelemetry Collector（zipkin receiver）、Jaeger 等都可以接收这个格式。
+ */
+public class ZipkinSpanExporter implements SpanExporter {
+    /**
+     * 默认的收集器地址
+     */
+    public static final String DEFAULT_URL = "http://127.0.0.1:9411/api/v2/spans";
+
+    private final URL url;
+    private final Map<String, String> localEndpoint;
+    private volatile int connectTimeout = 1000;
+    private volatile int readTimeout = 5000;
+
+    /**
+     * @param url         收集器的地址
+     * @param serviceName 本服务的名称
+     * @throws IOException 地址格式错误
+     */
+    public ZipkinSpanExporter(String url, String serviceName) throws IOException {
+        if (serviceName == null)
+            throw new IllegalArgumentException("Argument \"serviceName\" SHOULD NOT be null.");
+        this.url = new URL(url);
+        this.localEndpoint = Collections.singletonMap("serviceName", serviceName);
+    }
+
+    /**
+     * 导出到 {@link #DEFAULT_URL}
+     *
+     * @param serviceName 本服务的名称
+     * @throws IOException 地址格式错误
+     */
+    public ZipkinSpanExporter(String serviceName) throws IOException {
+        this(DEFAULT_URL, serviceName);
+    }
+
+    @Override
+    public void export(List<Span> spans) throws IOException {
+        List<Map<String, Object>> items = new ArrayList<>(spans.size());
+        for (Span span : spans) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("traceId", span.getTraceId());
+            item.put("id", span.getSpanId());
+            if (span.getParentId() != null)
+                item.put("parentId", span.getParentId());
+            item.put("name", span.getName());
+            item.put("timestamp", span.getTimestamp());
+            item.put("duration", Math.max(1, span.getDuration()));
+            item.put("localEndpoint", localEndpoint);
+            if (!span.getTags().isEmpty())
+                item.put("tags", span.getTags());
+            items.add(item);
+        }
+        byte[] body = Commander.mapper.writeValueAsBytes(items);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        try {
+            conn.setConnectTimeout(connectTimeout);
+            conn.setReadTimeout(readTimeout);
+            conn.setDoOutput(true);
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/json");
+            conn.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(body);
+            }
+            int code = conn.getResponseCode();
+            if (code / 100 != 2)
+                throw new IOException(String.format("%s POST %s returns %d", this, url, code));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<%s url=%s, localEndpoint=%s>", ZipkinSpanExporter.class, url, localEndpoint);
+    }
+}
@@ -0,0 +1,304 @@
+package com.hesong.ipsc.ccf;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * 自定义的 JFR 事件
+ * <p>
+ * 这个类在单独的源代码目录 {@code src/main/java11} 中，以 Java 11 编译；{@link Jfr} 在运行时通过反射加载它，
+ * 其余代码仍以 Java 8 编译，不直接引用 {@code jdk.jfr}。
+ * <p>
+ * 事件名称都以 {@code com.hesong.ipsc.ccf.} 开头，可以在 {@code .jfc} 设置文件中按名称修改 {@code enabled} 和 {@code threshold}。
+ */
+final class JfrEvents implements JfrRecorder {
+    JfrEvents() {
+    }
+
+    @Override
+    public void register() {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                update();
+            }
+
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                update();
+            }
+        });
+        update();
+    }
+
+    private static void update() {
+        boolean running = false;
+        if (FlightRecorder.isInitialized()) {
+            for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+                if (recording.getState() == RecordingState.RUNNING) {
+                    running = true;
+                    break;
+                }
+            }
+        }
+        Jfr.recording = running;
+    }
+
+    private static String format(BusAddress address) {
+        return address == null ? null : (address.getUnitId() + ":" + address.getClientId());
+    }
+
+    @Override
+    public Object beginSubmit() {
+        RpcSubmitEvent event = new RpcSubmitEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void submitted(Object obj, String method, BusAddress target, String rpcId, int payloadSize, int result) {
+        RpcSubmitEvent event = (RpcSubmitEvent) obj;
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.target = format(target);
+            event.rpcId = rpcId;
+            event.payloadSize = payloadSize;
+            event.result = result;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginRpc(String method, BusAddress target, String rpcId, int payloadSize) {
+        // 提交时还不知道会收到回复还是超时，两个事件同时开始，结束时只提交其中一个
+        InflightRpc rpc = new InflightRpc();
+        rpc.method = method;
+        rpc.target = format(target);
+        rpc.rpcId = rpcId;
+        rpc.payloadSize = payloadSize;
+        rpc.reply.begin();
+        rpc.timeout.begin();
+        return rpc;
+    }
+
+    @Override
+    public void replied(Object obj, RpcError error) {
+        InflightRpc rpc = (InflightRpc) obj;
+        RpcReplyEvent event = rpc.reply;
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = rpc.method;
+            event.target = rpc.target;
+            event.rpcId = rpc.rpcId;
+            event.payloadSize = rpc.payloadSize;
+            event.error = error != null;
+            if (error != null)
+                event.errorCode = error.getCode();
+            event.commit();
+        }
+    }
+
+    @Override
+    public void timedOut(Object obj, int timeout) {
+        InflightRpc rpc = (InflightRpc) obj;
+        RpcTimeoutEvent event = rpc.timeout;
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = rpc.method;
+            event.target = rpc.target;
+            event.rpcId = rpc.rpcId;
+            event.payloadSize = rpc.payloadSize;
+            event.timeout = timeout;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginCallback() {
+        BusCallbackEvent event = new BusCallbackEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void callbackReturned(Object obj, byte cmdType, byte srcUnitId, byte srcClientId, byte dstClientId, int payloadSize) {
+        BusCallbackEvent event = (BusCallbackEvent) obj;
+        event.end();
+        if (event.shouldCommit()) {
+            event.cmdType = cmdType;
+            event.source = srcUnitId + ":" + srcClientId;
+            event.dstClientId = dstClientId;
+            event.payloadSize = payloadSize;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginQueueWait() {
+        ExecutorQueueWaitEvent event = new ExecutorQueueWaitEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void dequeued(Object obj, Client client, BusAddress source, int payloadSize) {
+        ExecutorQueueWaitEvent event = (ExecutorQueueWaitEvent) obj;
+        event.end();
+        if (event.shouldCommit()) {
+            event.client = client.getUnitId() + ":" + client.getId();
+            event.source = format(source);
+            event.payloadSize = payloadSize;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginMonitorProcess() {
+        MonitorProcessEvent event = new MonitorProcessEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void monitorProcessed(Object obj, BusAddress source, int payloadSize) {
+        MonitorProcessEvent event = (MonitorProcessEvent) obj;
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = format(source);
+            event.payloadSize = payloadSize;
+            event.commit();
+        }
+    }
+
+    @Name("com.hesong.ipsc.ccf.RpcSubmit")
+    @Label("RPC Submit")
+    @Category({"IPSC CCF", "RPC"})
+    @Description("JNI call submitting an RPC to the CTI BUS (launchFlow / sendNotification)")
+    @Threshold("1 ms")
+    static class RpcSubmitEvent extends Event {
+        @Label("Method")
+        String method;
+        @Label("Target")
+        String target;
+        @Label("RPC ID")
+        String rpcId;
+        @Label("Payload Size")
+        @DataAmount
+        int payloadSize;
+        @Label("JNI Result")
+        int result;
+    }
+
+    /**
+     * 进行中的 RPC：提交时开始的回复、超时事件
+     */
+    private static final class InflightRpc {
+        final RpcReplyEvent reply = new RpcReplyEvent();
+        final RpcTimeoutEvent timeout = new RpcTimeoutEvent();
+        String method;
+        String target;
+        String rpcId;
+        int payloadSize;
+    }
+
+    @Name("com.hesong.ipsc.ccf.RpcReply")
+    @Label("RPC Reply")
+    @Category({"IPSC CCF", "RPC"})
+    @Description("RPC reply received from an IPSC; the duration is the round trip time from submit to reply")
+    @StackTrace(false)
+    static class RpcReplyEvent extends Event {
+        @Label("Method")
+        String method;
+        @Label("Target")
+        String target;
+        @Label("RPC ID")
+        String rpcId;
+        @Label("Payload Size")
+        @DataAmount
+        int payloadSize;
+        @Label("Error")
+        boolean error;
+        @Label("Error Code")
+        int errorCode;
+    }
+
+    @Name("com.hesong.ipsc.ccf.RpcTimeout")
+    @Label("RPC Timeout")
+    @Category({"IPSC CCF", "RPC"})
+    @Description("RPC reply not received in time; the duration is the time from submit to timeout")
+    @StackTrace(false)
+    static class RpcTimeoutEvent extends Event {
+        @Label("Method")
+        String method;
+        @Label("Target")
+        String target;
+        @Label("RPC ID")
+        String rpcId;
+        @Label("Payload Size")
+        @DataAmount
+        int payloadSize;
+        @Label("Timeout")
+        @Timespan(Timespan.MILLISECONDS)
+        long timeout;
+    }
+
+    @Name("com.hesong.ipsc.ccf.BusCallback")
+    @Label("CTI BUS Data Callback")
+    @Category({"IPSC CCF", "CTI BUS"})
+    @Description("Time the CTI BUS library IO thread spent in the data callback")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static class BusCallbackEvent extends Event {
+        @Label("Command Type")
+        byte cmdType;
+        @Label("Source")
+        String source;
+        @Label("Destination Client ID")
+        byte dstClientId;
+        @Label("Payload Size")
+        @DataAmount
+        int payloadSize;
+    }
+
+    @Name("com.hesong.ipsc.ccf.ExecutorQueueWait")
+    @Label("Client Executor Queue Wait")
+    @Category({"IPSC CCF", "CTI BUS"})
+    @Description("Time received data waited in a client executor queue before being processed")
+    @StackTrace(false)
+    @Threshold("10 ms")
+    static class ExecutorQueueWaitEvent extends Event {
+        @Label("Client")
+        String client;
+        @Label("Source")
+        String source;
+        @Label("Payload Size")
+        @DataAmount
+        int payloadSize;
+    }
+
+    @Name("com.hesong.ipsc.ccf.MonitorProcess")
+    @Label("Monitor Process")
+    @Category({"IPSC CCF", "CTI BUS"})
+    @Description("Monitor parsing a server report and notifying listeners")
+    @StackTrace(false)
+    @Threshold("1 ms")
+    static class MonitorProcessEvent extends Event {
+        @Label("Source")
+        String source;
+        @Label("Payload Size")
+        @DataAmount
+        int payloadSize;
+    }
+}
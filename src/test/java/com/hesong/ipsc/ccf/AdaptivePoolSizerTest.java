@@ -0,0 +1,109 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class AdaptivePoolSizerTest {
+    private UnitContext unit;
+    private InstrumentedExecutor executor;
+
+    @Before
+    public void setUp() {
+        unit = SimulatedUnit.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null)
+            executor.shutdownNow();
+        unit.release();
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                fail(message);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void growsUnderQueueingAndShrinksWhenIdle() throws Exception {
+        executor = new InstrumentedExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100));
+        AdaptivePoolSizer sizer = new AdaptivePoolSizer(executor, 5, 1, 4, 20);
+        sizer.setShrinkAfter(2);
+        sizer.start(unit);
+        try {
+            for (int i = 0; i < 40; ++i)
+                executor.execute(() -> {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            await(() -> executor.getCorePoolSize() == 4, "core pool size did not grow: " + executor);
+            assertTrue(executor.getMaximumPoolSize() >= 4);
+            assertTrue(sizer.getResizeCount() >= 2);
+
+            await(() -> executor.getQueue().isEmpty() && executor.getActiveCount() == 0, "tasks did not finish");
+            // 缩小时先设置核心线程数，再设置最大线程数
+            await(() -> executor.getCorePoolSize() == 1 && executor.getMaximumPoolSize() == 1,
+                    "pool size did not shrink: " + executor);
+            assertTrue(executor.getPeakRunningCount() > 1);
+        } finally {
+            sizer.stop();
+        }
+        long resizeCount = sizer.getResizeCount();
+        Thread.sleep(60);
+        assertEquals(resizeCount, sizer.getResizeCount());
+    }
+
+    @Test
+    public void executorCountsRejectionsAndQueueWait() throws Exception {
+        executor = new InstrumentedExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        executor.execute(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        executor.execute(() -> {
+        });
+        try {
+            executor.execute(() -> {
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, executor.getRejectedCount());
+        }
+        Thread.sleep(20);
+        release.countDown();
+        await(() -> executor.getStats().getStartedCount() == 2, "queued task did not run");
+        InstrumentedExecutor.ExecutorStats stats = executor.getStats();
+        assertEquals(1, stats.getRejectedCount());
+        assertTrue(stats.getMaxQueueWait() >= 15000);
+        assertTrue(stats.getMaxServiceTime() >= 15000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxBelowMinIsRejected() {
+        executor = new InstrumentedExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+        new AdaptivePoolSizer(executor, 5, 4, 2);
+    }
+}
@@ -0,0 +1,89 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControllerTest {
+    private final BusAddress ipsc = new BusAddress((byte) 0, (byte) 1);
+
+    private static ServerInfo load(int chTotal, int sipOutTotal, int sipCallout) {
+        ServerInfo info = new ServerInfo("ipsc");
+        info.loads.put("ch.total.num", chTotal);
+        info.loads.put("sip.out.total.num", sipOutTotal);
+        info.loads.put("sip.callout.num", sipCallout);
+        return info;
+    }
+
+    @Test
+    public void unknownNodesAndResourcesAreNotLimited() {
+        AdmissionController admission = new AdmissionController();
+        assertEquals(-1, admission.getAvailable(ipsc));
+        for (int i = 0; i < 100; ++i)
+            assertNotNull(admission.acquire(ipsc, "sys.call", true));
+        assertNull(admission.acquire(ipsc, "sys.conf", true));
+    }
+
+    @Test
+    public void capacityComesFromLoads() {
+        AdmissionController admission = new AdmissionController();
+        admission.setMaxUtilization(0.5);
+        admission.onServerLoadChanged(ipsc, load(20, 10, 2));
+        assertEquals(3, admission.getAvailable(ipsc));
+        AdmissionController.Ticket a = admission.acquire(ipsc, "sys.call", true);
+        AdmissionController.Ticket b = admission.acquire(ipsc, "sys.call", true);
+        admission.acquire(ipsc, "sys.call", true);
+        try {
+            admission.acquire(ipsc, "sys.call", true);
+            fail();
+        } catch (AdmissionRejectedException e) {
+            assertEquals(ipsc, e.getTarget());
+        }
+        assertEquals(1, admission.getRejectedCount());
+        // 失败立即释放；成功的要等下一次负载信息确认
+        a.release();
+        a.release();
+        b.settle();
+        assertEquals(1, admission.getAvailable(ipsc));
+        assertEquals(2, admission.getReserved(ipsc));
+        admission.onServerLoadChanged(ipsc, load(20, 10, 3));
+        assertEquals(1, admission.getReserved(ipsc));
+        assertEquals(1, admission.getAvailable(ipsc));
+    }
+
+    @Test
+    public void queuedCallerGetsReleasedTicket() throws Exception {
+        AdmissionController admission = new AdmissionController();
+        admission.setPolicy(AdmissionController.Policy.QUEUE);
+        admission.setMaxQueueTime(5000);
+        admission.onServerLoadChanged(ipsc, load(1, 1, 0));
+        AdmissionController.Ticket held = admission.acquire(ipsc, "sys.call", true);
+        CompletableFuture<AdmissionController.Ticket> queued = CompletableFuture.supplyAsync(
+                () -> admission.acquire(ipsc, "sys.call", true));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (admission.getQueuedCount() == 0 && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        held.release();
+        assertNotNull(queued.get(5, TimeUnit.SECONDS));
+        assertEquals(2, admission.getAdmittedCount());
+    }
+
+    @Test
+    public void sharedThreadsNeverQueue() {
+        AdmissionController admission = new AdmissionController();
+        admission.setPolicy(AdmissionController.Policy.QUEUE);
+        admission.setMaxQueueTime(60000);
+        admission.onServerLoadChanged(ipsc, load(1, 1, 1));
+        long begin = System.nanoTime();
+        try {
+            admission.acquire(ipsc, "sys.call", false);
+            fail();
+        } catch (AdmissionRejectedException ignore) {
+        }
+        assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, admission.getQueuedCount());
+    }
+}
@@ -0,0 +1,117 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class AwaitQuorumTest {
+    /**
+     * 不回调的共享库，连接结果由测试直接送达
+     */
+    private static class SilentBus implements BusLibrary {
+        @Override
+        public int initiateLibrary(byte localUnitId) {
+            return 0;
+        }
+
+        @Override
+        public void setCallbacks(LibCallbackHandler callbacks) {
+        }
+
+        @Override
+        public void releaseLibrary() {
+        }
+
+        @Override
+        public int createConnect(byte localClientId, byte clientType, String ip, short port) {
+            return 0;
+        }
+
+        @Override
+        public int launchFlow(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String flowId,
+                              int mode, int timeout, String payload) {
+            return 0;
+        }
+
+        @Override
+        public int sendNotification(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String titleId,
+                                    int mode, int expires, String payload) {
+            return 0;
+        }
+    }
+
+    private UnitContext unit;
+    private Commander a;
+    private Commander b;
+
+    @Before
+    public void setUp() {
+        unit = new UnitContext(new SilentBus());
+        unit.initiate((byte) 10);
+        a = unit.createCommander((byte) 0, "127.0.0.1", (short) 8088, null, null);
+        b = unit.createCommander((byte) 2, "127.0.0.1", (short) 8088, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        unit.release();
+    }
+
+    @Test
+    public void connectFailureIsRetried() throws Exception {
+        CompletableFuture<List<Commander>> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return Unit.awaitQuorum(Arrays.asList(a, b), 2, 5000);
+            } catch (InterruptedException | TimeoutException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        b.connectResulted((byte) 1, 0);
+        // 两个客户端都必须连接成功，一次失败不能让等待提前结束
+        a.connectResulted((byte) 1, 3);
+        a.connectResulted((byte) 1, 3);
+        Thread.sleep(50);
+        assertFalse(result.isDone());
+        a.connectResulted((byte) 1, 0);
+        assertEquals(2, result.get().size());
+    }
+
+    @Test
+    public void failedFutureIsReplaced() {
+        CompletableFuture<Client> first = a.ready();
+        a.connectResulted((byte) 1, 3);
+        assertTrue(first.isCompletedExceptionally());
+        assertFalse(a.ready().isDone());
+        a.connectResulted((byte) 1, 0);
+        assertTrue(a.ready().isDone());
+        assertFalse(a.ready().isCompletedExceptionally());
+    }
+
+    @Test
+    public void timeoutReportsFailures() throws Exception {
+        a.connectResulted((byte) 1, 0);
+        unit.getTimer().schedule(() -> b.connectResulted((byte) 1, 3), 20, TimeUnit.MILLISECONDS);
+        try {
+            Unit.awaitQuorum(Arrays.asList(a, b), 2, 500);
+            fail();
+        } catch (TimeoutException e) {
+            assertTrue(e.getCause() instanceof ClientConnectException);
+        }
+    }
+
+    @Test
+    public void quorumOfOne() throws Exception {
+        a.connectResulted((byte) 1, 3);
+        b.connectResulted((byte) 1, 0);
+        List<Commander> ready = Unit.awaitQuorum(Arrays.asList(a, b), 1, 1000);
+        assertEquals(Arrays.asList(b), ready);
+    }
+}
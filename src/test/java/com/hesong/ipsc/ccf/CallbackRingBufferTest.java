@@ -0,0 +1,110 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CallbackRingBufferTest {
+    /**
+     * 记录消费者收到的数据帧，可以让消费者停在第一个数据帧上
+     */
+    private static class Recorder extends LibCallbackHandler {
+        final List<Byte> received = new CopyOnWriteArrayList<>();
+        final List<Byte> senders = new CopyOnWriteArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Recorder() {
+            super(null);
+        }
+
+        @Override
+        void dispatch(byte cmdType, byte srcUnitId, byte srcClientId, byte dstClientId, byte[] bytes) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {
+            }
+            senders.add(srcClientId);
+            received.add(dstClientId);
+        }
+    }
+
+    @Test
+    public void producerWaitsForSlowestConsumer() throws Exception {
+        Recorder recorder = new Recorder();
+        CallbackRingBuffer ring = new CallbackRingBuffer(recorder, 4, 1, 2, WaitStrategy.BLOCKING);
+        ring.start();
+        CountDownLatch published = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 10; ++i)
+                assertTrue(ring.publish((byte) 3, (byte) 0, (byte) 1, (byte) i, new byte[0]));
+            published.countDown();
+        });
+        producer.start();
+        assertTrue(recorder.entered.await(5, TimeUnit.SECONDS));
+        // 消费者停在第一个数据帧上，生产者最多领先一整圈
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (ring.getProducerWaitCount() == 0 && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        assertEquals(1, ring.getProducerWaitCount());
+        assertFalse(published.await(50, TimeUnit.MILLISECONDS));
+        assertTrue(ring.getBacklog() <= 4);
+
+        recorder.release.countDown();
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        ring.stop();
+        assertEquals(10, recorder.received.size());
+        for (int i = 0; i < 10; ++i)
+            assertEquals((byte) i, (byte) recorder.received.get(i));
+        assertEquals(0, ring.getBacklog());
+    }
+
+    @Test
+    public void framesFromEachProducerKeepTheirOrder() throws Exception {
+        Recorder recorder = new Recorder();
+        recorder.release.countDown();
+        CallbackRingBuffer ring = new CallbackRingBuffer(recorder, 8, 1, 4, WaitStrategy.BLOCKING);
+        ring.start();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[2];
+        for (int p = 0; p < producers.length; ++p) {
+            byte producerId = (byte) p;
+            producers[p] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ignore) {
+                }
+                for (int i = 0; i < 100; ++i)
+                    assertTrue(ring.publish((byte) 3, (byte) 0, producerId, (byte) i, new byte[0]));
+            });
+            producers[p].start();
+        }
+        start.countDown();
+        for (Thread producer : producers)
+            producer.join();
+        ring.stop();
+        assertEquals(200, recorder.received.size());
+        // 只有一个消费者，每个生产者的数据帧按放入的顺序送达
+        int[] next = new int[producers.length];
+        for (int i = 0; i < recorder.received.size(); ++i) {
+            int producerId = recorder.senders.get(i);
+            assertEquals(next[producerId]++, recorder.received.get(i) & 0xff);
+        }
+        assertArrayEquals(new int[]{100, 100}, next);
+
+        // 停止后不再放入，调用者等待 stop() 完成后自行处理
+        assertFalse(ring.publish((byte) 3, (byte) 0, (byte) 0, (byte) 0, new byte[0]));
+        ring.awaitStopped();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bufferSizeMustBePowerOfTwo() {
+        new CallbackRingBuffer(new Recorder(), 6, 1, 1, WaitStrategy.BLOCKING);
+    }
+}
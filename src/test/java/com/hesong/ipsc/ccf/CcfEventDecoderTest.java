@@ -0,0 +1,79 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CcfEventDecoderTest {
+    private final BusAddress source = SimulatedUnit.IPSC;
+
+    private CcfEvent decode(String json) throws Exception {
+        return CcfEventDecoder.decode(source, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void callEventFields() throws Exception {
+        CcfEvent event = decode("{\"jsonrpc\":\"2.0\",\"id\":\"1\",\"method\":\"sys.call.on_released\",\"params\":{"
+                + "\"res_id\":\"c1\",\"user_data\":\"u\",\"from_uri\":\"sip:a\",\"to_uri\":\"sip:b\",\"answer_time\":\"12\","
+                + "\"begin_time\":10,\"end_time\":20.5,\"unknown\":{\"x\":[1,2,{\"y\":3}]},\"error\":{\"code\":1,\"message\":\"busy\"}}}");
+        assertTrue(event instanceof CallEvent);
+        CallEvent call = (CallEvent) event;
+        assertEquals(CallEvent.Type.RELEASED, call.getType());
+        assertEquals(source, call.getSource());
+        assertEquals("c1", call.getResId());
+        assertEquals("u", call.getUserData());
+        assertEquals("sip:a", call.getFromUri());
+        assertEquals("sip:b", call.getToUri());
+        assertEquals(12, call.getAnswerTime());
+        assertEquals(10, call.getBeginTime());
+        assertEquals(20, call.getEndTime());
+        assertEquals("busy", call.getError());
+        assertTrue(call.isReleased());
+    }
+
+    @Test
+    public void paramsBeforeMethod() throws Exception {
+        CcfEvent event = decode("{\"params\":{\"res_id\":\"f1\",\"call_res_id\":\"c2\"},\"method\":\"sys.conf.on_chan_added\"}");
+        assertTrue(event instanceof ConferenceEvent);
+        assertEquals("f1", event.getResId());
+        assertEquals("c2", ((ConferenceEvent) event).getCallResId());
+    }
+
+    @Test
+    public void notCcfEvents() throws Exception {
+        assertNull(decode("{\"id\":\"1\",\"result\":{\"res_id\":\"c1\"}}"));
+        assertNull(decode("{\"method\":\"app.custom\",\"params\":{}}"));
+        assertNull(decode("[1,2]"));
+        CcfEvent event = decode("{\"method\":\"sys.call.on_something_new\"}");
+        assertEquals(CallEvent.Type.OTHER, ((CallEvent) event).getType());
+    }
+
+    @Test
+    public void typedEventsReachListener() throws Exception {
+        UnitContext unit = SimulatedUnit.start();
+        try {
+            Commander commander = SimulatedUnit.commander(unit);
+            CountDownLatch received = new CountDownLatch(1);
+            AtomicReference<CallEvent> call = new AtomicReference<>();
+            commander.setCcfEventListener(new CcfEventListener() {
+                @Override
+                public void onCallEvent(CallEvent event) {
+                    call.set(event);
+                    received.countDown();
+                }
+            });
+            SimulatedBus bus = (SimulatedBus) unit.library;
+            bus.send((byte) 0, "{\"method\":\"sys.call.on_ringing\",\"params\":{\"res_id\":\"c9\"}}");
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            assertEquals(CallEvent.Type.RINGING, call.get().getType());
+            assertEquals("c9", call.get().getResId());
+        } finally {
+            unit.release();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    private final BusAddress ipsc = new BusAddress((byte) 0, (byte) 1);
+
+    private static CircuitBreakerConfig config(List<String> transitions) {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setMinimumCalls(4);
+        config.setFailureRateThreshold(50);
+        config.setOpenDuration(50);
+        config.setHalfOpenCalls(2);
+        config.setListener((target, from, to) -> transitions.add(from + "->" + to));
+        return config;
+    }
+
+    @Test
+    public void opensOnFailureRateAndClosesAfterTrials() throws Exception {
+        List<String> transitions = new ArrayList<>();
+        CircuitBreaker breaker = new CircuitBreaker(ipsc, config(transitions));
+        for (int i = 0; i < 4; ++i) {
+            int permit = breaker.tryAcquire();
+            assertNotEquals(CircuitBreaker.REJECTED, permit);
+            breaker.record(permit, i % 2 == 1, 1);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+
+        Thread.sleep(60);
+        int first = breaker.tryAcquire();
+        int second = breaker.tryAcquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertNotEquals(CircuitBreaker.REJECTED, first);
+        assertNotEquals(CircuitBreaker.REJECTED, second);
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+        breaker.record(first, false, 1);
+        breaker.record(second, false, 1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(java.util.Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    public void failedTrialReopens() throws Exception {
+        List<String> transitions = new ArrayList<>();
+        CircuitBreaker breaker = new CircuitBreaker(ipsc, config(transitions));
+        breaker.trip();
+        Thread.sleep(60);
+        int trial = breaker.tryAcquire();
+        breaker.record(trial, true, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        // 重新打开后要再等待一个打开时长
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+    }
+
+    @Test
+    public void staleResultsDoNotCountAsTrials() throws Exception {
+        List<String> transitions = new ArrayList<>();
+        CircuitBreaker breaker = new CircuitBreaker(ipsc, config(transitions));
+        // 关闭状态下放行、熔断器打开后才有结果的调用
+        List<Integer> inFlight = new ArrayList<>();
+        for (int i = 0; i < 3; ++i)
+            inFlight.add(breaker.tryAcquire());
+        breaker.trip();
+        Thread.sleep(60);
+        int trial = breaker.tryAcquire();
+        for (int permit : inFlight)
+            breaker.record(permit, false, 1);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        for (int permit : inFlight)
+            breaker.record(permit, true, 1);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // 只有这一代的试探调用计数
+        breaker.record(trial, false, 1);
+        breaker.record(breaker.tryAcquire(), false, 1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void slowCallsTripWhenConfigured() {
+        List<String> transitions = new ArrayList<>();
+        CircuitBreakerConfig config = config(transitions);
+        config.setFailureRateThreshold(100);
+        config.setSlowCallRateThreshold(50);
+        config.setSlowCallDuration(100);
+        CircuitBreaker breaker = new CircuitBreaker(ipsc, config);
+        for (int i = 0; i < 4; ++i)
+            breaker.record(breaker.tryAcquire(), false, i < 2 ? 1 : 500);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        breaker.reset();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
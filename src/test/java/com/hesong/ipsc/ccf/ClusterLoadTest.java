@@ -0,0 +1,117 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClusterLoadTest {
+    private final BusAddress a = new BusAddress((byte) 0, (byte) 1);
+    private final BusAddress b = new BusAddress((byte) 0, (byte) 2);
+    private final BusAddress c = new BusAddress((byte) 1, (byte) 1);
+
+    private static ServerInfo info(Object... kv) {
+        ServerInfo serverInfo = new ServerInfo("s");
+        for (int i = 0; i < kv.length; i += 2)
+            serverInfo.loads.put((String) kv[i], (Integer) kv[i + 1]);
+        return serverInfo;
+    }
+
+    @Test
+    public void incrementalSumAndMax() {
+        ClusterLoad load = new ClusterLoad("callin.num", "dsp.used.num");
+        load.update(a, info("callin.num", 5));
+        load.update(b, info("callin.num", 9, "dsp.used.num", 2));
+        assertEquals(14, load.getSum("callin.num"));
+        assertEquals(9, load.getMax("callin.num"));
+        assertEquals(2, load.getCount("callin.num"));
+        assertEquals(1, load.getCount("dsp.used.num"));
+
+        // 最大值所在的节点变小：重新找最大值
+        load.update(b, info("callin.num", 3));
+        assertEquals(8, load.getSum("callin.num"));
+        assertEquals(5, load.getMax("callin.num"));
+        assertEquals(0, load.getCount("dsp.used.num"));
+        assertEquals(0, load.getMax("dsp.used.num"));
+
+        load.remove(a);
+        assertEquals(3, load.getSum("callin.num"));
+        assertEquals(3, load.getMax("callin.num"));
+        assertEquals(1, load.getNodeCount());
+        load.remove(a);
+        assertEquals(1, load.getNodeCount());
+    }
+
+    @Test
+    public void leastLoadedRescans() {
+        ClusterLoad load = new ClusterLoad();
+        load.update(a, info("ch.total.num", 100, "sip.out.total.num", 60, "sip.callout.num", 10));
+        load.update(b, info("ch.total.num", 40, "sip.callout.num", 0));
+        assertEquals(a, load.getLeastLoaded());
+        assertEquals(50, load.getLeastLoadedFreeChannels());
+        assertEquals(90, load.getFreeChannels());
+
+        // 负载最轻的节点变忙，重新扫描
+        load.update(a, info("ch.total.num", 100, "sip.out.total.num", 60, "sip.callout.num", 30));
+        assertEquals(b, load.getLeastLoaded());
+        assertEquals(40, load.getLeastLoadedFreeChannels());
+        assertEquals(70, load.getFreeChannels());
+
+        // 不报告容量的节点不参与比较
+        load.update(c, info("callin.num", 1));
+        assertEquals(b, load.getLeastLoaded());
+
+        load.remove(b);
+        assertEquals(a, load.getLeastLoaded());
+        assertEquals(30, load.getLeastLoadedFreeChannels());
+        load.remove(a);
+        assertNull(load.getLeastLoaded());
+        assertEquals(0, load.getFreeChannels());
+    }
+
+    @Test
+    public void matchesFullRecomputation() {
+        String[] keys = {"callin.num", "ch.total.num", "sip.callout.num"};
+        ClusterLoad load = new ClusterLoad(keys);
+        BusAddress[] nodes = {a, b, c};
+        long[][] values = new long[nodes.length][keys.length];
+        boolean[] up = new boolean[nodes.length];
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; ++round) {
+            int n = random.nextInt(nodes.length);
+            if (random.nextInt(10) == 0) {
+                load.remove(nodes[n]);
+                up[n] = false;
+            } else {
+                ServerInfo serverInfo = info();
+                for (int k = 0; k < keys.length; ++k) {
+                    values[n][k] = random.nextInt(100);
+                    serverInfo.loads.put(keys[k], (int) values[n][k]);
+                }
+                load.update(nodes[n], serverInfo);
+                up[n] = true;
+            }
+            long bestFree = -1;
+            for (int k = 0; k < keys.length; ++k) {
+                long sum = 0, max = 0;
+                for (int i = 0; i < nodes.length; ++i) {
+                    if (up[i]) {
+                        sum += values[i][k];
+                        max = Math.max(max, values[i][k]);
+                    }
+                }
+                assertEquals(sum, load.getSum(keys[k]));
+                assertEquals(max, load.getMax(keys[k]));
+            }
+            for (int i = 0; i < nodes.length; ++i) {
+                if (up[i])
+                    bestFree = Math.max(bestFree, Math.max(0, values[i][1] - values[i][2]));
+            }
+            if (bestFree >= 0)
+                assertEquals(bestFree, load.getLeastLoadedFreeChannels());
+            else
+                assertNull(load.getLeastLoaded());
+        }
+    }
+}
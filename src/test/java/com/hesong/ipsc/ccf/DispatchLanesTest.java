@@ -0,0 +1,104 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DispatchLanesTest {
+    private ThreadPoolExecutor executor;
+    private CountDownLatch release;
+    private final List<String> order = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(16));
+        release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        executor.execute(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void enqueue(DispatchLanes lanes) {
+        for (int i = 1; i <= 3; ++i) {
+            String name = "e" + i;
+            lanes.execute(executor, () -> order.add(name), false);
+        }
+        for (int i = 1; i <= 3; ++i) {
+            String name = "r" + i;
+            lanes.execute(executor, () -> order.add(name), true);
+        }
+    }
+
+    private void drain() throws InterruptedException {
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void strictPriority() throws Exception {
+        DispatchLanes lanes = new DispatchLanes();
+        enqueue(lanes);
+        assertEquals(3, lanes.getReplyBacklog());
+        assertEquals(3, lanes.getEventBacklog());
+        drain();
+        assertEquals(Arrays.asList("r1", "r2", "r3", "e1", "e2", "e3"), order);
+        assertEquals(3, lanes.getReplyCount());
+        assertEquals(3, lanes.getEventCount());
+    }
+
+    @Test
+    public void weightedPriority() throws Exception {
+        DispatchLanes lanes = new DispatchLanes(2);
+        enqueue(lanes);
+        drain();
+        assertEquals(Arrays.asList("r1", "r2", "e1", "r3", "e2", "e3"), order);
+    }
+
+    @Test
+    public void rejectedTaskLeavesLane() {
+        ThreadPoolExecutor full = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(1));
+        try {
+            CountDownLatch block = new CountDownLatch(1);
+            full.execute(() -> {
+                try {
+                    block.await();
+                } catch (InterruptedException ignore) {
+                }
+            });
+            DispatchLanes lanes = new DispatchLanes();
+            lanes.execute(full, () -> order.add("r1"), true);
+            try {
+                lanes.execute(full, () -> order.add("r2"), true);
+                fail();
+            } catch (RejectedExecutionException expected) {
+            }
+            assertEquals(1, lanes.getReplyBacklog());
+            block.countDown();
+        } finally {
+            full.shutdownNow();
+        }
+    }
+}
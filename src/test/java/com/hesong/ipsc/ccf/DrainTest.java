@@ -0,0 +1,89 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class DrainTest {
+    private final BusAddress ipsc = SimulatedUnit.IPSC;
+
+    @Test
+    public void drainWaitsForInFlightRpcs() throws Exception {
+        UnitContext unit = SimulatedUnit.start(SimulatedUnit.bus("const:50", 0, 0));
+        Commander commander = SimulatedUnit.commander(unit);
+        List<RecordingListener> listeners = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            RecordingListener listener = new RecordingListener();
+            listeners.add(listener);
+            commander.createResource(ipsc, "proj.flow", null, listener);
+        }
+        DrainReport report = unit.drain(5000);
+        assertTrue(report.toString(), report.isClean());
+        assertEquals(5, report.getInFlightRpcCount());
+        for (RecordingListener listener : listeners)
+            assertNotNull(listener.result);
+        assertTrue(unit.isDraining());
+        try {
+            commander.createResource(ipsc, "proj.flow", null, null);
+            fail();
+        } catch (UnitDrainingException expected) {
+        }
+    }
+
+    @Test
+    public void unansweredRpcsAreAbandoned() throws Exception {
+        UnitContext unit = SimulatedUnit.start(SimulatedUnit.bus("const:1", 1, 0));
+        Commander commander = SimulatedUnit.commander(unit);
+        RecordingListener listener = new RecordingListener();
+        String rpcId = commander.createResource(ipsc, "proj.flow", null, listener);
+        DrainReport report = unit.drain(100);
+        assertFalse(report.isClean());
+        assertEquals(1, report.getAbandonedRpcIds().size());
+        assertEquals(rpcId, report.getAbandonedRpcIds().get(0));
+        assertEquals(Unit.ERROR_ABANDONED, listener.error.getCode());
+    }
+
+    @Test
+    public void drainWaitsForCallbacksOnApplicationExecutor() throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        try {
+            UnitContext unit = SimulatedUnit.start();
+            Commander commander = SimulatedUnit.commander(unit, (byte) 0, executor);
+            AtomicBoolean finished = new AtomicBoolean();
+            commander.createResource(ipsc, "proj.flow", null, new RpcResultListener() {
+                @Override
+                protected void onResult(Object result) {
+                    // 回复已从 RPC 表中取走，回调还在执行
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finished.set(true);
+                }
+
+                @Override
+                protected void onError(RpcError error) {
+                }
+
+                @Override
+                protected void onTimeout() {
+                }
+            });
+            DrainReport report = unit.drain(5000);
+            assertTrue(report.toString(), report.isClean());
+            assertTrue(finished.get());
+            assertTrue(report.toString(), report.getElapsed() < 2000);
+            assertFalse(executor.isShutdown());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class EventPublisherTest {
+    private static final Executor direct = Runnable::run;
+
+    private static class Recorder<T> implements Subscriber<T> {
+        final List<T> items = new CopyOnWriteArrayList<>();
+        volatile Subscription subscription;
+        volatile boolean completed;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void deliversOnlyWhatWasRequested() {
+        EventPublisher<Integer> publisher = new EventPublisher<>(direct, OverflowStrategy.BUFFER, 16, null);
+        Recorder<Integer> recorder = new Recorder<>();
+        publisher.subscribe(recorder);
+        for (int i = 0; i < 5; ++i)
+            publisher.publish(i);
+        assertTrue(recorder.items.isEmpty());
+        recorder.subscription.request(2);
+        assertEquals(Arrays.asList(0, 1), recorder.items);
+        recorder.subscription.request(10);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), recorder.items);
+        publisher.complete();
+        assertTrue(recorder.completed);
+    }
+
+    @Test
+    public void overflowStrategies() {
+        EventPublisher<Integer> buffer = new EventPublisher<>(direct, OverflowStrategy.BUFFER, 2, null);
+        EventPublisher<Integer> dropOldest = new EventPublisher<>(direct, OverflowStrategy.DROP_OLDEST, 2, null);
+        EventPublisher<Integer> conflate = new EventPublisher<>(direct, OverflowStrategy.CONFLATE, 2, i -> i % 2);
+        List<Recorder<Integer>> recorders = new ArrayList<>();
+        for (EventPublisher<Integer> publisher : Arrays.asList(buffer, dropOldest, conflate)) {
+            Recorder<Integer> recorder = new Recorder<>();
+            publisher.subscribe(recorder);
+            recorders.add(recorder);
+            for (int i = 0; i < 5; ++i)
+                publisher.publish(i);
+            recorder.subscription.request(Long.MAX_VALUE);
+        }
+        assertEquals(Arrays.asList(0, 1), recorders.get(0).items);
+        assertEquals(3, buffer.getDroppedCount());
+        assertEquals(Arrays.asList(3, 4), recorders.get(1).items);
+        assertEquals(3, dropOldest.getDroppedCount());
+        assertEquals(Arrays.asList(4, 3), recorders.get(2).items);
+        assertEquals(3, conflate.getConflatedCount());
+        assertEquals(0, conflate.getDroppedCount());
+    }
+
+    @Test
+    public void rejectedDrainKeepsEvents() {
+        AtomicBoolean reject = new AtomicBoolean(true);
+        Executor executor = command -> {
+            if (reject.get())
+                throw new RejectedExecutionException();
+            command.run();
+        };
+        EventPublisher<Integer> publisher = new EventPublisher<>(executor, OverflowStrategy.BUFFER, 16, null);
+        Recorder<Integer> recorder = new Recorder<>();
+        publisher.subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        publisher.publish(1);
+        publisher.publish(2);
+        assertTrue(recorder.items.isEmpty());
+        reject.set(false);
+        publisher.publish(3);
+        assertEquals(Arrays.asList(1, 2, 3), recorder.items);
+    }
+
+    @Test
+    public void publishesArrivingDuringRejectionAreRetried() {
+        AtomicBoolean reject = new AtomicBoolean();
+        AtomicReference<EventPublisher<Integer>> holder = new AtomicReference<>();
+        List<Runnable> tasks = new ArrayList<>();
+        Executor executor = command -> {
+            // 提交被拒绝之前，另一个线程发布了事件
+            if (reject.getAndSet(false)) {
+                holder.get().publish(2);
+                throw new RejectedExecutionException();
+            }
+            tasks.add(command);
+        };
+        EventPublisher<Integer> publisher = new EventPublisher<>(executor, OverflowStrategy.BUFFER, 16, null);
+        holder.set(publisher);
+        Recorder<Integer> recorder = new Recorder<>();
+        publisher.subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        tasks.remove(0).run();
+        reject.set(true);
+        publisher.publish(1);
+        // 被拒绝后重新提交，不必等下一次发布
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertEquals(Arrays.asList(1, 2), recorder.items);
+    }
+
+    @Test
+    public void eventsArePublishedByExecutorWithoutRingBuffer() throws Exception {
+        SimulatedBus bus = SimulatedUnit.bus();
+        UnitContext unit = SimulatedUnit.start(bus);
+        InstrumentedExecutor executor = new InstrumentedExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(100));
+        try {
+            Commander commander = SimulatedUnit.commander(unit, (byte) 0, executor);
+            EventPublisher<RpcEvent> publisher = commander.createEventPublisher(OverflowStrategy.BUFFER, 100);
+            Recorder<RpcEvent> recorder = new Recorder<>();
+            publisher.subscribe(recorder);
+            recorder.subscription.request(Long.MAX_VALUE);
+            CountDownLatch running = new CountDownLatch(1);
+            CountDownLatch blocked = new CountDownLatch(1);
+            executor.execute(() -> {
+                running.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException ignore) {
+                }
+            });
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            long received = unit.getCallbackStats().getCount();
+            bus.send(commander.getId(), "{\"method\":\"sys.call.on_ringing\",\"params\":{\"res_id\":\"call-0\"}}");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (unit.getCallbackStats().getCount() == received && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            // IO 线程已经返回，事件的解码、发布还在执行器的队列中
+            assertEquals(0, publisher.getPublishedCount());
+
+            blocked.countDown();
+            while (recorder.items.isEmpty() && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            assertEquals(1, publisher.getPublishedCount());
+            assertEquals("sys.call.on_ringing", recorder.items.get(0).getRequest().getMethod());
+        } finally {
+            unit.release();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void eventsSurviveSaturatedCommanderExecutor() throws Exception {
+        BusAddress ipsc = SimulatedUnit.IPSC;
+        SimulatedBus bus = SimulatedUnit.bus();
+        UnitContext unit = SimulatedUnit.start(bus);
+        // 在环形缓冲区的消费者线程上发布，不经过执行器
+        unit.startRingBuffer(64, 1, 16, WaitStrategy.BLOCKING);
+        InstrumentedExecutor executor = new InstrumentedExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(1));
+        try {
+            Commander commander = SimulatedUnit.commander(unit, (byte) 0, executor);
+            EventPublisher<RpcEvent> publisher = commander.createEventPublisher(OverflowStrategy.BUFFER, 100);
+            Recorder<RpcEvent> recorder = new Recorder<>();
+            publisher.subscribe(recorder);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (executor.getActiveCount() + executor.getQueue().size() > 0 && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            // 占满执行器：一个线程在执行，队列中还有一个任务
+            CountDownLatch running = new CountDownLatch(1);
+            CountDownLatch blocked = new CountDownLatch(1);
+            executor.execute(() -> {
+                running.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException ignore) {
+                }
+            });
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            executor.execute(() -> {
+            });
+            for (int i = 0; i < 3; ++i)
+                bus.send(commander.getId(), String.format(
+                        "{\"method\":\"sys.call.on_ringing\",\"params\":{\"res_id\":\"call-%d\"}}", i));
+            while (publisher.getPublishedCount() < 3 && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            assertEquals(3, publisher.getPublishedCount());
+            assertTrue(executor.getRejectedCount() >= 3);
+
+            blocked.countDown();
+            while (executor.getActiveCount() + executor.getQueue().size() > 0 && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            recorder.subscription.request(Long.MAX_VALUE);
+            while (recorder.items.size() < 3 && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            assertEquals(3, recorder.items.size());
+            assertEquals("sys.call.on_ringing", recorder.items.get(0).getRequest().getMethod());
+            assertEquals(ipsc, recorder.items.get(0).getSource());
+        } finally {
+            unit.release();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FaultInjectorTest {
+    private final BusAddress ipsc = SimulatedUnit.IPSC;
+
+    @Test
+    public void sameSeedSameDecisions() {
+        ServiceTime latency = ServiceTime.parse("exp:5");
+        FaultInjector a = new FaultInjector(42);
+        FaultInjector b = new FaultInjector(42);
+        FaultInjector c = new FaultInjector(43);
+        boolean differs = false;
+        for (int i = 0; i < 100; ++i) {
+            boolean chance = a.chance(0.5);
+            assertEquals(chance, b.chance(0.5));
+            differs |= chance != c.chance(0.5);
+            long sample = a.sample(latency);
+            assertEquals(sample, b.sample(latency));
+            differs |= sample != c.sample(latency);
+        }
+        assertTrue(differs);
+        // 比例为 0 或者没有设置延迟时不消耗随机数
+        assertFalse(a.chance(0));
+        assertEquals(0, a.sample(null));
+        assertEquals(a.chance(0.5), b.chance(0.5));
+    }
+
+    private List<Boolean> submitOutcomes(long seed, int n) throws Exception {
+        FaultInjector injector = new FaultInjector(seed);
+        injector.setSubmitFailureRatio(0.3);
+        UnitContext unit = new UnitContext(SimulatedUnit.bus());
+        unit.setFaultInjector(injector);
+        unit.initiate(SimulatedUnit.UNIT_ID);
+        try {
+            Commander commander = SimulatedUnit.commander(unit);
+            List<Boolean> outcomes = new ArrayList<>();
+            for (int i = 0; i < n; ++i) {
+                try {
+                    commander.createResource(ipsc, "proj.flow", null, null);
+                    outcomes.add(true);
+                } catch (RuntimeException e) {
+                    outcomes.add(false);
+                }
+            }
+            assertEquals(outcomes.stream().filter(ok -> !ok).count(), injector.getSubmitFailureCount());
+            return outcomes;
+        } finally {
+            unit.release();
+        }
+    }
+
+    @Test
+    public void sameSeedReplaysSubmitFailures() throws Exception {
+        List<Boolean> first = submitOutcomes(7, 50);
+        assertTrue(first.contains(true));
+        assertTrue(first.contains(false));
+        assertEquals(first, submitOutcomes(7, 50));
+    }
+
+    @Test
+    public void droppedRepliesAndDisconnect() throws Exception {
+        FaultInjector injector = new FaultInjector(1);
+        injector.setReplyDropRatio(1);
+        UnitContext unit = new UnitContext(SimulatedUnit.bus());
+        unit.setFaultInjector(injector);
+        unit.initiate(SimulatedUnit.UNIT_ID);
+        try {
+            Commander commander = SimulatedUnit.commander(unit);
+            RecordingListener listener = new RecordingListener();
+            listener.timeout = 100;
+            commander.createResource(ipsc, "proj.flow", null, listener);
+            assertTrue(listener.await(5000));
+            assertTrue(listener.timedOut);
+            assertEquals(1, injector.getDroppedReplyCount());
+
+            injector.disconnect((byte) 0);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (commander.getConnected() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertFalse(commander.getConnected());
+            try {
+                commander.createResource(ipsc, "proj.flow", null, null);
+                fail();
+            } catch (RuntimeException e) {
+                assertEquals(1, injector.getSubmitFailureCount());
+            }
+            injector.reconnect((byte) 0);
+            commander.ready().get(5, TimeUnit.SECONDS);
+            assertEquals(1, injector.getDisconnectCount());
+        } finally {
+            unit.release();
+        }
+    }
+}
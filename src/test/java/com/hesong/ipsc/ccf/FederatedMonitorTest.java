@@ -0,0 +1,120 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class FederatedMonitorTest {
+    private final BusAddress ipsc = SimulatedUnit.IPSC;
+    private UnitContext unit;
+    private Monitor east;
+    private Monitor west;
+
+    @Before
+    public void setUp() throws Exception {
+        unit = SimulatedUnit.start();
+        east = unit.createMonitor((byte) 1, "10.0.0.1", (short) 8088, null, null);
+        west = unit.createMonitor((byte) 2, "10.0.0.2", (short) 8088, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        unit.release();
+    }
+
+    @Test
+    public void sameServerIdOnDifferentBusesIsKeptApart() {
+        FederatedMonitor federated = new FederatedMonitor();
+        federated.add(east);
+        federated.add(west);
+        FederatedSnapshot empty = federated.snapshot();
+        assertEquals(0, empty.size());
+
+        east.process(ipsc, "svrres:id=1;calls=3");
+        west.process(ipsc, "svrres:id=1;calls=7");
+        FederatedSnapshot snapshot = federated.snapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals(Integer.valueOf(3), snapshot.getServerInfo(new ServerKey("10.0.0.1:8088", "1")).getLoads().get("calls"));
+        assertEquals(Integer.valueOf(7), snapshot.getServerInfo(new ServerKey("10.0.0.2:8088", "1")).getLoads().get("calls"));
+        assertEquals(1, snapshot.getServers("10.0.0.1:8088").size());
+        // 没有变化时返回同一个快照
+        assertSame(snapshot, federated.snapshot());
+
+        east.process(ipsc, "svrres:id=1;calls=4");
+        FederatedSnapshot next = federated.snapshot();
+        assertNotSame(snapshot, next);
+        assertTrue(next.getVersion() > snapshot.getVersion());
+        // 旧快照不受影响
+        assertEquals(Integer.valueOf(3), snapshot.getServerInfo(new ServerKey("10.0.0.1:8088", "1")).getLoads().get("calls"));
+        assertEquals(Integer.valueOf(4), next.getServerInfo(new ServerKey("10.0.0.1:8088", "1")).getLoads().get("calls"));
+        // 没有变化的 CTI BUS 的服务器表被新旧快照共用
+        ServerKey westKey = new ServerKey("10.0.0.2:8088", "1");
+        assertSame(snapshot.getServerInfo(westKey), next.getServerInfo(westKey));
+        assertEquals(2, next.getServers().size());
+        assertEquals(2, next.getServers().entrySet().stream().count());
+        assertSame(next.getServerInfo(westKey), next.getServers().get(westKey));
+    }
+
+    @Test
+    public void removedMonitorLeavesView() {
+        FederatedMonitor federated = new FederatedMonitor();
+        federated.add(east);
+        federated.add(west);
+        east.process(ipsc, "svrres:id=1;calls=3");
+        west.process(ipsc, "svrres:id=2;calls=7");
+        assertEquals(2, federated.snapshot().size());
+
+        federated.remove(east);
+        FederatedSnapshot snapshot = federated.snapshot();
+        assertEquals(1, snapshot.size());
+        assertNotNull(snapshot.getServerInfo(new ServerKey("10.0.0.2:8088", "2")));
+        // 取消订阅后收到的负载信息不再合并
+        east.process(ipsc, "svrres:id=1;calls=5");
+        assertEquals(1, federated.snapshot().size());
+    }
+
+    @Test
+    public void loadEventsCarryViewVersion() {
+        FederatedMonitor federated = new FederatedMonitor();
+        federated.add(east);
+        federated.add(west);
+        EventPublisher<FederatedLoadEvent> publisher = federated.createLoadPublisher(Runnable::run, OverflowStrategy.BUFFER, 16);
+        List<FederatedLoadEvent> events = new CopyOnWriteArrayList<>();
+        publisher.subscribe(new Subscriber<FederatedLoadEvent>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(FederatedLoadEvent event) {
+                events.add(event);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        east.process(ipsc, "svrres:id=1;calls=3");
+        west.process(ipsc, "svrres:id=1;calls=7");
+        assertEquals(2, events.size());
+        assertEquals(new ServerKey("10.0.0.1:8088", "1"), events.get(0).getKey());
+        assertEquals(new ServerKey("10.0.0.2:8088", "1"), events.get(1).getKey());
+        assertTrue(events.get(1).getVersion() > events.get(0).getVersion());
+        FederatedSnapshot snapshot = federated.snapshot();
+        assertEquals(events.get(1).getVersion(), snapshot.getVersion());
+        // 事件与快照共用同一个副本
+        assertSame(events.get(1).getServerInfo(), snapshot.getServerInfo(events.get(1).getKey()));
+    }
+}
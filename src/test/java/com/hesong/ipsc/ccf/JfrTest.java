@@ -0,0 +1,73 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JfrTest {
+    @Test
+    public void recorderLoadedReflectively() {
+        boolean java11 = !System.getProperty("java.specification.version").startsWith("1.");
+        if (java11)
+            assertTrue(Jfr.AVAILABLE);
+        else
+            assertFalse(Jfr.AVAILABLE);
+    }
+
+    @Test
+    public void noEventsWithoutRecording() {
+        assertFalse(Jfr.recording);
+        Object event = Jfr.beginSubmit();
+        assertNull(event);
+        Jfr.submitted(event, "sys.call.construct", null, "rpc-1", 0, 0);
+        assertNull(Jfr.beginCallback());
+        assertNull(Jfr.beginQueueWait());
+        assertNull(Jfr.beginMonitorProcess());
+    }
+
+    @Test
+    public void replyEventDurationIsRoundTripTime() throws Exception {
+        Assume.assumeTrue(Jfr.AVAILABLE);
+        // 测试以 Java 8 编译，通过反射使用 jdk.jfr
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.getDeclaredConstructor().newInstance();
+        recordingClass.getMethod("enable", String.class).invoke(recording, "com.hesong.ipsc.ccf.RpcReply");
+        recordingClass.getMethod("start").invoke(recording);
+        File file = File.createTempFile("ccf-", ".jfr");
+        try {
+            assertTrue(Jfr.recording);
+            RecordingListener listener = new RecordingListener();
+            listener.setId("rpc-1");
+            Jfr.beginRpc(listener, "sys.call.construct", new BusAddress((byte) 0, (byte) 1), 10);
+            assertNotNull(listener.jfrEvent);
+            Thread.sleep(50);
+            Jfr.replied(listener, null);
+            assertNull(listener.jfrEvent);
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("dump", Path.class).invoke(recording, file.toPath());
+
+            Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+            List<?> events = (List<?>) recordingFile.getMethod("readAllEvents", Path.class).invoke(null, file.toPath());
+            Object reply = null;
+            for (Object event : events) {
+                Object type = event.getClass().getMethod("getEventType").invoke(event);
+                if ("com.hesong.ipsc.ccf.RpcReply".equals(type.getClass().getMethod("getName").invoke(type)))
+                    reply = event;
+            }
+            assertNotNull(reply);
+            Method getDuration = reply.getClass().getMethod("getDuration");
+            long nanos = (Long) getDuration.getReturnType().getMethod("toNanos").invoke(getDuration.invoke(reply));
+            assertTrue(nanos >= 50_000_000L);
+            assertEquals("rpc-1", reply.getClass().getMethod("getString", String.class).invoke(reply, "rpcId"));
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.hesong.ipsc.ccf;
+
+import com.hesong.ipsc.busnetcli.Callbacks;
+import com.hesong.ipsc.busnetcli.Head;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class JniDispatcherTest {
+    /**
+     * 代替 JNI 共享库：连接立即成功，记录提交的数据
+     */
+    private static class FakeNativeBus implements NativeBus {
+        final List<Byte> initiated = new ArrayList<>();
+        final List<String> payloads = new CopyOnWriteArrayList<>();
+        int releaseCount;
+        Callbacks callbacks;
+
+        @Override
+        public int initiateLibrary(byte localUnitId) {
+            initiated.add(localUnitId);
+            return 0;
+        }
+
+        @Override
+        public void setCallbacks(Callbacks callbacks) {
+            this.callbacks = callbacks;
+        }
+
+        @Override
+        public void releaseLibrary() {
+            ++releaseCount;
+        }
+
+        @Override
+        public int createConnect(byte localClientId, byte clientType, String ip, short port) {
+            callbacks.connect(localClientId, 0, 0);
+            return 0;
+        }
+
+        @Override
+        public int launchFlow(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String flowId,
+                              int mode, int timeout, String payload) {
+            payloads.add(payload);
+            return 0;
+        }
+
+        @Override
+        public int sendNotification(byte localClientId, int dstUnitId, int dstIpscIndex, String projectId, String titleId,
+                                    int mode, int expires, String payload) {
+            payloads.add(payload);
+            return 0;
+        }
+    }
+
+    private final BusAddress ipsc = SimulatedUnit.IPSC;
+    private final JniDispatcher dispatcher = new JniDispatcher(new FakeNativeBus());
+    private UnitContext east;
+    private UnitContext west;
+    private Commander eastCommander;
+    private Commander westCommander;
+
+    private UnitContext context(byte unitId) {
+        // 不自动回复，回复由测试经过分发器送达
+        UnitContext unit = new UnitContext(SimulatedUnit.bus("const:1", 1, 0));
+        unit.initiate(unitId);
+        return unit;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        east = context((byte) 10);
+        west = context((byte) 11);
+        eastCommander = SimulatedUnit.commander(east, (byte) 0, null);
+        westCommander = SimulatedUnit.commander(west, (byte) 1, null);
+        LibCallbackHandler eastHandler = new LibCallbackHandler(east);
+        LibCallbackHandler westHandler = new LibCallbackHandler(west);
+        dispatcher.register((byte) 10, eastHandler);
+        dispatcher.register((byte) 11, westHandler);
+        assertTrue(dispatcher.claimClient((byte) 0, eastHandler));
+        assertTrue(dispatcher.claimClient((byte) 1, westHandler));
+    }
+
+    @After
+    public void tearDown() {
+        east.release();
+        west.release();
+    }
+
+    private static Head head(int dstUnitId, int dstClientId) {
+        return new Head() {
+            @Override
+            public byte getCmdType() {
+                return 3;
+            }
+
+            @Override
+            public byte getSrcUnitId() {
+                return 0;
+            }
+
+            @Override
+            public byte getSrcClientId() {
+                return 1;
+            }
+
+            @Override
+            public byte getDstUnitId() {
+                return (byte) dstUnitId;
+            }
+
+            @Override
+            public byte getDstClientId() {
+                return (byte) dstClientId;
+            }
+        };
+    }
+
+    private static byte[] reply(String rpcId) {
+        return String.format("{\"id\":\"%s\",\"result\":{\"res_id\":\"r\"}}", rpcId).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void dataIsRoutedByDestinationClient() throws Exception {
+        RecordingListener eastListener = new RecordingListener();
+        RecordingListener westListener = new RecordingListener();
+        String eastRpc = eastCommander.createResource(ipsc, "proj.flow", null, eastListener);
+        String westRpc = westCommander.createResource(ipsc, "proj.flow", null, westListener);
+
+        dispatcher.data(head(11, 1), reply(westRpc));
+        assertTrue(westListener.await(5000));
+        assertNotNull(westListener.result);
+        assertFalse(eastListener.isDone());
+
+        dispatcher.data(head(10, 0), reply(eastRpc));
+        assertTrue(eastListener.await(5000));
+        assertNotNull(eastListener.result);
+    }
+
+    @Test
+    public void dataForForeignClientGoesToItsOwner() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        String rpcId = westCommander.createResource(ipsc, "proj.flow", null, listener);
+        // 共享库以第一个单元的ID初始化，其它上下文的客户端收到的数据也以它为目标单元
+        dispatcher.data(head(10, 1), reply(rpcId));
+        assertTrue(listener.await(5000));
+        assertNotNull(listener.result);
+    }
+
+    @Test
+    public void connectionCallbacksFollowClientOwner() {
+        assertFalse(dispatcher.claimClient((byte) 1, new LibCallbackHandler(east)));
+        dispatcher.disconnect((byte) 1);
+        assertFalse(westCommander.getConnected());
+        assertTrue(eastCommander.getConnected());
+
+        dispatcher.connect((byte) 1, 0, 0);
+        assertTrue(westCommander.getConnected());
+
+        BusAddress other = new BusAddress((byte) 5, (byte) 3);
+        dispatcher.globalConnect(other.getUnitId(), other.getClientId(), SimulatedBus.IPSC_CLIENT_TYPE, (byte) 1, "");
+        assertTrue(east.membership.isUp(other));
+        assertTrue(west.membership.isUp(other));
+    }
+
+    @Test
+    public void unregisteredUnitIsDropped() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        String rpcId = westCommander.createResource(ipsc, "proj.flow", null, listener);
+        dispatcher.unregister((byte) 11);
+        assertEquals(1, dispatcher.size());
+        dispatcher.data(head(11, 1), reply(rpcId));
+        dispatcher.disconnect((byte) 1);
+        assertFalse(listener.await(50));
+        assertTrue(westCommander.getConnected());
+        // 客户端ID随单元一起释放，可以由其它上下文使用
+        assertTrue(dispatcher.claimClient((byte) 1, new LibCallbackHandler(east)));
+    }
+
+    @Test
+    public void laterContextsUseTheNativeUnitId() throws Exception {
+        FakeNativeBus nativeBus = new FakeNativeBus();
+        JniDispatcher shared = new JniDispatcher(nativeBus);
+        UnitContext first = new UnitContext(new JniBusLibrary(shared));
+        UnitContext second = new UnitContext(new JniBusLibrary(shared));
+        first.initiate((byte) 20);
+        second.initiate((byte) 21);
+        try {
+            assertEquals(1, nativeBus.initiated.size());
+            assertEquals(Byte.valueOf((byte) 20), nativeBus.initiated.get(0));
+            try {
+                new UnitContext(new JniBusLibrary(shared)).initiate((byte) 21);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals(1, nativeBus.initiated.size());
+            }
+
+            Commander commander = second.createCommander((byte) 5, "127.0.0.1", (short) 8088, null, null);
+            commander.ready().get(5, TimeUnit.SECONDS);
+            assertEquals(20, commander.getUnitId());
+            RecordingListener listener = new RecordingListener();
+            String rpcId = commander.createResource(ipsc, "proj.flow", null, listener);
+            assertEquals(1, nativeBus.payloads.size());
+            // RPC 数据头中是共享库的单元ID，IPSC 的回复以它为目标单元
+            assertTrue(nativeBus.payloads.get(0), nativeBus.payloads.get(0).startsWith("[[20,5],"));
+            nativeBus.callbacks.data(head(20, 5), reply(rpcId));
+            assertTrue(listener.await(5000));
+            assertNotNull(listener.result);
+        } finally {
+            second.release();
+            assertEquals(0, nativeBus.releaseCount);
+            first.release();
+            assertEquals(1, nativeBus.releaseCount);
+        }
+    }
+}
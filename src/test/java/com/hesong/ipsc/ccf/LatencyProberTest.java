@@ -0,0 +1,91 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class LatencyProberTest {
+    private final BusAddress ipsc = SimulatedUnit.IPSC;
+    private UnitContext unit;
+    private LatencyProber prober;
+
+    private Commander start(String serviceTime, double dropRatio, double errorRatio) throws Exception {
+        unit = SimulatedUnit.start(SimulatedUnit.bus(serviceTime, dropRatio, errorRatio));
+        Commander commander = SimulatedUnit.commander(unit);
+        return commander;
+    }
+
+    @After
+    public void tearDown() {
+        if (prober != null)
+            prober.stop();
+        if (unit != null)
+            unit.release();
+    }
+
+    private LatencyProber.NodeLatency awaitLatency(Predicate<LatencyProber.NodeLatency> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            LatencyProber.NodeLatency latency = prober.getNodeLatency(ipsc);
+            if (latency != null && condition.test(latency))
+                return latency;
+            Thread.sleep(10);
+        }
+        fail(String.valueOf(prober.getNodeLatency(ipsc)));
+        return null;
+    }
+
+    @Test
+    public void membersAreProbedAndRanked() throws Exception {
+        Commander commander = start("const:5", 0, 0);
+        prober = new LatencyProber(commander, "sys.probe", 20, 8);
+        prober.start();
+        LatencyProber.NodeLatency latency = awaitLatency(l -> l.getCount() >= 3);
+        assertTrue(latency.getEwma() >= 4000);
+        assertTrue(latency.getP50() >= 4000);
+        assertTrue(latency.getMax() >= latency.getP50());
+        assertEquals(0, latency.getConsecutiveTimeouts());
+        assertEquals(ipsc, prober.getFastest());
+    }
+
+    @Test
+    public void errorRepliesAreRoundTrips() throws Exception {
+        Commander commander = start("const:1", 0, 1);
+        prober = new LatencyProber(commander, "sys.probe", 20);
+        prober.start();
+        awaitLatency(l -> l.getCount() >= 2);
+        assertEquals(ipsc, prober.getFastest());
+    }
+
+    @Test
+    public void timeoutsExcludeNodeFromFastest() throws Exception {
+        Commander commander = start("const:1", 1, 0);
+        prober = new LatencyProber(commander, "sys.probe", 20);
+        prober.setTimeout(50);
+        prober.start();
+        LatencyProber.NodeLatency latency = awaitLatency(l -> l.getConsecutiveTimeouts() >= 2);
+        assertEquals(0, latency.getCount());
+        assertTrue(latency.getTimeoutCount() >= 2);
+        assertNull(prober.getFastest());
+    }
+
+    @Test
+    public void bufferedTimeIsNotRoundTrip() throws Exception {
+        Commander commander = start("const:1", 0, 0);
+        commander.setOutboundBuffer(new OutboundBuffer(10, 1 << 20, 60000));
+        commander.connectLost();
+        prober = new LatencyProber(commander, "sys.probe", 20);
+        prober.addTarget(ipsc);
+        prober.start();
+        Thread.sleep(300);
+        assertEquals(0, prober.getNodeLatency(ipsc).getCount());
+
+        commander.connectResulted((byte) 0, 0);
+        LatencyProber.NodeLatency latency = awaitLatency(l -> l.getCount() >= 1);
+        // 连接断开期间在发送缓冲区中等待的 300 毫秒不计入
+        assertTrue(String.valueOf(latency), latency.getMax() < 200_000);
+    }
+}
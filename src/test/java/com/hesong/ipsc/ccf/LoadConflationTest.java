@@ -0,0 +1,58 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LoadConflationTest {
+    private static Map<String, Integer> loads(Object... kv) {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < kv.length; i += 2)
+            map.put((String) kv[i], (Integer) kv[i + 1]);
+        return map;
+    }
+
+    @Test
+    public void smallChangesAccumulateAgainstBaseline() {
+        LoadConflation conflation = new LoadConflation();
+        conflation.setDefaultThreshold(10);
+        Map<String, Integer> baseline = new HashMap<>();
+
+        ServerLoadDelta delta = conflation.diff(baseline, loads("cpu", 50, "calls", 3));
+        assertEquals(2, delta.getChangedKeys().size());
+        assertNull(delta.getPrevious("cpu"));
+        assertEquals(Integer.valueOf(50), delta.getCurrent("cpu"));
+
+        // 小于阈值的变化不通知，也不更新基线
+        assertTrue(conflation.diff(baseline, loads("cpu", 55, "calls", 8)).isEmpty());
+        assertEquals(Integer.valueOf(50), baseline.get("cpu"));
+
+        // 相对于上一次通知的值累计达到阈值
+        delta = conflation.diff(baseline, loads("cpu", 60, "calls", 9));
+        assertTrue(delta.isChanged("cpu"));
+        assertFalse(delta.isChanged("calls"));
+        assertEquals(Integer.valueOf(50), delta.getPrevious("cpu"));
+        assertEquals(Integer.valueOf(60), baseline.get("cpu"));
+        assertEquals(Integer.valueOf(3), baseline.get("calls"));
+    }
+
+    @Test
+    public void perKeyThresholds() {
+        LoadConflation conflation = new LoadConflation();
+        conflation.setThreshold("noise", Integer.MAX_VALUE);
+        conflation.setThreshold("calls", 5);
+        Map<String, Integer> baseline = new HashMap<>(loads("noise", 0, "calls", 0, "cpu", 0));
+
+        ServerLoadDelta delta = conflation.diff(baseline, loads("noise", 1000000, "calls", 4, "cpu", 1));
+        assertEquals(1, delta.getChangedKeys().size());
+        assertTrue(delta.isChanged("cpu"));
+
+        delta = conflation.diff(baseline, loads("noise", -1000000, "calls", -5, "cpu", 1));
+        assertEquals(1, delta.getChangedKeys().size());
+        assertTrue(delta.isChanged("calls"));
+        assertEquals(1, conflation.getThreshold("missing"));
+    }
+}
@@ -0,0 +1,64 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorTest {
+    private static final Pattern REQUESTS = Pattern.compile(
+            "requests: +issued=(\\d+), results=(\\d+), errors=(\\d+), timeouts=(\\d+), submitErrors=(\\d+), outstanding=(\\d+)");
+
+    private static Matcher run(Map<String, String> options) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new LoadGenerator(options).run(new PrintStream(bytes, true, "UTF-8"));
+        String report = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        Matcher matcher = REQUESTS.matcher(report);
+        assertTrue(report, matcher.find());
+        return matcher;
+    }
+
+    @Test
+    public void openLoopIssuesAtRate() throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("rate", "400");
+        options.put("duration", "0.5");
+        options.put("warmup", "0");
+        options.put("service", "const:1");
+        Matcher m = run(options);
+        long issued = Long.parseLong(m.group(1));
+        assertTrue("issued=" + issued, issued >= 190 && issued <= 210);
+        assertEquals(issued, Long.parseLong(m.group(2)));
+        assertEquals("0", m.group(4));
+        assertEquals("0", m.group(6));
+    }
+
+    @Test
+    public void closedLoopWithErrors() throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put("mode", "closed");
+        options.put("concurrency", "4");
+        options.put("duration", "0.3");
+        options.put("warmup", "0");
+        options.put("service", "const:1");
+        options.put("error", "1");
+        Matcher m = run(options);
+        assertTrue(Long.parseLong(m.group(1)) > 0);
+        assertEquals("0", m.group(2));
+        assertEquals(m.group(1), m.group(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownMode() {
+        Map<String, String> options = new HashMap<>();
+        options.put("mode", "burst");
+        new LoadGenerator(options);
+    }
+}
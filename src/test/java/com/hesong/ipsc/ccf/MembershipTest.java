@@ -0,0 +1,62 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MembershipTest {
+    @Test
+    public void updateAndSnapshot() {
+        Membership membership = new Membership();
+        List<Member> removed = new ArrayList<>();
+        membership.addListener((previous, current, version) -> {
+            if (current == null)
+                removed.add(previous);
+        });
+        MembershipSnapshot empty = membership.snapshot();
+        membership.update((byte) 0, (byte) 1, Membership.TYPE_IPSC, (byte) 1, "");
+        membership.update((byte) 0, (byte) 2, Membership.TYPE_MONITOR, (byte) 1, "");
+        assertEquals(2, membership.getVersion());
+        assertTrue(membership.isUp(new BusAddress((byte) 0, (byte) 1)));
+        MembershipSnapshot snapshot = membership.snapshot();
+        assertNotSame(empty, snapshot);
+        assertSame(snapshot, membership.snapshot());
+        assertEquals(1, snapshot.getIpscAddresses().length);
+
+        membership.update((byte) 0, (byte) 1, Membership.TYPE_IPSC, (byte) 0, "");
+        assertNull(membership.getMember((byte) 0, (byte) 1));
+        assertEquals(1, removed.size());
+        assertEquals(0, membership.snapshot().getIpscAddresses().length);
+    }
+
+    @Test
+    public void busNodeDownEvictsWholeUnit() {
+        Membership membership = new Membership();
+        List<Member> removed = new ArrayList<>();
+        List<Long> versions = new ArrayList<>();
+        membership.addListener((previous, current, version) -> {
+            if (current == null) {
+                removed.add(previous);
+                versions.add(version);
+            }
+        });
+        membership.update((byte) 3, (byte) -1, Membership.TYPE_BUS, (byte) 1, "");
+        membership.update((byte) 3, (byte) 0, Membership.TYPE_IPSC, (byte) 1, "");
+        membership.update((byte) 3, (byte) 7, Membership.TYPE_IPSC, (byte) 1, "");
+        membership.update((byte) 4, (byte) 0, Membership.TYPE_IPSC, (byte) 1, "");
+        long before = membership.getVersion();
+
+        membership.update((byte) 3, (byte) -1, Membership.TYPE_BUS, (byte) 0, "");
+        assertEquals(before + 1, membership.getVersion());
+        assertEquals(3, removed.size());
+        for (long version : versions)
+            assertEquals(before + 1, version);
+        assertNull(membership.getMember((byte) 3, (byte) 0));
+        assertNull(membership.getMember((byte) 3, (byte) 7));
+        assertNotNull(membership.getMember((byte) 4, (byte) 0));
+        assertEquals(1, membership.snapshot().getIpscAddresses().length);
+    }
+}
@@ -0,0 +1,82 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutboundBufferTest {
+    private final BusAddress ipsc = SimulatedUnit.IPSC;
+    private UnitContext unit;
+    private Commander commander;
+
+    @Before
+    public void setUp() throws Exception {
+        unit = SimulatedUnit.start();
+        commander = SimulatedUnit.commander(unit);
+    }
+
+    @After
+    public void tearDown() {
+        unit.release();
+    }
+
+    @Test
+    public void bufferedWhileDisconnectedAndFlushedOnReconnect() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(10, 1 << 20, 60000);
+        buffer.setFlushBatchSize(2);
+        commander.setOutboundBuffer(buffer);
+        commander.connectLost();
+        List<RecordingListener> listeners = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            RecordingListener listener = new RecordingListener();
+            listeners.add(listener);
+            assertNotNull(commander.createResource(ipsc, "proj.flow", null, listener));
+        }
+        assertEquals(5, buffer.size());
+        Thread.sleep(20);
+        for (RecordingListener listener : listeners)
+            assertFalse(listener.isDone());
+
+        commander.connectResulted((byte) 0, 0);
+        for (RecordingListener listener : listeners) {
+            assertTrue(listener.await(5000));
+            assertNotNull(listener.result);
+        }
+        assertEquals(0, buffer.size());
+        assertEquals(5, buffer.getFlushedCount());
+    }
+
+    @Test
+    public void fullBufferRejectsAndEntriesExpire() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(1, 1 << 20, 50);
+        commander.setOutboundBuffer(buffer);
+        commander.connectLost();
+        RecordingListener listener = new RecordingListener();
+        commander.createResource(ipsc, "proj.flow", null, listener);
+        try {
+            commander.createResource(ipsc, "proj.flow", null, null);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(1, buffer.getRejectedCount());
+        }
+        assertTrue(listener.await(5000));
+        assertEquals(OutboundBuffer.ERROR_EXPIRED, listener.error.getCode());
+        assertEquals(1, buffer.getExpiredCount());
+        assertEquals(0, buffer.getBytes());
+    }
+
+    @Test
+    public void connectedWithEmptyBufferSubmitsDirectly() throws Exception {
+        OutboundBuffer buffer = new OutboundBuffer(10, 1 << 20, 60000);
+        commander.setOutboundBuffer(buffer);
+        RecordingListener listener = new RecordingListener();
+        commander.createResource(ipsc, "proj.flow", null, listener);
+        assertTrue(listener.await(5000));
+        assertEquals(0, buffer.getBufferedCount());
+    }
+}
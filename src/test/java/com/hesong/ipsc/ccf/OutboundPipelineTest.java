@@ -0,0 +1,168 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OutboundPipelineTest {
+    private final BusAddress ipsc = SimulatedUnit.IPSC;
+    private UnitContext unit;
+    private Commander commander;
+
+    @Before
+    public void setUp() throws Exception {
+        unit = SimulatedUnit.start();
+        commander = SimulatedUnit.commander(unit);
+    }
+
+    @After
+    public void tearDown() {
+        unit.release();
+    }
+
+    @Test
+    public void callsAreSubmittedByWriterThread() throws Exception {
+        OutboundPipeline pipeline = new OutboundPipeline(100, 4, WaitStrategy.BLOCKING);
+        commander.setOutboundPipeline(pipeline);
+        List<RecordingListener> listeners = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            RecordingListener listener = new RecordingListener();
+            listeners.add(listener);
+            commander.createResource(ipsc, "proj.flow", null, listener);
+        }
+        for (RecordingListener listener : listeners) {
+            assertTrue(listener.await(5000));
+            assertNotNull(listener.result);
+        }
+        assertEquals(10, pipeline.getSubmittedCount());
+        assertTrue(pipeline.getMaxBatch() <= 4);
+        assertEquals(0, pipeline.size());
+    }
+
+    @Test
+    public void failedSubmitIsReportedToListener() throws Exception {
+        OutboundPipeline pipeline = new OutboundPipeline(100);
+        commander.setOutboundPipeline(pipeline);
+        RecordingListener listener = new RecordingListener();
+        pipeline.offer("rpc-1", listener, () -> {
+            throw new RuntimeException("boom");
+        });
+        assertTrue(listener.await(5000));
+        assertEquals(OutboundPipeline.ERROR_SUBMIT_FAILED, listener.error.getCode());
+        assertEquals(1, pipeline.getFailedCount());
+    }
+
+    private long writerThreads() {
+        String name = "ccf-writer-" + commander.getId();
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.isAlive() && name.equals(thread.getName()))
+                .count();
+    }
+
+    @Test
+    public void replacedPipelineStopsItsWriter() throws Exception {
+        OutboundPipeline first = new OutboundPipeline(100);
+        commander.setOutboundPipeline(first);
+        // 写线程停在第一个调用上，第二个调用留在队列中
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger submitted = new AtomicInteger();
+        first.offer("rpc-1", null, () -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {
+            }
+            submitted.incrementAndGet();
+        });
+        first.offer("rpc-2", null, submitted::incrementAndGet);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        OutboundPipeline second = new OutboundPipeline(100);
+        Thread replacer = new Thread(() -> commander.setOutboundPipeline(second));
+        replacer.start();
+        Thread.sleep(20);
+        release.countDown();
+        replacer.join(5000);
+        assertFalse(replacer.isAlive());
+        assertEquals(2, submitted.get());
+        assertEquals(0, first.size());
+        assertEquals(1, writerThreads());
+        try {
+            first.offer("rpc-3", null, submitted::incrementAndGet);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(2, submitted.get());
+        }
+
+        RecordingListener listener = new RecordingListener();
+        commander.createResource(ipsc, "proj.flow", null, listener);
+        assertTrue(listener.await(5000));
+        assertEquals(1, second.getSubmittedCount());
+
+        commander.setOutboundPipeline(null);
+        assertEquals(0, writerThreads());
+    }
+
+    @Test
+    public void offersRacingAbandonAreNeverLost() throws Exception {
+        for (int round = 0; round < 20; ++round) {
+            OutboundPipeline pipeline = new OutboundPipeline(1 << 16, 1, WaitStrategy.BUSY_SPIN);
+            pipeline.attach(commander);
+            AtomicInteger accepted = new AtomicInteger();
+            AtomicInteger completed = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> producers = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; ; ++i) {
+                        RpcResultListener listener = new RpcResultListener() {
+                            @Override
+                            protected void onResult(Object result) {
+                            }
+
+                            @Override
+                            protected void onError(RpcError error) {
+                                assertEquals(Unit.ERROR_ABANDONED, error.getCode());
+                                completed.incrementAndGet();
+                            }
+
+                            @Override
+                            protected void onTimeout() {
+                            }
+                        };
+                        try {
+                            pipeline.offer("rpc-" + i, listener, completed::incrementAndGet);
+                        } catch (RuntimeException e) {
+                            return;
+                        }
+                        accepted.incrementAndGet();
+                    }
+                });
+                producers.add(thread);
+                thread.start();
+            }
+            start.countDown();
+            Thread.sleep(5);
+            List<String> abandoned = pipeline.abandon(Unit.ERROR_ABANDONED, "test");
+            for (Thread thread : producers)
+                thread.join(5000);
+            assertEquals(accepted.get(), completed.get());
+            assertEquals(accepted.get(), pipeline.getSubmittedCount() + abandoned.size());
+            assertEquals(0, pipeline.size());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OutboundSchedulerTest {
+    private UnitContext unit;
+    private OutboundScheduler scheduler;
+    // 已提交的调用：名称和包装后的监听器
+    private final BlockingQueue<Object[]> dispatched = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        unit = SimulatedUnit.start();
+        Commander commander = SimulatedUnit.commander(unit);
+        scheduler = new OutboundScheduler(1, 100);
+        commander.setOutboundScheduler(scheduler);
+    }
+
+    @After
+    public void tearDown() {
+        unit.release();
+    }
+
+    private RpcResultListener submit(String projectId, String name) {
+        RpcResultListener listener = scheduler.wrap(name, new RecordingListener());
+        scheduler.submit(projectId, name, listener, () -> dispatched.add(new Object[]{name, listener}));
+        return listener;
+    }
+
+    /**
+     * 逐个完成已提交的调用，记录排队的调用被提交的顺序
+     */
+    private List<String> completeAll(int count) throws InterruptedException {
+        List<String> order = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            Object[] call = dispatched.poll(5, TimeUnit.SECONDS);
+            assertNotNull(call);
+            if (i > 0)
+                order.add((String) call[0]);
+            ((RpcResultListener) call[1]).onResult(null);
+        }
+        return order;
+    }
+
+    @Test
+    public void deficitRoundRobinByWeight() throws Exception {
+        scheduler.setWeight("a", 2);
+        submit("a", "a0");
+        for (int i = 1; i <= 6; ++i)
+            submit("a", "a" + i);
+        for (int i = 1; i <= 3; ++i)
+            submit("b", "b" + i);
+        assertEquals(9, scheduler.size());
+        assertEquals(1, scheduler.getInFlight());
+        List<String> order = completeAll(10);
+        assertEquals(Arrays.asList("a1", "a2", "b1", "a3", "a4", "b2", "a5", "a6", "b3"), order);
+        assertEquals(0, scheduler.size());
+        assertEquals(7, scheduler.getProjectStats("a").getDispatchedCount());
+        assertEquals(3, scheduler.getProjectStats("b").getDispatchedCount());
+    }
+
+    @Test
+    public void idleProjectDoesNotBlockBusyOne() throws Exception {
+        submit("a", "a0");
+        for (int i = 1; i <= 3; ++i)
+            submit("a", "a" + i);
+        assertEquals(Arrays.asList("a1", "a2", "a3"), completeAll(4));
+    }
+
+    @Test
+    public void fullQueueRejectsAndAbandonFailsQueued() throws Exception {
+        scheduler.setMaxQueueDepth("b", 1);
+        submit("a", "a0");
+        submit("b", "b1");
+        try {
+            submit("b", "b2");
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(1, scheduler.getProjectStats("b").getRejectedCount());
+        }
+        assertEquals(Arrays.asList("b1"), scheduler.abandon(Unit.ERROR_ABANDONED, "test"));
+        assertEquals(0, scheduler.size());
+        // 被放弃的调用没有占用名额
+        assertEquals(1, scheduler.getInFlight());
+    }
+}
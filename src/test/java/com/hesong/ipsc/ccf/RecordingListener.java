@@ -0,0 +1,40 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录调用结果的 {@link RpcResultListener}
+ */
+class RecordingListener extends RpcResultListener {
+    private final CountDownLatch done = new CountDownLatch(1);
+    volatile Object result;
+    volatile RpcError error;
+    volatile boolean timedOut;
+
+    @Override
+    protected void onResult(Object result) {
+        this.result = result;
+        done.countDown();
+    }
+
+    @Override
+    protected void onError(RpcError error) {
+        this.error = error;
+        done.countDown();
+    }
+
+    @Override
+    protected void onTimeout() {
+        timedOut = true;
+        done.countDown();
+    }
+
+    boolean await(long timeout) throws InterruptedException {
+        return done.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    boolean isDone() {
+        return done.getCount() == 0;
+    }
+}
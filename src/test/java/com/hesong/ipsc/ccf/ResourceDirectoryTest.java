@@ -0,0 +1,135 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ResourceDirectoryTest {
+    private final BusAddress x = new BusAddress((byte) 0, (byte) 1);
+    private final BusAddress y = new BusAddress((byte) 0, (byte) 2);
+
+    @Test
+    public void putRemoveAcrossTombstones() {
+        ResourceDirectory directory = new ResourceDirectory();
+        for (int i = 0; i < 200000; ++i)
+            directory.put("r" + i, i % 3 == 0 ? x : y);
+        assertEquals(200000, directory.size());
+        assertEquals(66667, directory.count(x));
+        for (int i = 0; i < 200000; i += 2)
+            assertNotNull(directory.remove("r" + i));
+        assertEquals(100000, directory.size());
+        assertNull(directory.getOwner("r2"));
+        assertEquals(y, directory.getOwner("r1"));
+        assertEquals(x, directory.getOwner("r3"));
+        // 删除留下的墓碑槽位被重新使用，之后的查找仍然越过墓碑
+        for (int i = 0; i < 200000; i += 2)
+            directory.put("r" + i, x);
+        assertEquals(200000, directory.size());
+        assertEquals(x, directory.getOwner("r199998"));
+        assertNull(directory.remove("missing"));
+    }
+
+    @Test
+    public void ownerListsFollowMoves() {
+        ResourceDirectory directory = new ResourceDirectory();
+        directory.put("a", x);
+        directory.put("b", x);
+        directory.put("c", y);
+        directory.put("b", y);
+        assertEquals(Collections.singletonList("a"), directory.getResources(x));
+        assertEquals(new HashSet<>(directory.getResources(y)), new HashSet<>(java.util.Arrays.asList("b", "c")));
+        assertTrue(directory.rename("a", "z"));
+        assertFalse(directory.rename("a", "w"));
+        assertEquals(x, directory.getOwner("z"));
+
+        List<String> removed = directory.removeAll(y);
+        assertEquals(2, removed.size());
+        assertEquals(0, directory.count(y));
+        assertTrue(directory.getResources(y).isEmpty());
+        assertEquals(1, directory.size());
+        directory.put("b", y);
+        assertEquals(Collections.singletonList("b"), directory.getResources(y));
+    }
+
+    @Test
+    public void rpcEntryDroppedOnEveryOutcome() {
+        ResourceDirectory directory = new ResourceDirectory();
+        directory.created("rpc-1", x);
+        directory.createResulted("rpc-1", Collections.singletonMap(ResourceDirectory.RES_ID_KEY, "call-1"));
+        assertNull(directory.getOwner("rpc-1"));
+        assertEquals(x, directory.getOwner("call-1"));
+
+        directory.created("rpc-2", x);
+        directory.createResulted("rpc-2", Collections.singletonMap("other", 1));
+        assertNull(directory.getOwner("rpc-2"));
+
+        directory.created("rpc-3", x);
+        directory.createResulted("rpc-3", null);
+        assertNull(directory.getOwner("rpc-3"));
+
+        directory.created("rpc-4", x);
+        directory.createFailed("rpc-4");
+        assertNull(directory.getOwner("rpc-4"));
+        assertEquals(1, directory.size());
+    }
+
+    @Test
+    public void eventsUpdateOwnerAndRelease() {
+        ResourceDirectory directory = new ResourceDirectory();
+        directory.eventReceived(x, "call-1", "sys.call.on_ringing");
+        assertEquals(x, directory.getOwner("call-1"));
+        directory.eventReceived(y, "call-1", "sys.call.on_answered");
+        assertEquals(y, directory.getOwner("call-1"));
+        directory.eventReceived(y, "call-1", "sys.call" + ResourceDirectory.RELEASED_SUFFIX);
+        assertNull(directory.getOwner("call-1"));
+        assertEquals(0, directory.size());
+    }
+
+    @Test
+    public void releasedEventReachesDirectoryWithoutListener() throws Exception {
+        BusAddress ipsc = SimulatedUnit.IPSC;
+        SimulatedBus bus = SimulatedUnit.bus();
+        UnitContext unit = SimulatedUnit.start(bus);
+        try {
+            Commander commander = SimulatedUnit.commander(unit);
+            ResourceDirectory directory = new ResourceDirectory();
+            commander.setResourceDirectory(directory);
+            CountDownLatch replied = new CountDownLatch(1);
+            commander.createResource(ipsc, "proj.flow", null, new RpcResultListener() {
+                @Override
+                protected void onResult(Object result) {
+                    replied.countDown();
+                }
+
+                @Override
+                protected void onError(RpcError error) {
+                }
+
+                @Override
+                protected void onTimeout() {
+                }
+            });
+            assertTrue(replied.await(5, TimeUnit.SECONDS));
+            List<String> resources = directory.getResources(ipsc);
+            assertEquals(1, resources.size());
+            String resId = resources.get(0);
+            assertTrue(resId.startsWith("sim-"));
+
+            // 只设置了资源目录，没有事件监听器，释放事件也要解码
+            bus.send(commander.getId(), String.format(
+                    "{\"method\":\"sys.call.on_released\",\"params\":{\"res_id\":\"%s\"}}", resId));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (directory.size() > 0 && System.nanoTime() < deadline)
+                Thread.sleep(10);
+            assertEquals(0, directory.size());
+        } finally {
+            unit.release();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class ResourceJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BusAddress x = new BusAddress((byte) 0, (byte) 1);
+    private final BusAddress y = new BusAddress((byte) 0, (byte) 2);
+
+    @Test
+    public void recoverAfterCrash() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("ccf.journal");
+        ResourceJournal journal = new ResourceJournal(path, 4096);
+        journal.submitted("rpc-1", x, "sys.call");
+        journal.submitted("rpc-2", x, "sys.call");
+        journal.submitted("rpc-3", y, "sys.conf");
+        journal.created("rpc-1", "call-1", x);
+        journal.failed("rpc-2");
+        journal.eventReceived(y, "call-2", "sys.call.on_incoming");
+        journal.eventReceived(y, "call-1", "sys.call.on_answered");
+        journal.eventReceived(x, "call-3", "sys.call.on_incoming");
+        journal.eventReceived(x, "call-3", "sys.call" + ResourceDirectory.RELEASED_SUFFIX);
+        // 不关闭，模拟进程崩溃
+        ResourceJournal recovered = new ResourceJournal(path, 4096);
+        try {
+            assertEquals(1, recovered.getRecoveredPendingRpcs().size());
+            ResourceJournal.PendingRpc pending = recovered.getRecoveredPendingRpcs().get("rpc-3");
+            assertEquals(y, pending.getTarget());
+            assertEquals("sys.conf", pending.getName());
+            assertEquals(2, recovered.getRecoveredLiveResources().size());
+            assertEquals(y, recovered.getRecoveredLiveResources().get("call-1").getOwner());
+            assertEquals(y, recovered.getRecoveredLiveResources().get("call-2").getOwner());
+
+            ResourceDirectory directory = new ResourceDirectory();
+            assertEquals(2, recovered.restore(directory));
+            assertEquals(y, directory.getOwner("call-1"));
+        } finally {
+            journal.close();
+            recovered.close();
+        }
+    }
+
+    @Test
+    public void corruptTailIsIgnored() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("ccf.journal");
+        ResourceJournal journal = new ResourceJournal(path, 4096);
+        journal.submitted("rpc-1", x, "sys.call");
+        int used = journal.getUsedBytes();
+        journal.close();
+        // 在最后一条记录之后写入一条内容无效的记录
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.allocate(8);
+            bytes.putInt(4).put((byte) 99).flip();
+            ch.write(bytes, used);
+        }
+        journal = new ResourceJournal(path, 4096);
+        try {
+            assertEquals(1, journal.getRecoveredPendingRpcs().size());
+            assertTrue(journal.getRecoveredPendingRpcs().containsKey("rpc-1"));
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void compactsAndGrows() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("ccf.journal");
+        ResourceJournal journal = new ResourceJournal(path, 4096);
+        long compactions = journal.getCompactionCount();
+        for (int i = 0; i < 1000; ++i) {
+            journal.submitted("rpc-" + i, x, "sys.call");
+            journal.failed("rpc-" + i);
+        }
+        assertTrue(journal.getCompactionCount() > compactions);
+        assertEquals(4096, journal.getCapacity());
+        for (int i = 0; i < 500; ++i)
+            journal.eventReceived(x, "call-" + i, "sys.call.on_incoming");
+        assertTrue(journal.getCapacity() > 4096);
+        journal.close();
+
+        journal = new ResourceJournal(path, 4096);
+        try {
+            assertTrue(journal.getRecoveredPendingRpcs().isEmpty());
+            assertEquals(500, journal.getRecoveredLiveResources().size());
+        } finally {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RpcCodecTest {
+    @Test
+    public void templateMatchesFullSerialization() throws Exception {
+        Map<String, Object> staticParams = new LinkedHashMap<>();
+        staticParams.put("a", 1);
+        staticParams.put("b", "x\"y");
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("c", true);
+        params.put("d\n", null);
+        StringBuilder sb = new StringBuilder();
+        new ParamsTemplate(staticParams).appendTo(sb, params);
+
+        Map<String, Object> all = new LinkedHashMap<>(staticParams);
+        all.putAll(params);
+        assertEquals(Commander.mapper.writeValueAsString(all), sb.toString());
+    }
+
+    @Test
+    public void emptyTemplate() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        new ParamsTemplate(null).appendTo(sb, null);
+        assertEquals("{}", sb.toString());
+        sb.setLength(0);
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("k", 2);
+        new ParamsTemplate(null).appendTo(sb, params);
+        assertEquals("{\"k\":2}", sb.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void variableParamMustNotShadowStaticParam() throws Exception {
+        Map<String, Object> staticParams = new LinkedHashMap<>();
+        staticParams.put("a", 1);
+        new ParamsTemplate(staticParams).appendTo(new StringBuilder(), staticParams);
+    }
+
+    @Test
+    public void decodeRequestAndReply() {
+        String request = "{\"id\":\"r1\",\"method\":\"sys.call.on_released\",\"params\":{\"res_id\":\"c1\"}}";
+        RpcRequest req = LibCallbackHandler.decodeRequest(request);
+        assertNotNull(req);
+        assertEquals("sys.call.on_released", req.getMethod());
+        assertEquals("c1", req.getParams().get("res_id"));
+        assertNull(LibCallbackHandler.decodeReply(request.getBytes(StandardCharsets.UTF_8)));
+
+        String reply = "{\"id\":\"r1\",\"result\":{\"res_id\":\"c1\"}}";
+        RpcResponse res = LibCallbackHandler.decodeReply(reply.getBytes(StandardCharsets.UTF_8));
+        assertNotNull(res);
+        assertEquals("r1", res.getId());
+        assertNull(res.getError());
+
+        String error = "{\"id\":\"r2\",\"error\":{\"code\":-1,\"message\":\"failed\"}}";
+        res = LibCallbackHandler.decodeReply(error.getBytes(StandardCharsets.UTF_8));
+        assertNotNull(res);
+        assertEquals(-1, res.getError().getCode());
+
+        assertNull(LibCallbackHandler.decodeRequest("not json"));
+        assertNull(LibCallbackHandler.decodeReply("[1]".getBytes(StandardCharsets.UTF_8)));
+
+        assertTrue(LibCallbackHandler.isReply(reply.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(LibCallbackHandler.isReply(error.getBytes(StandardCharsets.UTF_8)));
+        assertFalse(LibCallbackHandler.isReply(request.getBytes(StandardCharsets.UTF_8)));
+        assertFalse(LibCallbackHandler.isReply("{\"id\":null,\"result\":1}".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(LibCallbackHandler.isReply("[1]".getBytes(StandardCharsets.UTF_8)));
+    }
+}
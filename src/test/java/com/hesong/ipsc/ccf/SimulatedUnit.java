@@ -0,0 +1,65 @@
+package com.hesong.ipsc.ccf;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测试用的 {@link UnitContext}：经过 {@link SimulatedBus} 连接到模拟的 IPSC {@link #IPSC}，以单元ID {@link #UNIT_ID} 初始化
+ */
+final class SimulatedUnit {
+    static final BusAddress IPSC = new BusAddress((byte) 0, (byte) 1);
+    static final byte UNIT_ID = 10;
+
+    private SimulatedUnit() {
+    }
+
+    /**
+     * @param serviceTime IPSC 的服务时间，见 {@link ServiceTime#parse}
+     * @param dropRatio   不回复的比例
+     * @param errorRatio  回复错误的比例
+     */
+    static SimulatedBus bus(String serviceTime, double dropRatio, double errorRatio) {
+        return new SimulatedBus(IPSC, ServiceTime.parse(serviceTime), dropRatio, errorRatio);
+    }
+
+    /**
+     * 服务时间 1 毫秒，总是回复结果
+     */
+    static SimulatedBus bus() {
+        return bus("const:1", 0, 0);
+    }
+
+    /**
+     * @return 已初始化的上下文
+     */
+    static UnitContext start(SimulatedBus bus) {
+        UnitContext unit = new UnitContext(bus);
+        unit.initiate(UNIT_ID);
+        return unit;
+    }
+
+    /**
+     * @return 已初始化的上下文，使用 {@link #bus()}
+     */
+    static UnitContext start() {
+        return start(bus());
+    }
+
+    /**
+     * 新建客户端ID为 0、使用默认执行器的命令处理器，等待它连接成功
+     */
+    static Commander commander(UnitContext unit) throws Exception {
+        return commander(unit, (byte) 0, null);
+    }
+
+    /**
+     * 新建命令处理器，等待它连接成功
+     *
+     * @param executor 命令处理器的执行器。{@code null} 表示使用默认的执行器
+     */
+    static Commander commander(UnitContext unit, byte clientId, ThreadPoolExecutor executor) throws Exception {
+        Commander commander = unit.createCommander(clientId, "127.0.0.1", (short) 8088, null, executor);
+        commander.ready().get(5, TimeUnit.SECONDS);
+        return commander;
+    }
+}
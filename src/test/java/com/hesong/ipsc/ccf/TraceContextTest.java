@@ -0,0 +1,99 @@
+package com.hesong.ipsc.ccf;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class TraceContextTest {
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String SPAN_ID = "00f067aa0ba902b7";
+
+    @Test
+    public void parseValidTraceparent() {
+        TraceContext context = TraceContext.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-01");
+        assertNotNull(context);
+        assertEquals(TRACE_ID, context.getTraceId());
+        assertEquals(SPAN_ID, context.getSpanId());
+        assertTrue(context.isSampled());
+        assertEquals("00-" + TRACE_ID + "-" + SPAN_ID + "-01", context.toTraceparent());
+
+        context = TraceContext.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-02");
+        assertNotNull(context);
+        assertFalse(context.isSampled());
+        assertTrue(context.toTraceparent().endsWith("-00"));
+    }
+
+    @Test
+    public void rejectMalformedTraceparent() {
+        assertNull(TraceContext.parse(null));
+        assertNull(TraceContext.parse(""));
+        assertNull(TraceContext.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-1"));
+        assertNull(TraceContext.parse("00-" + TRACE_ID.toUpperCase() + "-" + SPAN_ID + "-01"));
+        assertNull(TraceContext.parse("00_" + TRACE_ID + "-" + SPAN_ID + "-01"));
+        assertNull(TraceContext.parse("00-" + TRACE_ID + SPAN_ID + "--01"));
+        assertNull(TraceContext.parse("ff-" + TRACE_ID + "-" + SPAN_ID + "-01"));
+        assertNull(TraceContext.parse("00-00000000000000000000000000000000-" + SPAN_ID + "-01"));
+        assertNull(TraceContext.parse("00-" + TRACE_ID + "-0000000000000000-01"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorValidatesIds() {
+        new TraceContext(TRACE_ID, "xyz", true);
+    }
+
+    @Test
+    public void childAndScopes() {
+        TraceContext root = TraceContext.newRoot();
+        assertNotNull(TraceContext.parse(root.toTraceparent()));
+        TraceContext child = root.newChild();
+        assertEquals(root.getTraceId(), child.getTraceId());
+        assertNotEquals(root.getSpanId(), child.getSpanId());
+
+        assertNull(TraceContext.current());
+        try (TraceScope outer = root.makeCurrent()) {
+            try (TraceScope inner = child.makeCurrent()) {
+                assertSame(child, TraceContext.current());
+            }
+            assertSame(root, TraceContext.current());
+        }
+        assertNull(TraceContext.current());
+    }
+
+    @Test
+    public void rpcSpansJoinCurrentTrace() throws Exception {
+        BusAddress ipsc = SimulatedUnit.IPSC;
+        UnitContext unit = SimulatedUnit.start();
+        List<Span> spans = new CopyOnWriteArrayList<>();
+        Tracer tracer = new Tracer(spans::addAll, 64, 64, 10);
+        try {
+            Commander commander = SimulatedUnit.commander(unit);
+            commander.setTracer(tracer);
+            TraceContext root = TraceContext.parse("00-" + TRACE_ID + "-" + SPAN_ID + "-01");
+            RecordingListener listener = new RecordingListener();
+            try (TraceScope scope = root.makeCurrent()) {
+                commander.createResource(ipsc, "proj.flow", null, listener);
+            }
+            assertTrue(listener.await(5000));
+            // 整个调用的 Span 在结果监听器返回后才结束
+            Span call = null;
+            long deadline = System.currentTimeMillis() + 5000;
+            while (call == null && System.currentTimeMillis() < deadline) {
+                for (Span span : spans) {
+                    if (span.getName().equals("ccf.createResource"))
+                        call = span;
+                }
+                Thread.sleep(5);
+            }
+            assertNotNull(call);
+            assertEquals(SPAN_ID, call.getParentId());
+            for (Span span : spans)
+                assertEquals(TRACE_ID, span.getTraceId());
+        } finally {
+            tracer.shutdown();
+            unit.release();
+        }
+    }
+}